@@ -0,0 +1,168 @@
+package com.stolsvik.mats.lib_test.basics;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.jms.BytesMessage;
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.stolsvik.mats.impl.jms.JmsMatsBytesMessageFrame;
+import com.stolsvik.mats.impl.jms.JmsMatsFactory;
+import com.stolsvik.mats.impl.jms.JmsMatsJmsSessionHandler_Pooling;
+import com.stolsvik.mats.lib_test.DataTO;
+import com.stolsvik.mats.lib_test.StateTO;
+import com.stolsvik.mats.serial.json.MatsSerializerJson;
+import com.stolsvik.mats.test.MatsTestHelp;
+import com.stolsvik.mats.util_activemq.MatsLocalVmActiveMq;
+
+/**
+ * Tests the BytesMessage wire format (read more at {@link JmsMatsFactory#setBytesMessageWireFormat(boolean)}): Two
+ * MatsFactories on the same broker, one sending BytesMessages and one sending MapMessages, where a service on the
+ * first is requested from both and replies to a Terminator on the second - asserting that both formats are received,
+ * sideloads included. Also asserts that a locally delivered BytesMessage (never been via the broker) is received, and
+ * that what goes on the wire is indeed a BytesMessage holding a Mats frame.
+ * <p>
+ * ASCII-artsy, it looks like this:
+ *
+ * <pre>
+ * [Initiator on either]     - request, with sideloads
+ *     [Service on Bytes]    - reply, with sideloads (BytesMessage)
+ * [Terminator on Map]
+ * </pre>
+ */
+public class Test_BytesMessageWireFormat {
+    private static final String SERVICE = MatsTestHelp.service();
+    private static final String TERMINATOR = MatsTestHelp.terminator();
+
+    private MatsLocalVmActiveMq _inVmActiveMq;
+    private JmsMatsJmsSessionHandler_Pooling _sessionPool;
+    private JmsMatsFactory<String> _bytesMatsFactory;
+    private JmsMatsFactory<String> _mapMatsFactory;
+
+    @Before
+    public void setup() {
+        _inVmActiveMq = MatsLocalVmActiveMq.createInVmActiveMq("BytesMessageWireFormat");
+        _sessionPool = JmsMatsJmsSessionHandler_Pooling.create(_inVmActiveMq.getConnectionFactory());
+        _bytesMatsFactory = JmsMatsFactory.createMatsFactory_JmsOnlyTransactions("bytes", "testversion",
+                _sessionPool, MatsSerializerJson.create())
+                .setBytesMessageWireFormat(true);
+        _mapMatsFactory = JmsMatsFactory.createMatsFactory_JmsOnlyTransactions("map", "testversion",
+                _sessionPool, MatsSerializerJson.create());
+    }
+
+    @After
+    public void cleanup() {
+        _bytesMatsFactory.stop(30_000);
+        _mapMatsFactory.stop(30_000);
+        int liveConnectionsAfterClose = _sessionPool.closeAllAvailableSessions();
+        Assert.assertEquals("There should be no live JMS Connections.", 0, liveConnectionsAfterClose);
+        _inVmActiveMq.close();
+    }
+
+    @Test
+    public void bothFormatsAreReceived() throws InterruptedException {
+        _bytesMatsFactory.single(SERVICE, DataTO.class, DataTO.class, (context, dto) -> {
+            context.addBytes("bytes", context.getBytes("bytes"));
+            context.addString("string", context.getString("string") + ":FromService");
+            return new DataTO(dto.number * 2, dto.string + ":FromService");
+        });
+        AtomicReference<String> sideloads = new AtomicReference<>();
+        AtomicReference<DataTO> reply = new AtomicReference<>();
+        CountDownLatch[] latch = new CountDownLatch[1];
+        _mapMatsFactory.terminator(TERMINATOR, StateTO.class, DataTO.class, (context, sto, dto) -> {
+            sideloads.set(context.getBytes("bytes").length + ":" + context.getString("string"));
+            reply.set(dto);
+            latch[0].countDown();
+        });
+        Assert.assertTrue(_bytesMatsFactory.waitForReceiving(30_000));
+        Assert.assertTrue(_mapMatsFactory.waitForReceiving(30_000));
+
+        List<JmsMatsFactory<String>> initiatingFactories = Arrays.asList(_bytesMatsFactory, _mapMatsFactory);
+        for (JmsMatsFactory<String> initiatingFactory : initiatingFactories) {
+            latch[0] = new CountDownLatch(1);
+            initiatingFactory.getDefaultInitiator().initiateUnchecked(init -> init.traceId(MatsTestHelp.traceId())
+                    .from(MatsTestHelp.from("BytesMessageWireFormat"))
+                    .to(SERVICE)
+                    .replyTo(TERMINATOR, new StateTO(420, 420.024))
+                    .addBytes("bytes", new byte[] { 1, 2, 3 })
+                    .addString("string", "TheString")
+                    .request(new DataTO(42, "TheAnswer")));
+
+            Assert.assertTrue("Didn't get the reply.", latch[0].await(30, TimeUnit.SECONDS));
+            Assert.assertEquals(new DataTO(84, "TheAnswer:FromService"), reply.get());
+            Assert.assertEquals("3:TheString:FromService", sideloads.get());
+        }
+    }
+
+    @Test
+    public void locallyDelivered() throws InterruptedException {
+        // The locally delivered BytesMessage has only been written, never been via the broker.
+        AtomicReference<String> received = new AtomicReference<>();
+        CountDownLatch latch = new CountDownLatch(1);
+        _bytesMatsFactory.terminator(TERMINATOR, StateTO.class, DataTO.class,
+                endpointConfig -> endpointConfig.setLocalDelivery(true), stageConfig -> {
+                }, (context, sto, dto) -> {
+                    received.set(context.getSystemMessageId() + ":" + dto.string + ":" + context.getString("string"));
+                    latch.countDown();
+                });
+        _bytesMatsFactory.single(SERVICE, DataTO.class, DataTO.class, (context, dto) -> {
+            context.addString("string", "TheString");
+            return new DataTO(dto.number * 2, dto.string + ":FromService");
+        });
+        Assert.assertTrue(_bytesMatsFactory.waitForReceiving(30_000));
+
+        _bytesMatsFactory.getDefaultInitiator().initiateUnchecked(init -> init.traceId(MatsTestHelp.traceId())
+                .from(MatsTestHelp.from("BytesMessageWireFormat"))
+                .to(SERVICE)
+                .replyTo(TERMINATOR, new StateTO(420, 420.024))
+                .request(new DataTO(42, "TheAnswer")));
+
+        Assert.assertTrue("Didn't get the reply.", latch.await(30, TimeUnit.SECONDS));
+        Assert.assertTrue("Should have been locally delivered, got [" + received.get() + "].",
+                received.get().startsWith("local:"));
+        Assert.assertTrue(received.get().endsWith(":TheAnswer:FromService:TheString"));
+    }
+
+    @Test
+    public void bytesMessageOnTheWire() throws JMSException {
+        String nonConsumedEndpoint = MatsTestHelp.endpointId("NotConsumed");
+        _bytesMatsFactory.getDefaultInitiator().initiateUnchecked(init -> init.traceId("TheTraceId")
+                .from(MatsTestHelp.from("BytesMessageWireFormat"))
+                .to(nonConsumedEndpoint)
+                .addString("string", "TheString")
+                .send(new DataTO(42, "TheAnswer")));
+
+        Connection connection = _inVmActiveMq.getConnectionFactory().createConnection();
+        try {
+            connection.start();
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            MessageConsumer consumer = session.createConsumer(session.createQueue(
+                    _bytesMatsFactory.getFactoryConfig().getMatsDestinationPrefix() + nonConsumedEndpoint));
+            Message message = consumer.receive(30_000);
+
+            Assert.assertTrue("Expected a BytesMessage, got [" + message + "].", message instanceof BytesMessage);
+            Assert.assertEquals("TheTraceId", message.getStringProperty("mats.TraceId"));
+            JmsMatsBytesMessageFrame frame = JmsMatsBytesMessageFrame.read((BytesMessage) message);
+            Assert.assertNotNull("Not a Mats frame.", frame);
+            Assert.assertTrue(frame.getMatsTraceBytes().length > 0);
+            Assert.assertNotNull(frame.getMatsTraceMeta());
+            Assert.assertEquals("TheString", frame.getStrings().get("string"));
+            Assert.assertTrue(frame.getBytes().isEmpty());
+        }
+        finally {
+            connection.close();
+        }
+    }
+}
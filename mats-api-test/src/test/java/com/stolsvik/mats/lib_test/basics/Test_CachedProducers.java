@@ -0,0 +1,85 @@
+package com.stolsvik.mats.lib_test.basics;
+
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.stolsvik.mats.MatsInitiator;
+import com.stolsvik.mats.impl.jms.JmsMatsFactory;
+import com.stolsvik.mats.impl.jms.JmsMatsJmsSessionHandler_Pooling;
+import com.stolsvik.mats.lib_test.DataTO;
+import com.stolsvik.mats.lib_test.StateTO;
+import com.stolsvik.mats.serial.json.MatsSerializerJson;
+import com.stolsvik.mats.test.MatsTestHelp;
+import com.stolsvik.mats.util_activemq.MatsLocalVmActiveMq;
+
+/**
+ * Sends many messages from one initiator, round-robin to more "hot" destinations than there are cached bound
+ * MessageProducers per Session (read more at
+ * {@link JmsMatsJmsSessionHandler_Pooling#setMaxCachedProducersPerSession(int)}), thus exercising both sending via
+ * bound producers and the eviction of them - and asserts that all messages arrive.
+ */
+public class Test_CachedProducers {
+
+    @Test
+    public void sendToMoreHotDestinationsThanCachedProducers() throws InterruptedException {
+        // :: Arrange
+
+        MatsLocalVmActiveMq inVmActiveMq = MatsLocalVmActiveMq.createInVmActiveMq("CachedProducers");
+        JmsMatsJmsSessionHandler_Pooling sessionPool = JmsMatsJmsSessionHandler_Pooling
+                .create(inVmActiveMq.getConnectionFactory())
+                .setMaxCachedProducersPerSession(2);
+        JmsMatsFactory<String> matsFactory = JmsMatsFactory.createMatsFactory_JmsOnlyTransactions("test",
+                "testversion", sessionPool, MatsSerializerJson.create());
+        matsFactory.getFactoryConfig().setConcurrency(1);
+
+        int terminators = 3;
+        int countPerTerminator = 100;
+
+        CountDownLatch latch = new CountDownLatch(terminators * countPerTerminator);
+        ConcurrentSkipListSet<String> received = new ConcurrentSkipListSet<>();
+        for (int t = 0; t < terminators; t++) {
+            matsFactory.terminator("Terminator" + t, StateTO.class, DataTO.class,
+                    (ctx, state, msg) -> {
+                        received.add(ctx.getEndpointId() + ":" + msg.string);
+                        latch.countDown();
+                    });
+        }
+
+        // :: Act
+
+        TreeSet<String> expected = new TreeSet<>();
+        MatsInitiator initiator = matsFactory.getDefaultInitiator();
+        for (int i = 0; i < countPerTerminator; i++) {
+            String testMsg = "Msg:" + i;
+            // Several messages per initiation, to the different terminators, so that they all get hot in one Session.
+            initiator.initiateUnchecked(init -> {
+                for (int t = 0; t < terminators; t++) {
+                    init.traceId(MatsTestHelp.traceId())
+                            .from(MatsTestHelp.from("CachedProducers"))
+                            .to("Terminator" + t)
+                            .send(new DataTO(t, testMsg));
+                }
+            });
+            for (int t = 0; t < terminators; t++) {
+                expected.add("Terminator" + t + ":" + testMsg);
+            }
+        }
+
+        // :: Assert
+
+        Assert.assertTrue("Didn't get the expected number of messages.", latch.await(30, TimeUnit.SECONDS));
+        Assert.assertEquals(expected, new TreeSet<>(received));
+
+        // :: Clean
+
+        matsFactory.close();
+        int liveConnectionsAfterClose = sessionPool.closeAllAvailableSessions();
+        Assert.assertEquals("There should be no live JMS Connections.", 0, liveConnectionsAfterClose);
+        inVmActiveMq.close();
+    }
+}
@@ -0,0 +1,128 @@
+package com.stolsvik.mats.lib_test.basics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import com.stolsvik.mats.MatsEndpoint;
+import com.stolsvik.mats.lib_test.DataTO;
+import com.stolsvik.mats.lib_test.StateTO;
+import com.stolsvik.mats.test.MatsTestHelp;
+import com.stolsvik.mats.test.MatsTestLatch.Result;
+import com.stolsvik.mats.test.junit.Rule_Mats;
+
+/**
+ * Tests streamed, multi-part replies (read more at {@link MatsEndpoint.ProcessContext#replyChunk(Object, boolean)}): A
+ * leaf service replies in chunks, and the requester's reply stage shall be invoked once per chunk, with the sequence
+ * number and last-marker. Also tests that a service receiving chunks, replying ordinarily upon the last, does not
+ * propagate the chunk marking to its own reply.
+ * <p>
+ * ASCII-artsy, it looks like this:
+ *
+ * <pre>
+ * [Initiator]              - request
+ *     [Leaf]               - reply in chunks
+ * [Terminator]             - invoked per chunk
+ *
+ * [Initiator]              - request
+ *     [Service S0 - init]  - request
+ *         [Leaf]           - reply in chunks
+ *     [Service S1 - last]  - invoked per chunk, reply upon the last
+ * [Terminator]
+ * </pre>
+ */
+public class Test_ChunkedReply {
+    @ClassRule
+    public static final Rule_Mats MATS = Rule_Mats.create();
+
+    private static final String SERVICE = MatsTestHelp.service();
+    private static final String LEAF = MatsTestHelp.endpointId("Leaf");
+    private static final String TERMINATOR_CHUNKS = MatsTestHelp.endpointId("ChunksTerminator");
+    private static final String TERMINATOR = MatsTestHelp.terminator();
+
+    private static final int CHUNKS = 10;
+
+    private static final Map<Integer, DataTO> _chunks = new ConcurrentSkipListMap<>();
+    private static volatile int _lastChunkSequence;
+    private static volatile int _terminatorChunkSequence;
+
+    @BeforeClass
+    public static void setupServicesAndTerminators() {
+        MatsEndpoint<DataTO, StateTO> leaf = MATS.getMatsFactory().staged(LEAF, DataTO.class, StateTO.class);
+        leaf.stage(DataTO.class, (context, sto, dto) -> {
+            for (int i = 0; i < dto.number; i++) {
+                context.replyChunk(new DataTO(i, dto.string + ":Chunk" + i), i == dto.number - 1);
+            }
+        });
+        leaf.finishSetup();
+
+        MATS.getMatsFactory().terminator(TERMINATOR_CHUNKS, StateTO.class, DataTO.class,
+                (context, sto, dto) -> {
+                    if (context.isLastChunk()) {
+                        _lastChunkSequence = context.getChunkSequence();
+                    }
+                    _chunks.put(context.getChunkSequence(), dto);
+                    // ?: Have all chunks arrived? (They may be processed out of order, due to the concurrency)
+                    if (_chunks.size() == CHUNKS) {
+                        // -> Yes, so resolve.
+                        MATS.getMatsTestLatch().resolve(sto, dto);
+                    }
+                });
+
+        MatsEndpoint<DataTO, StateTO> ep = MATS.getMatsFactory().staged(SERVICE, DataTO.class, StateTO.class);
+        ep.stage(DataTO.class, (context, sto, dto) -> {
+            sto.number1 = 1;
+            context.request(LEAF, dto);
+        });
+        // Not lastStage(..), as that would reply for every chunk.
+        ep.stage(DataTO.class, (context, sto, dto) -> {
+            // ?: Is this the last chunk?
+            if (context.isLastChunk()) {
+                // -> Yes, so reply with the number of chunks.
+                context.reply(new DataTO(context.getChunkSequence() + 1, "Chunks:" + sto.number1));
+            }
+        });
+        ep.finishSetup();
+
+        MATS.getMatsFactory().terminator(TERMINATOR, StateTO.class, DataTO.class,
+                (context, sto, dto) -> {
+                    _terminatorChunkSequence = context.getChunkSequence();
+                    MATS.getMatsTestLatch().resolve(sto, dto);
+                });
+    }
+
+    @Test
+    public void replyStageInvokedPerChunk() {
+        MATS.getMatsInitiator().initiateUnchecked(
+                (msg) -> msg.traceId(MatsTestHelp.traceId())
+                        .from(MatsTestHelp.from("chunks"))
+                        .to(LEAF)
+                        .replyTo(TERMINATOR_CHUNKS, new StateTO(420, 420.024))
+                        .request(new DataTO(CHUNKS, "Export")));
+        Result<StateTO, DataTO> result = MATS.getMatsTestLatch().waitForResult();
+
+        Assert.assertEquals(new StateTO(420, 420.024), result.getState());
+        Assert.assertEquals(CHUNKS - 1, _lastChunkSequence);
+        for (int i = 0; i < CHUNKS; i++) {
+            Assert.assertEquals(new DataTO(i, "Export:Chunk" + i), _chunks.get(i));
+        }
+    }
+
+    @Test
+    public void chunkMarkingDoesNotPropagate() {
+        MATS.getMatsInitiator().initiateUnchecked(
+                (msg) -> msg.traceId(MatsTestHelp.traceId())
+                        .from(MatsTestHelp.from("service"))
+                        .to(SERVICE)
+                        .replyTo(TERMINATOR, new StateTO(420, 420.024))
+                        .request(new DataTO(5, "ViaService")));
+        Result<StateTO, DataTO> result = MATS.getMatsTestLatch().waitForResult();
+
+        Assert.assertEquals(new DataTO(5, "Chunks:1"), result.getData());
+        Assert.assertEquals(-1, _terminatorChunkSequence);
+    }
+}
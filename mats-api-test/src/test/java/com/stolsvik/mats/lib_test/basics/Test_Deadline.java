@@ -0,0 +1,159 @@
+package com.stolsvik.mats.lib_test.basics;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.slf4j.Logger;
+
+import com.stolsvik.mats.MatsEndpoint;
+import com.stolsvik.mats.MatsStatistics;
+import com.stolsvik.mats.lib_test.DataTO;
+import com.stolsvik.mats.lib_test.StateTO;
+import com.stolsvik.mats.test.MatsTestHelp;
+import com.stolsvik.mats.test.MatsTestLatch.Result;
+import com.stolsvik.mats.test.junit.Rule_Mats;
+
+/**
+ * Tests the flow deadline (read more at {@link com.stolsvik.mats.MatsInitiator.MatsInitiate#deadline(long)}): The
+ * deadline set at initiation is seen by every stage of the flow, through request, next and reply. When a stage is so
+ * slow that the deadline passes, the message of the next stage is dropped instead of processed, and counted in the
+ * statistics.
+ * <p>
+ * ASCII-artsy, it looks like this:
+ *
+ * <pre>
+ * [Initiator]              - request, with deadline
+ *     [Service S0 - init]  - request (or sleep past the deadline, and request)
+ *         [Leaf]           - reply
+ *     [Service S1 - last]  - reply
+ * [Terminator]
+ * </pre>
+ */
+public class Test_Deadline {
+    private static final Logger log = MatsTestHelp.getClassLogger();
+
+    @ClassRule
+    public static final Rule_Mats MATS = Rule_Mats.create();
+
+    private static final String SERVICE = MatsTestHelp.service();
+    private static final String TERMINATOR = MatsTestHelp.terminator();
+
+    private static final List<Long> _deadlinesSeen = new CopyOnWriteArrayList<>();
+    private static final List<Long> _remainingSeen = new CopyOnWriteArrayList<>();
+
+    @BeforeClass
+    public static void setupServicesAndTerminator() {
+        MATS.getMatsFactory().single(SERVICE + ".Leaf", DataTO.class, DataTO.class, (context, dto) -> {
+            record(context.getDeadline(), context.getRemainingMillisToDeadline());
+            return new DataTO(dto.number * 2, dto.string + ":FromLeafService");
+        });
+
+        MatsEndpoint<DataTO, StateTO> ep = MATS.getMatsFactory().staged(SERVICE, DataTO.class, StateTO.class);
+        ep.stage(DataTO.class, (context, sto, dto) -> {
+            record(context.getDeadline(), context.getRemainingMillisToDeadline());
+            if (dto.string.equals("SLOW")) {
+                // Sleep past the deadline, so that the Leaf shall drop the request.
+                try {
+                    Thread.sleep(context.getRemainingMillisToDeadline() + 100);
+                }
+                catch (InterruptedException e) {
+                    throw new AssertionError("Interrupted", e);
+                }
+            }
+            context.request(SERVICE + ".Leaf", dto);
+        });
+        ep.lastStage(DataTO.class, (context, sto, dto) -> {
+            record(context.getDeadline(), context.getRemainingMillisToDeadline());
+            return new DataTO(dto.number * 3, dto.string + ":FromService");
+        });
+
+        MATS.getMatsFactory().terminator(TERMINATOR, StateTO.class, DataTO.class, (context, sto, dto) -> {
+            record(context.getDeadline(), context.getRemainingMillisToDeadline());
+            MATS.getMatsTestLatch().resolve(sto, dto);
+        });
+    }
+
+    private static void record(long deadline, long remaining) {
+        _deadlinesSeen.add(deadline);
+        _remainingSeen.add(remaining);
+    }
+
+    @Before
+    public void clear() {
+        _deadlinesSeen.clear();
+        _remainingSeen.clear();
+    }
+
+    @Test
+    public void deadlineIsPropagated() {
+        long deadline = System.currentTimeMillis() + 30_000;
+        DataTO dto = new DataTO(42, "TheAnswer");
+        request(dto, deadline);
+
+        Result<StateTO, DataTO> result = MATS.getMatsTestLatch().waitForResult();
+        Assert.assertEquals(new DataTO(dto.number * 2 * 3, dto.string + ":FromLeafService:FromService"),
+                result.getData());
+        // Service S0, Leaf, Service S1, Terminator
+        Assert.assertEquals(4, _deadlinesSeen.size());
+        for (int i = 0; i < 4; i++) {
+            Assert.assertEquals(deadline, (long) _deadlinesSeen.get(i));
+            Assert.assertTrue(_remainingSeen.get(i) > 0 && _remainingSeen.get(i) <= 30_000);
+        }
+    }
+
+    @Test
+    public void noDeadline() {
+        DataTO dto = new DataTO(42, "TheAnswer");
+        request(dto, 0);
+
+        MATS.getMatsTestLatch().waitForResult();
+        Assert.assertEquals(4, _deadlinesSeen.size());
+        for (int i = 0; i < 4; i++) {
+            Assert.assertEquals(0L, (long) _deadlinesSeen.get(i));
+            Assert.assertEquals(Long.MAX_VALUE, (long) _remainingSeen.get(i));
+        }
+    }
+
+    @Test
+    public void expiredWorkIsDropped() throws InterruptedException {
+        MatsStatistics leafStatistics = MATS.getMatsFactory().getEndpoint(SERVICE + ".Leaf").get()
+                .getStages().get(0).getStatistics();
+        long expiredDroppedBefore = leafStatistics.getExpiredDropped();
+
+        request(new DataTO(42, "SLOW"), System.currentTimeMillis() + 300);
+
+        // Wait for the Leaf to have dropped the request
+        long until = System.currentTimeMillis() + 30_000;
+        while ((leafStatistics.getExpiredDropped() == expiredDroppedBefore) && (System.currentTimeMillis() < until)) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(expiredDroppedBefore + 1, leafStatistics.getExpiredDropped());
+        // Only Service S0 should have processed
+        Assert.assertEquals(1, _deadlinesSeen.size());
+
+        // Assert that the Terminator did not get anything
+        try {
+            MATS.getMatsTestLatch().waitForResult(250);
+        }
+        catch (AssertionError ae) {
+            log.info("Got the expected AssertionError, meaning that the TERMINATOR did not get a message, good!");
+            return;
+        }
+        Assert.fail("The TERMINATOR actually received the reply, while the deadline had passed!");
+    }
+
+    private void request(DataTO dto, long deadline) {
+        MATS.getMatsInitiator().initiateUnchecked(
+                (msg) -> msg.traceId(MatsTestHelp.traceId())
+                        .from(MatsTestHelp.from("test"))
+                        .to(SERVICE)
+                        .deadline(deadline)
+                        .replyTo(TERMINATOR, new StateTO(420, 420.024))
+                        .request(dto));
+    }
+}
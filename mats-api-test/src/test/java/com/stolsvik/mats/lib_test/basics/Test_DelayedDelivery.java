@@ -0,0 +1,164 @@
+package com.stolsvik.mats.lib_test.basics;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import com.stolsvik.mats.MatsEndpoint;
+import com.stolsvik.mats.MatsFactory;
+import com.stolsvik.mats.lib_test.DataTO;
+import com.stolsvik.mats.lib_test.StateTO;
+import com.stolsvik.mats.test.MatsTestHelp;
+import com.stolsvik.mats.test.MatsTestLatch.Result;
+import com.stolsvik.mats.test.junit.Rule_Mats;
+
+/**
+ * Tests delayed delivery (read more at {@link com.stolsvik.mats.MatsInitiator.MatsInitiate#delay(long)}): Initiations
+ * with {@link com.stolsvik.mats.MatsInitiator.MatsInitiate#delay(long) delay(..)} and
+ * {@link com.stolsvik.mats.MatsInitiator.MatsInitiate#deliverAt(long) deliverAt(..)} to a Terminator, and a
+ * multi-stage service using {@link MatsEndpoint.ProcessContext#nextDelayed(Object, long) nextDelayed(..)} - asserting
+ * that the message is not processed before its time. The test broker has no scheduler, so this exercises the parking
+ * of early messages on the broker - also asserting that a parked message survives the stop of the node that parked it.
+ * <p>
+ * ASCII-artsy, it looks like this:
+ *
+ * <pre>
+ * [Initiator]              - send, delayed (or request)
+ *     [Service S0 - init]  - nextDelayed
+ *     [Service S1 - last]  - reply
+ * [Terminator]
+ * </pre>
+ */
+public class Test_DelayedDelivery {
+    @ClassRule
+    public static final Rule_Mats MATS = Rule_Mats.create();
+
+    private static final String SERVICE = MatsTestHelp.service();
+    private static final String TERMINATOR = MatsTestHelp.terminator();
+    private static final String TERMINATOR_OTHER_NODE = MatsTestHelp.endpointId("OtherNodeTerminator");
+
+    private static final long DELAY_MILLIS = 500;
+
+    private static volatile long _nextSentAtMillis;
+    private static volatile long _lastStageReceivedAtMillis;
+
+    private static volatile long _terminatorReceivedAtMillis;
+    private static volatile boolean _parkingNodeInvoked;
+
+    @BeforeClass
+    public static void setupServiceAndTerminator() {
+        MatsEndpoint<DataTO, StateTO> ep = MATS.getMatsFactory().staged(SERVICE, DataTO.class, StateTO.class);
+        ep.stage(DataTO.class, (context, sto, dto) -> {
+            _nextSentAtMillis = System.currentTimeMillis();
+            context.nextDelayed(new DataTO(dto.number * 2, dto.string + ":Delayed"), DELAY_MILLIS);
+        });
+        ep.lastStage(DataTO.class, (context, sto, dto) -> {
+            _lastStageReceivedAtMillis = System.currentTimeMillis();
+            return new DataTO(dto.number * 3, dto.string + ":FromService");
+        });
+
+        MATS.getMatsFactory().terminator(TERMINATOR, StateTO.class, DataTO.class, (context, sto, dto) -> {
+            _terminatorReceivedAtMillis = System.currentTimeMillis();
+            MATS.getMatsTestLatch().resolve(sto, dto);
+        });
+    }
+
+    @Test
+    public void delayedSend() {
+        DataTO dto = new DataTO(42, "TheAnswer");
+        long sentAtMillis = System.currentTimeMillis();
+        MATS.getMatsInitiator().initiateUnchecked(
+                (msg) -> msg.traceId(MatsTestHelp.traceId())
+                        .from(MatsTestHelp.from("delayedSend"))
+                        .to(TERMINATOR)
+                        .delay(DELAY_MILLIS)
+                        .send(dto, new StateTO(420, 420.024)));
+
+        Result<StateTO, DataTO> result = MATS.getMatsTestLatch().waitForResult();
+        Assert.assertEquals(dto, result.getData());
+        assertDelayed(sentAtMillis, _terminatorReceivedAtMillis);
+    }
+
+    @Test
+    public void deliverAtSend() {
+        DataTO dto = new DataTO(42, "TheAnswer");
+        long deliverAtMillis = System.currentTimeMillis() + DELAY_MILLIS;
+        MATS.getMatsInitiator().initiateUnchecked(
+                (msg) -> msg.traceId(MatsTestHelp.traceId())
+                        .from(MatsTestHelp.from("deliverAtSend"))
+                        .to(TERMINATOR)
+                        .deliverAt(deliverAtMillis)
+                        .send(dto, new StateTO(420, 420.024)));
+
+        Result<StateTO, DataTO> result = MATS.getMatsTestLatch().waitForResult();
+        Assert.assertEquals(dto, result.getData());
+        Assert.assertTrue("Should not have been delivered before its time.",
+                _terminatorReceivedAtMillis >= deliverAtMillis);
+    }
+
+    @Test
+    public void nextDelayed() {
+        DataTO dto = new DataTO(42, "TheAnswer");
+        MATS.getMatsInitiator().initiateUnchecked(
+                (msg) -> msg.traceId(MatsTestHelp.traceId())
+                        .from(MatsTestHelp.from("nextDelayed"))
+                        .to(SERVICE)
+                        .replyTo(TERMINATOR, new StateTO(420, 420.024))
+                        .request(dto));
+
+        Result<StateTO, DataTO> result = MATS.getMatsTestLatch().waitForResult();
+        Assert.assertEquals(new DataTO(dto.number * 2 * 3, dto.string + ":Delayed:FromService"), result.getData());
+        assertDelayed(_nextSentAtMillis, _lastStageReceivedAtMillis);
+    }
+
+    @Test
+    public void parkedMessageSurvivesStopOfParkingNode() throws InterruptedException {
+        // A node which receives the early message and parks it, and is then stopped.
+        MatsFactory parkingNode = MATS.createMatsFactory();
+        parkingNode.terminator(TERMINATOR_OTHER_NODE, StateTO.class, DataTO.class,
+                (context, sto, dto) -> _parkingNodeInvoked = true);
+        parkingNode.waitForReceiving(30_000);
+
+        DataTO dto = new DataTO(42, "TheAnswer");
+        long deliverAtMillis = System.currentTimeMillis() + 3 * DELAY_MILLIS;
+        MATS.getMatsInitiator().initiateUnchecked(
+                (msg) -> msg.traceId(MatsTestHelp.traceId())
+                        .from(MatsTestHelp.from("parkedSurvives"))
+                        .to(TERMINATOR_OTHER_NODE)
+                        .deliverAt(deliverAtMillis)
+                        .send(dto, new StateTO(420, 420.024)));
+        Thread.sleep(DELAY_MILLIS);
+        parkingNode.stop(30_000);
+
+        // Another node, which shall get the message when due.
+        MatsFactory deliveryNode = MATS.createMatsFactory();
+        deliveryNode.terminator(TERMINATOR_OTHER_NODE, StateTO.class, DataTO.class, (context, sto, msg) -> {
+            _terminatorReceivedAtMillis = System.currentTimeMillis();
+            MATS.getMatsTestLatch().resolve(sto, msg);
+        });
+
+        Result<StateTO, DataTO> result = MATS.getMatsTestLatch().waitForResult();
+        Assert.assertEquals(dto, result.getData());
+        Assert.assertTrue("Should not have been delivered before its time.",
+                _terminatorReceivedAtMillis >= deliverAtMillis);
+        Assert.assertFalse("The parking node should have been stopped before delivery.", _parkingNodeInvoked);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeDelayIsRejected() {
+        MATS.getMatsInitiator().initiateUnchecked(
+                (msg) -> msg.traceId(MatsTestHelp.traceId())
+                        .from(MatsTestHelp.from("negativeDelay"))
+                        .to(TERMINATOR)
+                        .delay(-1)
+                        .send(new DataTO(42, "TheAnswer"), new StateTO(420, 420.024)));
+    }
+
+    private static void assertDelayed(long sentAtMillis, long receivedAtMillis) {
+        long millisTaken = receivedAtMillis - sentAtMillis;
+        // (Not asserting the upper bound, as the test machine may be slow.)
+        Assert.assertTrue("The message should have been delayed [" + DELAY_MILLIS + " ms], but was received after ["
+                + millisTaken + " ms].", millisTaken >= DELAY_MILLIS);
+    }
+}
@@ -0,0 +1,126 @@
+package com.stolsvik.mats.lib_test.basics;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.stolsvik.mats.MatsInitiator;
+import com.stolsvik.mats.MatsInitiator.MatsBackendException;
+import com.stolsvik.mats.MatsInitiator.MatsBackpressureException;
+import com.stolsvik.mats.MatsInitiator.MatsMessageSendException;
+import com.stolsvik.mats.impl.jms.JmsMatsFactory;
+import com.stolsvik.mats.impl.jms.JmsMatsJmsSessionHandler_Pooling;
+import com.stolsvik.mats.lib_test.DataTO;
+import com.stolsvik.mats.lib_test.StateTO;
+import com.stolsvik.mats.serial.json.MatsSerializerJson;
+import com.stolsvik.mats.test.MatsTestHelp;
+import com.stolsvik.mats.util_activemq.MatsLocalVmActiveMq;
+
+/**
+ * Tests initiator backpressure (read more at {@link JmsMatsFactory#setInitiatorBackpressure(long, long)}) by filling
+ * up the queue of a Terminator that does not exist yet: A further bulk initiation is rejected, while an interactive
+ * initiation goes through - and when throttling instead, the bulk initiation goes through when the Terminator is
+ * created and drains the queue, its initiation lambda having been run anew after the rolled back attempt.
+ */
+public class Test_InitiatorBackpressure {
+    private static final int MAX_DEPTH = 3;
+
+    private MatsLocalVmActiveMq _inVmActiveMq;
+    private JmsMatsJmsSessionHandler_Pooling _sessionPool;
+    private JmsMatsFactory<String> _matsFactory;
+    private final AtomicInteger _lambdaInvocations = new AtomicInteger();
+
+    @Before
+    public void setup() {
+        _inVmActiveMq = MatsLocalVmActiveMq.createInVmActiveMq("InitiatorBackpressure");
+        _sessionPool = JmsMatsJmsSessionHandler_Pooling.create(_inVmActiveMq.getConnectionFactory());
+        _matsFactory = JmsMatsFactory.createMatsFactory_JmsOnlyTransactions("test", "testversion", _sessionPool,
+                MatsSerializerJson.create());
+    }
+
+    @After
+    public void cleanup() {
+        _matsFactory.stop(30_000);
+        int liveConnectionsAfterClose = _sessionPool.closeAllAvailableSessions();
+        Assert.assertEquals("There should be no live JMS Connections.", 0, liveConnectionsAfterClose);
+        _inVmActiveMq.close();
+    }
+
+    @Test
+    public void bulkRejectedButInteractiveGoesThrough() throws MatsBackendException, MatsMessageSendException {
+        String terminatorId = MatsTestHelp.endpointId("Reject");
+        fillQueue(terminatorId);
+        _matsFactory.setInitiatorBackpressure(MAX_DEPTH, 0);
+
+        try {
+            send(terminatorId, false);
+            Assert.fail("The bulk initiation should have been rejected.");
+        }
+        catch (MatsBackpressureException e) {
+            // Expected - a MatsBackendException, but distinguishable from the broker being down.
+        }
+        Assert.assertEquals(1, _matsFactory.getInitiatorBackpressureRejectedCount());
+
+        // The interactive initiation shall not be held back.
+        send(terminatorId, true);
+        Assert.assertEquals(1, _matsFactory.getInitiatorBackpressureRejectedCount());
+    }
+
+    @Test
+    public void bulkThrottledUntilDrained() throws MatsBackendException, MatsMessageSendException,
+            InterruptedException {
+        String terminatorId = MatsTestHelp.endpointId("Throttle");
+        fillQueue(terminatorId);
+        _matsFactory.setInitiatorBackpressure(MAX_DEPTH, 30_000);
+
+        // :: Create the Terminator, draining the queue, a bit after the bulk initiation has started throttling.
+        CountDownLatch latch = new CountDownLatch(MAX_DEPTH + 1);
+        Thread drainer = new Thread(() -> {
+            try {
+                Thread.sleep(500);
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+            _matsFactory.terminator(terminatorId, StateTO.class, DataTO.class,
+                    (context, sto, dto) -> latch.countDown());
+        }, "InitiatorBackpressure-drainer");
+        drainer.start();
+
+        _lambdaInvocations.set(0);
+        send(terminatorId, false);
+
+        // The first attempt was rolled back to wait outside the transaction, and the lambda run anew when drained.
+        Assert.assertTrue("The initiation lambda should have been run anew.", _lambdaInvocations.get() >= 2);
+        Assert.assertEquals(1, _matsFactory.getInitiatorBackpressureThrottledCount());
+        Assert.assertEquals(0, _matsFactory.getInitiatorBackpressureRejectedCount());
+        Assert.assertTrue("Didn't get all the messages.", latch.await(30, TimeUnit.SECONDS));
+        drainer.join();
+    }
+
+    private void fillQueue(String terminatorId) throws MatsBackendException, MatsMessageSendException {
+        for (int i = 0; i < MAX_DEPTH; i++) {
+            send(terminatorId, false);
+        }
+    }
+
+    private void send(String terminatorId, boolean interactive) throws MatsBackendException,
+            MatsMessageSendException {
+        MatsInitiator initiator = _matsFactory.getDefaultInitiator();
+        initiator.initiate(init -> {
+            _lambdaInvocations.incrementAndGet();
+            init.traceId(MatsTestHelp.traceId())
+                    .from(MatsTestHelp.from("InitiatorBackpressure"))
+                    .to(terminatorId);
+            if (interactive) {
+                init.interactive();
+            }
+            init.send(new DataTO(42, "TheAnswer"));
+        });
+    }
+}
@@ -0,0 +1,177 @@
+package com.stolsvik.mats.lib_test.basics;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+
+import com.stolsvik.mats.MatsConfig.LifecycleLogging;
+import com.stolsvik.mats.MatsEndpoint.EndpointConfig;
+import com.stolsvik.mats.MatsEndpoint.MatsRefuseMessageException;
+import com.stolsvik.mats.lib_test.DataTO;
+import com.stolsvik.mats.lib_test.StateTO;
+import com.stolsvik.mats.test.MatsTestHelp;
+import com.stolsvik.mats.test.junit.Rule_Mats;
+
+/**
+ * Tests the {@link LifecycleLogging} policies, by capturing the log lines of the StageProcessor of a Terminator while
+ * changing its endpoint's policy: FULL (default, from the factory), SAMPLED, ERRORS_ONLY (also with a refused message,
+ * which shall get a summary line) and SLOW. Also checks that the MDC's traceId is set for the user code regardless of
+ * policy.
+ */
+public class Test_LifecycleLogging {
+    @ClassRule
+    public static final Rule_Mats MATS = Rule_Mats.create();
+
+    private static final String TERMINATOR = MatsTestHelp.terminator();
+
+    private static final ListAppender<ILoggingEvent> _appender = new ListAppender<>();
+    private static final List<String> _mdcTraceIds = new CopyOnWriteArrayList<>();
+    private static final List<String> _sentTraceIds = new CopyOnWriteArrayList<>();
+
+    private static volatile CountDownLatch _latch;
+
+    @BeforeClass
+    public static void setupTerminatorAndAppender() {
+        // Concurrency 1, as the SAMPLED counting is per StageProcessor.
+        MATS.getMatsFactory().terminator(TERMINATOR, StateTO.class, DataTO.class,
+                endpointConfig -> endpointConfig.setConcurrency(1), stageConfig -> {
+                }, (context, sto, dto) -> {
+                    _mdcTraceIds.add(MDC.get("traceId"));
+                    // A negative number means "be slow".
+                    if (dto.number < 0) {
+                        try {
+                            Thread.sleep((long) -dto.number);
+                        }
+                        catch (InterruptedException e) {
+                            throw new AssertionError("Got interrupted.", e);
+                        }
+                    }
+                    _latch.countDown();
+                    // Zero means "refuse".
+                    if (dto.number == 0) {
+                        throw new MatsRefuseMessageException("Refusing, to get a rollback.");
+                    }
+                });
+        _appender.start();
+        getJmsMatsLogger().addAppender(_appender);
+    }
+
+    @AfterClass
+    public static void removeAppender() {
+        getJmsMatsLogger().detachAppender(_appender);
+    }
+
+    private static Logger getJmsMatsLogger() {
+        return (Logger) LoggerFactory.getLogger("com.stolsvik.mats.impl.jms");
+    }
+
+    @Test
+    public void allPolicies() throws InterruptedException {
+        EndpointConfig<?, ?> endpointConfig = MATS.getMatsFactory().getEndpoint(TERMINATOR).get().getEndpointConfig();
+
+        // :: FULL - default, from the factory.
+        Assert.assertEquals(LifecycleLogging.Mode.FULL, endpointConfig.getLifecycleLogging().getMode());
+        sendAndWait(4, 1);
+        assertLines(4, 4, 0, 0);
+
+        // :: SAMPLED - one in three.
+        endpointConfig.setLifecycleLogging(LifecycleLogging.sampled(3));
+        sendAndWait(9, 1);
+        assertLines(3, 3, 0, 0);
+
+        // :: ERRORS_ONLY
+        endpointConfig.setLifecycleLogging(LifecycleLogging.errorsOnly());
+        sendAndWait(5, 1);
+        assertLines(0, 0, 0, 0);
+        // .. but a failing message gets a single summary line.
+        sendAndWait(1, 0);
+        assertLines(0, 0, 0, 1);
+
+        // :: SLOW - only the one message which is slower than the threshold is logged, with a single summary line.
+        endpointConfig.setLifecycleLogging(LifecycleLogging.slowerThan(100));
+        sendAndWait(3, 1);
+        sendAndWait(1, -200);
+        assertLines(0, 0, 1, 0);
+
+        // :: Reverting to the factory's policy.
+        endpointConfig.setLifecycleLogging(null);
+        Assert.assertEquals(LifecycleLogging.Mode.FULL, endpointConfig.getLifecycleLogging().getMode());
+
+        // :: The MDC was set for the user code for all messages, regardless of policy.
+        Assert.assertEquals(_sentTraceIds, _mdcTraceIds);
+    }
+
+    private void sendAndWait(int numberOfMessages, int number) throws InterruptedException {
+        _latch = new CountDownLatch(numberOfMessages);
+        for (int i = 0; i < numberOfMessages; i++) {
+            String traceId = MatsTestHelp.traceId();
+            _sentTraceIds.add(traceId);
+            MATS.getMatsInitiator().initiateUnchecked(init -> init.traceId(traceId)
+                    .from(MatsTestHelp.from("lifecycle"))
+                    .to(TERMINATOR)
+                    .send(new DataTO(number, "lifecycle")));
+            // Serially, so that the messages are processed in order, and the SAMPLED count is deterministic.
+            Assert.assertTrue("Didn't get message.", waitForCount(numberOfMessages - i - 1));
+        }
+    }
+
+    private boolean waitForCount(long count) throws InterruptedException {
+        long until = System.currentTimeMillis() + 10_000;
+        while (_latch.getCount() > count) {
+            if (System.currentTimeMillis() > until) {
+                return false;
+            }
+            Thread.sleep(1);
+        }
+        return true;
+    }
+
+    private void assertLines(int received, int processed, int slow, int failed) throws InterruptedException {
+        // The PROCESSED line is logged after the user lambda has counted down the latch, so give it a moment.
+        _latch.await(1, TimeUnit.SECONDS);
+        Thread.sleep(200);
+        int receivedLines = 0;
+        int processedLines = 0;
+        int slowLines = 0;
+        int failedLines = 0;
+        synchronized (_appender) {
+            for (ILoggingEvent event : _appender.list) {
+                // Only look at the Terminator's StageProcessor thread.
+                if (!event.getThreadName().contains(TERMINATOR)) {
+                    continue;
+                }
+                String message = event.getFormattedMessage();
+                if (message.contains("RECEIVED message from")) {
+                    receivedLines++;
+                }
+                else if (message.contains("FAILED PROCESSING")) {
+                    failedLines++;
+                }
+                else if (message.contains("SLOW PROCESSED")) {
+                    slowLines++;
+                }
+                else if (message.contains("PROCESSED:")) {
+                    processedLines++;
+                }
+            }
+            _appender.list.clear();
+        }
+        Assert.assertEquals("RECEIVED lines", received, receivedLines);
+        Assert.assertEquals("PROCESSED lines", processed, processedLines);
+        Assert.assertEquals("SLOW PROCESSED lines", slow, slowLines);
+        Assert.assertEquals("FAILED PROCESSING lines", failed, failedLines);
+    }
+}
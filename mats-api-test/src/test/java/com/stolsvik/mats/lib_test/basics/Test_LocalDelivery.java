@@ -0,0 +1,159 @@
+package com.stolsvik.mats.lib_test.basics;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import com.stolsvik.mats.MatsFactory.FactoryConfig;
+import com.stolsvik.mats.lib_test.DataTO;
+import com.stolsvik.mats.lib_test.StateTO;
+import com.stolsvik.mats.test.MatsTestHelp;
+import com.stolsvik.mats.test.MatsTestLatch.Result;
+import com.stolsvik.mats.test.junit.Rule_Mats;
+
+/**
+ * Tests in-JVM local delivery to endpoints hosted by the same MatsFactory (read more at
+ * {@link FactoryConfig#setLocalDelivery(boolean)}), by looking at the "system message id" (JMSMessageID) of the
+ * received messages, which for locally delivered messages is "local:" + the MatsMessageId.
+ *
+ * <pre>
+ * [Initiator]   - request
+ *     [Service] - reply   (either opted in to local delivery, or not)
+ * [Terminator]            (opted in to local delivery)
+ * </pre>
+ */
+public class Test_LocalDelivery {
+    @ClassRule
+    public static final Rule_Mats MATS = Rule_Mats.create();
+
+    private static final String SERVICE_LOCAL = MatsTestHelp.endpointId("ServiceLocal");
+    private static final String SERVICE_BROKER = MatsTestHelp.endpointId("ServiceBroker");
+    private static final String SERVICE_THROWING = MatsTestHelp.endpointId("ServiceThrowing");
+    private static final String TERMINATOR = MatsTestHelp.terminator();
+
+    private static final List<String> _serviceSystemMessageIds = new CopyOnWriteArrayList<>();
+    private static final List<String> _terminatorSystemMessageIds = new CopyOnWriteArrayList<>();
+    private static final AtomicInteger _throwingInvocations = new AtomicInteger();
+
+    @BeforeClass
+    public static void setupServicesAndTerminator() {
+        MATS.getMatsFactory().single(SERVICE_LOCAL, DataTO.class, DataTO.class,
+                endpointConfig -> endpointConfig.setLocalDelivery(true), stageConfig -> {
+                }, (context, dto) -> {
+                    _serviceSystemMessageIds.add(context.getSystemMessageId());
+                    return new DataTO(dto.number * 2, dto.string + ":FromService");
+                });
+        MATS.getMatsFactory().single(SERVICE_BROKER, DataTO.class, DataTO.class,
+                (context, dto) -> {
+                    _serviceSystemMessageIds.add(context.getSystemMessageId());
+                    return new DataTO(dto.number * 2, dto.string + ":FromService");
+                });
+        MATS.getMatsFactory().single(SERVICE_THROWING, DataTO.class, DataTO.class,
+                endpointConfig -> endpointConfig.setLocalDelivery(true), stageConfig -> {
+                }, (context, dto) -> {
+                    _serviceSystemMessageIds.add(context.getSystemMessageId());
+                    // Throw on the first invocation, i.e. the locally delivered one.
+                    if (_throwingInvocations.getAndIncrement() == 0) {
+                        throw new IllegalStateException("Throwing on first invocation, to have the message forwarded"
+                                + " to the broker.");
+                    }
+                    return new DataTO(dto.number * 2, dto.string + ":FromService");
+                });
+        MATS.getMatsFactory().terminator(TERMINATOR, StateTO.class, DataTO.class,
+                endpointConfig -> endpointConfig.setLocalDelivery(true), stageConfig -> {
+                }, (context, sto, dto) -> {
+                    _terminatorSystemMessageIds.add(context.getSystemMessageId());
+                    MATS.getMatsTestLatch().resolve(sto, dto);
+                });
+    }
+
+    @Before
+    public void reset() {
+        _serviceSystemMessageIds.clear();
+        _terminatorSystemMessageIds.clear();
+        _throwingInvocations.set(0);
+        MATS.getMatsFactory().getFactoryConfig().setLocalDelivery(false);
+    }
+
+    @Test
+    public void endpointsOptedIn() {
+        requestAndAssertReply(SERVICE_LOCAL, false);
+
+        Assert.assertEquals(1, _serviceSystemMessageIds.size());
+        Assert.assertTrue(_serviceSystemMessageIds.get(0).startsWith("local:"));
+        Assert.assertEquals(1, _terminatorSystemMessageIds.size());
+        Assert.assertTrue(_terminatorSystemMessageIds.get(0).startsWith("local:"));
+    }
+
+    @Test
+    public void endpointNotOptedIn() {
+        requestAndAssertReply(SERVICE_BROKER, false);
+
+        // The Service should have gotten it via the broker, while the Terminator has opted in.
+        Assert.assertEquals(1, _serviceSystemMessageIds.size());
+        Assert.assertFalse(_serviceSystemMessageIds.get(0).startsWith("local:"));
+        Assert.assertTrue(_terminatorSystemMessageIds.get(0).startsWith("local:"));
+    }
+
+    @Test
+    public void nonPersistentWhenEnabledOnFactory() {
+        MATS.getMatsFactory().getFactoryConfig().setLocalDelivery(true);
+        requestAndAssertReply(SERVICE_BROKER, true);
+
+        // The Service did not opt in, but the message is non-persistent, and the factory has enabled local delivery.
+        Assert.assertEquals(1, _serviceSystemMessageIds.size());
+        Assert.assertTrue(_serviceSystemMessageIds.get(0).startsWith("local:"));
+    }
+
+    @Test
+    public void persistentInteractiveNotLocalWhenEnabledOnFactory() {
+        MATS.getMatsFactory().getFactoryConfig().setLocalDelivery(true);
+        requestAndAssertReply(SERVICE_BROKER, false, true);
+
+        // The message is interactive, but persistent: Only an endpoint's explicit opt-in shall deliver it in-JVM.
+        Assert.assertEquals(1, _serviceSystemMessageIds.size());
+        Assert.assertFalse(_serviceSystemMessageIds.get(0).startsWith("local:"));
+    }
+
+    @Test
+    public void failedLocalProcessingIsForwardedToBroker() {
+        requestAndAssertReply(SERVICE_THROWING, false);
+
+        // First local delivery, which threw - then forwarded to the broker, and redelivered from there.
+        Assert.assertEquals(2, _serviceSystemMessageIds.size());
+        Assert.assertTrue(_serviceSystemMessageIds.get(0).startsWith("local:"));
+        Assert.assertFalse(_serviceSystemMessageIds.get(1).startsWith("local:"));
+    }
+
+    private void requestAndAssertReply(String service, boolean nonPersistent) {
+        requestAndAssertReply(service, nonPersistent, false);
+    }
+
+    private void requestAndAssertReply(String service, boolean nonPersistent, boolean interactive) {
+        DataTO dto = new DataTO(42, "TheAnswer");
+        StateTO sto = new StateTO(420, 420.024);
+        MATS.getMatsInitiator().initiateUnchecked(msg -> {
+            msg.traceId(MatsTestHelp.traceId())
+                    .from(MatsTestHelp.from("localDelivery"))
+                    .to(service)
+                    .replyTo(TERMINATOR, sto);
+            if (nonPersistent) {
+                msg.nonPersistent();
+            }
+            if (interactive) {
+                msg.interactive();
+            }
+            msg.request(dto);
+        });
+
+        Result<StateTO, DataTO> result = MATS.getMatsTestLatch().waitForResult();
+        Assert.assertEquals(sto, result.getState());
+        Assert.assertEquals(new DataTO(dto.number * 2, dto.string + ":FromService"), result.getData());
+    }
+}
@@ -0,0 +1,119 @@
+package com.stolsvik.mats.lib_test.basics;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.slf4j.Logger;
+
+import com.stolsvik.mats.MatsEndpoint.MatsRefuseMessageException;
+import com.stolsvik.mats.MatsFactory;
+import com.stolsvik.mats.lib_test.DataTO;
+import com.stolsvik.mats.lib_test.StateTO;
+import com.stolsvik.mats.test.MatsTestHelp;
+import com.stolsvik.mats.test.MatsTestLatch.Result;
+import com.stolsvik.mats.test.junit.Rule_Mats;
+
+/**
+ * Tests the non-transacted DUPS_OK mode (read more at
+ * {@link com.stolsvik.mats.MatsEndpoint.EndpointConfig#setNonTransactedDupsOk(boolean)}): A single-stage service in
+ * this mode gets nonPersistent requests. When the service lambda throws (after having invoked reply), the reply is not
+ * sent, and the incoming message is dropped - i.e. neither redelivered nor DLQed - while the following message goes
+ * through as usual.
+ * <p>
+ * ASCII-artsy, it looks like this:
+ *
+ * <pre>
+ * [Initiator]   - request (nonPersistent)
+ *     [Service] - non-transacted DUPS_OK: reply, or throw, thus dropping the message and the reply
+ * [Terminator]
+ * </pre>
+ */
+public class Test_NonTransactedDupsOk {
+    private static final Logger log = MatsTestHelp.getClassLogger();
+
+    @ClassRule
+    public static final Rule_Mats MATS = Rule_Mats.create();
+
+    private static final String SERVICE = MatsTestHelp.service();
+    private static final String TERMINATOR = MatsTestHelp.terminator();
+
+    private static final AtomicInteger _throwingInvocations = new AtomicInteger();
+
+    @BeforeClass
+    public static void setupServiceAndTerminator() {
+        MATS.getMatsFactory().single(SERVICE, DataTO.class, DataTO.class,
+                (endpointConfig) -> endpointConfig.setNonTransactedDupsOk(true), MatsFactory.NO_CONFIG,
+                (context, dto) -> {
+                    if (dto.string.equals("THROW RUNTIME")) {
+                        _throwingInvocations.incrementAndGet();
+                        context.reply(dto);
+                        throw new RuntimeException("Should drop the message, and not send the reply.");
+                    }
+                    if (dto.string.equals("THROW MATSREFUSE")) {
+                        _throwingInvocations.incrementAndGet();
+                        context.reply(dto);
+                        throw new MatsRefuseMessageException("Should drop the message, and not send the reply.");
+                    }
+                    return new DataTO(dto.number * 2, dto.string + ":FromService");
+                });
+
+        MATS.getMatsFactory().terminator(TERMINATOR, StateTO.class, DataTO.class,
+                (context, sto, dto) -> MATS.getMatsTestLatch().resolve(sto, dto));
+    }
+
+    @Test
+    public void throwRuntimeExceptionDropsMessage() throws InterruptedException {
+        doTest("THROW RUNTIME");
+    }
+
+    @Test
+    public void throwMatsRefuseExceptionDropsMessage() throws InterruptedException {
+        doTest("THROW MATSREFUSE");
+    }
+
+    private void doTest(String throwString) throws InterruptedException {
+        Assert.assertTrue(MATS.getMatsFactory().getEndpoint(SERVICE).get().getEndpointConfig()
+                .isNonTransactedDupsOk());
+        _throwingInvocations.set(0);
+
+        // :: Send the message whose processing throws
+        request(new DataTO(1, throwString));
+        // Wait for the service to have thrown
+        long until = System.currentTimeMillis() + 30_000;
+        while ((_throwingInvocations.get() == 0) && (System.currentTimeMillis() < until)) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(1, _throwingInvocations.get());
+
+        // :: Send an ordinary message, which shall go through
+        DataTO dto = new DataTO(42, "TheAnswer");
+        request(dto);
+        Result<StateTO, DataTO> result = MATS.getMatsTestLatch().waitForResult();
+        Assert.assertEquals(new DataTO(dto.number * 2, dto.string + ":FromService"), result.getData());
+
+        // :: Assert that the thrown-upon message was neither redelivered, nor its reply sent.
+        // (The test broker redelivers after 100 ms, so a redelivery would have shown up by now)
+        try {
+            MATS.getMatsTestLatch().waitForResult(500);
+        }
+        catch (AssertionError ae) {
+            log.info("Got the expected AssertionError, meaning that the TERMINATOR did not get a message, good!");
+            Assert.assertEquals("The message should not have been redelivered.", 1, _throwingInvocations.get());
+            return;
+        }
+        Assert.fail("The TERMINATOR actually received the reply of the thrown-upon message, which it should not!");
+    }
+
+    private void request(DataTO dto) {
+        MATS.getMatsInitiator().initiateUnchecked(
+                (msg) -> msg.traceId(MatsTestHelp.traceId())
+                        .from(MatsTestHelp.from("test"))
+                        .to(SERVICE)
+                        .nonPersistent()
+                        .replyTo(TERMINATOR, new StateTO(420, 420.024))
+                        .request(dto));
+    }
+}
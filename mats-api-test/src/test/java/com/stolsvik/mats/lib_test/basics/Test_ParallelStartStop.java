@@ -0,0 +1,164 @@
+package com.stolsvik.mats.lib_test.basics;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.stolsvik.mats.MatsEndpoint;
+import com.stolsvik.mats.MatsInitiator;
+import com.stolsvik.mats.impl.jms.JmsMatsFactory;
+import com.stolsvik.mats.impl.jms.JmsMatsJmsSessionHandler_Pooling;
+import com.stolsvik.mats.impl.jms.JmsMatsStatics;
+import com.stolsvik.mats.lib_test.DataTO;
+import com.stolsvik.mats.lib_test.StateTO;
+import com.stolsvik.mats.serial.json.MatsSerializerJson;
+import com.stolsvik.mats.test.MatsTestHelp;
+import com.stolsvik.mats.util_activemq.MatsLocalVmActiveMq;
+
+/**
+ * Starts and stops a MatsFactory with more multi-stage endpoints than the stop parallelism (read more at
+ * {@link JmsMatsFactory#setStopParallelism(int)}), asserting that all endpoints process messages after the start, that
+ * all stages are stopped, and that the phase timings are reported - and stops a MatsFactory whose stages are stuck in
+ * their processing, asserting that the stages are waited for in parallel.
+ */
+public class Test_ParallelStartStop {
+
+    @Test
+    public void startAndStopInParallel() throws InterruptedException {
+        // :: Arrange
+
+        MatsLocalVmActiveMq inVmActiveMq = MatsLocalVmActiveMq.createInVmActiveMq("ParallelStartStop");
+        JmsMatsJmsSessionHandler_Pooling sessionPool = JmsMatsJmsSessionHandler_Pooling
+                .create(inVmActiveMq.getConnectionFactory());
+        JmsMatsFactory<String> matsFactory = JmsMatsFactory.createMatsFactory_JmsOnlyTransactions("test",
+                "testversion", sessionPool, MatsSerializerJson.create())
+                .setStopParallelism(4);
+        matsFactory.getFactoryConfig().setConcurrency(2);
+        matsFactory.holdEndpointsUntilFactoryIsStarted();
+
+        int services = 20;
+        CountDownLatch latch = new CountDownLatch(services);
+        for (int i = 0; i < services; i++) {
+            MatsEndpoint<DataTO, StateTO> ep = matsFactory.staged("Service" + i, DataTO.class, StateTO.class);
+            ep.stage(DataTO.class, (ctx, state, msg) -> ctx.next(msg));
+            ep.lastStage(DataTO.class, (ctx, state, msg) -> {
+                latch.countDown();
+                return msg;
+            });
+        }
+        // Not started yet.
+        Assert.assertFalse(matsFactory.waitForReceiving(10));
+
+        // :: Act - start
+
+        matsFactory.start();
+
+        // :: Assert - started
+
+        Assert.assertTrue(matsFactory.waitForReceiving(30_000));
+        Assert.assertEquals(Arrays.asList("startEndpoints"),
+                Arrays.asList(matsFactory.getLastStartStopPhaseMillis().keySet().toArray()));
+        MatsInitiator initiator = matsFactory.getDefaultInitiator();
+        for (int i = 0; i < services; i++) {
+            int serviceNo = i;
+            initiator.initiateUnchecked(init -> init.traceId(MatsTestHelp.traceId())
+                    .from(MatsTestHelp.from("ParallelStartStop"))
+                    .to("Service" + serviceNo)
+                    .send(new DataTO(serviceNo, "Msg")));
+        }
+        Assert.assertTrue("Didn't get the expected number of messages.", latch.await(30, TimeUnit.SECONDS));
+
+        // :: Act - stop
+
+        boolean stopped = matsFactory.stop(30_000);
+
+        // :: Assert - stopped
+
+        Assert.assertTrue("All stages should have stopped.", stopped);
+        for (MatsEndpoint<?, ?> endpoint : matsFactory.getEndpoints()) {
+            Assert.assertFalse(endpoint.getEndpointConfig().isRunning());
+        }
+        Assert.assertEquals(Arrays.asList("stopPhase0SetRunFlagFalse", "stopPhase1GracefulWait",
+                "stopPhase2Interrupt", "stopPhase3GracefulAfterInterrupt", "closeInitiators", "closeSessionPool"),
+                Arrays.asList(matsFactory.getLastStartStopPhaseMillis().keySet().toArray()));
+
+        // :: Clean
+
+        int liveConnectionsAfterClose = sessionPool.closeAllAvailableSessions();
+        Assert.assertEquals("There should be no live JMS Connections.", 0, liveConnectionsAfterClose);
+        inVmActiveMq.close();
+    }
+
+    @Test
+    public void stuckStagesAreWaitedForInParallel() throws InterruptedException {
+        // :: Arrange
+
+        MatsLocalVmActiveMq inVmActiveMq = MatsLocalVmActiveMq.createInVmActiveMq("ParallelStop");
+        JmsMatsJmsSessionHandler_Pooling sessionPool = JmsMatsJmsSessionHandler_Pooling
+                .create(inVmActiveMq.getConnectionFactory());
+        int terminators = 8;
+        JmsMatsFactory<String> matsFactory = JmsMatsFactory.createMatsFactory_JmsOnlyTransactions("test",
+                "testversion", sessionPool, MatsSerializerJson.create())
+                .setStopParallelism(terminators);
+        matsFactory.getFactoryConfig().setConcurrency(1);
+
+        // Each Terminator gets stuck in its processing, ignoring the interrupt, until released.
+        CountDownLatch stuckLatch = new CountDownLatch(terminators);
+        CountDownLatch releaseLatch = new CountDownLatch(1);
+        for (int i = 0; i < terminators; i++) {
+            matsFactory.terminator("Terminator" + i, StateTO.class, DataTO.class, (ctx, state, msg) -> {
+                stuckLatch.countDown();
+                while (true) {
+                    try {
+                        releaseLatch.await();
+                        return;
+                    }
+                    catch (InterruptedException e) {
+                        /* stuck: ignore the interrupt */
+                    }
+                }
+            });
+        }
+        MatsInitiator initiator = matsFactory.getDefaultInitiator();
+        for (int i = 0; i < terminators; i++) {
+            int terminatorNo = i;
+            initiator.initiateUnchecked(init -> init.traceId(MatsTestHelp.traceId())
+                    .from(MatsTestHelp.from("ParallelStop"))
+                    .to("Terminator" + terminatorNo)
+                    .send(new DataTO(terminatorNo, "Msg")));
+        }
+        Assert.assertTrue("Not all Terminators got stuck.", stuckLatch.await(30, TimeUnit.SECONDS));
+
+        // :: Act
+
+        int gracefulShutdownMillis = 200;
+        boolean stopped;
+        try {
+            stopped = matsFactory.stop(gracefulShutdownMillis);
+        }
+        finally {
+            releaseLatch.countDown();
+        }
+
+        // :: Assert
+
+        Assert.assertFalse("The stuck stages should not have stopped.", stopped);
+        // Waited for one at a time, each stage after the first would get the extra grace, both before and after the
+        // interrupt: In parallel, each phase is waited for about once.
+        long sequentialExtraGraceMillis = (terminators - 1) * (long) JmsMatsStatics.EXTRA_GRACE_MILLIS;
+        Map<String, Long> phaseMillis = matsFactory.getLastStartStopPhaseMillis();
+        Assert.assertTrue("The graceful wait took [" + phaseMillis.get("stopPhase1GracefulWait") + " ms].",
+                phaseMillis.get("stopPhase1GracefulWait") < gracefulShutdownMillis + sequentialExtraGraceMillis);
+        Assert.assertTrue("The wait after interrupt took [" + phaseMillis.get("stopPhase3GracefulAfterInterrupt")
+                + " ms].", phaseMillis.get("stopPhase3GracefulAfterInterrupt") < sequentialExtraGraceMillis);
+
+        // :: Clean
+
+        sessionPool.closeAllAvailableSessions();
+        inVmActiveMq.close();
+    }
+}
@@ -0,0 +1,173 @@
+package com.stolsvik.mats.lib_test.basics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import com.stolsvik.mats.MatsEndpoint;
+import com.stolsvik.mats.MatsStatistics;
+import com.stolsvik.mats.MatsStatistics.PartitionKeyGroups;
+import com.stolsvik.mats.lib_test.DataTO;
+import com.stolsvik.mats.lib_test.StateTO;
+import com.stolsvik.mats.test.MatsTestHelp;
+import com.stolsvik.mats.test.MatsTestLatch.Result;
+import com.stolsvik.mats.test.junit.Rule_Mats;
+
+/**
+ * Tests the partition key (read more at {@link com.stolsvik.mats.MatsInitiator.MatsInitiate#partitionKey(String)}):
+ * Messages for a few keys, interleaved, are sent to a Terminator with several StageProcessors - asserting that each
+ * key's messages are processed in order, by one StageProcessor, and that this is reflected in the statistics. Also
+ * asserts that the key is kept through a request-reply flow, and that a stage can change it for its outgoing messages.
+ * <p>
+ * ASCII-artsy, it looks like this:
+ *
+ * <pre>
+ * [Initiator]              - send, partitioned (or request)
+ *     [Service S0 - init]  - next, changing the partition key
+ *     [Service S1 - last]  - reply
+ * [Terminator]
+ * </pre>
+ */
+public class Test_PartitionKey {
+    @ClassRule
+    public static final Rule_Mats MATS = Rule_Mats.create();
+
+    private static final String SERVICE = MatsTestHelp.service();
+    private static final String TERMINATOR = MatsTestHelp.terminator();
+    private static final String ORDERED_TERMINATOR = MatsTestHelp.endpointId("OrderedTerminator");
+
+    private static final int KEYS = 4;
+    private static final int MESSAGES_PER_KEY = 25;
+
+    private static final Map<String, List<Integer>> _orderSeen = new ConcurrentHashMap<>();
+    private static final Map<String, Set<String>> _threadsSeen = new ConcurrentHashMap<>();
+    private static final CountDownLatch _orderedLatch = new CountDownLatch(KEYS * MESSAGES_PER_KEY);
+
+    private static final List<String> _partitionKeysSeen = new CopyOnWriteArrayList<>();
+
+    @BeforeClass
+    public static void setupServiceAndTerminators() {
+        MATS.getMatsFactory().terminator(ORDERED_TERMINATOR, StateTO.class, DataTO.class,
+                endpointConfig -> endpointConfig.setConcurrency(4), stageConfig -> {
+                }, (context, sto, dto) -> {
+                    String key = context.getPartitionKey();
+                    _threadsSeen.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet())
+                            .add(Thread.currentThread().getName());
+                    _orderSeen.computeIfAbsent(key, k -> new CopyOnWriteArrayList<>()).add((int) dto.number);
+                    // Vary the processing time, so that any reordering would show.
+                    try {
+                        Thread.sleep(((long) dto.number) % 3);
+                    }
+                    catch (InterruptedException e) {
+                        throw new AssertionError("Interrupted", e);
+                    }
+                    _orderedLatch.countDown();
+                });
+
+        MatsEndpoint<DataTO, StateTO> ep = MATS.getMatsFactory().staged(SERVICE, DataTO.class, StateTO.class);
+        ep.stage(DataTO.class, (context, sto, dto) -> {
+            _partitionKeysSeen.add(context.getPartitionKey());
+            context.setPartitionKey(context.getPartitionKey() + ":Changed");
+            context.next(dto);
+        });
+        ep.lastStage(DataTO.class, (context, sto, dto) -> {
+            _partitionKeysSeen.add(context.getPartitionKey());
+            return new DataTO(dto.number * 2, dto.string + ":FromService");
+        });
+
+        MATS.getMatsFactory().terminator(TERMINATOR, StateTO.class, DataTO.class, (context, sto, dto) -> {
+            _partitionKeysSeen.add(context.getPartitionKey());
+            MATS.getMatsTestLatch().resolve(sto, dto);
+        });
+    }
+
+    @Test
+    public void orderedPerKey() throws InterruptedException {
+        // :: Send the messages for the keys interleaved.
+        for (int i = 0; i < MESSAGES_PER_KEY; i++) {
+            for (int k = 0; k < KEYS; k++) {
+                int number = i;
+                String key = "customer-" + k;
+                MATS.getMatsInitiator().initiateUnchecked(
+                        (msg) -> msg.traceId(MatsTestHelp.traceId())
+                                .from(MatsTestHelp.from("orderedPerKey"))
+                                .to(ORDERED_TERMINATOR)
+                                .partitionKey(key)
+                                .send(new DataTO(number, key), new StateTO(420, 420.024)));
+            }
+        }
+        Assert.assertTrue("Didn't get all the messages.", _orderedLatch.await(30, TimeUnit.SECONDS));
+
+        // :: Assert that each key's messages were processed in order, by one StageProcessor.
+        List<Integer> expectedOrder = new ArrayList<>();
+        for (int i = 0; i < MESSAGES_PER_KEY; i++) {
+            expectedOrder.add(i);
+        }
+        Assert.assertEquals(KEYS, _orderSeen.size());
+        for (int k = 0; k < KEYS; k++) {
+            String key = "customer-" + k;
+            Assert.assertEquals("The messages of key [" + key + "] were not processed in order.", expectedOrder,
+                    _orderSeen.get(key));
+            Assert.assertEquals("The messages of key [" + key + "] should have been processed by one"
+                    + " StageProcessor.", 1, _threadsSeen.get(key).size());
+        }
+
+        // :: Assert the statistics: All messages are accounted for, and each key group is on one StageProcessor.
+        MatsStatistics statistics = MATS.getMatsFactory().getEndpoint(ORDERED_TERMINATOR).get()
+                .getStages().get(0).getStatistics();
+        Map<String, PartitionKeyGroups> keyGroups = statistics.getPartitionKeyGroups();
+        long messages = 0;
+        long groups = 0;
+        for (PartitionKeyGroups processorGroups : keyGroups.values()) {
+            messages += processorGroups.getMessages();
+            groups += processorGroups.getEstimatedKeyGroups();
+        }
+        Assert.assertEquals(KEYS * MESSAGES_PER_KEY, messages);
+        Assert.assertEquals(KEYS, groups);
+    }
+
+    @Test
+    public void keptThroughFlowAndChangeable() {
+        _partitionKeysSeen.clear();
+        DataTO dto = new DataTO(42, "TheAnswer");
+        MATS.getMatsInitiator().initiateUnchecked(
+                (msg) -> msg.traceId(MatsTestHelp.traceId())
+                        .from(MatsTestHelp.from("keptThroughFlow"))
+                        .to(SERVICE)
+                        .partitionKey("customer-42")
+                        .replyTo(TERMINATOR, new StateTO(420, 420.024))
+                        .request(dto));
+
+        Result<StateTO, DataTO> result = MATS.getMatsTestLatch().waitForResult();
+        Assert.assertEquals(new DataTO(dto.number * 2, dto.string + ":FromService"), result.getData());
+        // Service S0 got the initiated key, while S1 and the Terminator got the key changed by S0.
+        Assert.assertEquals(3, _partitionKeysSeen.size());
+        Assert.assertEquals("customer-42", _partitionKeysSeen.get(0));
+        Assert.assertEquals("customer-42:Changed", _partitionKeysSeen.get(1));
+        Assert.assertEquals("customer-42:Changed", _partitionKeysSeen.get(2));
+    }
+
+    @Test
+    public void notPartitionedByDefault() {
+        _partitionKeysSeen.clear();
+        MATS.getMatsInitiator().initiateUnchecked(
+                (msg) -> msg.traceId(MatsTestHelp.traceId())
+                        .from(MatsTestHelp.from("notPartitioned"))
+                        .to(TERMINATOR)
+                        .send(new DataTO(42, "TheAnswer"), new StateTO(420, 420.024)));
+
+        MATS.getMatsTestLatch().waitForResult();
+        Assert.assertEquals(1, _partitionKeysSeen.size());
+        Assert.assertNull(_partitionKeysSeen.get(0));
+    }
+}
@@ -47,6 +47,12 @@ public class Test_PropertiesBytesAndStrings  {
 
             Assert.assertNotNull(context.getSystemMessageId());
 
+            // The sideloads are read lazily: Wrong type, non-existing keys and the MatsTrace itself give null.
+            Assert.assertNull(context.getBytes("string"));
+            Assert.assertNull(context.getString("bytes"));
+            Assert.assertNull(context.getBytes("nonExisting"));
+            Assert.assertNull(context.getBytes(MATS.getMatsFactory().getFactoryConfig().getMatsTraceKey()));
+
             byte[] bytes = context.getBytes("bytes");
             String string = context.getString("string");
             bytes[5] = (byte) (bytes[5] * 2);
@@ -0,0 +1,150 @@
+package com.stolsvik.mats.lib_test.basics;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import com.stolsvik.mats.MatsEndpoint;
+import com.stolsvik.mats.MatsStatistics;
+import com.stolsvik.mats.lib_test.DataTO;
+import com.stolsvik.mats.lib_test.StateTO;
+import com.stolsvik.mats.test.MatsTestHelp;
+import com.stolsvik.mats.test.MatsTestLatch.Result;
+import com.stolsvik.mats.test.junit.Rule_Mats;
+
+/**
+ * Tests the reply cache (read more at {@link MatsEndpoint.EndpointConfig#setReplyCache(int, long)}): Identical
+ * requests to a single-stage service with the reply cache enabled shall only invoke the stage lambda once, the
+ * subsequent getting the cached reply - which is reflected in the statistics. Also tests the key function variant, and
+ * eviction due to the max number of entries.
+ * <p>
+ * ASCII-artsy, it looks like this:
+ *
+ * <pre>
+ * [Initiator]   - request
+ *     [Service] - reply, possibly from the reply cache
+ * [Terminator]
+ * </pre>
+ */
+public class Test_ReplyCache {
+    @ClassRule
+    public static final Rule_Mats MATS = Rule_Mats.create();
+
+    private static final String SERVICE = MatsTestHelp.service();
+    private static final String SERVICE_KEYED = MatsTestHelp.endpointId("KeyedService");
+    private static final String SERVICE_SINGLE_ENTRY = MatsTestHelp.endpointId("SingleEntryService");
+    private static final String TERMINATOR = MatsTestHelp.terminator();
+
+    private static final AtomicInteger _serviceInvocations = new AtomicInteger();
+    private static final AtomicInteger _keyedServiceInvocations = new AtomicInteger();
+    private static final AtomicInteger _singleEntryServiceInvocations = new AtomicInteger();
+
+    @BeforeClass
+    public static void setupServicesAndTerminator() {
+        MATS.getMatsFactory().single(SERVICE, DataTO.class, DataTO.class,
+                endpointConfig -> endpointConfig.setReplyCache(100, 60_000), stageConfig -> {
+                }, (context, dto) -> {
+                    _serviceInvocations.incrementAndGet();
+                    return new DataTO(dto.number * 2, dto.string + ":FromService");
+                });
+
+        // Keyed on the number only, so that the string is ignored.
+        MATS.getMatsFactory().single(SERVICE_KEYED, DataTO.class, DataTO.class,
+                endpointConfig -> endpointConfig.setReplyCache(100, 60_000, DataTO.class,
+                        dto -> "number:" + dto.number),
+                stageConfig -> {
+                }, (context, dto) -> {
+                    _keyedServiceInvocations.incrementAndGet();
+                    return new DataTO(dto.number * 3, dto.string + ":FromKeyedService");
+                });
+
+        MATS.getMatsFactory().single(SERVICE_SINGLE_ENTRY, DataTO.class, DataTO.class,
+                endpointConfig -> endpointConfig.setReplyCache(1, 60_000), stageConfig -> {
+                }, (context, dto) -> {
+                    _singleEntryServiceInvocations.incrementAndGet();
+                    return new DataTO(dto.number * 4, dto.string + ":FromSingleEntryService");
+                });
+
+        MATS.getMatsFactory().terminator(TERMINATOR, StateTO.class, DataTO.class,
+                (context, sto, dto) -> MATS.getMatsTestLatch().resolve(sto, dto));
+    }
+
+    @Test
+    public void identicalRequestIsServedFromCache() {
+        DataTO dto = new DataTO(42, "TheAnswer");
+        DataTO expected = new DataTO(dto.number * 2, dto.string + ":FromService");
+
+        Assert.assertEquals(expected, request(SERVICE, dto));
+        Assert.assertEquals(expected, request(SERVICE, dto));
+
+        Assert.assertEquals("The stage lambda should only have been invoked once.", 1, _serviceInvocations.get());
+        MatsStatistics statistics = statistics(SERVICE);
+        Assert.assertEquals(1, statistics.getReplyCacheHits());
+        Assert.assertEquals(1, statistics.getReplyCacheMisses());
+        Assert.assertEquals(0, statistics.getReplyCacheEvictions());
+    }
+
+    @Test
+    public void keyFunction() {
+        // Same number, different string: Same key, so the second gets the first's reply.
+        DataTO expected = new DataTO(7 * 3, "First:FromKeyedService");
+        Assert.assertEquals(expected, request(SERVICE_KEYED, new DataTO(7, "First")));
+        Assert.assertEquals(expected, request(SERVICE_KEYED, new DataTO(7, "Second")));
+
+        Assert.assertEquals("The stage lambda should only have been invoked once.", 1,
+                _keyedServiceInvocations.get());
+        Assert.assertEquals(1, statistics(SERVICE_KEYED).getReplyCacheHits());
+    }
+
+    @Test
+    public void evictionDueToMaxEntries() {
+        DataTO first = new DataTO(1, "First");
+        DataTO second = new DataTO(2, "Second");
+        request(SERVICE_SINGLE_ENTRY, first);
+        request(SERVICE_SINGLE_ENTRY, second);
+        // The first was evicted by the second, so this invokes the lambda again.
+        Assert.assertEquals(new DataTO(4, "First:FromSingleEntryService"), request(SERVICE_SINGLE_ENTRY, first));
+
+        Assert.assertEquals(3, _singleEntryServiceInvocations.get());
+        MatsStatistics statistics = statistics(SERVICE_SINGLE_ENTRY);
+        Assert.assertEquals(0, statistics.getReplyCacheHits());
+        Assert.assertEquals(3, statistics.getReplyCacheMisses());
+        Assert.assertEquals(2, statistics.getReplyCacheEvictions());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeMaxEntriesIsRejected() {
+        MATS.getMatsFactory().getEndpoint(SERVICE).get().getEndpointConfig().setReplyCache(-1, 60_000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroTtlIsRejected() {
+        MATS.getMatsFactory().getEndpoint(SERVICE).get().getEndpointConfig().setReplyCache(100, 0);
+    }
+
+    private static DataTO request(String service, DataTO dto) {
+        MATS.getMatsInitiator().initiateUnchecked(
+                (msg) -> msg.traceId(MatsTestHelp.traceId())
+                        .from(MatsTestHelp.from("request"))
+                        .to(service)
+                        .replyTo(TERMINATOR, new StateTO(420, 420.024))
+                        .request(dto));
+        Result<StateTO, DataTO> result = MATS.getMatsTestLatch().waitForResult();
+        // The reply is put into the reply cache after the service's commit, which races with the Terminator getting
+        // the reply - so give the put some slack before the next request.
+        try {
+            Thread.sleep(100);
+        }
+        catch (InterruptedException e) {
+            throw new AssertionError("Interrupted", e);
+        }
+        return result.getData();
+    }
+
+    private static MatsStatistics statistics(String endpointId) {
+        return MATS.getMatsFactory().getEndpoint(endpointId).get().getStages().get(0).getStatistics();
+    }
+}
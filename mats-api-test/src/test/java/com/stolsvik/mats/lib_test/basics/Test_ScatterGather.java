@@ -0,0 +1,193 @@
+package com.stolsvik.mats.lib_test.basics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import com.stolsvik.mats.MatsEndpoint;
+import com.stolsvik.mats.MatsEndpoint.ScatterGatherStore;
+import com.stolsvik.mats.lib_test.DataTO;
+import com.stolsvik.mats.lib_test.StateTO;
+import com.stolsvik.mats.test.MatsTestHelp;
+import com.stolsvik.mats.test.MatsTestLatch.Result;
+import com.stolsvik.mats.test.MatsTestMqInterface.MatsMessageRepresentation;
+import com.stolsvik.mats.test.junit.Rule_Mats;
+
+/**
+ * Tests scatter-gather (read more at {@link MatsEndpoint.ProcessContext#scatter(String, List, long)}): A multi-stage
+ * service scatters a bunch of requests to a leaf service, which replies in a different order than requested (the
+ * concurrency and varying processing time), and the gather stage shall be invoked once, with all the replies in
+ * request order. Also tests the timeout, where the leaf service does not reply to one of the requests - and that a
+ * reply for a gather unknown to the store, as when the endpoint runs on several nodes without a shared store, is DLQed.
+ * <p>
+ * ASCII-artsy, it looks like this:
+ *
+ * <pre>
+ * [Initiator]              - request
+ *     [Service S0 - init]  - scatter
+ *         [Leaf]           - reply (or not, if "Silent")
+ *     [Service S1 - last]  - gather, reply
+ * [Terminator]
+ * </pre>
+ */
+public class Test_ScatterGather {
+    @ClassRule
+    public static final Rule_Mats MATS = Rule_Mats.create();
+
+    private static final String SERVICE = MatsTestHelp.service();
+    private static final String LEAF = MatsTestHelp.endpointId("Leaf");
+    private static final String SERVICE_UNSHARED_STORE = MatsTestHelp.endpointId("UnsharedStoreService");
+    private static final String TERMINATOR = MatsTestHelp.terminator();
+
+    private static final AtomicInteger _gatherInvocations = new AtomicInteger();
+    private static final AtomicInteger _unsharedGatherInvocations = new AtomicInteger();
+    private static volatile boolean _gatherTimedOut;
+    private static volatile List<DataTO> _gatheredReplies;
+
+    @BeforeClass
+    public static void setupServicesAndTerminator() {
+        MatsEndpoint<DataTO, StateTO> leaf = MATS.getMatsFactory().staged(LEAF, DataTO.class, StateTO.class,
+                endpointConfig -> endpointConfig.setConcurrency(4));
+        leaf.stage(DataTO.class, (context, sto, dto) -> {
+            // ?: Shall we play dead?
+            if ("Silent".equals(dto.string)) {
+                // -> Yes, so do not reply.
+                return;
+            }
+            // Reply later for the first requests, so that the replies arrive out of order.
+            try {
+                Thread.sleep(Math.max(0, 50 - ((long) dto.number * 10)));
+            }
+            catch (InterruptedException e) {
+                throw new AssertionError("Interrupted", e);
+            }
+            context.reply(new DataTO(dto.number * 2, dto.string + ":FromLeaf"));
+        });
+        leaf.finishSetup();
+
+        MatsEndpoint<DataTO, StateTO> ep = MATS.getMatsFactory().staged(SERVICE, DataTO.class, StateTO.class);
+        ep.stage(DataTO.class, (context, sto, dto) -> {
+            sto.number1 = (int) dto.number;
+            List<DataTO> requests = new ArrayList<>();
+            for (int i = 0; i < dto.number; i++) {
+                requests.add(new DataTO(i, dto.string.equals("WithSilent") && (i == 1) ? "Silent" : "Request" + i));
+            }
+            context.scatter(LEAF, requests, dto.string.equals("WithSilent") ? 500 : 30_000);
+        });
+        ep.lastStage(DataTO.class, (context, sto, dto) -> {
+            _gatherInvocations.incrementAndGet();
+            _gatherTimedOut = context.isGatherTimedOut();
+            _gatheredReplies = context.getGatheredReplies(DataTO.class);
+            double sum = 0;
+            for (DataTO reply : _gatheredReplies) {
+                sum += reply != null ? reply.number : 0;
+            }
+            return new DataTO(sum, "Gathered:" + sto.number1);
+        });
+
+        // The store never knows the gather, as if the scatter was done on another node with a store not shared.
+        MatsEndpoint<DataTO, StateTO> unshared = MATS.getMatsFactory().staged(SERVICE_UNSHARED_STORE, DataTO.class,
+                StateTO.class, endpointConfig -> endpointConfig.setScatterGatherStore(new OtherNodeStore()));
+        unshared.stage(DataTO.class, (context, sto, dto) -> context.scatter(LEAF, Arrays.asList(dto), 30_000));
+        unshared.lastStage(DataTO.class, (context, sto, dto) -> {
+            _unsharedGatherInvocations.incrementAndGet();
+            return dto;
+        });
+
+        MATS.getMatsFactory().terminator(TERMINATOR, StateTO.class, DataTO.class,
+                (context, sto, dto) -> MATS.getMatsTestLatch().resolve(sto, dto));
+    }
+
+    private static class OtherNodeStore implements ScatterGatherStore {
+        @Override
+        public void begin(String gatherId, int count, long timeoutMillis) {
+            /* no-op: The gather is begun in the other node's store. */
+        }
+
+        @Override
+        public Map<Integer, Object> addReply(String gatherId, int index, Object serializedReply) {
+            return null;
+        }
+
+        @Override
+        public Map<Integer, Object> timeout(String gatherId) {
+            return null;
+        }
+
+        @Override
+        public void remove(String gatherId) {
+            /* no-op */
+        }
+
+        @Override
+        public boolean isKnown(String gatherId) {
+            return false;
+        }
+    }
+
+    @Test
+    public void allRepliesGathered() {
+        _gatherInvocations.set(0);
+        Result<StateTO, DataTO> result = request(new DataTO(5, "All"));
+
+        Assert.assertEquals("The gather stage should only have been invoked once.", 1, _gatherInvocations.get());
+        Assert.assertFalse(_gatherTimedOut);
+        // The replies shall be in request order, even though they arrived in a different order.
+        Assert.assertEquals(Arrays.asList(
+                new DataTO(0, "Request0:FromLeaf"),
+                new DataTO(2, "Request1:FromLeaf"),
+                new DataTO(4, "Request2:FromLeaf"),
+                new DataTO(6, "Request3:FromLeaf"),
+                new DataTO(8, "Request4:FromLeaf")), _gatheredReplies);
+        Assert.assertEquals(new DataTO(0 + 2 + 4 + 6 + 8, "Gathered:5"), result.getData());
+    }
+
+    @Test
+    public void timeoutWithPartialReplies() {
+        _gatherInvocations.set(0);
+        Result<StateTO, DataTO> result = request(new DataTO(3, "WithSilent"));
+
+        Assert.assertEquals("The gather stage should only have been invoked once.", 1, _gatherInvocations.get());
+        Assert.assertTrue(_gatherTimedOut);
+        // The reply that did not arrive shall be null.
+        Assert.assertEquals(Arrays.asList(
+                new DataTO(0, "Request0:FromLeaf"),
+                null,
+                new DataTO(4, "Request2:FromLeaf")), _gatheredReplies);
+        Assert.assertEquals(new DataTO(0 + 4, "Gathered:3"), result.getData());
+    }
+
+    @Test
+    public void replyForUnknownGatherIsDlqed() {
+        String traceId = MatsTestHelp.traceId();
+        MATS.getMatsInitiator().initiateUnchecked(
+                (msg) -> msg.traceId(traceId)
+                        .from(MatsTestHelp.from("unknownGather"))
+                        .to(SERVICE_UNSHARED_STORE)
+                        .replyTo(TERMINATOR, new StateTO(420, 420.024))
+                        .request(new DataTO(1, "Unknown")));
+
+        MatsMessageRepresentation dlqMessage = MATS.getMatsTestMqInterface()
+                .getDlqMessage(SERVICE_UNSHARED_STORE + ".stage1");
+        Assert.assertEquals(traceId, dlqMessage.getTraceId());
+        Assert.assertEquals(SERVICE_UNSHARED_STORE + ".stage1", dlqMessage.getTo());
+        Assert.assertEquals("The gather stage should not have been invoked.", 0, _unsharedGatherInvocations.get());
+    }
+
+    private static Result<StateTO, DataTO> request(DataTO dto) {
+        MATS.getMatsInitiator().initiateUnchecked(
+                (msg) -> msg.traceId(MatsTestHelp.traceId())
+                        .from(MatsTestHelp.from("scatterGather"))
+                        .to(SERVICE)
+                        .replyTo(TERMINATOR, new StateTO(420, 420.024))
+                        .request(dto));
+        return MATS.getMatsTestLatch().waitForResult();
+    }
+}
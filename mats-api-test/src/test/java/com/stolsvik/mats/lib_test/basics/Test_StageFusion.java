@@ -0,0 +1,228 @@
+package com.stolsvik.mats.lib_test.basics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import com.stolsvik.mats.MatsEndpoint;
+import com.stolsvik.mats.MatsEndpoint.EndpointConfig;
+import com.stolsvik.mats.MatsEndpoint.ProcessContext;
+import com.stolsvik.mats.lib_test.DataTO;
+import com.stolsvik.mats.lib_test.StateTO;
+import com.stolsvik.mats.test.MatsTestHelp;
+import com.stolsvik.mats.test.MatsTestLatch.Result;
+import com.stolsvik.mats.test.junit.Rule_Mats;
+
+/**
+ * Tests "stage fusion" (read more at {@link EndpointConfig#setStageFusion(int)}): A four-stage service where each
+ * stage invokes next, with stage fusion set to a max chain length of 2 - so that S1 and S2 shall be processed inline
+ * on the same thread as S0, while S3 gets its message via the broker as usual. The hops shall be recorded as if they
+ * went through the broker, and all doAfterCommit lambdas shall be run. Also tests that the max chain length is that of
+ * the stage where the chain started, and that a hop is not fused into a stage with a circuit breaker, nor within an
+ * endpoint with duplicate suppression.
+ *
+ * <pre>
+ * [Initiator]             - init request
+ *     [Service S0 - init] - next
+ *     [Service S1]        - next  (fused)
+ *     [Service S2]        - next  (fused)
+ *     [Service S3 - last] - reply (via broker, as the max chain length is reached)
+ * [Terminator]
+ * </pre>
+ */
+public class Test_StageFusion {
+    @ClassRule
+    public static final Rule_Mats MATS = Rule_Mats.create();
+
+    private static final String SERVICE = MatsTestHelp.service();
+    private static final String TERMINATOR = MatsTestHelp.terminator();
+
+    private static final Map<String, ProcessedAt> _processedAt = new ConcurrentHashMap<>();
+    private static final List<String> _doAfterCommits = new CopyOnWriteArrayList<>();
+
+    private static MatsEndpoint<DataTO, StateTO> _endpoint;
+
+    private static class ProcessedAt {
+        final String systemMessageId;
+        final String fromStageId;
+        final String threadName;
+
+        ProcessedAt(ProcessContext<?> context) {
+            systemMessageId = context.getSystemMessageId();
+            fromStageId = context.getFromStageId();
+            threadName = Thread.currentThread().getName();
+        }
+    }
+
+    private static void record(String stage, ProcessContext<?> context) {
+        _processedAt.put(stage, new ProcessedAt(context));
+        context.doAfterCommit(() -> _doAfterCommits.add(stage));
+    }
+
+    @BeforeClass
+    public static void setupMultiStageService() {
+        _endpoint = MATS.getMatsFactory().staged(SERVICE, DataTO.class, StateTO.class);
+        _endpoint.stage(DataTO.class, (context, sto, dto) -> {
+            record("S0", context);
+            sto.number1 = 1;
+            context.next(new DataTO(dto.number * 2, dto.string + ":S0"));
+        });
+        _endpoint.stage(DataTO.class, (context, sto, dto) -> {
+            record("S1", context);
+            Assert.assertEquals(1, sto.number1);
+            sto.number1 = 2;
+            context.next(new DataTO(dto.number * 3, dto.string + ":S1"));
+        });
+        _endpoint.stage(DataTO.class, (context, sto, dto) -> {
+            record("S2", context);
+            Assert.assertEquals(2, sto.number1);
+            sto.number1 = 3;
+            context.next(new DataTO(dto.number * 5, dto.string + ":S2"));
+        });
+        _endpoint.lastStage(DataTO.class, (context, sto, dto) -> {
+            record("S3", context);
+            Assert.assertEquals(3, sto.number1);
+            return new DataTO(dto.number * 7, dto.string + ":S3");
+        });
+
+        MATS.getMatsFactory().terminator(TERMINATOR, StateTO.class, DataTO.class,
+                (context, sto, dto) -> MATS.getMatsTestLatch().resolve(sto, dto));
+    }
+
+    @Before
+    public void reset() {
+        _processedAt.clear();
+        _doAfterCommits.clear();
+    }
+
+    @Test
+    public void fusedWithBoundedChainLength() throws InterruptedException {
+        _endpoint.getEndpointConfig().setStageFusion(2);
+        requestAndAssertReply();
+
+        ProcessedAt s0 = _processedAt.get("S0");
+        ProcessedAt s1 = _processedAt.get("S1");
+        ProcessedAt s2 = _processedAt.get("S2");
+        ProcessedAt s3 = _processedAt.get("S3");
+
+        // S1 and S2 are fused with S0: Same thread, and not received via the broker.
+        Assert.assertFalse(s0.systemMessageId.startsWith("fused:"));
+        Assert.assertTrue(s1.systemMessageId.startsWith("fused:"));
+        Assert.assertTrue(s2.systemMessageId.startsWith("fused:"));
+        Assert.assertEquals(s0.threadName, s1.threadName);
+        Assert.assertEquals(s0.threadName, s2.threadName);
+        // S3 is beyond the max chain length, thus received via the broker, on its own StageProcessor.
+        Assert.assertFalse(s3.systemMessageId.startsWith("fused:"));
+        Assert.assertNotEquals(s0.threadName, s3.threadName);
+
+        // The MatsTrace records the hops as if they went through the broker.
+        Assert.assertEquals(SERVICE, s1.fromStageId);
+        Assert.assertEquals(SERVICE + ".stage1", s2.fromStageId);
+        Assert.assertEquals(SERVICE + ".stage2", s3.fromStageId);
+
+        assertDoAfterCommits();
+    }
+
+    @Test
+    public void notFusedWhenDisabled() throws InterruptedException {
+        _endpoint.getEndpointConfig().setStageFusion(0);
+        requestAndAssertReply();
+
+        for (ProcessedAt processedAt : _processedAt.values()) {
+            Assert.assertFalse(processedAt.systemMessageId.startsWith("fused:"));
+        }
+        assertDoAfterCommits();
+    }
+
+    @Test
+    public void stageOverridesEndpoint() throws InterruptedException {
+        // Enabled on the endpoint, but only one hop for chains starting at S0.
+        _endpoint.getEndpointConfig().setStageFusion(5);
+        _endpoint.getStages().get(0).getStageConfig().setStageFusion(1);
+        try {
+            requestAndAssertReply();
+        }
+        finally {
+            _endpoint.getStages().get(0).getStageConfig().setStageFusion(-1);
+        }
+
+        // The chain started at S0 ends after S1, even though the fusing S1 has the endpoint's max chain length ..
+        Assert.assertTrue(_processedAt.get("S1").systemMessageId.startsWith("fused:"));
+        Assert.assertFalse(_processedAt.get("S2").systemMessageId.startsWith("fused:"));
+        // .. while the chain started at S2 has the endpoint's.
+        Assert.assertTrue(_processedAt.get("S3").systemMessageId.startsWith("fused:"));
+        assertDoAfterCommits();
+    }
+
+    @Test
+    public void notFusedIntoStageWithCircuitBreaker() throws InterruptedException {
+        _endpoint.getEndpointConfig().setStageFusion(5);
+        _endpoint.getStages().get(2).getStageConfig().setCircuitBreaker(50, 10, 10_000, 1_000);
+        try {
+            requestAndAssertReply();
+        }
+        finally {
+            _endpoint.getStages().get(2).getStageConfig().setCircuitBreaker(0, 10, 10_000, 1_000);
+        }
+
+        // S2 shall get its message via the broker, so that its circuit breaker applies.
+        Assert.assertTrue(_processedAt.get("S1").systemMessageId.startsWith("fused:"));
+        Assert.assertFalse(_processedAt.get("S2").systemMessageId.startsWith("fused:"));
+        Assert.assertTrue(_processedAt.get("S3").systemMessageId.startsWith("fused:"));
+        assertDoAfterCommits();
+    }
+
+    @Test
+    public void notFusedWithDuplicateSuppression() throws InterruptedException {
+        _endpoint.getEndpointConfig().setStageFusion(5);
+        _endpoint.getEndpointConfig().setDuplicateSuppression(1000, 60_000);
+        try {
+            requestAndAssertReply();
+        }
+        finally {
+            _endpoint.getEndpointConfig().setDuplicateSuppression(0, 0);
+        }
+
+        // All stages shall get their messages via the broker, so that the duplicate suppression applies.
+        for (ProcessedAt processedAt : _processedAt.values()) {
+            Assert.assertFalse(processedAt.systemMessageId.startsWith("fused:"));
+        }
+        assertDoAfterCommits();
+    }
+
+    private void requestAndAssertReply() {
+        StateTO sto = new StateTO(420, 420.024);
+        DataTO dto = new DataTO(42, "TheAnswer");
+        MATS.getMatsInitiator().initiateUnchecked(
+                (msg) -> msg.traceId(MatsTestHelp.traceId())
+                        .from(MatsTestHelp.from("test"))
+                        .to(SERVICE)
+                        .replyTo(TERMINATOR, sto)
+                        .request(dto));
+
+        Result<StateTO, DataTO> result = MATS.getMatsTestLatch().waitForResult();
+        Assert.assertEquals(sto, result.getState());
+        Assert.assertEquals(new DataTO(dto.number * 2 * 3 * 5 * 7, dto.string + ":S0:S1:S2:S3"),
+                result.getData());
+    }
+
+    private void assertDoAfterCommits() throws InterruptedException {
+        // The doAfterCommit of S3 is run after its reply is committed, thus possibly after the Terminator got it.
+        long until = System.currentTimeMillis() + 5_000;
+        while ((_doAfterCommits.size() < 4) && (System.currentTimeMillis() < until)) {
+            Thread.sleep(5);
+        }
+        List<String> sorted = new ArrayList<>(_doAfterCommits);
+        sorted.sort(null);
+        Assert.assertEquals(Arrays.asList("S0", "S1", "S2", "S3"), sorted);
+    }
+}
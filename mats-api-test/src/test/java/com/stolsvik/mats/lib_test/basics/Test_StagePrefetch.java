@@ -0,0 +1,91 @@
+package com.stolsvik.mats.lib_test.basics;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.region.Destination;
+import org.apache.activemq.broker.region.Subscription;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.stolsvik.mats.MatsEndpoint;
+import com.stolsvik.mats.MatsStage.StageConfig;
+import com.stolsvik.mats.impl.jms.JmsMatsFactory;
+import com.stolsvik.mats.impl.jms.JmsMatsJmsSessionHandler_Pooling;
+import com.stolsvik.mats.lib_test.DataTO;
+import com.stolsvik.mats.lib_test.StateTO;
+import com.stolsvik.mats.serial.json.MatsSerializerJson;
+import com.stolsvik.mats.test.MatsTestHelp;
+import com.stolsvik.mats.util_activemq.MatsLocalVmActiveMq;
+
+/**
+ * Tests the per-stage prefetch (read more at {@link StageConfig#setPrefetch(int)}): A two-stage service where the
+ * initial stage has an explicit prefetch, while the second stage gets the default derived from the concurrency -
+ * asserting on the consumers as seen by the ActiveMQ broker, and that messages flow through.
+ */
+public class Test_StagePrefetch {
+
+    @Test
+    public void prefetchAppliedToConsumers() throws Exception {
+        // :: Arrange
+
+        MatsLocalVmActiveMq inVmActiveMq = MatsLocalVmActiveMq.createInVmActiveMq("StagePrefetch");
+        BrokerService brokerService = inVmActiveMq.getBrokerService();
+        // The consumers can only be inspected on an in-vm broker.
+        Assume.assumeNotNull(brokerService);
+        JmsMatsJmsSessionHandler_Pooling sessionPool = JmsMatsJmsSessionHandler_Pooling
+                .create(inVmActiveMq.getConnectionFactory());
+        JmsMatsFactory<String> matsFactory = JmsMatsFactory.createMatsFactory_JmsOnlyTransactions("test",
+                "testversion", sessionPool, MatsSerializerJson.create());
+        matsFactory.getFactoryConfig().setConcurrency(4);
+
+        String serviceId = MatsTestHelp.endpointId("Service");
+        CountDownLatch latch = new CountDownLatch(1);
+        MatsEndpoint<DataTO, StateTO> ep = matsFactory.staged(serviceId, DataTO.class, StateTO.class);
+        ep.stage(DataTO.class, (stageConfig) -> stageConfig.setPrefetch(3), (ctx, state, msg) -> ctx.next(msg));
+        ep.lastStage(DataTO.class, (ctx, state, msg) -> {
+            latch.countDown();
+            return msg;
+        });
+        Assert.assertTrue(matsFactory.waitForReceiving(30_000));
+
+        // :: Act
+
+        matsFactory.getDefaultInitiator().initiateUnchecked(init -> init.traceId(MatsTestHelp.traceId())
+                .from(MatsTestHelp.from("StagePrefetch"))
+                .to(serviceId)
+                .send(new DataTO(42, "TheAnswer")));
+
+        // :: Assert
+
+        Assert.assertTrue("Didn't get the message.", latch.await(30, TimeUnit.SECONDS));
+        Assert.assertEquals(3, ep.getStages().get(0).getStageConfig().getPrefetch());
+        int defaultPrefetch = ep.getStages().get(1).getStageConfig().getPrefetch();
+        Assert.assertEquals(10, defaultPrefetch);
+        String prefix = matsFactory.getFactoryConfig().getMatsDestinationPrefix();
+        assertConsumerPrefetch(brokerService, prefix + ep.getStages().get(0).getStageConfig().getStageId(), 3);
+        assertConsumerPrefetch(brokerService, prefix + ep.getStages().get(1).getStageConfig().getStageId(),
+                defaultPrefetch);
+
+        // :: Clean
+
+        matsFactory.stop(30_000);
+        int liveConnectionsAfterClose = sessionPool.closeAllAvailableSessions();
+        Assert.assertEquals("There should be no live JMS Connections.", 0, liveConnectionsAfterClose);
+        inVmActiveMq.close();
+    }
+
+    private void assertConsumerPrefetch(BrokerService brokerService, String queueName, int expectedPrefetch)
+            throws Exception {
+        Destination destination = brokerService.getDestination(new ActiveMQQueue(queueName));
+        List<Subscription> consumers = destination.getConsumers();
+        Assert.assertEquals("All the StageProcessors should consume from [" + queueName + "].", 4, consumers.size());
+        for (Subscription consumer : consumers) {
+            Assert.assertEquals(expectedPrefetch, consumer.getConsumerInfo().getPrefetchSize());
+        }
+    }
+}
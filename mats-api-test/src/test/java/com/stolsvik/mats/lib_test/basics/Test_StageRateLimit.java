@@ -0,0 +1,111 @@
+package com.stolsvik.mats.lib_test.basics;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import com.stolsvik.mats.MatsStage.StageConfig;
+import com.stolsvik.mats.lib_test.DataTO;
+import com.stolsvik.mats.lib_test.StateTO;
+import com.stolsvik.mats.test.MatsTestHelp;
+import com.stolsvik.mats.test.junit.Rule_Mats;
+
+/**
+ * Tests the stage rate limit (read more at {@link StageConfig#setRateLimit(double, int)}): A bunch of messages are sent
+ * to a Terminator with several StageProcessors and a rate limit divided among two nodes - asserting that they are not
+ * processed faster than this node's share of the rate, also not bursted by the StageProcessors idling in the receive.
+ * <p>
+ * ASCII-artsy, it looks like this:
+ *
+ * <pre>
+ * [Initiator]   - send
+ * [Terminator]  - rate limited
+ * </pre>
+ */
+public class Test_StageRateLimit {
+    @ClassRule
+    public static final Rule_Mats MATS = Rule_Mats.create();
+
+    private static final String TERMINATOR = MatsTestHelp.terminator();
+
+    // 40 msgs/sec divided among 2 nodes, i.e. 20 msgs/sec for this node.
+    private static final double MESSAGES_PER_SECOND = 40;
+    private static final int NODES = 2;
+    private static final int CONCURRENCY = 4;
+    private static final int MESSAGES = 30;
+
+    private static final CountDownLatch _latch = new CountDownLatch(MESSAGES);
+    private static volatile long _firstProcessedNanos;
+    private static volatile long _lastProcessedNanos;
+
+    @BeforeClass
+    public static void setupTerminator() {
+        MATS.getMatsFactory().terminator(TERMINATOR, StateTO.class, DataTO.class,
+                endpointConfig -> endpointConfig.setConcurrency(CONCURRENCY),
+                stageConfig -> stageConfig.setRateLimit(MESSAGES_PER_SECOND, NODES),
+                (context, sto, dto) -> {
+                    synchronized (_latch) {
+                        long now = System.nanoTime();
+                        if (_firstProcessedNanos == 0) {
+                            _firstProcessedNanos = now;
+                        }
+                        _lastProcessedNanos = now;
+                    }
+                    _latch.countDown();
+                });
+    }
+
+    @Test
+    public void notProcessedFasterThanTheRate() throws InterruptedException {
+        StageConfig<?, ?, ?> stageConfig = stageConfig(TERMINATOR);
+        Assert.assertEquals(MESSAGES_PER_SECOND, stageConfig.getRateLimitMessagesPerSecond(), 0d);
+        Assert.assertEquals(NODES, stageConfig.getRateLimitNodes());
+        // There is no prefetch by default, so that the messages waiting for the rate stay on the broker.
+        Assert.assertEquals(0, stageConfig.getPrefetch());
+
+        for (int i = 0; i < MESSAGES; i++) {
+            DataTO dto = new DataTO(i, "Message" + i);
+            MATS.getMatsInitiator().initiateUnchecked(
+                    (msg) -> msg.traceId(MatsTestHelp.traceId())
+                            .from(MatsTestHelp.from("rateLimited"))
+                            .to(TERMINATOR)
+                            .send(dto, new StateTO(420, 420.024)));
+        }
+        Assert.assertTrue("Didn't get all the messages.", _latch.await(30, TimeUnit.SECONDS));
+
+        // Only the bucket may hold a token when the messages arrive - the rest must be paced.
+        long minimumMillis = (long) (((MESSAGES - 1) / (MESSAGES_PER_SECOND / NODES)) * 1000);
+        long millisTaken = TimeUnit.NANOSECONDS.toMillis(_lastProcessedNanos - _firstProcessedNanos);
+        // (Not asserting the upper bound, as the test machine may be slow. Some slack for the clock.)
+        Assert.assertTrue("The messages should have taken at least [" + minimumMillis + " ms] to process, but took ["
+                + millisTaken + " ms].", millisTaken >= minimumMillis - 50);
+    }
+
+    @Test
+    public void disabledByDefault() {
+        MATS.getMatsFactory().terminator(TERMINATOR + ".NoRateLimit", StateTO.class, DataTO.class,
+                (context, sto, dto) -> {
+                });
+        StageConfig<?, ?, ?> stageConfig = stageConfig(TERMINATOR + ".NoRateLimit");
+        Assert.assertEquals(0d, stageConfig.getRateLimitMessagesPerSecond(), 0d);
+        Assert.assertEquals(1, stageConfig.getRateLimitNodes());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroNodesIsRejected() {
+        stageConfig(TERMINATOR).setRateLimit(10, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeRateIsRejected() {
+        stageConfig(TERMINATOR).setRateLimit(-1);
+    }
+
+    private static StageConfig<?, ?, ?> stageConfig(String endpointId) {
+        return MATS.getMatsFactory().getEndpoint(endpointId).get().getStages().get(0).getStageConfig();
+    }
+}
@@ -0,0 +1,96 @@
+package com.stolsvik.mats.lib_test.basics;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.slf4j.Logger;
+
+import com.stolsvik.mats.MatsStage;
+import com.stolsvik.mats.MatsStatistics;
+import com.stolsvik.mats.MatsStatistics.Histogram;
+import com.stolsvik.mats.MatsStatistics.Phase;
+import com.stolsvik.mats.lib_test.DataTO;
+import com.stolsvik.mats.lib_test.StateTO;
+import com.stolsvik.mats.test.MatsTestHelp;
+import com.stolsvik.mats.test.MatsTestLatch.Result;
+import com.stolsvik.mats.test.junit.Rule_Mats;
+
+/**
+ * Tests that the {@link MatsStatistics} of stages and initiators are recorded: Sets up a single-stage service and a
+ * Terminator, does a few requests, and then checks the statistics of the service's stage and of the initiators.
+ *
+ * <pre>
+ * [Initiator]   - request
+ *     [Service] - reply
+ * [Terminator]
+ * </pre>
+ */
+public class Test_Statistics {
+    private static final Logger log = MatsTestHelp.getClassLogger();
+
+    @ClassRule
+    public static final Rule_Mats MATS = Rule_Mats.create();
+
+    private static final String SERVICE = MatsTestHelp.service();
+    private static final String TERMINATOR = MatsTestHelp.terminator();
+
+    private static final int NUMBER_OF_MESSAGES = 5;
+
+    @BeforeClass
+    public static void setupServiceAndTerminator() {
+        MATS.getMatsFactory().single(SERVICE, DataTO.class, DataTO.class,
+                (context, dto) -> new DataTO(dto.number * 2, dto.string + ":FromService"));
+        MATS.getMatsFactory().terminator(TERMINATOR, StateTO.class, DataTO.class,
+                (context, sto, dto) -> MATS.getMatsTestLatch().resolve(sto, dto));
+    }
+
+    @Test
+    public void doTest() throws InterruptedException {
+        for (int i = 0; i < NUMBER_OF_MESSAGES; i++) {
+            DataTO dto = new DataTO(i, "TheAnswer");
+            MATS.getMatsInitiator().initiateUnchecked(
+                    (msg) -> msg.traceId(MatsTestHelp.traceId())
+                            .from(MatsTestHelp.from("test"))
+                            .to(SERVICE)
+                            .replyTo(TERMINATOR, new StateTO(1, 2))
+                            .request(dto));
+            Result<StateTO, DataTO> result = MATS.getMatsTestLatch().waitForResult();
+            Assert.assertEquals(new DataTO(dto.number * 2, dto.string + ":FromService"), result.getData());
+        }
+
+        MatsStage<?, ?, ?> serviceStage = MATS.getMatsFactory().getEndpoint(SERVICE).get().getStages().get(0);
+        MatsStatistics serviceStatistics = serviceStage.getStatistics();
+
+        // The TOTAL timing is recorded after commit, which might be after the Terminator has resolved the latch.
+        for (int i = 0; i < 100; i++) {
+            if (serviceStatistics.getTiming(Phase.TOTAL).getCount() == NUMBER_OF_MESSAGES) {
+                break;
+            }
+            Thread.sleep(10);
+        }
+        log.info("Service statistics: " + serviceStatistics);
+
+        for (Phase phase : Phase.values()) {
+            Histogram timing = serviceStatistics.getTiming(phase);
+            Assert.assertEquals("Phase " + phase, NUMBER_OF_MESSAGES, timing.getCount());
+            Assert.assertTrue(timing.get50thPercentile() <= timing.get99thPercentile());
+            Assert.assertTrue(timing.get99thPercentile() <= timing.get999thPercentile());
+            Assert.assertTrue(timing.get999thPercentile() <= timing.getMax());
+        }
+        Assert.assertTrue(serviceStatistics.getTiming(Phase.TOTAL).getMax() > 0);
+        Assert.assertEquals(NUMBER_OF_MESSAGES, serviceStatistics.getBytesIn().getCount());
+        Assert.assertTrue(serviceStatistics.getBytesIn().get50thPercentile() > 0);
+        Assert.assertEquals(NUMBER_OF_MESSAGES, serviceStatistics.getBytesOut().getCount());
+
+        // :: The initiations - sum up over all initiators, as the test rule decides which initiator is used.
+        long initiations = MATS.getMatsFactory().getInitiatorStatistics().values().stream()
+                .mapToLong(s -> s.getTiming(Phase.TOTAL).getCount())
+                .sum();
+        long initiatedMessages = MATS.getMatsFactory().getInitiatorStatistics().values().stream()
+                .mapToLong(s -> s.getBytesOut().getCount())
+                .sum();
+        Assert.assertEquals(NUMBER_OF_MESSAGES, initiations);
+        Assert.assertEquals(NUMBER_OF_MESSAGES, initiatedMessages);
+    }
+}
@@ -0,0 +1,114 @@
+package com.stolsvik.mats.lib_test.concurrency;
+
+import java.lang.management.ManagementFactory;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ch.qos.logback.classic.Level;
+
+import com.stolsvik.mats.lib_test.DataTO;
+import com.stolsvik.mats.lib_test.StateTO;
+import com.stolsvik.mats.test.MatsTestHelp;
+import com.stolsvik.mats.test.junit.Rule_Mats;
+
+/**
+ * Allocation-per-message benchmark for the StageProcessor's receive loop: Sends a bunch of messages to a Terminator
+ * with concurrency 1, and uses the JVM's per-thread allocation counter to measure how many bytes the single
+ * StageProcessor thread allocates per message, after a warmup round. This includes everything happening on that thread:
+ * The JMS receive, deserialization, the user lambda (which here does nothing), commit and logging (at INFO level).
+ * <p/>
+ * The number is logged, so that the effect of changes in the hot loop can be compared. The assertion is an upper bound
+ * of about 1.5x the measured baseline (~21 KB per message on JDK 11 with the in-VM ActiveMQ broker, the larger part
+ * being the broker client's receive and the serialization), so that a regression of a few KB per message fails.
+ */
+public class Test_AllocationPerMessage {
+    private static final Logger log = MatsTestHelp.getClassLogger();
+
+    @ClassRule
+    public static final Rule_Mats MATS = Rule_Mats.create();
+
+    private static final String TERMINATOR = MatsTestHelp.terminator();
+
+    private static final int WARMUP_MESSAGES = 500;
+    private static final int MEASURED_MESSAGES = 2000;
+    private static final long MAX_BYTES_PER_MESSAGE = 32 * 1024;
+
+    private static volatile CountDownLatch _latch;
+
+    @BeforeClass
+    public static void setupTerminator() {
+        MATS.getMatsFactory().terminator(TERMINATOR, StateTO.class, DataTO.class,
+                endpointConfig -> endpointConfig.setConcurrency(1), stageConfig -> {
+                },
+                (context, sto, dto) -> _latch.countDown());
+    }
+
+    @Test
+    public void measure() throws InterruptedException {
+        com.sun.management.ThreadMXBean threadMXBean;
+        try {
+            threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        }
+        catch (ClassCastException e) {
+            Assume.assumeNoException("No com.sun.management.ThreadMXBean, cannot measure allocations.", e);
+            return;
+        }
+        Assume.assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+        threadMXBean.setThreadAllocatedMemoryEnabled(true);
+
+        // :: Warmup, also making sure that the StageProcessor is up and running.
+        sendAndWait(WARMUP_MESSAGES);
+
+        Optional<Thread> processorThread = Thread.getAllStackTraces().keySet().stream()
+                .filter(t -> t.getName().startsWith("MATS:" + TERMINATOR + "#"))
+                .findFirst();
+        Assert.assertTrue("Should have found the StageProcessor thread.", processorThread.isPresent());
+        long threadId = processorThread.get().getId();
+
+        // :: Measure, with logging at INFO as in a typical production setup (the test config is DEBUG).
+        ch.qos.logback.classic.Logger rootLogger = (ch.qos.logback.classic.Logger) LoggerFactory
+                .getLogger(Logger.ROOT_LOGGER_NAME);
+        Level levelBefore = rootLogger.getLevel();
+        long allocatedBefore;
+        long allocatedAfter;
+        try {
+            rootLogger.setLevel(Level.INFO);
+            allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+            sendAndWait(MEASURED_MESSAGES);
+            // Let the processor get back into receive, so that the last message's post-processing is included.
+            Thread.sleep(100);
+            allocatedAfter = threadMXBean.getThreadAllocatedBytes(threadId);
+        }
+        finally {
+            rootLogger.setLevel(levelBefore);
+        }
+
+        long bytesPerMessage = (allocatedAfter - allocatedBefore) / MEASURED_MESSAGES;
+        log.info("ALLOCATION BENCHMARK: StageProcessor allocated [" + bytesPerMessage + " bytes] per message,"
+                + " measured over [" + MEASURED_MESSAGES + "] messages.");
+        Assert.assertTrue("Too much allocation per message: [" + bytesPerMessage + "] bytes, while the bound is ["
+                + MAX_BYTES_PER_MESSAGE + "] bytes.", bytesPerMessage < MAX_BYTES_PER_MESSAGE);
+    }
+
+    private void sendAndWait(int numberOfMessages) throws InterruptedException {
+        _latch = new CountDownLatch(numberOfMessages);
+        MATS.getMatsInitiator().initiateUnchecked(init -> {
+            for (int i = 0; i < numberOfMessages; i++) {
+                init.traceId(MatsTestHelp.traceId())
+                        .from(MatsTestHelp.from("allocation"))
+                        .to(TERMINATOR)
+                        .send(new DataTO(i, "allocation"));
+            }
+        });
+        Assert.assertTrue("Didn't get all messages.", _latch.await(60, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,176 @@
+package com.stolsvik.mats.lib_test.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Queue;
+import javax.jms.Session;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import com.stolsvik.mats.MatsEndpoint;
+import com.stolsvik.mats.MatsEndpoint.EndpointConfig;
+import com.stolsvik.mats.impl.jms.JmsMatsStatics;
+import com.stolsvik.mats.impl.jms.JmsMatsTransactionManager_JmsAndJdbc;
+import com.stolsvik.mats.lib_test.DataTO;
+import com.stolsvik.mats.lib_test.StateTO;
+import com.stolsvik.mats.test.MatsTestHelp;
+import com.stolsvik.mats.test.junit.Rule_Mats;
+
+/**
+ * Tests duplicate suppression (read more at {@link EndpointConfig#setDuplicateSuppression(int, long)}) by simulating
+ * a redelivery: The message to a Terminator is sent before the Terminator exists, then picked off the queue using
+ * plain JMS and put back again - twice for the in-memory variant, while for the table variant the MatsMessageId is
+ * first recorded in the duplicate suppression table, as if another node had processed it but its JMS commit was lost.
+ * For the in-memory variant, the two copies are received concurrently by two StageProcessors, so that the second
+ * arrives while the first is still in flight.
+ */
+public class Test_DuplicateSuppression {
+    @ClassRule
+    public static final Rule_Mats MATS = Rule_Mats.createWithDb();
+
+    private static final String TABLE = "mats_duplicate_suppression";
+
+    @BeforeClass
+    public static void setupTable() throws SQLException {
+        try (Connection con = MATS.getDataSource().getConnection();
+                Statement stmt = con.createStatement()) {
+            stmt.execute("CREATE TABLE " + TABLE + " (stage_id VARCHAR(255) NOT NULL,"
+                    + " mats_msg_id VARCHAR(255) NOT NULL, processed_ts BIGINT NOT NULL,"
+                    + " PRIMARY KEY (stage_id, mats_msg_id))");
+        }
+        ((JmsMatsTransactionManager_JmsAndJdbc) MATS.getJmsMatsFactory().getJmsMatsTransactionManager())
+                .setDuplicateSuppressionTable(TABLE);
+    }
+
+    @Test
+    public void redeliveryOfCommittedIsDropped() throws JMSException, InterruptedException, SQLException {
+        String terminatorId = MatsTestHelp.endpointId("InMemory");
+        sendBeforeTerminatorExists(terminatorId);
+        String matsMessageId = redeliver(terminatorId, 2);
+
+        AtomicInteger processed = new AtomicInteger();
+        MatsEndpoint<Void, StateTO> terminator = createTerminator(terminatorId, processed);
+
+        waitForDuplicatesDropped(terminator, 1);
+        // The copy being processed may still be in its lambda when the other copy is dropped as in flight.
+        long until = System.currentTimeMillis() + 10_000;
+        while ((processed.get() < 1) && (System.currentTimeMillis() < until)) {
+            Thread.sleep(5);
+        }
+        // Give any wrongly processed second copy the chance to show up.
+        Thread.sleep(300);
+        Assert.assertEquals(1, processed.get());
+        // The processed message is recorded in the table, so that other nodes will also drop it.
+        Assert.assertTrue(isInTable(terminatorId, matsMessageId));
+    }
+
+    @Test
+    public void messageRecordedInTableIsDropped() throws JMSException, InterruptedException, SQLException {
+        String terminatorId = MatsTestHelp.endpointId("Table");
+        sendBeforeTerminatorExists(terminatorId);
+        String matsMessageId = redeliver(terminatorId, 1);
+        // As if processed on another node, where the SQL commit went through, but the JMS commit did not.
+        try (Connection con = MATS.getDataSource().getConnection();
+                PreparedStatement pStmt = con.prepareStatement("INSERT INTO " + TABLE
+                        + " (stage_id, mats_msg_id, processed_ts) VALUES (?, ?, ?)")) {
+            pStmt.setString(1, terminatorId);
+            pStmt.setString(2, matsMessageId);
+            pStmt.setLong(3, System.currentTimeMillis());
+            pStmt.executeUpdate();
+        }
+
+        AtomicInteger processed = new AtomicInteger();
+        MatsEndpoint<Void, StateTO> terminator = createTerminator(terminatorId, processed);
+
+        waitForDuplicatesDropped(terminator, 1);
+        Assert.assertEquals(0, processed.get());
+    }
+
+    private void sendBeforeTerminatorExists(String terminatorId) {
+        MATS.getMatsInitiator().initiateUnchecked(
+                (msg) -> msg.traceId(MatsTestHelp.traceId())
+                        .from(MatsTestHelp.from("test"))
+                        .to(terminatorId)
+                        .send(new DataTO(42, "TheAnswer")));
+    }
+
+    /**
+     * Picks the message off the queue using plain JMS, and puts back the specified number of copies of it.
+     *
+     * @return the MatsMessageId of the message.
+     */
+    private String redeliver(String terminatorId, int copies) throws JMSException {
+        javax.jms.Connection jmsConnection = MATS.getJmsConnectionFactory().createConnection();
+        try {
+            jmsConnection.start();
+            Session session = jmsConnection.createSession(true, Session.SESSION_TRANSACTED);
+            Queue queue = session.createQueue(MATS.getMatsFactory().getFactoryConfig().getMatsDestinationPrefix()
+                    + terminatorId);
+            MessageConsumer consumer = session.createConsumer(queue);
+            Message message = consumer.receive(10_000);
+            Assert.assertNotNull("Didn't get the message from the queue.", message);
+            MessageProducer producer = session.createProducer(queue);
+            for (int i = 0; i < copies; i++) {
+                producer.send(message);
+            }
+            session.commit();
+            return message.getStringProperty(JmsMatsStatics.JMS_MSG_PROP_MATS_MSG_ID);
+        }
+        finally {
+            jmsConnection.close();
+        }
+    }
+
+    private MatsEndpoint<Void, StateTO> createTerminator(String terminatorId, AtomicInteger processed) {
+        return MATS.getMatsFactory().terminator(terminatorId, StateTO.class, DataTO.class,
+                (endpointConfig) -> endpointConfig.setDuplicateSuppression(1000, 60_000).setConcurrency(2),
+                // Prefetch 1, so that the broker hands the second copy to the other StageProcessor while the first
+                // is processing the first copy.
+                (stageConfig) -> stageConfig.setPrefetch(1),
+                (context, sto, dto) -> {
+                    processed.incrementAndGet();
+                    // Slow, so that the copies are processed concurrently by the two StageProcessors, i.e. the second
+                    // is received before the first is committed - which shall still be a duplicate.
+                    try {
+                        Thread.sleep(200);
+                    }
+                    catch (InterruptedException e) {
+                        throw new AssertionError("Got interrupted.", e);
+                    }
+                });
+    }
+
+    private void waitForDuplicatesDropped(MatsEndpoint<Void, StateTO> terminator, long expected)
+            throws InterruptedException {
+        long until = System.currentTimeMillis() + 10_000;
+        while ((terminator.getStages().get(0).getStatistics().getDuplicatesDropped() < expected)
+                && (System.currentTimeMillis() < until)) {
+            Thread.sleep(5);
+        }
+        Assert.assertEquals(expected, terminator.getStages().get(0).getStatistics().getDuplicatesDropped());
+    }
+
+    private boolean isInTable(String stageId, String matsMessageId) throws SQLException {
+        try (Connection con = MATS.getDataSource().getConnection();
+                PreparedStatement pStmt = con.prepareStatement("SELECT 1 FROM " + TABLE
+                        + " WHERE stage_id = ? AND mats_msg_id = ?")) {
+            pStmt.setString(1, stageId);
+            pStmt.setString(2, matsMessageId);
+            try (ResultSet rs = pStmt.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.stolsvik.mats.lib_test.failure;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSException;
+import javax.jms.Session;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.stolsvik.mats.impl.jms.JmsMatsFactory;
+import com.stolsvik.mats.impl.jms.JmsMatsJmsSessionHandler_Pooling;
+import com.stolsvik.mats.lib_test.DataTO;
+import com.stolsvik.mats.lib_test.StateTO;
+import com.stolsvik.mats.serial.json.MatsSerializerJson;
+import com.stolsvik.mats.test.MatsTestHelp;
+import com.stolsvik.mats.util_activemq.MatsLocalVmActiveMq;
+
+/**
+ * Tests that a session-level JMS failure only discards the failing JMS Session, not the shared JMS Connection (read
+ * more at {@link JmsMatsJmsSessionHandler_Pooling#getSessionLevelCrashes()}): The ConnectionFactory is wrapped so that
+ * the commit of the Terminator's JMS Session can be made to fail once - asserting that the message is redelivered and
+ * processed, and that no new JMS Connection was created.
+ */
+public class Test_SessionCrashContainment {
+
+    @Test
+    public void sessionFailureDoesNotCrashConnection() throws InterruptedException {
+        // :: Arrange
+
+        MatsLocalVmActiveMq inVmActiveMq = MatsLocalVmActiveMq.createInVmActiveMq("SessionCrashContainment");
+        String terminatorId = MatsTestHelp.terminator();
+        AtomicInteger connectionsCreated = new AtomicInteger();
+        AtomicBoolean failTerminatorCommit = new AtomicBoolean(true);
+        ConnectionFactory failingConnectionFactory = proxy(ConnectionFactory.class,
+                inVmActiveMq.getConnectionFactory(), (method, result) -> {
+                    if (method.equals("createConnection")) {
+                        connectionsCreated.incrementAndGet();
+                        return proxy(Connection.class, result, (connMethod, connResult) -> {
+                            if (connMethod.equals("createSession")) {
+                                return failingCommitSession((Session) connResult, terminatorId,
+                                        failTerminatorCommit);
+                            }
+                            return connResult;
+                        });
+                    }
+                    return result;
+                });
+        JmsMatsJmsSessionHandler_Pooling sessionPool = JmsMatsJmsSessionHandler_Pooling
+                .create(failingConnectionFactory);
+        JmsMatsFactory<String> matsFactory = JmsMatsFactory.createMatsFactory_JmsOnlyTransactions("test",
+                "testversion", sessionPool, MatsSerializerJson.create());
+        matsFactory.getFactoryConfig().setConcurrency(2);
+
+        AtomicInteger processed = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(2);
+        matsFactory.terminator(terminatorId, StateTO.class, DataTO.class, (context, sto, dto) -> {
+            processed.incrementAndGet();
+            latch.countDown();
+        });
+        Assert.assertTrue(matsFactory.waitForReceiving(30_000));
+
+        // :: Act
+
+        matsFactory.getDefaultInitiator().initiateUnchecked(init -> init.traceId(MatsTestHelp.traceId())
+                .from(MatsTestHelp.from("SessionCrashContainment"))
+                .to(terminatorId)
+                .send(new DataTO(42, "TheAnswer")));
+
+        // :: Assert
+
+        // Processed twice: First time the commit fails, then redelivered.
+        Assert.assertTrue("Didn't get the message redelivered.", latch.await(30, TimeUnit.SECONDS));
+        Assert.assertFalse("The commit should have failed.", failTerminatorCommit.get());
+        Assert.assertEquals(1, sessionPool.getSessionLevelCrashes());
+        Assert.assertEquals(0, sessionPool.getConnectionLevelCrashes());
+        Assert.assertEquals("The shared JMS Connection should not have been recreated.", 1,
+                connectionsCreated.get());
+
+        // :: Clean
+
+        matsFactory.stop(30_000);
+        int liveConnectionsAfterClose = sessionPool.closeAllAvailableSessions();
+        Assert.assertEquals("There should be no live JMS Connections.", 0, liveConnectionsAfterClose);
+        inVmActiveMq.close();
+    }
+
+    private static Session failingCommitSession(Session session, String terminatorId,
+            AtomicBoolean failTerminatorCommit) {
+        return proxy(Session.class, session, null, (method) -> {
+            // ?: Is this the Terminator committing, and should it fail?
+            if (method.equals("commit") && Thread.currentThread().getName().contains(terminatorId)
+                    && failTerminatorCommit.compareAndSet(true, false)) {
+                // -> Yes, so fail - rolling back, as a failed commit would.
+                session.rollback();
+                throw new JMSException("Simulated session-level failure on commit.");
+            }
+        });
+    }
+
+    @FunctionalInterface
+    private interface ResultMapper {
+        Object map(String methodName, Object result) throws JMSException;
+    }
+
+    @FunctionalInterface
+    private interface BeforeInvoke {
+        void before(String methodName) throws JMSException;
+    }
+
+    private static <T> T proxy(Class<T> iface, Object target, ResultMapper resultMapper) {
+        return proxy(iface, target, resultMapper, null);
+    }
+
+    private static <T> T proxy(Class<T> iface, Object target, ResultMapper resultMapper, BeforeInvoke beforeInvoke) {
+        InvocationHandler handler = (p, method, args) -> {
+            if (beforeInvoke != null) {
+                beforeInvoke.before(method.getName());
+            }
+            Object result;
+            try {
+                result = method.invoke(target, args);
+            }
+            catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+            return resultMapper != null ? resultMapper.map(method.getName(), result) : result;
+        };
+        return iface.cast(Proxy.newProxyInstance(Test_SessionCrashContainment.class.getClassLoader(),
+                new Class<?>[] { iface }, handler));
+    }
+}
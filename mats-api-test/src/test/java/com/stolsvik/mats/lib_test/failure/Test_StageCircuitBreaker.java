@@ -0,0 +1,110 @@
+package com.stolsvik.mats.lib_test.failure;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import com.stolsvik.mats.MatsStage.CircuitBreakerState;
+import com.stolsvik.mats.MatsStage.StageConfig;
+import com.stolsvik.mats.lib_test.DataTO;
+import com.stolsvik.mats.lib_test.StateTO;
+import com.stolsvik.mats.test.MatsTestHelp;
+import com.stolsvik.mats.test.MatsTestLatch.Result;
+import com.stolsvik.mats.test.junit.Rule_Mats;
+
+/**
+ * Tests the stage circuit breaker (read more at {@link StageConfig#setCircuitBreaker(int, int, long, long)}): A
+ * Terminator whose "downstream dependency" is down throws on every message, which opens its breaker, parking the
+ * StageProcessors. When the dependency is back up, a probe message is let through after the probe interval, and when
+ * it succeeds, the breaker closes and messages flow as usual.
+ * <p>
+ * ASCII-artsy, it looks like this:
+ *
+ * <pre>
+ * [Initiator]   - send
+ * [Terminator]  - throws while "down", opening the circuit breaker
+ * </pre>
+ */
+public class Test_StageCircuitBreaker {
+    @ClassRule
+    public static final Rule_Mats MATS = Rule_Mats.create();
+
+    private static final String TERMINATOR = MatsTestHelp.terminator();
+
+    private static volatile boolean _downstreamDown;
+    private static final AtomicInteger _failedProcessings = new AtomicInteger();
+
+    @BeforeClass
+    public static void setupTerminator() {
+        MATS.getMatsFactory().terminator(TERMINATOR, StateTO.class, DataTO.class, endpointConfig -> {
+        }, stageConfig -> stageConfig.setCircuitBreaker(50, 2, 30_000, 500),
+                (context, sto, dto) -> {
+                    if (_downstreamDown) {
+                        _failedProcessings.incrementAndGet();
+                        throw new RuntimeException("Downstream dependency is down!");
+                    }
+                    // Only resolve for the good message, not for any redeliveries of the failed ones.
+                    if (dto.string.equals("Good")) {
+                        MATS.getMatsTestLatch().resolve(sto, dto);
+                    }
+                });
+    }
+
+    @Test
+    public void opensOnFailuresAndClosesOnSuccessfulProbe() throws InterruptedException {
+        StageConfig<?, ?, ?> stageConfig = MATS.getMatsFactory().getEndpoint(TERMINATOR).get()
+                .getStages().get(0).getStageConfig();
+        Assert.assertEquals(CircuitBreakerState.CLOSED, stageConfig.getCircuitBreakerState());
+
+        // :: Take the "downstream dependency" down, and send messages that will fail.
+        _downstreamDown = true;
+        send(new DataTO(1, "Bad"));
+        send(new DataTO(2, "Bad"));
+
+        // The breaker shall open
+        waitForState(stageConfig, CircuitBreakerState.OPEN);
+        Assert.assertTrue(_failedProcessings.get() >= 2);
+
+        // :: Bring the "downstream dependency" back up, and send a good message.
+        _downstreamDown = false;
+        DataTO dto = new DataTO(42, "Good");
+        send(dto);
+
+        // The probe succeeds (whether it was a redelivery of a failed message, or the good one), so the good message
+        // shall get through, and the breaker shall be closed.
+        Result<StateTO, DataTO> result = MATS.getMatsTestLatch().waitForResult();
+        Assert.assertEquals(dto, result.getData());
+        Assert.assertEquals(CircuitBreakerState.CLOSED, stageConfig.getCircuitBreakerState());
+    }
+
+    @Test
+    public void disabledByDefault() {
+        MATS.getMatsFactory().terminator(TERMINATOR + ".NoBreaker", StateTO.class, DataTO.class,
+                (context, sto, dto) -> {
+                });
+        StageConfig<?, ?, ?> stageConfig = MATS.getMatsFactory().getEndpoint(TERMINATOR + ".NoBreaker").get()
+                .getStages().get(0).getStageConfig();
+        Assert.assertEquals(0, stageConfig.getCircuitBreakerFailureRatePercent());
+        Assert.assertEquals(CircuitBreakerState.DISABLED, stageConfig.getCircuitBreakerState());
+    }
+
+    private static void waitForState(StageConfig<?, ?, ?> stageConfig, CircuitBreakerState state)
+            throws InterruptedException {
+        long until = System.currentTimeMillis() + 30_000;
+        while ((stageConfig.getCircuitBreakerState() != state) && (System.currentTimeMillis() < until)) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(state, stageConfig.getCircuitBreakerState());
+    }
+
+    private static void send(DataTO dto) {
+        MATS.getMatsInitiator().initiateUnchecked(
+                (msg) -> msg.traceId(MatsTestHelp.traceId())
+                        .from(MatsTestHelp.from("test"))
+                        .to(TERMINATOR)
+                        .send(dto, new StateTO(420, 420.024)));
+    }
+}
@@ -0,0 +1,99 @@
+package com.stolsvik.mats.lib_test.failure;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import com.stolsvik.mats.MatsStage.StageConfig;
+import com.stolsvik.mats.lib_test.DataTO;
+import com.stolsvik.mats.lib_test.StateTO;
+import com.stolsvik.mats.test.MatsTestHelp;
+import com.stolsvik.mats.test.MatsTestMqInterface.MatsMessageRepresentation;
+import com.stolsvik.mats.test.junit.Rule_Mats;
+
+/**
+ * Tests the per-stage redelivery policy (read more at {@link StageConfig#setRedeliveryPolicy(int, long, long)}),
+ * overriding the test broker's policy of one redelivery: One always-failing Terminator fails fast, with zero
+ * redeliveries, while another backs off exponentially over three redeliveries - both ending up on the DLQ after the
+ * expected number of invocations.
+ * <p>
+ * ASCII-artsy, it looks like this:
+ *
+ * <pre>
+ * [Initiator]   - send
+ * [Terminator]  - throws, message ends up on DLQ after the stage's redeliveries.
+ * </pre>
+ */
+public class Test_StageRedeliveryPolicy {
+    @ClassRule
+    public static final Rule_Mats MATS = Rule_Mats.create();
+
+    private static final String FAIL_FAST = MatsTestHelp.endpointId("FailFast");
+    private static final String BACK_OFF = MatsTestHelp.endpointId("BackOff");
+
+    private static final List<Long> _failFastInvocations = new CopyOnWriteArrayList<>();
+    private static final List<Long> _backOffInvocations = new CopyOnWriteArrayList<>();
+
+    @BeforeClass
+    public static void setupTerminators() {
+        MATS.getMatsFactory().terminator(FAIL_FAST, StateTO.class, DataTO.class, endpointConfig -> {
+        }, stageConfig -> stageConfig.setRedeliveryPolicy(0, -1, -1),
+                (context, sto, dto) -> {
+                    _failFastInvocations.add(System.nanoTime());
+                    throw new RuntimeException("Validation failed, which will not go away by trying again.");
+                });
+        MATS.getMatsFactory().terminator(BACK_OFF, StateTO.class, DataTO.class, endpointConfig -> {
+        }, stageConfig -> stageConfig.setRedeliveryPolicy(3, 50, 200),
+                (context, sto, dto) -> {
+                    _backOffInvocations.add(System.nanoTime());
+                    throw new RuntimeException("Flaky integration is down.");
+                });
+    }
+
+    @Test
+    public void failFast() {
+        StageConfig<?, ?, ?> stageConfig = MATS.getMatsFactory().getEndpoint(FAIL_FAST).get()
+                .getStages().get(0).getStageConfig();
+        Assert.assertEquals(0, stageConfig.getRedeliveryMaxRedeliveries());
+        Assert.assertEquals(-1, stageConfig.getRedeliveryInitialBackoffMillis());
+
+        send(FAIL_FAST);
+
+        MatsMessageRepresentation dlqMessage = MATS.getMatsTestMqInterface().getDlqMessage(FAIL_FAST);
+        Assert.assertEquals(FAIL_FAST, dlqMessage.getTo());
+        Assert.assertEquals("Should not have been redelivered.", 1, _failFastInvocations.size());
+    }
+
+    @Test
+    public void exponentialBackOff() {
+        send(BACK_OFF);
+
+        MatsMessageRepresentation dlqMessage = MATS.getMatsTestMqInterface().getDlqMessage(BACK_OFF);
+        Assert.assertEquals(BACK_OFF, dlqMessage.getTo());
+        Assert.assertEquals("Should have been delivered once, and redelivered three times.", 4,
+                _backOffInvocations.size());
+        // The backoffs should be 50, 100 and 200 ms, i.e. at least 350 ms in total. (Not asserting the upper bound,
+        // as the test machine may be slow.)
+        long totalMillis = (_backOffInvocations.get(3) - _backOffInvocations.get(0)) / 1_000_000L;
+        Assert.assertTrue("The redeliveries should have been backed off, took [" + totalMillis + " ms].",
+                totalMillis >= 350);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void maximumWithoutInitialIsRejected() {
+        MATS.getMatsFactory().getEndpoint(FAIL_FAST).get().getStages().get(0).getStageConfig()
+                .setRedeliveryPolicy(1, -1, 1000);
+    }
+
+    private static void send(String to) {
+        MATS.getMatsInitiator().initiateUnchecked(
+                (msg) -> msg.traceId(MatsTestHelp.traceId())
+                        .from(MatsTestHelp.from("test"))
+                        .to(to)
+                        .send(new DataTO(42, "TheAnswer"), new StateTO(420, 420.024)));
+    }
+}
@@ -0,0 +1,76 @@
+package com.stolsvik.mats.lib_test.lifecycle;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.jms.Connection;
+import javax.jms.JMSException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.stolsvik.mats.impl.jms.JmsMatsJmsException;
+import com.stolsvik.mats.impl.jms.JmsMatsMessageBrokerSpecifics;
+import com.stolsvik.mats.util_activemq.MatsLocalVmActiveMq;
+
+/**
+ * Tests the event-driven tracking of JMS Connection liveness (read more at
+ * {@link JmsMatsMessageBrokerSpecifics#registerConnectionExceptionListener(Connection, java.util.function.Consumer)}):
+ * The callback shall be invoked when the broker goes away, while an ExceptionListener already set on the Connection
+ * shall still be invoked - and the Connection shall then be found dead.
+ */
+public class Test_ConnectionLiveness {
+
+    @Test
+    public void foundDeadWhenBrokerStops() throws JMSException, InterruptedException, JmsMatsJmsException {
+        // :: Arrange
+
+        MatsLocalVmActiveMq inVmActiveMq = MatsLocalVmActiveMq.createInVmActiveMq("ConnectionLiveness");
+        Connection jmsConnection = inVmActiveMq.getConnectionFactory().createConnection();
+        CountDownLatch existingListenerLatch = new CountDownLatch(1);
+        jmsConnection.setExceptionListener(e -> existingListenerLatch.countDown());
+        AtomicReference<JMSException> reportedException = new AtomicReference<>();
+        CountDownLatch reportedLatch = new CountDownLatch(1);
+        boolean registered = JmsMatsMessageBrokerSpecifics.registerConnectionExceptionListener(jmsConnection, e -> {
+            reportedException.set(e);
+            reportedLatch.countDown();
+        });
+        jmsConnection.start();
+        Assert.assertTrue(registered);
+        // Live, so shall not throw.
+        JmsMatsMessageBrokerSpecifics.isConnectionLive(jmsConnection);
+
+        // :: Act
+
+        inVmActiveMq.close();
+
+        // :: Assert
+
+        Assert.assertTrue("The callback wasn't invoked.", reportedLatch.await(10, TimeUnit.SECONDS));
+        Assert.assertTrue("The existing ExceptionListener wasn't invoked.",
+                existingListenerLatch.await(10, TimeUnit.SECONDS));
+        // The Connection might not yet be marked as failed when the ExceptionListener is invoked.
+        long until = System.currentTimeMillis() + 10_000;
+        boolean dead = false;
+        while (!dead && (System.currentTimeMillis() < until)) {
+            try {
+                JmsMatsMessageBrokerSpecifics.isConnectionLiveAfterException(jmsConnection, reportedException.get());
+                Thread.sleep(5);
+            }
+            catch (JmsMatsJmsException e) {
+                dead = true;
+            }
+        }
+        Assert.assertTrue("The Connection should be found dead.", dead);
+
+        // :: Clean
+
+        try {
+            jmsConnection.close();
+        }
+        catch (JMSException e) {
+            // Expected: The close might fail on the dead Connection.
+        }
+    }
+}
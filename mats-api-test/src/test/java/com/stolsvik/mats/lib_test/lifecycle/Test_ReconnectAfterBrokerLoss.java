@@ -0,0 +1,76 @@
+package com.stolsvik.mats.lib_test.lifecycle;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.stolsvik.mats.impl.jms.JmsMatsFactory;
+import com.stolsvik.mats.impl.jms.JmsMatsJmsSessionHandler_Pooling;
+import com.stolsvik.mats.lib_test.DataTO;
+import com.stolsvik.mats.lib_test.StateTO;
+import com.stolsvik.mats.serial.json.MatsSerializerJson;
+import com.stolsvik.mats.test.MatsTestHelp;
+import com.stolsvik.mats.util_activemq.MatsLocalVmActiveMq;
+
+/**
+ * Tests the coordinated reconnect (read more at {@link JmsMatsJmsSessionHandler_Pooling#setReconnectBackoff(long,
+ * long)}): The broker is stopped for long enough that the StageProcessors' attempts to get a new JMS Connection fail,
+ * then started again - asserting that the Terminator then gets messages, and that the recovery is recorded.
+ */
+public class Test_ReconnectAfterBrokerLoss {
+    private static final String BROKER_NAME = "ReconnectAfterBrokerLoss";
+
+    @Test
+    public void recoversAfterBrokerRestart() throws Exception {
+        // :: Arrange
+
+        MatsLocalVmActiveMq inVmActiveMq = MatsLocalVmActiveMq.createInVmActiveMq(BROKER_NAME);
+        JmsMatsJmsSessionHandler_Pooling sessionPool = JmsMatsJmsSessionHandler_Pooling
+                .create(inVmActiveMq.getConnectionFactory())
+                .setReconnectBackoff(50, 500);
+        JmsMatsFactory<String> matsFactory = JmsMatsFactory.createMatsFactory_JmsOnlyTransactions("test",
+                "testversion", sessionPool, MatsSerializerJson.create());
+        matsFactory.getFactoryConfig().setConcurrency(4);
+
+        String terminatorId = MatsTestHelp.terminator();
+        CountDownLatch latch = new CountDownLatch(1);
+        matsFactory.terminator(terminatorId, StateTO.class, DataTO.class, (context, sto, dto) -> latch.countDown());
+        Assert.assertTrue(matsFactory.waitForReceiving(30_000));
+
+        // :: Act
+
+        inVmActiveMq.close();
+        // The StageProcessors chill a few seconds after crashing, so keep the broker down for longer than that.
+        long until = System.currentTimeMillis() + 30_000;
+        while ((sessionPool.getFailedReconnectAttempts() == 0) && (System.currentTimeMillis() < until)) {
+            Thread.sleep(50);
+        }
+        MatsLocalVmActiveMq restartedActiveMq = MatsLocalVmActiveMq.createInVmActiveMq(BROKER_NAME);
+        until = System.currentTimeMillis() + 30_000;
+        while ((sessionPool.getRecoveries() == 0) && (System.currentTimeMillis() < until)) {
+            Thread.sleep(50);
+        }
+        Assert.assertTrue(matsFactory.waitForReceiving(30_000));
+        matsFactory.getDefaultInitiator().initiateUnchecked(init -> init.traceId(MatsTestHelp.traceId())
+                .from(MatsTestHelp.from("ReconnectAfterBrokerLoss"))
+                .to(terminatorId)
+                .send(new DataTO(42, "TheAnswer")));
+
+        // :: Assert
+
+        Assert.assertTrue("Didn't get the message after the broker restart.", latch.await(30, TimeUnit.SECONDS));
+        Assert.assertTrue(sessionPool.getFailedReconnectAttempts() > 0);
+        Assert.assertTrue(sessionPool.getRecoveries() > 0);
+        Assert.assertTrue(sessionPool.getLastTimeToRecoverMillis() > 0);
+        Assert.assertTrue(sessionPool.getMaxTimeToRecoverMillis() >= sessionPool.getLastTimeToRecoverMillis());
+
+        // :: Clean
+
+        matsFactory.stop(30_000);
+        int liveConnectionsAfterClose = sessionPool.closeAllAvailableSessions();
+        Assert.assertEquals("There should be no live JMS Connections.", 0, liveConnectionsAfterClose);
+        restartedActiveMq.close();
+    }
+}
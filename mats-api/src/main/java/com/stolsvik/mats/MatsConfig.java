@@ -99,4 +99,130 @@ public interface MatsConfig {
          */
         boolean stop(int gracefulShutdownMillis);
     }
+
+    /**
+     * Policy for the per-message "lifecycle" INFO log lines that the Mats implementation outputs for every message
+     * received, produced, sent and processed (i.e. "RECEIVED", "PRODUCED", "SENT" and "PROCESSED" with timings). These
+     * are valuable when debugging, but at high volumes they cost a noticeable share of CPU, and drive log shipping
+     * costs. Set on the {@link FactoryConfig#setLifecycleLogging(LifecycleLogging) factory} (which is the default for
+     * all endpoints and initiators), and/or on the
+     * {@link MatsEndpoint.EndpointConfig#setLifecycleLogging(LifecycleLogging) endpoint}.
+     * <p/>
+     * The decision of whether a message's lifecycle is logged is taken once per message, and when it is not to be
+     * logged, the work of creating the log lines is skipped entirely. The MDC is set up as usual in all modes, so that
+     * log lines from user code are still tagged with traceId etc. Error and warning log lines are always output.
+     */
+    final class LifecycleLogging {
+        /**
+         * The modes of {@link LifecycleLogging}.
+         */
+        public enum Mode {
+            /**
+             * All lifecycle lines are logged for every message - this is the default.
+             */
+            FULL,
+
+            /**
+             * Every N'th message has all its lifecycle lines logged, the others none.
+             */
+            SAMPLED,
+
+            /**
+             * Only messages whose total processing time exceeds a threshold are logged, by a single summary line
+             * containing the timings of the processing.
+             */
+            SLOW,
+
+            /**
+             * No lifecycle lines are logged, only errors and warnings - and for a message whose processing throws or is
+             * rolled back, a single summary line containing the timings of the processing. (An initiation's failure is
+             * thrown out to the initiating code.)
+             */
+            ERRORS_ONLY
+        }
+
+        private static final LifecycleLogging FULL = new LifecycleLogging(Mode.FULL, 1, 0);
+        private static final LifecycleLogging ERRORS_ONLY = new LifecycleLogging(Mode.ERRORS_ONLY, 0, 0);
+
+        private final Mode _mode;
+        private final int _sampleEvery;
+        private final long _slowThresholdMillis;
+
+        private LifecycleLogging(Mode mode, int sampleEvery, long slowThresholdMillis) {
+            _mode = mode;
+            _sampleEvery = sampleEvery;
+            _slowThresholdMillis = slowThresholdMillis;
+        }
+
+        /**
+         * @return the policy logging all lifecycle lines for every message - which is the default.
+         */
+        public static LifecycleLogging full() {
+            return FULL;
+        }
+
+        /**
+         * @param everyNth
+         *            log the lifecycle of one in every <code>everyNth</code> messages. 1 is the same as
+         *            {@link #full()}.
+         * @return a policy logging the lifecycle of one in every <code>everyNth</code> messages.
+         */
+        public static LifecycleLogging sampled(int everyNth) {
+            if (everyNth < 1) {
+                throw new IllegalArgumentException("everyNth must be >= 1, was [" + everyNth + "].");
+            }
+            return new LifecycleLogging(Mode.SAMPLED, everyNth, 0);
+        }
+
+        /**
+         * @param thresholdMillis
+         *            log a summary line for the messages whose total processing time exceeds this number of
+         *            milliseconds.
+         * @return a policy only logging the messages whose total processing time exceeds the threshold.
+         */
+        public static LifecycleLogging slowerThan(long thresholdMillis) {
+            if (thresholdMillis < 0) {
+                throw new IllegalArgumentException("thresholdMillis must be >= 0, was [" + thresholdMillis + "].");
+            }
+            return new LifecycleLogging(Mode.SLOW, 0, thresholdMillis);
+        }
+
+        /**
+         * @return the policy not logging any lifecycle lines, only errors and warnings - and a summary line for a
+         *         message whose processing failed.
+         */
+        public static LifecycleLogging errorsOnly() {
+            return ERRORS_ONLY;
+        }
+
+        public Mode getMode() {
+            return _mode;
+        }
+
+        /**
+         * @return for {@link Mode#SAMPLED}, the N in "every N'th message" (for {@link Mode#FULL}, 1).
+         */
+        public int getSampleEvery() {
+            return _sampleEvery;
+        }
+
+        /**
+         * @return for {@link Mode#SLOW}, the threshold in milliseconds.
+         */
+        public long getSlowThresholdMillis() {
+            return _slowThresholdMillis;
+        }
+
+        @Override
+        public String toString() {
+            switch (_mode) {
+                case SAMPLED:
+                    return "LifecycleLogging[SAMPLED, every " + _sampleEvery + "]";
+                case SLOW:
+                    return "LifecycleLogging[SLOW, > " + _slowThresholdMillis + " ms]";
+                default:
+                    return "LifecycleLogging[" + _mode + "]";
+            }
+        }
+    }
 }
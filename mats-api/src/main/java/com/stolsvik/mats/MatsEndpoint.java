@@ -1,8 +1,10 @@
 package com.stolsvik.mats;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 import com.stolsvik.mats.MatsConfig.StartStoppable;
 import com.stolsvik.mats.MatsFactory.ContextLocal;
@@ -222,6 +224,78 @@ public interface MatsEndpoint<R, S> extends StartStoppable {
         <T> T toClass(Class<T> type) throws IllegalArgumentException;
     }
 
+    /**
+     * The store holding the partial results of scatter-gathers, i.e. the replies that have arrived for the requests
+     * issued by {@link ProcessContext#scatter(String, List, long) ProcessContext.scatter(..)}, until all have arrived
+     * or the timeout kicks in - read more there. Set using
+     * {@link EndpointConfig#setScatterGatherStore(ScatterGatherStore)}.
+     * <p/>
+     * The replies are provided in their serialized form, as produced by the MatsFactory's serializer (e.g. a String
+     * for a JSON-based serializer). The methods are invoked by the StageProcessors within their processing, i.e.
+     * before the commit - and the processing may be rolled back, whereupon the message is redelivered: Thus,
+     * {@link #addReply(String, int, Object) addReply(..)} and {@link #timeout(String) timeout(..)} must be
+     * idempotent, returning the same result on redelivery until the gather is {@link #remove(String) removed}, which
+     * is done when the gather stage's processing has committed. The implementation must be thread safe, and if the
+     * endpoint runs on several nodes, it must be shared between them - as the replies are received by whichever node
+     * gets them: A reply or timeout for a gather that is not {@link #isKnown(String) known} to the store is refused,
+     * thus ending up on the DLQ instead of being silently dropped.
+     */
+    interface ScatterGatherStore {
+        /**
+         * Registers a new gather, invoked by the scattering stage.
+         *
+         * @param gatherId
+         *            the unique id of the gather.
+         * @param count
+         *            the number of requests scattered, i.e. the number of replies to gather.
+         * @param timeoutMillis
+         *            the timeout of the gather - the store may forget gathers that are well past it.
+         */
+        void begin(String gatherId, int count, long timeoutMillis);
+
+        /**
+         * Adds a reply to the gather - unless it has timed out.
+         *
+         * @param gatherId
+         *            the id of the gather.
+         * @param index
+         *            the index of the request that this is the reply to, in the list of scattered requests.
+         * @param serializedReply
+         *            the serialized reply DTO.
+         * @return all the replies, keyed by index, if this completed the gather (or it already was complete),
+         *         otherwise <code>null</code> - which also is the answer if the gather is unknown or timed out.
+         */
+        Map<Integer, Object> addReply(String gatherId, int index, Object serializedReply);
+
+        /**
+         * Times out the gather - unless it is complete.
+         *
+         * @param gatherId
+         *            the id of the gather.
+         * @return the replies that have arrived, keyed by index, if the gather was not complete (or it already was
+         *         timed out), otherwise <code>null</code> - which also is the answer if the gather is unknown.
+         */
+        Map<Integer, Object> timeout(String gatherId);
+
+        /**
+         * Marks the gather as done, invoked when the gather stage's processing has committed: Any late replies and
+         * the timeout shall then get <code>null</code>, while the gather is still {@link #isKnown(String) known}
+         * until the store forgets it, well past its timeout.
+         *
+         * @param gatherId
+         *            the id of the gather.
+         */
+        void remove(String gatherId);
+
+        /**
+         * @param gatherId
+         *            the id of the gather.
+         * @return whether the gather has been {@link #begin(String, int, long) begun} in this store, and not yet been
+         *         forgotten - also when it is {@link #remove(String) done}.
+         */
+        boolean isKnown(String gatherId);
+    }
+
     /**
      * Provides for both configuring the endpoint (before it is started), and introspecting the configuration.
      */
@@ -252,6 +326,231 @@ public interface MatsEndpoint<R, S> extends StartStoppable {
          */
         Class<?> getIncomingClass();
 
+        /**
+         * Sets the {@link LifecycleLogging} policy for the per-message lifecycle log lines of this endpoint's stages,
+         * overriding the {@link FactoryConfig#getLifecycleLogging() MatsFactory's policy}. Setting <code>null</code>
+         * reverts to the MatsFactory's policy. Takes effect immediately, also for a running endpoint.
+         *
+         * @param lifecycleLogging
+         *            the policy for the per-message lifecycle log lines, or <code>null</code> to use the factory's.
+         * @return the config object, for method chaining.
+         */
+        EndpointConfig<R, S> setLifecycleLogging(LifecycleLogging lifecycleLogging);
+
+        /**
+         * @return the {@link LifecycleLogging} policy in effect for this endpoint, which defaults to the
+         *         {@link FactoryConfig#getLifecycleLogging() MatsFactory's policy}.
+         */
+        LifecycleLogging getLifecycleLogging();
+
+        /**
+         * Opts this endpoint in to in-JVM delivery of <i>all</i> messages sent to it from the same MatsFactory,
+         * <b>including persistent messages</b>, and regardless of the MatsFactory's setting - read more at
+         * {@link FactoryConfig#setLocalDelivery(boolean)}. Default is <code>false</code>. Only relevant for queue-based
+         * endpoints.
+         * <p/>
+         * <b>Risk:</b> A locally delivered message only lives in the memory of the JVM from the sending transaction's
+         * commit until the receiving stage's processing has committed. If the JVM crashes in between, the message is
+         * lost - even though it was sent as persistent, i.e. the sender was promised that it would survive a crash.
+         * Only opt in if the flows ending up at this endpoint tolerate such loss, e.g. because they are re-initiated or
+         * reconciled by other means.
+         *
+         * @param localDelivery
+         *            whether all messages from the same MatsFactory to this endpoint shall be delivered in-JVM.
+         * @return the config object, for method chaining.
+         */
+        EndpointConfig<R, S> setLocalDelivery(boolean localDelivery);
+
+        /**
+         * @return whether this endpoint has opted in to in-JVM delivery of all messages from the same MatsFactory.
+         */
+        boolean isLocalDelivery();
+
+        /**
+         * Enables "stage fusion" for this endpoint's stages: When a stage invokes {@link ProcessContext#next(Object)
+         * context.next(..)} as its sole outgoing message, the next stage is processed inline - on the same
+         * StageProcessor thread, inside the same transaction - instead of sending the message via the broker. This
+         * removes a commit and a broker round-trip per hop for multi-stage endpoints that use <code>next()</code> only
+         * to structure the code. The MatsTrace records the hops as if they went through the broker. Default is
+         * <code>0</code>, i.e. disabled. May be overridden per stage by {@link StageConfig#setStageFusion(int)}.
+         * <p/>
+         * Since the fused stages are processed in the same transaction, an exception in a later stage rolls back the
+         * processing of all of them, and the original incoming message is redelivered to the first stage of the chain
+         * (and eventually DLQed from there). The fused stages are only processed inline if they are running.
+         * <p/>
+         * The max chain length is that of the stage where the chain started, i.e. the one that received the message via
+         * the broker. A hop is never fused into a stage which is {@link StageConfig#setRateLimit(double) rate limited}
+         * or has a {@link StageConfig#setCircuitBreaker(int, int, long, long) circuit breaker}, nor when this endpoint
+         * has {@link #setDuplicateSuppression(int, long) duplicate suppression}, nor when the flow's
+         * {@link MatsInitiate#deadline(long) deadline} has passed - as fusion would bypass these features, the hop goes
+         * via the broker as usual.
+         *
+         * @param maxChainLength
+         *            the maximum number of consecutive <code>next()</code>-hops processed inline in one transaction,
+         *            after which the next hop goes via the broker as usual. <code>0</code> disables fusion.
+         * @return the config object, for method chaining.
+         */
+        EndpointConfig<R, S> setStageFusion(int maxChainLength);
+
+        /**
+         * @return the maximum number of consecutive <code>next()</code>-hops processed inline, <code>0</code> meaning
+         *         that stage fusion is disabled - read more at {@link #setStageFusion(int)}.
+         */
+        int getStageFusion();
+
+        /**
+         * Enables receiver-side duplicate suppression for this endpoint's stages: Each stage remembers the
+         * <code>MatsMessageId</code>s of the messages it has committed the processing of, and a redelivery of such a
+         * message (e.g. due to broker failover, or a lost commit - read more in "DoubleDelivery.md") is dropped before
+         * the payload is even deserialized, and counted in {@link MatsStatistics#getDuplicatesDropped()}. The memory
+         * is bounded both in number of ids and in time. Default is <code>0</code>, i.e. disabled.
+         * <p/>
+         * The in-memory cache only catches redeliveries to the same node, of messages whose commit went through. If
+         * the MatsFactory employs a JMS-and-JDBC transaction manager which is configured with a duplicate suppression
+         * table, the ids are additionally recorded in that table inside the same SQL transaction as the processing,
+         * thus also catching redeliveries on other nodes, and of messages whose SQL commit went through but whose JMS
+         * commit did not. Do note that this is a <i>safety net</i>, not a replacement for coding idempotent.
+         *
+         * @param maxMessageIds
+         *            the max number of <code>MatsMessageId</code>s to remember per stage, <code>0</code> disabling
+         *            duplicate suppression.
+         * @param windowMillis
+         *            for how long a <code>MatsMessageId</code> is remembered after the processing was committed.
+         * @return the config object, for method chaining.
+         */
+        EndpointConfig<R, S> setDuplicateSuppression(int maxMessageIds, long windowMillis);
+
+        /**
+         * @return the max number of <code>MatsMessageId</code>s remembered per stage for duplicate suppression,
+         *         <code>0</code> meaning that it is disabled - read more at
+         *         {@link #setDuplicateSuppression(int, long)}.
+         */
+        int getDuplicateSuppressionMaxMessageIds();
+
+        /**
+         * @return for how long a <code>MatsMessageId</code> is remembered for duplicate suppression - read more at
+         *         {@link #setDuplicateSuppression(int, long)}.
+         */
+        long getDuplicateSuppressionWindowMillis();
+
+        /**
+         * Enables a reply cache for this endpoint, for pure lookups ("getters") that get many identical requests: When
+         * a request arrives whose incoming DTO is identical to that of a recently processed request, the reply that was
+         * produced for that request is sent right away, without invoking the stage's lambda. The cache is keyed by the
+         * serialized incoming DTO - use {@link #setReplyCache(int, long, Class, Function)} to key by a part of it. The
+         * hits, misses and evictions are counted in {@link MatsStatistics#getReplyCacheHits()} and friends. Default is
+         * <code>0</code>, i.e. disabled.
+         * <p/>
+         * Only the reply DTO is cached: Any sideloads or trace properties added when producing the reply are not - and
+         * neither the incoming sideloads nor the trace properties are part of the key. The reply is cached when the
+         * processing has committed, per node. The cache is only in effect for single-stage services, i.e. queue-based
+         * endpoints with a reply, whose only stage is the last stage (as for
+         * {@link MatsFactory#single(String, Class, Class, ProcessSingleLambda) single(..)}); for other endpoints it is
+         * ignored. <b>Only use this for endpoints whose reply depends solely on the incoming DTO</b>, and where a reply
+         * being up to the TTL old is acceptable.
+         *
+         * @param maxEntries
+         *            the max number of replies to cache, <code>0</code> disabling the reply cache.
+         * @param ttlMillis
+         *            for how long a reply is used after it was cached.
+         * @return the config object, for method chaining.
+         */
+        EndpointConfig<R, S> setReplyCache(int maxEntries, long ttlMillis);
+
+        /**
+         * Variant of {@link #setReplyCache(int, long)} where the cache is keyed by the result of the provided function
+         * instead of the serialized incoming DTO, e.g. the customerId of a "get customer summary" request DTO that
+         * also contains fields that do not affect the reply.
+         *
+         * @param maxEntries
+         *            the max number of replies to cache, <code>0</code> disabling the reply cache.
+         * @param ttlMillis
+         *            for how long a reply is used after it was cached.
+         * @param incomingClass
+         *            the class of the endpoint's incoming DTO, i.e. the same as given when creating the endpoint.
+         * @param keyFunction
+         *            invoked with the deserialized incoming DTO, returning the cache key - or <code>null</code> if the
+         *            reply for this request shall neither be looked up in nor put into the cache.
+         * @param <I>
+         *            the type of the endpoint's incoming DTO.
+         * @return the config object, for method chaining.
+         */
+        <I> EndpointConfig<R, S> setReplyCache(int maxEntries, long ttlMillis, Class<I> incomingClass,
+                Function<? super I, String> keyFunction);
+
+        /**
+         * @return the max number of replies cached, <code>0</code> meaning that the reply cache is disabled - read more
+         *         at {@link #setReplyCache(int, long)}.
+         */
+        int getReplyCacheMaxEntries();
+
+        /**
+         * @return for how long a cached reply is used - read more at {@link #setReplyCache(int, long)}.
+         */
+        long getReplyCacheTtlMillis();
+
+        /**
+         * @return the function deriving the cache key from the incoming DTO, <code>null</code> meaning that the
+         *         serialized incoming DTO is the key - read more at
+         *         {@link #setReplyCache(int, long, Class, Function)}.
+         */
+        Function<Object, String> getReplyCacheKeyFunction();
+
+        /**
+         * Sets the store holding the partial results of this endpoint's scatter-gathers - read more at
+         * {@link ProcessContext#scatter(String, List, long)} and {@link ScatterGatherStore}. Default is an in-memory
+         * store, which only works if the endpoint runs on a single node: If it runs on several, a store that is shared
+         * between them, e.g. backed by a database, must be set - otherwise, the replies and timeouts received by
+         * another node than the one that scattered are refused as being for an unknown gather, ending up on the DLQ.
+         * <p/>
+         * Must be set before the endpoint is started.
+         *
+         * @param scatterGatherStore
+         *            the store holding the partial results of the scatter-gathers.
+         * @return the config object, for method chaining.
+         */
+        EndpointConfig<R, S> setScatterGatherStore(ScatterGatherStore scatterGatherStore);
+
+        /**
+         * @return the store holding the partial results of this endpoint's scatter-gathers - read more at
+         *         {@link #setScatterGatherStore(ScatterGatherStore)}.
+         */
+        ScatterGatherStore getScatterGatherStore();
+
+        /**
+         * Opts this endpoint's stages out of transactional processing, for endpoints that only ever receive
+         * {@link MatsInitiate#nonPersistent() nonPersistent} traffic, e.g. cache invalidation topics and telemetry -
+         * i.e. flows which already accept message loss. The stages then consume using a non-transacted JMS Session
+         * with <code>DUPS_OK_ACKNOWLEDGE</code>, where the receives are acknowledged lazily in batches, and there is
+         * no commit per message. Default is <code>false</code>, i.e. ordinary transactional processing. The semantics
+         * are:
+         * <ul>
+         * <li>An incoming message might be delivered more than once, e.g. if the JMS Connection goes down before the
+         * batched acknowledge got through.</li>
+         * <li>If the stage lambda throws (including {@link MatsRefuseMessageException}), the incoming message is
+         * <b>dropped</b>: It is logged, but neither redelivered nor put on a DLQ.</li>
+         * <li>Outgoing messages are, as always, sent after the stage lambda has returned - thus, if it throws, nothing
+         * is sent. If sending of the outgoing messages fails midway, the ones already sent stay sent.</li>
+         * <li>Any SQL transaction (if the MatsFactory employs a JMS-and-JDBC transaction manager) is still handled as
+         * usual, i.e. committed if the lambda returns, rolled back if it throws.</li>
+         * </ul>
+         * If a persistent message arrives on such a stage, a warning is logged (once per StageProcessor), as the
+         * sender presumably did not expect that it might be lost.
+         * <p/>
+         * Must be set before the endpoint is started.
+         *
+         * @param nonTransactedDupsOk
+         *            whether this endpoint's stages should consume non-transacted, with DUPS_OK acknowledge.
+         * @return the config object, for method chaining.
+         */
+        EndpointConfig<R, S> setNonTransactedDupsOk(boolean nonTransactedDupsOk);
+
+        /**
+         * @return whether this endpoint's stages consume non-transacted, with DUPS_OK acknowledge - read more at
+         *         {@link #setNonTransactedDupsOk(boolean)}.
+         */
+        boolean isNonTransactedDupsOk();
+
         /**
          * @deprecated will be removed, use {@link MatsEndpoint#getStages()}.
          */
@@ -328,6 +627,49 @@ public interface MatsEndpoint<R, S> extends StartStoppable {
          */
         boolean isNoAudit();
 
+        /**
+         * @return the absolute deadline of the current Mats flow as Java epoch millis, <code>0</code> meaning no
+         *         deadline - read {@link MatsInitiate#deadline(long)}.
+         */
+        long getDeadline();
+
+        /**
+         * @return the number of milliseconds left until the {@link #getDeadline() deadline} of the current Mats flow,
+         *         which is negative if it has passed while processing - or {@link Long#MAX_VALUE} if there is no
+         *         deadline. Read {@link MatsInitiate#deadline(long)}.
+         */
+        long getRemainingMillisToDeadline();
+
+        /**
+         * @return the partition key of the current Mats flow, <code>null</code> meaning not partitioned - read
+         *         {@link MatsInitiate#partitionKey(String)}.
+         */
+        String getPartitionKey();
+
+        /**
+         * Sets the partition key for the outgoing messages of this stage, which is then kept through the rest of the
+         * flow - read {@link MatsInitiate#partitionKey(String)}. Must be invoked before the
+         * {@link #request(String, Object) request}, {@link #reply(Object) reply} or {@link #next(Object) next} it
+         * shall apply to. (Initiations from within the stage inherit the partition key of the incoming message, which
+         * can be overridden using {@link MatsInitiate#partitionKey(String)}.)
+         *
+         * @param partitionKey
+         *            the partition key for the outgoing messages, or <code>null</code> for no partitioning.
+         */
+        void setPartitionKey(String partitionKey);
+
+        /**
+         * @return the sequence number of the incoming reply chunk (0-based), or <code>-1</code> if the incoming message
+         *         is not a chunk of a streamed reply - read {@link ProcessContext#replyChunk(Object, boolean)}.
+         */
+        int getChunkSequence();
+
+        /**
+         * @return whether the incoming reply chunk is the last of the streamed reply, <code>false</code> if the
+         *         incoming message is not a chunk - read {@link ProcessContext#replyChunk(Object, boolean)}.
+         */
+        boolean isLastChunk();
+
         /**
          * @param key
          *            the key for which to retrieve a binary payload from the incoming message.
@@ -543,6 +885,53 @@ public interface MatsEndpoint<R, S> extends StartStoppable {
          */
         MessageReference request(String endpointId, Object requestDto);
 
+        /**
+         * Scatter-gather: Sends a request message for each of the request DTOs to the specified endpoint - as with
+         * {@link #request(String, Object)} - and then, instead of the next stage being invoked for each reply, the next
+         * stage (the "gather stage") is invoked <i>once</i>: When all the replies have arrived, or when the timeout
+         * kicks in. The gather stage gets the replies using {@link #getGatheredReplies(Class)}, and can check for the
+         * timeout using {@link #isGatherTimedOut()}. This fans out the requests in parallel, instead of a serial chain
+         * of requests, each adding a full hop of latency.
+         * <p/>
+         * The incoming DTO of the gather stage is the reply that completed the gather, or <code>null</code> if timed
+         * out - and its state is as it was when scattering. The replies are correlated using a trace property, and the
+         * partial results are held in the endpoint's {@link EndpointConfig#setScatterGatherStore(ScatterGatherStore)
+         * ScatterGatherStore} until the gather stage has committed. Replies arriving after the timeout are dropped.
+         * The timeout is a delayed message to the gather stage, read more about the delay at
+         * {@link MatsInitiate#delay(long)}. Note that only the incoming sideloads of the completing reply are available
+         * to the gather stage.
+         *
+         * @param endpointId
+         *            which endpoint to invoke.
+         * @param requestDtos
+         *            the messages that should be sent to the specified endpoint, one request for each - must not be
+         *            empty.
+         * @param timeoutMillis
+         *            how long to wait for the replies, before the gather stage is invoked with those that have arrived.
+         * @return the references to the request messages, in the same order as the request DTOs.
+         */
+        List<MessageReference> scatter(String endpointId, List<?> requestDtos, long timeoutMillis);
+
+        /**
+         * For the gather stage of a {@link #scatter(String, List, long) scatter}: Gets the replies, deserialized to the
+         * specified class.
+         *
+         * @param replyClass
+         *            the class to deserialize the replies to.
+         * @return the replies, in the same order as the scattered request DTOs - with <code>null</code> for the replies
+         *         that had not arrived if the gather {@link #isGatherTimedOut() timed out}.
+         * @throws IllegalStateException
+         *             if this stage is not invoked as the gather stage of a scatter.
+         */
+        <T> List<T> getGatheredReplies(Class<T> replyClass) throws IllegalStateException;
+
+        /**
+         * @return whether the gather stage of a {@link #scatter(String, List, long) scatter} was invoked due to the
+         *         timeout, as opposed to all replies having arrived. <code>false</code> if this stage is not invoked as
+         *         a gather stage.
+         */
+        boolean isGatherTimedOut();
+
         /**
          * Sends a reply to the requesting service. This will be ignored if there is no endpointId on the stack, i.e. if
          * this endpoint it is semantically a terminator (the <code>replyTo</code> of an initiation's request), or if it
@@ -559,6 +948,36 @@ public interface MatsEndpoint<R, S> extends StartStoppable {
          */
         MessageReference reply(R replyDto);
 
+        /**
+         * Replies with one chunk of a streamed, multi-part reply - for replies that are too large to reasonably be sent
+         * as a single message, e.g. bulk exports: Instead of one huge reply DTO, the stage invokes this method once per
+         * chunk, the last invocation with <code>last=true</code>. Each chunk is sent as an ordinary reply message,
+         * carrying its sequence number (0-based, counted within this stage processing) and the last-marker, which the
+         * requester's reply stage gets using {@link #getChunkSequence()} and {@link #isLastChunk()}. The reply stage is
+         * thus invoked once per chunk, each time with the state object as it was when the request was sent. The chunks
+         * are sent in order, but a reply stage with concurrency above 1 may process them concurrently, and thus
+         * complete them out of order. Using the MatsFuturizer, its chunked variant provides an Iterator over the chunks
+         * in sequence order.
+         * <p/>
+         * <b>Notice that the chunks are not streamed while the stage processes:</b> As all outgoing messages of a
+         * stage, they are sent when the stage processing commits - until then, every serialized chunk is held in memory
+         * by the replying stage, and they are all sent, or none. Chunking thus bounds the size of each message and its
+         * MatsTrace, and the memory needed by the requester to handle the reply - but the replying stage needs memory
+         * for the entire reply. A reply that does not comfortably fit in the replier's memory must instead be split
+         * over several requests, e.g. by the requester asking for one page at a time.
+         * <p/>
+         * As with {@link #reply(Object)}, this is ignored if there is no one to reply to. A stage shall either reply,
+         * or reply in chunks.
+         *
+         * @param chunkDto
+         *            the chunk of the reply - of the same type as an ordinary reply would be.
+         * @param last
+         *            whether this is the last chunk of the reply.
+         * @throws IllegalStateException
+         *             if the last chunk has already been sent, or {@link #reply(Object)} has been invoked.
+         */
+        MessageReference replyChunk(R chunkDto, boolean last) throws IllegalStateException;
+
         /**
          * Invokes the next stage of a multi-stage endpoint directly, instead of going through a request-reply to some
          * service. The rationale for this method is that in certain situation you might not need to invoke some service
@@ -572,6 +991,19 @@ public interface MatsEndpoint<R, S> extends StartStoppable {
          */
         MessageReference next(Object incomingDto);
 
+        /**
+         * Variant of {@link #next(Object)} where the delivery of the message to the next stage is delayed - e.g. for a
+         * "retry later" where the current stage found that some external resource is not yet ready, instead of holding
+         * the StageProcessor and the transaction by sleeping. Read more about the delay, and its implementation, at
+         * {@link MatsInitiate#delay(long)}.
+         *
+         * @param incomingDto
+         *            the object for the next stage's incoming DTO, which must match what the next stage expects.
+         * @param delayMillis
+         *            the number of milliseconds to delay the delivery of the message to the next stage.
+         */
+        MessageReference nextDelayed(Object incomingDto, long delayMillis);
+
         /**
          * Initiates a new message out to an endpoint. This is effectively the same as invoking
          * {@link MatsInitiator#initiate(InitiateLambda lambda) the same method} on a {@link MatsInitiator} gotten via
@@ -801,6 +1233,36 @@ public interface MatsEndpoint<R, S> extends StartStoppable {
             return unwrap().isNoAudit();
         }
 
+        @Override
+        public long getDeadline() {
+            return unwrap().getDeadline();
+        }
+
+        @Override
+        public long getRemainingMillisToDeadline() {
+            return unwrap().getRemainingMillisToDeadline();
+        }
+
+        @Override
+        public String getPartitionKey() {
+            return unwrap().getPartitionKey();
+        }
+
+        @Override
+        public void setPartitionKey(String partitionKey) {
+            unwrap().setPartitionKey(partitionKey);
+        }
+
+        @Override
+        public int getChunkSequence() {
+            return unwrap().getChunkSequence();
+        }
+
+        @Override
+        public boolean isLastChunk() {
+            return unwrap().isLastChunk();
+        }
+
         @Override
         public byte[] getBytes(String key) {
             return unwrap().getBytes(key);
@@ -841,16 +1303,41 @@ public interface MatsEndpoint<R, S> extends StartStoppable {
             return unwrap().request(endpointId, requestDto);
         }
 
+        @Override
+        public List<MessageReference> scatter(String endpointId, List<?> requestDtos, long timeoutMillis) {
+            return unwrap().scatter(endpointId, requestDtos, timeoutMillis);
+        }
+
+        @Override
+        public <T> List<T> getGatheredReplies(Class<T> replyClass) throws IllegalStateException {
+            return unwrap().getGatheredReplies(replyClass);
+        }
+
+        @Override
+        public boolean isGatherTimedOut() {
+            return unwrap().isGatherTimedOut();
+        }
+
         @Override
         public MessageReference reply(R replyDto) {
             return unwrap().reply(replyDto);
         }
 
+        @Override
+        public MessageReference replyChunk(R chunkDto, boolean last) throws IllegalStateException {
+            return unwrap().replyChunk(chunkDto, last);
+        }
+
         @Override
         public MessageReference next(Object incomingDto) {
             return unwrap().next(incomingDto);
         }
 
+        @Override
+        public MessageReference nextDelayed(Object incomingDto, long delayMillis) {
+            return unwrap().nextDelayed(incomingDto, delayMillis);
+        }
+
         @Override
         public void initiate(InitiateLambda lambda) {
             unwrap().initiate(lambda);
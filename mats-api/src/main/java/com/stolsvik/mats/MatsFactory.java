@@ -1,6 +1,7 @@
 package com.stolsvik.mats;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
@@ -317,6 +318,13 @@ public interface MatsFactory extends StartStoppable {
      */
     List<MatsInitiator> getInitiators();
 
+    /**
+     * @return the {@link MatsStatistics} for all {@link MatsInitiator}s created on this {@link MatsFactory}, keyed on
+     *         the {@link MatsInitiator#getName() name} of the initiator. The statistics for the stages are available
+     *         on each {@link MatsStage#getStatistics() stage}.
+     */
+    Map<String, MatsStatistics> getInitiatorStatistics();
+
     /**
      * Starts all endpoints that has been created by this factory, by invoking {@link MatsEndpoint#start()} on them.
      * <p/>
@@ -480,6 +488,50 @@ public interface MatsFactory extends StartStoppable {
          */
         String getMatsTraceKey();
 
+        /**
+         * Sets the {@link LifecycleLogging} policy for the per-message lifecycle log lines, which is the default for
+         * all endpoints and initiators of this MatsFactory - the default is {@link LifecycleLogging#full()}.
+         *
+         * @param lifecycleLogging
+         *            the policy for the per-message lifecycle log lines.
+         * @return the config object, for method chaining.
+         */
+        FactoryConfig setLifecycleLogging(LifecycleLogging lifecycleLogging);
+
+        /**
+         * @return the {@link LifecycleLogging} policy of this MatsFactory, default {@link LifecycleLogging#full()}.
+         */
+        LifecycleLogging getLifecycleLogging();
+
+        /**
+         * Sets whether messages from this MatsFactory that are {@link MatsInitiate#nonPersistent() non-persistent},
+         * to queue-based endpoints hosted by the same MatsFactory, shall be delivered directly in-JVM, bypassing the
+         * message broker - the default is <code>false</code>. Persistent messages, also those that are
+         * {@link MatsInitiate#interactive() interactive}, always go via the broker, unless the receiving endpoint has
+         * explicitly opted in to local delivery of all messages, using {@link EndpointConfig#setLocalDelivery(boolean)}
+         * - read the risk involved there.
+         * <p/>
+         * The transactional semantics are kept: The message is only handed over to the receiving stage after the
+         * sending transaction has committed - and if it is rolled back, the message is not delivered. If the receiving
+         * stage is saturated, the message is sent via the broker as usual. If the processing of a locally delivered
+         * message fails, it is forwarded to the broker, so that the ordinary redelivery and DLQ logic apply. Note that
+         * a locally delivered message only lives in memory until processed, and is thus lost if the JVM crashes - which
+         * is why only non-persistent messages are eligible, as they may be lost by the broker too. Also, a locally
+         * delivered message may overtake messages sent earlier via the broker. The time-to-live of the message is
+         * honored.
+         *
+         * @param localDelivery
+         *            whether in-JVM delivery to co-located endpoints is enabled.
+         * @return the config object, for method chaining.
+         */
+        FactoryConfig setLocalDelivery(boolean localDelivery);
+
+        /**
+         * @return whether in-JVM delivery of non-persistent messages to co-located endpoints is enabled, default
+         *         <code>false</code>.
+         */
+        boolean isLocalDelivery();
+
         /**
          * @return the name of the application that employs MATS, set at MatsFactory construction time.
          */
@@ -731,6 +783,11 @@ public interface MatsFactory extends StartStoppable {
             return unwrap().getInitiators();
         }
 
+        @Override
+        public Map<String, MatsStatistics> getInitiatorStatistics() {
+            return unwrap().getInitiatorStatistics();
+        }
+
         @Override
         public void holdEndpointsUntilFactoryIsStarted() {
             unwrap().holdEndpointsUntilFactoryIsStarted();
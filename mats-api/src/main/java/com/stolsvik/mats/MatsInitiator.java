@@ -45,7 +45,8 @@ public interface MatsInitiator extends Closeable {
      *            provides the {@link MatsInitiate} instance on which to create the message to be sent.
      * @throws MatsBackendException
      *             if the Mats implementation cannot connect to the underlying message broker, or are having problems
-     *             interacting with it.
+     *             interacting with it - or, as the subclass {@link MatsBackpressureException}, if the initiation was
+     *             rejected due to backpressure.
      * @throws MatsMessageSendException
      *             if the Mats implementation cannot send the messages after it has executed the initiation lambda and
      *             committed external resources - please read the JavaDoc of that class.
@@ -60,7 +61,8 @@ public interface MatsInitiator extends Closeable {
      *            provides the {@link MatsInitiate} instance on which to create the message to be sent.
      * @throws MatsBackendRuntimeException
      *             if the Mats implementation cannot connect to the underlying message broker, or are having problems
-     *             interacting with it.
+     *             interacting with it - or, as the subclass {@link MatsBackpressureRuntimeException}, if the initiation
+     *             was rejected due to backpressure.
      * @throws MatsMessageSendRuntimeException
      *             if the Mats implementation cannot send the messages after it has executed the initiation lambda and
      *             committed external resources - please read the JavaDoc of {@link MatsMessageSendException}.
@@ -86,6 +88,23 @@ public interface MatsInitiator extends Closeable {
         }
     }
 
+    /**
+     * Will be thrown by the {@link MatsInitiator#initiate(InitiateLambda)}-method if the initiation was rejected due to
+     * backpressure, i.e. a target queue of its messages was too deep, and stayed so for the max wait, if the
+     * implementation supports and is configured for this. It is a {@link MatsBackendException}, as nothing is committed
+     * - but unlike the other situations, the broker is fine: It is the consumers that do not keep up, so the caller
+     * should slow down, e.g. retry the initiation later, instead of treating it as an infrastructure problem.
+     */
+    class MatsBackpressureException extends MatsBackendException {
+        public MatsBackpressureException(String message) {
+            super(message);
+        }
+
+        public MatsBackpressureException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
     /**
      * Will be thrown by the {@link MatsInitiator#initiate(InitiateLambda)}-method if Mats fails to send the messages
      * after the {@link InitiateLambda} has been run, any external resource (typically DB) has been committed, <b>and
@@ -164,6 +183,20 @@ public interface MatsInitiator extends Closeable {
         }
     }
 
+    /**
+     * Unchecked variant of the {@link MatsBackpressureException}, thrown from the
+     * {@link #initiateUnchecked(InitiateLambda)} variant of initiate().
+     */
+    class MatsBackpressureRuntimeException extends MatsBackendRuntimeException {
+        public MatsBackpressureRuntimeException(String message) {
+            super(message);
+        }
+
+        public MatsBackpressureRuntimeException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
     /**
      * Unchecked variant of the {@link MatsMessageSendException}, thrown from the
      * {@link #initiateUnchecked(InitiateLambda)} variant of initiate().
@@ -405,6 +438,87 @@ public interface MatsInitiator extends Closeable {
          */
         MatsInitiate noAudit();
 
+        /**
+         * Sets an absolute deadline for the entire flow: When it has passed, any remaining work of the flow is
+         * worthless - typically because the synchronously waiting HTTP call at the edge that the flow serves has timed
+         * out - and the stages of the flow will drop incoming messages of the flow instead of processing them, thus
+         * not wasting capacity on it. The deadline is kept through every request, next and reply of the flow, and is
+         * by default inherited by initiations from within a stage of the flow. The remaining time can be read by the
+         * stages using {@link ProcessContext#getRemainingMillisToDeadline()}, e.g. to set timeouts on calls to
+         * external systems.
+         * <p/>
+         * As with {@link #nonPersistent(long) time-to-live}, this is for flows without side effects, i.e. "getters",
+         * and should never be used to implement business logic: A dropped message of a flow that changes state would
+         * leave the flow half done. <b>Notice that the deadline is compared with the receiving node's clock</b>, so
+         * clock skew between the nodes skews the deadline accordingly.
+         *
+         * @param deadlineMillis
+         *            the deadline as Java epoch millis, i.e. <code>System.currentTimeMillis() + budgetMillis</code>,
+         *            or <code>0</code> for no deadline, which is the default (unless inherited).
+         * @return the {@link MatsInitiate} for chaining.
+         */
+        MatsInitiate deadline(long deadlineMillis);
+
+        /**
+         * Delays the delivery of the message being initiated: It is not delivered to the receiving endpoint until the
+         * delay has passed. This replaces retry-later patterns doing <code>Thread.sleep(..)</code> inside a stage,
+         * which holds both a StageProcessor and a transaction while sleeping. A polling loop can be made by a
+         * Terminator that, if what it polls for is not yet ready, initiates a delayed message to itself - using
+         * {@link ProcessContext#initiate(InitiateLambda) context.initiate(..)}. For delaying a <code>next</code> call
+         * within a multi-stage endpoint, use {@link ProcessContext#nextDelayed(Object, long)}.
+         * <p/>
+         * <b>Notice on implementation:</b> For ActiveMQ, the broker's scheduler is employed, which must be enabled on
+         * the broker (<code>schedulerSupport="true"</code>). If it is not, or for other brokers, the receiving
+         * StageProcessor parks a message that arrives before its time on a broker queue, in the same transaction as
+         * the receive - so it is not lost if the JVM crashes. A poller on every node sends it anew to its queue when
+         * the time has come, the precision being some seconds if the parking node has gone away. The fallback only
+         * applies to queues: A delayed {@link #publish(Object) publish} needs the broker's
+         * scheduler, or else it is delivered right away. The delay only applies to the message being initiated, not
+         * to the subsequent messages of the flow.
+         *
+         * @param delayMillis
+         *            the number of milliseconds to delay the delivery of the message, <code>0</code> meaning no delay,
+         *            which is the default.
+         * @return the {@link MatsInitiate} for chaining.
+         */
+        MatsInitiate delay(long delayMillis);
+
+        /**
+         * Variant of {@link #delay(long)} that delays the delivery of the message being initiated until the given time,
+         * read more there.
+         *
+         * @param deliverAtMillis
+         *            the time to deliver the message as Java epoch millis, <code>0</code> meaning right away, which is
+         *            the default.
+         * @return the {@link MatsInitiate} for chaining.
+         */
+        MatsInitiate deliverAt(long deliverAtMillis);
+
+        /**
+         * Sets the partition key of the flow, so that messages for the same entity - e.g. events for one customer - are
+         * processed in order, while the load still is spread over all the StageProcessors on all the nodes: Messages
+         * with the same key are processed one at a time, in the order they were sent, by one consumer of each stage -
+         * while messages with different keys are processed in parallel. This replaces running such endpoints with
+         * concurrency 1 on a single node, which caps throughput. The key is kept through every request, next and reply
+         * of the flow, and is by default inherited by initiations from within a stage of the flow - a stage may change
+         * it for its outgoing messages using {@link ProcessContext#setPartitionKey(String)}. The distribution of the
+         * keys over the StageProcessors can be inspected using {@link MatsStatistics#getPartitionKeyGroups()}.
+         * <p/>
+         * <b>Notice on implementation:</b> The key is set as the <code>JMSXGroupID</code> property on the JMS Message,
+         * and the broker pins each key to one consumer of the queue ("message groups"), rebalancing if the consumer
+         * goes away. For ActiveMQ this works out of the box, other brokers must support JMS message groups. Partitioned
+         * messages always go via the broker, i.e. they are never delivered locally or processed inline by stage fusion,
+         * as this would bypass the pinning. Notice that ordering is only guaranteed for messages sent in order, from
+         * the same sender - and that a message that is redelivered after a rollback is, as usual, redelivered to the
+         * same consumer before any subsequent message with the same key is processed.
+         *
+         * @param partitionKey
+         *            the partition key, typically the id of the entity that the messages concern, or <code>null</code>
+         *            for no partitioning, which is the default (unless inherited).
+         * @return the {@link MatsInitiate} for chaining.
+         */
+        MatsInitiate partitionKey(String partitionKey);
+
         /**
          * Sets the originating/initiating "synthetic endpoint Id" - only used for tracing/debugging. If this message is
          * initiated <i>from within a stage</i>, i.e. by use of {@link ProcessContext#initiate(InitiateLambda)}, the
@@ -832,6 +946,30 @@ public interface MatsInitiator extends Closeable {
             return this;
         }
 
+        @Override
+        public MatsInitiate deadline(long deadlineMillis) {
+            unwrap().deadline(deadlineMillis);
+            return this;
+        }
+
+        @Override
+        public MatsInitiate delay(long delayMillis) {
+            unwrap().delay(delayMillis);
+            return this;
+        }
+
+        @Override
+        public MatsInitiate deliverAt(long deliverAtMillis) {
+            unwrap().deliverAt(deliverAtMillis);
+            return this;
+        }
+
+        @Override
+        public MatsInitiate partitionKey(String partitionKey) {
+            unwrap().partitionKey(partitionKey);
+            return this;
+        }
+
         @Override
         public MatsInitiate from(String initiatorId) {
             unwrap().from(initiatorId);
@@ -23,6 +23,12 @@ public interface MatsStage<R, S, I> extends StartStoppable {
      */
     MatsEndpoint<R, S> getParentEndpoint();
 
+    /**
+     * @return the {@link MatsStatistics} for this stage, giving timing histograms for the different phases of the
+     *         message processing, and the sizes of incoming and outgoing messages.
+     */
+    MatsStatistics getStatistics();
+
     /**
      * Starts this stage, thereby firing up the queue processing using a set of threads, the number decided by the
      * {@link StageConfig#getConcurrency()} for each stage.
@@ -48,6 +54,34 @@ public interface MatsStage<R, S, I> extends StartStoppable {
     @Override
     boolean stop(int gracefulShutdownMillis);
 
+    /**
+     * The state of a stage's circuit breaker - read more at
+     * {@link StageConfig#setCircuitBreaker(int, int, long, long)}.
+     */
+    enum CircuitBreakerState {
+        /**
+         * No circuit breaker is configured for the stage.
+         */
+        DISABLED,
+
+        /**
+         * Normal operation: All StageProcessors receive messages, while the failure rate is tracked.
+         */
+        CLOSED,
+
+        /**
+         * The failure rate crossed the threshold: The StageProcessors are parked, not receiving any messages, until
+         * the probe interval has passed.
+         */
+        OPEN,
+
+        /**
+         * One StageProcessor is letting a single probe message through, while the others stay parked: If it
+         * succeeds, the breaker closes, if it fails, the breaker opens again.
+         */
+        HALF_OPEN
+    }
+
     /**
      * Provides for both configuring the stage (before it is started), and introspecting the configuration.
      */
@@ -69,5 +103,213 @@ public interface MatsStage<R, S, I> extends StartStoppable {
          *         from {@link #getConcurrency} if the concurrency was set when stage was running.
          */
         int getRunningStageProcessors();
+
+        /**
+         * Overrides the {@link EndpointConfig#setStageFusion(int) endpoint's stage fusion} for
+         * {@link MatsEndpoint.ProcessContext#next(Object) next()}-hops from this stage. Setting <code>-1</code>
+         * reverts to the endpoint's setting.
+         *
+         * @param maxChainLength
+         *            the maximum number of consecutive <code>next()</code>-hops processed inline when starting from
+         *            this stage, <code>0</code> disabling fusion, or <code>-1</code> to use the endpoint's setting.
+         * @return the config object, for method chaining.
+         */
+        StageConfig<R, S, I> setStageFusion(int maxChainLength);
+
+        /**
+         * @return the stage fusion in effect for <code>next()</code>-hops from this stage, which defaults to the
+         *         {@link EndpointConfig#getStageFusion() endpoint's}.
+         */
+        int getStageFusion();
+
+        /**
+         * Sets the prefetch for each of the consumers of this stage, i.e. how many messages the message broker may push
+         * to each StageProcessor ahead of it having processed the current one. A high prefetch on a slow stage makes
+         * the few consumers on one node hoard messages while other nodes sit idle, which ruins load balancing and tail
+         * latency - while a too low prefetch on a fast stage may make it wait for the broker between messages.
+         * <p/>
+         * The default, for a queue-based stage, is derived from the stage's {@link #getConcurrency() concurrency},
+         * so that the total number of prefetched messages per stage per node stays about the same however many
+         * StageProcessors there are - except if the stage is {@link #setRateLimit(double, int) rate limited}, where it
+         * is <code>0</code>, i.e. the consumer pulls a message from the broker when receiving. For a subscription
+         * (topic) stage, the default is the prefetch of the JMS ConnectionFactory. Setting <code>-1</code> reverts to
+         * the default. The prefetch is applied when the StageProcessors create their consumers, i.e. when the stage is
+         * started.
+         *
+         * @param prefetch
+         *            the number of messages to prefetch per consumer, or <code>-1</code> to use the default.
+         * @return the config object, for method chaining.
+         */
+        StageConfig<R, S, I> setPrefetch(int prefetch);
+
+        /**
+         * @return the prefetch in effect for each of the consumers of this stage - read more at
+         *         {@link #setPrefetch(int)}. <code>-1</code> means that the prefetch of the JMS ConnectionFactory is
+         *         used.
+         */
+        int getPrefetch();
+
+        /**
+         * Sets the redelivery policy for the consumers of this stage, overriding that of the JMS ConnectionFactory
+         * (i.e. the message broker's global policy): How many times a message whose processing failed is redelivered
+         * before it is put on the DLQ, and how long the consumer backs off before each redelivery. A cheap validation
+         * stage, where a failure will not go away by trying again, may fail fast with few redeliveries and no backoff,
+         * while a stage talking to a flaky integration may back off exponentially, so that the redeliveries do not
+         * hammer the integration.
+         * <p/>
+         * The backoff starts at <code>initialBackoffMillis</code>, and doubles for each redelivery up to
+         * <code>maximumBackoffMillis</code> - setting them equal gives a constant backoff. Any of the values may be
+         * <code>-1</code>, which leaves that part of the ConnectionFactory's policy as is - but if the maximum is set,
+         * so must the initial be. The policy is applied when the StageProcessors create their consumers, i.e. when
+         * the stage is started. Note that it is only supported for ActiveMQ - for other brokers, the redelivery policy
+         * must be configured on the broker or ConnectionFactory.
+         * <p/>
+         * <b>Notice that ActiveMQ's redelivery by default is blocking:</b> The consumer holds on to the failed message
+         * until the backoff has passed, not delivering any other message meanwhile - so the StageProcessor idles for
+         * the whole backoff, and a long backoff on a stage with few StageProcessors stalls the healthy messages too.
+         * This keeps the order of the messages. If the order does not matter, set
+         * <code>nonBlockingRedelivery=true</code> on the ActiveMQConnectionFactory, whereupon the consumer goes on with
+         * other messages while the failed one waits out its backoff.
+         *
+         * @param maxRedeliveries
+         *            the number of redeliveries before the message is put on the DLQ, <code>0</code> meaning DLQ on
+         *            first failure, or <code>-1</code> to use the ConnectionFactory's.
+         * @param initialBackoffMillis
+         *            the backoff before the first redelivery, or <code>-1</code> to use the ConnectionFactory's.
+         * @param maximumBackoffMillis
+         *            the cap for the exponentially growing backoff, or <code>-1</code> to use the ConnectionFactory's.
+         * @return the config object, for method chaining.
+         */
+        StageConfig<R, S, I> setRedeliveryPolicy(int maxRedeliveries, long initialBackoffMillis,
+                long maximumBackoffMillis);
+
+        /**
+         * @return the number of redeliveries before DLQ for this stage's consumers, <code>-1</code> meaning the JMS
+         *         ConnectionFactory's - read more at {@link #setRedeliveryPolicy(int, long, long)}.
+         */
+        int getRedeliveryMaxRedeliveries();
+
+        /**
+         * @return the backoff before the first redelivery for this stage's consumers, <code>-1</code> meaning the JMS
+         *         ConnectionFactory's - read more at {@link #setRedeliveryPolicy(int, long, long)}.
+         */
+        long getRedeliveryInitialBackoffMillis();
+
+        /**
+         * @return the cap for the exponentially growing backoff for this stage's consumers, <code>-1</code> meaning
+         *         the JMS ConnectionFactory's - read more at {@link #setRedeliveryPolicy(int, long, long)}.
+         */
+        long getRedeliveryMaximumBackoffMillis();
+
+        /**
+         * Enables a circuit breaker for this stage, for when a database or other downstream dependency of the stage is
+         * down: Instead of having the StageProcessors keep pulling messages just to fail and roll back - burning
+         * through the redeliveries, filling the DLQ, and hammering the broken dependency - the StageProcessors are
+         * parked when the failure rate crosses the threshold. When the probe interval has passed, a single probe
+         * message is let through: If its processing succeeds, the breaker closes and all StageProcessors resume, if
+         * not, the StageProcessors stay parked for another probe interval. The state can be introspected using
+         * {@link #getCircuitBreakerState()}.
+         * <p/>
+         * A failure is a processing where the stage lambda (or the transactional demarcation around it) throws, while
+         * a success is a processing that commits. A refused message ({@link MatsEndpoint.MatsRefuseMessageException})
+         * counts as neither. The failure rate is evaluated over consecutive windows of <code>windowMillis</code>, and
+         * only when at least <code>minimumProcessings</code> have been done within the window. Note that a parked
+         * StageProcessor still holds on to the messages that the broker has already prefetched to it. Default is
+         * disabled, i.e. <code>failureRatePercent = 0</code>. May be changed while running.
+         *
+         * @param failureRatePercent
+         *            the percentage of failed processings within a window at or above which the breaker opens, 1-100,
+         *            <code>0</code> disabling the circuit breaker.
+         * @param minimumProcessings
+         *            the minimum number of processings within a window for the failure rate to be evaluated.
+         * @param windowMillis
+         *            the length of the window over which the failure rate is evaluated.
+         * @param probeIntervalMillis
+         *            how long the breaker stays open before letting a probe message through.
+         * @return the config object, for method chaining.
+         */
+        StageConfig<R, S, I> setCircuitBreaker(int failureRatePercent, int minimumProcessings, long windowMillis,
+                long probeIntervalMillis);
+
+        /**
+         * @return the percentage of failed processings at or above which the circuit breaker opens, <code>0</code>
+         *         meaning disabled - read more at {@link #setCircuitBreaker(int, int, long, long)}.
+         */
+        int getCircuitBreakerFailureRatePercent();
+
+        /**
+         * @return the minimum number of processings within a window for the failure rate to be evaluated - read more
+         *         at {@link #setCircuitBreaker(int, int, long, long)}.
+         */
+        int getCircuitBreakerMinimumProcessings();
+
+        /**
+         * @return the length of the window over which the failure rate is evaluated - read more at
+         *         {@link #setCircuitBreaker(int, int, long, long)}.
+         */
+        long getCircuitBreakerWindowMillis();
+
+        /**
+         * @return how long the circuit breaker stays open before letting a probe message through - read more at
+         *         {@link #setCircuitBreaker(int, int, long, long)}.
+         */
+        long getCircuitBreakerProbeIntervalMillis();
+
+        /**
+         * @return the current state of the circuit breaker - read more at
+         *         {@link #setCircuitBreaker(int, int, long, long)}.
+         */
+        CircuitBreakerState getCircuitBreakerState();
+
+        /**
+         * Limits the rate at which this node's StageProcessors process messages for this stage - for when the stage
+         * calls an external system with a strict rate limit. Convenience for
+         * {@link #setRateLimit(double, int) setRateLimit(messagesPerSecond, 1)}, i.e. the rate is node-local.
+         *
+         * @param messagesPerSecond
+         *            the max rate at which this node's StageProcessors process messages, <code>0</code> disabling the
+         *            rate limit.
+         * @return the config object, for method chaining.
+         */
+        StageConfig<R, S, I> setRateLimit(double messagesPerSecond);
+
+        /**
+         * Limits the rate at which the StageProcessors process messages for this stage - for when the stage calls an
+         * external system with a strict rate limit: Instead of sleeping in the stage lambda, which holds on to the
+         * StageProcessor, its JMS Session and the message through the whole transaction, the StageProcessors wait
+         * for the rate before receiving the next message - and the default {@link #setPrefetch(int) prefetch} of the
+         * stage is lowered to <code>0</code> - so that the excess messages stay on the broker, where other nodes'
+         * consumers, or later capacity, can take them.
+         * <p/>
+         * The limit is a token bucket shared by this node's StageProcessors for the stage, refilled at
+         * <code>messagesPerSecond / nodes</code>, holding a single token - i.e. the processings are paced evenly, not
+         * bursted, also after an idle period: The StageProcessor holding the token receives with a timeout, giving the
+         * token back if no message arrives, so that idle StageProcessors do not each hold one. To have a total rate
+         * for the stage across a cluster, set <code>nodes</code> to the number of nodes hosting the stage, which evenly
+         * divides the rate among them. The stage is excluded from stage fusion and local delivery, as those would
+         * bypass the receive. Default is disabled, i.e. <code>messagesPerSecond = 0</code>. May be changed while
+         * running, but the prefetch is only applied when the stage is started.
+         *
+         * @param messagesPerSecond
+         *            the max rate at which the StageProcessors process messages, in total for the <code>nodes</code>,
+         *            <code>0</code> disabling the rate limit.
+         * @param nodes
+         *            the number of nodes the rate is evenly divided among, <code>1</code> meaning node-local.
+         * @return the config object, for method chaining.
+         */
+        StageConfig<R, S, I> setRateLimit(double messagesPerSecond, int nodes);
+
+        /**
+         * @return the max rate at which the StageProcessors process messages, in total for the
+         *         {@link #getRateLimitNodes() nodes}, <code>0</code> meaning disabled - read more at
+         *         {@link #setRateLimit(double, int)}.
+         */
+        double getRateLimitMessagesPerSecond();
+
+        /**
+         * @return the number of nodes the rate limit is evenly divided among, <code>1</code> meaning node-local - read
+         *         more at {@link #setRateLimit(double, int)}.
+         */
+        int getRateLimitNodes();
     }
 }
\ No newline at end of file
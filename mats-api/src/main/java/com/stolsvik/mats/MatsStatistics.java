@@ -0,0 +1,180 @@
+package com.stolsvik.mats;
+
+import java.util.Map;
+
+/**
+ * Timing and size statistics for a {@link MatsStage} or a {@link MatsInitiator}, recorded by the Mats implementation
+ * for every message that was successfully processed (stage) or initiated (initiator). The numbers are the same that are
+ * output on the RECEIVED/PRODUCED/SENT/PROCESSED log lines, but aggregated into histograms, so that slow stages can be
+ * found by introspection instead of parsing the logs. Get hold of the instances via {@link MatsStage#getStatistics()}
+ * and {@link MatsFactory#getInitiatorStatistics()}.
+ * <p/>
+ * The histograms are cumulative since the stage or initiator was created. They are recorded without locking, and
+ * the percentiles are approximations: The implementation may bucket the values, so that a percentile value is only
+ * accurate to within a few percent of the actual value (but never larger than {@link Histogram#getMax() max}).
+ */
+public interface MatsStatistics {
+    /**
+     * The phases of processing a message for which timings are recorded. All timings are in nanoseconds.
+     */
+    enum Phase {
+        /**
+         * (Stage only) Time waiting inside the receive-call for the message to arrive - which also includes any idle
+         * time where there simply was no messages on the queue.
+         */
+        RECEIVE_WAIT,
+
+        /**
+         * (Stage only) Time from the message was received till the MatsTrace, the incoming state and the incoming
+         * message DTO was deserialized.
+         */
+        DESERIALIZE,
+
+        /**
+         * Time spent inside the user lambda - the process lambda for a stage, and the initiate lambda for an
+         * initiation. Includes the production of outgoing messages.
+         */
+        USER_LAMBDA,
+
+        /**
+         * Recorded once per outgoing message: Time producing the message, i.e. serializing and compressing the
+         * outgoing MatsTrace.
+         */
+        PRODUCE,
+
+        /**
+         * Time creating the messages for the underlying message system and sending them (before commit).
+         */
+        SEND,
+
+        /**
+         * Time from the outgoing messages was sent, till the transaction (messaging and any database) was committed.
+         */
+        COMMIT,
+
+        /**
+         * Total time, for a stage from the message was received till finished processing, including the commit and
+         * any doAfterCommit lambda. For an initiation, from the initiate call was invoked till it is about to return.
+         */
+        TOTAL
+    }
+
+    /**
+     * @param phase
+     *            which phase to get the timing histogram for.
+     * @return a snapshot of the timing histogram for the specified phase, values in nanoseconds.
+     */
+    Histogram getTiming(Phase phase);
+
+    /**
+     * @return a snapshot of the histogram of incoming message sizes in bytes, i.e. the size of the serialized MatsTrace
+     *         as received (empty for initiators).
+     */
+    Histogram getBytesIn();
+
+    /**
+     * @return a snapshot of the histogram of outgoing message sizes in bytes, i.e. the size of the serialized MatsTrace
+     *         as sent, recorded once per outgoing message.
+     */
+    Histogram getBytesOut();
+
+    /**
+     * @return (Stage only) the number of incoming messages dropped as duplicates of already processed messages, read
+     *         more at {@link MatsEndpoint.EndpointConfig#setDuplicateSuppression(int, long)} (0 for initiators).
+     */
+    long getDuplicatesDropped();
+
+    /**
+     * @return (Stage only) the number of incoming messages dropped because the deadline of their flow had passed, read
+     *         more at {@link MatsInitiator.MatsInitiate#deadline(long)} (0 for initiators).
+     */
+    long getExpiredDropped();
+
+    /**
+     * @return (Stage only) the number of incoming messages replied to from the endpoint's reply cache, without invoking
+     *         the stage's lambda, read more at {@link MatsEndpoint.EndpointConfig#setReplyCache(int, long)} (0 for
+     *         initiators, and if the reply cache is not in effect).
+     */
+    long getReplyCacheHits();
+
+    /**
+     * @return (Stage only) the number of incoming messages that were looked up in the endpoint's reply cache without
+     *         finding a reply, and thus were processed by the stage's lambda.
+     */
+    long getReplyCacheMisses();
+
+    /**
+     * @return (Stage only) the number of replies evicted from the endpoint's reply cache, either because the cache was
+     *         full, or because the reply had expired.
+     */
+    long getReplyCacheEvictions();
+
+    /**
+     * @return (Stage only) the distribution of the received partitioned messages over this node's StageProcessors of
+     *         the stage, keyed by the StageProcessor's qualifier (e.g. "0", "1", ...) - read more at
+     *         {@link MatsInitiator.MatsInitiate#partitionKey(String)}. Empty if no partitioned messages have been
+     *         received (and for initiators). Compare across the nodes to see whether the keys are evenly spread.
+     */
+    Map<String, PartitionKeyGroups> getPartitionKeyGroups();
+
+    /**
+     * The partitioned messages received by one StageProcessor, and the number of distinct partition keys ("key
+     * groups") among them - which, as the broker pins each key to one consumer, are the key groups that the
+     * StageProcessor has been assigned.
+     */
+    interface PartitionKeyGroups {
+        /**
+         * @return the number of partitioned messages received.
+         */
+        long getMessages();
+
+        /**
+         * @return an estimate of the number of distinct partition keys among the received messages, accurate to
+         *         within a few percent up to some thousand keys, after which it saturates.
+         */
+        long getEstimatedKeyGroups();
+    }
+
+    /**
+     * A point-in-time snapshot of a histogram.
+     */
+    interface Histogram {
+        /**
+         * @return the number of recorded values.
+         */
+        long getCount();
+
+        /**
+         * @return the largest recorded value, or 0 if no values are recorded.
+         */
+        long getMax();
+
+        /**
+         * @param percentile
+         *            the percentile, from 0 to 100 (e.g. 99.9).
+         * @return the value at the specified percentile, or 0 if no values are recorded.
+         */
+        long getValueAtPercentile(double percentile);
+
+        /**
+         * @return the median, i.e. {@link #getValueAtPercentile(double) getValueAtPercentile(50)}.
+         */
+        default long get50thPercentile() {
+            return getValueAtPercentile(50);
+        }
+
+        /**
+         * @return {@link #getValueAtPercentile(double) getValueAtPercentile(99)}.
+         */
+        default long get99thPercentile() {
+            return getValueAtPercentile(99);
+        }
+
+        /**
+         * @return {@link #getValueAtPercentile(double) getValueAtPercentile(99.9)}.
+         */
+        default long get999thPercentile() {
+            return getValueAtPercentile(99.9);
+        }
+    }
+}
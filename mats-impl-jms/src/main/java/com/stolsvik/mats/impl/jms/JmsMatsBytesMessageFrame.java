@@ -0,0 +1,198 @@
+package com.stolsvik.mats.impl.jms;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+
+/**
+ * The opt-in BytesMessage wire format (read more at {@link JmsMatsFactory#setBytesMessageWireFormat(boolean)}): The
+ * serialized MatsTrace, its meta, and the sideloads are put in one small length-prefixed frame as the body of a JMS
+ * {@link BytesMessage}, instead of as entries of a JMS MapMessage - thus being opaque to both the JMS client and the
+ * broker, which then do not have to marshal and unmarshal a map. The receiving StageProcessor detects the format by the
+ * JMS Message type, so that the senders can be switched over one by one.
+ * <p/>
+ * The frame is, with all ints being 4 bytes big-endian, and all Strings UTF-8:
+ *
+ * <pre>
+ * int    MAGIC ("MATS")
+ * byte   VERSION (1)
+ * int    length, byte[] MatsTrace
+ * int    length, String MatsTrace meta
+ * int    number of sideloads, each being:
+ *   byte   type ('B' for byte array, 'S' for String)
+ *   int    length, String key
+ *   int    length, byte[]|String value
+ * </pre>
+ */
+public final class JmsMatsBytesMessageFrame {
+    static final int MAGIC = 0x4D415453; // "MATS"
+    static final byte VERSION = 1;
+
+    private static final byte SIDELOAD_BYTES = 'B';
+    private static final byte SIDELOAD_STRING = 'S';
+
+    private final byte[] _matsTraceBytes;
+    private final String _matsTraceMeta;
+    private final Map<String, byte[]> _bytes;
+    private final Map<String, String> _strings;
+
+    private JmsMatsBytesMessageFrame(byte[] matsTraceBytes, String matsTraceMeta, Map<String, byte[]> bytes,
+            Map<String, String> strings) {
+        _matsTraceBytes = matsTraceBytes;
+        _matsTraceMeta = matsTraceMeta;
+        _bytes = bytes;
+        _strings = strings;
+    }
+
+    /**
+     * Writes the frame as the body of the provided, freshly created, BytesMessage.
+     */
+    static void write(BytesMessage bytesMessage, byte[] matsTraceBytes, String matsTraceMeta,
+            Map<String, byte[]> bytes, Map<String, String> strings) throws JMSException {
+        bytesMessage.writeInt(MAGIC);
+        bytesMessage.writeByte(VERSION);
+        writeLengthPrefixed(bytesMessage, matsTraceBytes);
+        writeLengthPrefixed(bytesMessage, matsTraceMeta.getBytes(StandardCharsets.UTF_8));
+        bytesMessage.writeInt(bytes.size() + strings.size());
+        for (Entry<String, byte[]> entry : bytes.entrySet()) {
+            bytesMessage.writeByte(SIDELOAD_BYTES);
+            writeLengthPrefixed(bytesMessage, entry.getKey().getBytes(StandardCharsets.UTF_8));
+            writeLengthPrefixed(bytesMessage, entry.getValue());
+        }
+        for (Entry<String, String> entry : strings.entrySet()) {
+            bytesMessage.writeByte(SIDELOAD_STRING);
+            writeLengthPrefixed(bytesMessage, entry.getKey().getBytes(StandardCharsets.UTF_8));
+            writeLengthPrefixed(bytesMessage, entry.getValue().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Reads the frame from the body of the provided BytesMessage, from the start (thus also working for a message that
+     * was just written, as with local delivery).
+     *
+     * @return the frame, or <code>null</code> if the body is not a (complete) frame of a known version - in which case
+     *         this is not a Mats message.
+     */
+    public static JmsMatsBytesMessageFrame read(BytesMessage bytesMessage) throws JMSException {
+        bytesMessage.reset();
+        FrameReader reader = new FrameReader(bytesMessage);
+        // ?: Are the magic and version as expected?
+        if ((!reader.has(5)) || (bytesMessage.readInt() != MAGIC) || (bytesMessage.readByte() != VERSION)) {
+            // -> No, so this is not a frame we understand.
+            return null;
+        }
+        byte[] matsTraceBytes = reader.readLengthPrefixed();
+        byte[] matsTraceMeta = reader.readLengthPrefixed();
+        if ((matsTraceBytes == null) || (matsTraceMeta == null) || (!reader.has(4))) {
+            return null;
+        }
+        int numberOfSideloads = bytesMessage.readInt();
+        Map<String, byte[]> bytes = new LinkedHashMap<>();
+        Map<String, String> strings = new LinkedHashMap<>();
+        for (int i = 0; i < numberOfSideloads; i++) {
+            if (!reader.has(1)) {
+                return null;
+            }
+            byte type = bytesMessage.readByte();
+            byte[] key = reader.readLengthPrefixed();
+            byte[] value = reader.readLengthPrefixed();
+            if ((key == null) || (value == null)) {
+                return null;
+            }
+            String keyString = new String(key, StandardCharsets.UTF_8);
+            if (type == SIDELOAD_BYTES) {
+                bytes.put(keyString, value);
+            }
+            else if (type == SIDELOAD_STRING) {
+                strings.put(keyString, new String(value, StandardCharsets.UTF_8));
+            }
+            else {
+                return null;
+            }
+        }
+        return new JmsMatsBytesMessageFrame(matsTraceBytes, new String(matsTraceMeta, StandardCharsets.UTF_8),
+                Collections.unmodifiableMap(bytes), Collections.unmodifiableMap(strings));
+    }
+
+    private static void writeLengthPrefixed(BytesMessage bytesMessage, byte[] value) throws JMSException {
+        bytesMessage.writeInt(value.length);
+        bytesMessage.writeBytes(value);
+    }
+
+    /**
+     * Keeps track of how much of the body is left, so that a truncated or garbled frame is detected instead of reading
+     * past the end of the body.
+     */
+    private static class FrameReader {
+        private final BytesMessage _bytesMessage;
+        private long _remaining;
+
+        private FrameReader(BytesMessage bytesMessage) throws JMSException {
+            _bytesMessage = bytesMessage;
+            _remaining = bytesMessage.getBodyLength();
+        }
+
+        /**
+         * @return whether there are at least the specified number of bytes left - which are then considered read.
+         */
+        private boolean has(int numberOfBytes) {
+            if (_remaining < numberOfBytes) {
+                return false;
+            }
+            _remaining -= numberOfBytes;
+            return true;
+        }
+
+        /**
+         * @return the value, or <code>null</code> if the length is negative or goes beyond the remaining body.
+         */
+        private byte[] readLengthPrefixed() throws JMSException {
+            if (!has(4)) {
+                return null;
+            }
+            int length = _bytesMessage.readInt();
+            if ((length < 0) || (!has(length))) {
+                return null;
+            }
+            byte[] value = new byte[length];
+            // ?: Was the value fully read? (A zero-length value might be read as -1, i.e. "end of body")
+            if ((length > 0) && (_bytesMessage.readBytes(value) != length)) {
+                return null;
+            }
+            return value;
+        }
+    }
+
+    /**
+     * @return the serialized MatsTrace.
+     */
+    public byte[] getMatsTraceBytes() {
+        return _matsTraceBytes;
+    }
+
+    /**
+     * @return the meta of the serialized MatsTrace, as needed when deserializing it.
+     */
+    public String getMatsTraceMeta() {
+        return _matsTraceMeta;
+    }
+
+    /**
+     * @return the byte array sideloads, keyed by their key.
+     */
+    public Map<String, byte[]> getBytes() {
+        return _bytes;
+    }
+
+    /**
+     * @return the String sideloads, keyed by their key.
+     */
+    public Map<String, String> getStrings() {
+        return _strings;
+    }
+}
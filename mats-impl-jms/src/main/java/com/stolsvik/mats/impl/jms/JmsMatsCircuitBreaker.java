@@ -0,0 +1,183 @@
+package com.stolsvik.mats.impl.jms;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.stolsvik.mats.MatsStage.CircuitBreakerState;
+import com.stolsvik.mats.MatsStage.StageConfig;
+
+/**
+ * Per-{@link JmsMatsStage} circuit breaker, employed by the {@link JmsMatsStageProcessor}s to park themselves instead
+ * of receiving messages when the failure rate of the stage's processings crosses the threshold - read more at
+ * {@link StageConfig#setCircuitBreaker(int, int, long, long)}.
+ * <p/>
+ * The failure rate is evaluated over consecutive (tumbling) windows. When OPEN, the first StageProcessor that asks for
+ * permission after the probe interval has passed becomes the probe owner, the breaker going HALF_OPEN: Only the owner
+ * may then receive, and the outcome of its next processing decides whether the breaker closes or opens again.
+ * <p/>
+ * The state, the probe owner and the window counts are guarded by the instance's monitor, which is also what the
+ * parked StageProcessors wait on: Closing the breaker, and handing the probe over from an exiting owner, wakes them.
+ * There is a probe owner if and only if the breaker is HALF_OPEN.
+ */
+class JmsMatsCircuitBreaker implements JmsMatsStatics {
+    private static final Logger log = LoggerFactory.getLogger(JmsMatsCircuitBreaker.class);
+
+    private final String _stageId;
+
+    private CircuitBreakerState _state = CircuitBreakerState.CLOSED;
+    // The StageProcessor that is letting the probe message through, when HALF_OPEN.
+    private Object _probeOwner;
+    // When OPEN: System.nanoTime() at which a probe may be let through.
+    private long _nextProbeAtNanos;
+
+    // :: The current window
+    private long _windowStartNanos = System.nanoTime();
+    private int _windowProcessings;
+    private int _windowFailures;
+
+    JmsMatsCircuitBreaker(String stageId) {
+        _stageId = stageId;
+    }
+
+    /**
+     * @return whether the StageProcessor may receive a message - if not, it should {@link #park(long) park}, and then
+     *         ask again.
+     */
+    synchronized boolean tryAcquirePermission(Object stageProcessor, int failureRatePercent) {
+        // ?: Is the circuit breaker disabled?
+        if (failureRatePercent == 0) {
+            // -> Yes, so reset to CLOSED - which also wakes any parked StageProcessors, should it just have been
+            // disabled while OPEN.
+            if (_state != CircuitBreakerState.CLOSED) {
+                close();
+            }
+            return true;
+        }
+        switch (_state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                // ?: Has the probe interval passed?
+                if ((System.nanoTime() - _nextProbeAtNanos) >= 0) {
+                    // -> Yes, so this StageProcessor gets to let the probe message through.
+                    _state = CircuitBreakerState.HALF_OPEN;
+                    _probeOwner = stageProcessor;
+                    log.info(LOG_PREFIX + "Circuit breaker of stage [" + _stageId + "] is HALF_OPEN, letting a probe"
+                            + " message through.");
+                    return true;
+                }
+                return false;
+            default:
+                // HALF_OPEN: Only the probe owner may receive.
+                return _probeOwner == stageProcessor;
+        }
+    }
+
+    /**
+     * Records a successful processing: If this was the probe, the breaker closes.
+     */
+    synchronized void recordSuccess(Object stageProcessor, long windowMillis) {
+        // ?: Is this the probe owner?
+        if ((_state == CircuitBreakerState.HALF_OPEN) && (_probeOwner == stageProcessor)) {
+            // -> Yes, so the probe succeeded: close the breaker.
+            log.info(LOG_PREFIX + "Circuit breaker of stage [" + _stageId + "]: The probe message was successfully"
+                    + " processed, CLOSING the breaker - all StageProcessors resume receiving.");
+            close();
+            return;
+        }
+        if (_state == CircuitBreakerState.CLOSED) {
+            rollWindowIfPassed(windowMillis);
+            _windowProcessings++;
+        }
+    }
+
+    /**
+     * Records a failed processing: If this was the probe, the breaker opens again - otherwise, if the failure rate of
+     * the current window crosses the threshold, the breaker opens.
+     */
+    synchronized void recordFailure(Object stageProcessor, int failureRatePercent, int minimumProcessings,
+            long windowMillis, long probeIntervalMillis) {
+        // ?: Disabled?
+        if (failureRatePercent == 0) {
+            // -> Yes, so nothing to record.
+            return;
+        }
+        // ?: Is this the probe owner?
+        if ((_state == CircuitBreakerState.HALF_OPEN) && (_probeOwner == stageProcessor)) {
+            // -> Yes, so the probe failed: open the breaker again.
+            log.warn(LOG_PREFIX + "Circuit breaker of stage [" + _stageId + "]: The probe message failed, the breaker"
+                    + " stays OPEN - next probe in [" + probeIntervalMillis + " ms].");
+            open(probeIntervalMillis);
+            return;
+        }
+        if (_state != CircuitBreakerState.CLOSED) {
+            return;
+        }
+        rollWindowIfPassed(windowMillis);
+        _windowProcessings++;
+        _windowFailures++;
+        // ?: Enough processings in the window, and the failure rate at or above the threshold?
+        if ((_windowProcessings >= minimumProcessings)
+                && ((_windowFailures * 100L) >= ((long) failureRatePercent * _windowProcessings))) {
+            // -> Yes, so open the breaker.
+            log.warn(LOG_PREFIX + "Circuit breaker of stage [" + _stageId + "]: [" + _windowFailures + "] of ["
+                    + _windowProcessings + "] processings failed within the window, which is at or above the"
+                    + " threshold of [" + failureRatePercent + "%] - OPENING the breaker, parking the StageProcessors."
+                    + " Next probe in [" + probeIntervalMillis + " ms].");
+            open(probeIntervalMillis);
+        }
+    }
+
+    /**
+     * Invoked when a StageProcessor exits: If it was the probe owner, the probe is handed over to the next
+     * StageProcessor that asks for permission.
+     */
+    synchronized void releaseProbe(Object stageProcessor) {
+        if ((_state == CircuitBreakerState.HALF_OPEN) && (_probeOwner == stageProcessor)) {
+            _state = CircuitBreakerState.OPEN;
+            _probeOwner = null;
+            _nextProbeAtNanos = System.nanoTime();
+            notifyAll();
+        }
+    }
+
+    /**
+     * Parks the invoking StageProcessor for at most the specified time, or until the breaker changes state.
+     */
+    synchronized void park(long maxMillis) throws InterruptedException {
+        if (_state != CircuitBreakerState.CLOSED) {
+            wait(maxMillis);
+        }
+    }
+
+    /**
+     * @return the current state, where an enabled breaker is never {@link CircuitBreakerState#DISABLED DISABLED}.
+     */
+    synchronized CircuitBreakerState getState() {
+        return _state;
+    }
+
+    private void open(long probeIntervalMillis) {
+        _state = CircuitBreakerState.OPEN;
+        _probeOwner = null;
+        _nextProbeAtNanos = System.nanoTime() + probeIntervalMillis * 1_000_000L;
+    }
+
+    private void close() {
+        _state = CircuitBreakerState.CLOSED;
+        _probeOwner = null;
+        _windowStartNanos = System.nanoTime();
+        _windowProcessings = 0;
+        _windowFailures = 0;
+        notifyAll();
+    }
+
+    private void rollWindowIfPassed(long windowMillis) {
+        long nowNanos = System.nanoTime();
+        if ((nowNanos - _windowStartNanos) > windowMillis * 1_000_000L) {
+            _windowStartNanos = nowNanos;
+            _windowProcessings = 0;
+            _windowFailures = 0;
+        }
+    }
+}
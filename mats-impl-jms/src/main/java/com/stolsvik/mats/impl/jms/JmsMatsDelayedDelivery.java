@@ -0,0 +1,377 @@
+package com.stolsvik.mats.impl.jms;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.Queue;
+import javax.jms.Session;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.stolsvik.mats.MatsFactory.FactoryConfig;
+import com.stolsvik.mats.MatsInitiator.MatsInitiate;
+import com.stolsvik.mats.impl.jms.JmsMatsDestinationCache.CachedDestination;
+import com.stolsvik.mats.impl.jms.JmsMatsJmsSessionHandler.JmsSessionHolder;
+import com.stolsvik.mats.serial.MatsTrace.Call.MessagingModel;
+
+/**
+ * The portable fallback for delayed delivery (read more at {@link MatsInitiate#delay(long)}), for when the broker does
+ * not effectuate the delay: A {@link JmsMatsStageProcessor} of a queue stage that receives a message before its time
+ * {@link #park(JmsSessionHolder, Message, long) parks} it, by sending it to one of the factory's parking queues
+ * <i>within the same transaction</i> as the receive - so the message is never only held in memory, and is not lost if
+ * the JVM crashes. A poller thread then regularly cycles through the parking queues, in transactional batches: A
+ * message that is due is sent to the queue of the stage it was for, where it is processed as usual by whichever node
+ * gets it, while a message that is not yet due is parked anew.
+ * <p/>
+ * The parking queues are tiers by the remaining delay, read more at {@link #TIER_MIN_REMAINING_MILLIS}: A message is
+ * parked in the tier of its remaining delay, and is moved down a tier as its time approaches. Each tier is polled at
+ * an interval of half its min remaining delay, so that a message is sent anew only a bounded number of times per tier
+ * - not every few seconds for the whole of its delay. The lowest tier holds the messages that are due within the next
+ * seconds, and is polled when the earliest of them that the poller has seen, or that has been parked or moved there by
+ * this node, is due - but at least every {@link #MAX_POLL_INTERVAL_MILLIS}, to also pick up those parked by other
+ * nodes.
+ * <p/>
+ * The poller runs on every node with started queue stages, so that the parked messages are delivered also if the node
+ * that parked them is gone.
+ * <p/>
+ * Thread safe: The polling is done by a single daemon thread, started when the first queue stage starts.
+ */
+class JmsMatsDelayedDelivery implements JmsMatsStatics {
+    private static final Logger log = LoggerFactory.getLogger(JmsMatsDelayedDelivery.class);
+
+    /**
+     * The start of the ids of the parking queues, which are prefixed by the
+     * {@link FactoryConfig#getMatsDestinationPrefix() Mats destination prefix}, as the stages' queues are - and
+     * suffixed by the tier's min remaining delay in seconds, e.g. "mats.DelayedDelivery.100s".
+     */
+    static final String PARKING_QUEUE_ID = "mats.DelayedDelivery";
+
+    /**
+     * The min remaining delay of the messages in each parking tier, the lowest tier holding those due within 10
+     * seconds. A tier above the lowest is polled every half of its min remaining delay, so a message is always moved
+     * down before its time - and is sent anew at most some 20 times per tier it passes through.
+     */
+    static final long[] TIER_MIN_REMAINING_MILLIS = { 0, 10_000, 100_000, 1_000_000, 10_000_000, 100_000_000 };
+
+    /**
+     * The max time between polls of the lowest tier, so that messages parked by other nodes are picked up.
+     */
+    static final long MAX_POLL_INTERVAL_MILLIS = 5_000;
+
+    // The min time between polls of the lowest tier, as each poll cycles through the tier's parked messages.
+    private static final long MIN_POLL_INTERVAL_MILLIS = 50;
+
+    // The number of messages handled per transaction, which also is the prefetch of the poller's consumer.
+    private static final int BATCH_SIZE = 100;
+
+    // The max number of messages handled per poll - a safeguard, as a poll normally ends when the queue is cycled.
+    private static final int MAX_MESSAGES_PER_POLL = 10_000;
+
+    // How long the poller waits for the next parked message before deeming the parking queue cycled.
+    private static final long RECEIVE_TIMEOUT_MILLIS = 50;
+
+    // If the poll fails, it is tried again after this long.
+    private static final long RETRY_AFTER_FAILURE_MILLIS = 1000;
+
+    // How long stop() waits for the poller thread to finish a poll in progress.
+    private static final long STOP_WAIT_MILLIS = 5_000;
+
+    private final JmsMatsFactory<?> _parentFactory;
+
+    // The current poller thread, null if not started (or stopped). A thread exits when it is no longer the current.
+    private Thread _pollerThread;
+
+    // When the poller shall poll each tier next: The lowest tier's is lowered when this node parks a message there.
+    private final long[] _nextPollAtMillis = new long[TIER_MIN_REMAINING_MILLIS.length];
+
+    JmsMatsDelayedDelivery(JmsMatsFactory<?> parentFactory) {
+        _parentFactory = parentFactory;
+    }
+
+    /**
+     * Starts the poller thread, unless already started. Invoked when a queue stage starts.
+     */
+    synchronized void start() {
+        // ?: Is the poller thread started?
+        if (_pollerThread != null) {
+            // -> Yes, so nothing to do.
+            return;
+        }
+        Arrays.fill(_nextPollAtMillis, System.currentTimeMillis());
+        _pollerThread = new Thread(this::runner, THREAD_PREFIX + "DelayedDelivery {" + _parentFactory.idThis()
+                + "}");
+        _pollerThread.setDaemon(true);
+        _pollerThread.start();
+    }
+
+    /**
+     * Parks the message that arrived before its time, by sending it to the parking queue of the tier of its remaining
+     * delay using the StageProcessor's JMS Session - thus within the transaction of the receive, which the
+     * StageProcessor then commits.
+     */
+    void park(JmsSessionHolder jmsSessionHolder, Message message, long deliverAtMillis) throws JMSException {
+        long now = System.currentTimeMillis();
+        int tier = tierOf(deliverAtMillis - now);
+        JmsMatsDestinationCache destinationCache = jmsSessionHolder.getDestinationCache();
+        send(destinationCache, parkingQueue(destinationCache, tier), message, now);
+        // ?: Is it parked in the lowest tier?
+        if (tier == 0) {
+            // -> Yes, so have the poller poll when it is due (the receive will have committed by then).
+            lowerNextPollOfLowestTier(deliverAtMillis);
+        }
+    }
+
+    /**
+     * Stops the poller thread, waiting for any poll in progress to finish. The parked messages stay on the parking
+     * queue, to be delivered by the poller of whichever node runs. Invoked when the factory stops, after the stages
+     * have stopped - and before the initiators are closed, as the poller uses the default initiator's Sessions.
+     */
+    void stop() {
+        Thread pollerThread;
+        synchronized (this) {
+            pollerThread = _pollerThread;
+            _pollerThread = null;
+            notifyAll();
+        }
+        // ?: Was the poller thread started?
+        if (pollerThread == null) {
+            // -> No, so nothing to wait for.
+            return;
+        }
+        try {
+            pollerThread.join(STOP_WAIT_MILLIS);
+            // ?: Is it still running?
+            if (pollerThread.isAlive()) {
+                // -> Yes, so interrupt it - the poll in progress is then rolled back, leaving the messages parked.
+                log.warn(LOG_PREFIX + "The delayed delivery poller of [" + _parentFactory.idThis() + "] did not"
+                        + " finish within [" + STOP_WAIT_MILLIS + " ms], interrupting it.");
+                pollerThread.interrupt();
+            }
+        }
+        catch (InterruptedException e) {
+            log.info(LOG_PREFIX + "Interrupted while waiting for the delayed delivery poller to finish.");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized boolean isCurrentPoller() {
+        return _pollerThread == Thread.currentThread();
+    }
+
+    private synchronized void lowerNextPollOfLowestTier(long deliverAtMillis) {
+        // ?: Is this message due before the poller's next poll of the lowest tier?
+        if (deliverAtMillis < _nextPollAtMillis[0]) {
+            // -> Yes, so have the poller poll it when it is due.
+            _nextPollAtMillis[0] = deliverAtMillis;
+            notifyAll();
+        }
+    }
+
+    /**
+     * @return the tier of a message with the specified remaining delay: The highest tier whose min remaining delay it
+     *         is at or above.
+     */
+    static int tierOf(long remainingMillis) {
+        int tier = TIER_MIN_REMAINING_MILLIS.length - 1;
+        while ((tier > 0) && (remainingMillis < TIER_MIN_REMAINING_MILLIS[tier])) {
+            tier--;
+        }
+        return tier;
+    }
+
+    private CachedDestination parkingQueue(JmsMatsDestinationCache destinationCache, int tier) throws JMSException {
+        return destinationCache.getDestination(MessagingModel.QUEUE,
+                _parentFactory.getFactoryConfig().getMatsDestinationPrefix(), parkingQueueId(tier));
+    }
+
+    private static String parkingQueueId(int tier) {
+        return PARKING_QUEUE_ID + "." + (TIER_MIN_REMAINING_MILLIS[tier] / 1000) + "s";
+    }
+
+    private void runner() {
+        while (true) {
+            int tier;
+            synchronized (this) {
+                // :: Wait till the next poll of any tier (or something is parked, or we are stopped), evaluating anew
+                // each time.
+                while (true) {
+                    // ?: Are we still the current poller thread?
+                    if (_pollerThread != Thread.currentThread()) {
+                        // -> No, so exit.
+                        return;
+                    }
+                    // Find the tier to poll next - the lowest, if several are due.
+                    tier = 0;
+                    for (int i = 1; i < _nextPollAtMillis.length; i++) {
+                        if (_nextPollAtMillis[i] < _nextPollAtMillis[tier]) {
+                            tier = i;
+                        }
+                    }
+                    long millisToPoll = _nextPollAtMillis[tier] - System.currentTimeMillis();
+                    // ?: Is it time to poll it?
+                    if (millisToPoll <= 0) {
+                        // -> Yes, so go poll.
+                        break;
+                    }
+                    try {
+                        wait(millisToPoll);
+                    }
+                    catch (InterruptedException e) {
+                        log.info(LOG_PREFIX + "Delayed delivery poller thread got interrupted, exiting.");
+                        return;
+                    }
+                }
+                // Messages parked in, or moved to, the lowest tier while polling may lower this.
+                _nextPollAtMillis[tier] = Long.MAX_VALUE;
+            }
+            long nextPollAtMillis;
+            try {
+                nextPollAtMillis = poll(tier);
+            }
+            catch (JmsMatsJmsException | RuntimeException e) {
+                log.warn(LOG_PREFIX + "Got [" + e.getClass().getSimpleName() + "] when polling the delayed delivery"
+                        + " parking queue [" + parkingQueueId(tier) + "] - trying again in ["
+                        + RETRY_AFTER_FAILURE_MILLIS + " ms].", e);
+                nextPollAtMillis = System.currentTimeMillis() + RETRY_AFTER_FAILURE_MILLIS;
+            }
+            synchronized (this) {
+                _nextPollAtMillis[tier] = Math.min(_nextPollAtMillis[tier], nextPollAtMillis);
+            }
+        }
+    }
+
+    /**
+     * Cycles through the parking queue of the specified tier, sending the due messages to their stage's queue, moving
+     * those whose remaining delay now is below the tier down to their tier, and parking the rest anew.
+     *
+     * @return when to poll the tier next.
+     */
+    private long poll(int tier) throws JmsMatsJmsException {
+        JmsSessionHolder jmsSessionHolder = _parentFactory.getJmsMatsJmsSessionHandler()
+                .getSessionHolder(_parentFactory.getOrCreateInitiator_internal("default"));
+        long earliestParkedDeliverAtMillis = Long.MAX_VALUE;
+        try {
+            Session jmsSession = jmsSessionHolder.getSession();
+            JmsMatsDestinationCache destinationCache = jmsSessionHolder.getDestinationCache();
+            String destinationPrefix = _parentFactory.getFactoryConfig().getMatsDestinationPrefix();
+            CachedDestination parkingQueue = parkingQueue(destinationCache, tier);
+            Queue consumerQueue = jmsSession.createQueue(JmsMatsMessageBrokerSpecifics.consumerDestinationName(
+                    jmsSession, destinationPrefix + parkingQueueId(tier), BATCH_SIZE));
+            MessageConsumer consumer = jmsSession.createConsumer(consumerQueue);
+            try {
+                // The JMSMessageIDs of the messages parked anew in this poll: Getting one of those means that the
+                // parking queue is cycled.
+                Set<String> parkedAnewIds = new HashSet<>();
+                int delivered = 0;
+                int moved = 0;
+                int messages = 0;
+                boolean cycled = false;
+                while ((!cycled) && isCurrentPoller()) {
+                    // :: One transactional batch
+                    int batchMessages = 0;
+                    for (; batchMessages < BATCH_SIZE; batchMessages++) {
+                        Message message = consumer.receive(RECEIVE_TIMEOUT_MILLIS);
+                        // ?: Is the parking queue empty, or have we gotten back to the messages parked anew?
+                        if ((message == null) || parkedAnewIds.contains(message.getJMSMessageID())
+                                || (++messages >= MAX_MESSAGES_PER_POLL)) {
+                            // -> Yes, so this is the last message of the poll.
+                            cycled = true;
+                        }
+                        if (message == null) {
+                            break;
+                        }
+                        long now = System.currentTimeMillis();
+                        long deliverAtMillis = message.propertyExists(JMS_MSG_PROP_DELIVER_AT)
+                                ? message.getLongProperty(JMS_MSG_PROP_DELIVER_AT)
+                                : 0;
+                        String to = message.getStringProperty(JMS_MSG_PROP_TO);
+                        // ?: Is this a Mats message?
+                        if (to == null) {
+                            // -> No, so drop it, as there is nowhere to deliver it.
+                            log.error(LOG_PREFIX + "Got a message without the [" + JMS_MSG_PROP_TO + "] property on"
+                                    + " the delayed delivery parking queue - cannot be a Mats message! Dropping it!"
+                                    + "\n" + message);
+                        }
+                        // ?: Is it due?
+                        else if (deliverAtMillis <= now) {
+                            // -> Yes, so send it to the queue of the stage it is for.
+                            send(destinationCache, destinationCache.getDestination(MessagingModel.QUEUE,
+                                    destinationPrefix, to), message, now);
+                            delivered++;
+                        }
+                        else {
+                            int messageTier = tierOf(deliverAtMillis - now);
+                            // ?: Does it still belong in this tier?
+                            if (messageTier == tier) {
+                                // -> Yes, so park it anew.
+                                send(destinationCache, parkingQueue, message, now);
+                                parkedAnewIds.add(message.getJMSMessageID());
+                                earliestParkedDeliverAtMillis = Math.min(earliestParkedDeliverAtMillis,
+                                        deliverAtMillis);
+                            }
+                            else {
+                                // -> No, so move it to its tier - polled when due if that is the lowest, which is
+                                // after this batch is committed, as the lowest tier is polled by this thread.
+                                send(destinationCache, parkingQueue(destinationCache, messageTier), message, now);
+                                moved++;
+                                if (messageTier == 0) {
+                                    lowerNextPollOfLowestTier(deliverAtMillis);
+                                }
+                            }
+                        }
+                        if (cycled) {
+                            batchMessages++;
+                            break;
+                        }
+                    }
+                    // ?: Did this batch receive any messages? (Not committing empty batches, as there is nothing to do)
+                    if (batchMessages > 0) {
+                        // -> Yes, so commit the receives and sends atomically.
+                        jmsSession.commit();
+                    }
+                }
+                // ?: Did this poll move any messages? (Not logging the idle polls)
+                if (((delivered + moved + parkedAnewIds.size()) > 0) && log.isDebugEnabled()) {
+                    // -> Yes, so log it.
+                    log.debug(LOG_PREFIX + "Delayed delivery poll of [" + parkingQueueId(tier) + "]: Delivered ["
+                            + delivered + "] due messages, moved [" + moved + "] down, parked ["
+                            + parkedAnewIds.size() + "] anew.");
+                }
+            }
+            finally {
+                consumer.close();
+            }
+        }
+        catch (Throwable t) {
+            jmsSessionHolder.crashed(t);
+            throw new JmsMatsJmsException("Got problems when polling the delayed delivery parking queue.", t);
+        }
+        jmsSessionHolder.release();
+        long now = System.currentTimeMillis();
+        // ?: Is this the lowest tier?
+        if (tier == 0) {
+            // -> Yes, so poll when the earliest parked message is due, but at least every MAX_POLL_INTERVAL_MILLIS.
+            return now + Math.max(MIN_POLL_INTERVAL_MILLIS,
+                    Math.min(MAX_POLL_INTERVAL_MILLIS, earliestParkedDeliverAtMillis - now));
+        }
+        // E-> A higher tier, so poll every half of its min remaining delay.
+        return now + (TIER_MIN_REMAINING_MILLIS[tier] / 2);
+    }
+
+    /**
+     * Sends the received message anew, keeping its delivery mode and priority, and its remaining time to live.
+     */
+    private static void send(JmsMatsDestinationCache destinationCache, CachedDestination cachedDestination,
+            Message message, long now) throws JMSException {
+        // The remaining time to live, 0 meaning forever - and if it is just about to expire, let it.
+        long expiration = message.getJMSExpiration();
+        long timeToLive = expiration == 0 ? 0 : Math.max(1, expiration - now);
+        destinationCache.send(cachedDestination, message, message.getJMSDeliveryMode(), message.getJMSPriority(),
+                timeToLive);
+    }
+}
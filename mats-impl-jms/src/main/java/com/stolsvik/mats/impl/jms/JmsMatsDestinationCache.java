@@ -0,0 +1,248 @@
+package com.stolsvik.mats.impl.jms;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.stolsvik.mats.serial.MatsTrace.Call.MessagingModel;
+
+/**
+ * Per-{@link Session} cache of JMS {@link Destination}s, so that the JMS Queue or Topic object is not created anew for
+ * every outgoing message, and optionally of {@link MessageProducer}s bound to "hot" Destinations, so that the JMS
+ * client does not have to resolve the Destination for every send on the anonymous producer. Both are LRU-evicted: The
+ * Destinations when more than {@link #MAX_CACHED_DESTINATIONS} are cached, and the bound MessageProducers when more
+ * than the configured max number of producers would be created, in which case the least recently used is closed.
+ * <p/>
+ * A Destination becomes "hot" when it has been sent to {@link #HOT_DESTINATION_SENDS} times, upon which a bound
+ * producer is created for it, if producer caching is enabled (max producers &gt; 0).
+ * <p/>
+ * <b>Not thread safe</b>: As with the JMS Session itself, it shall only be used by the thread employing the Session.
+ * Owned by the {@link JmsMatsJmsSessionHandler.JmsSessionHolder}, thus living as long as the JMS Session.
+ */
+class JmsMatsDestinationCache implements JmsMatsStatics {
+    private static final Logger log = LoggerFactory.getLogger(JmsMatsDestinationCache.class);
+
+    /**
+     * Max number of cached Destinations per Session, for each of Queues and Topics.
+     */
+    static final int MAX_CACHED_DESTINATIONS = 256;
+
+    /**
+     * Number of sends to a Destination before it is considered "hot", and gets a bound producer (if enabled).
+     */
+    static final int HOT_DESTINATION_SENDS = 32;
+
+    private final Session _jmsSession;
+    private final MessageProducer _defaultNoDestinationMessageProducer;
+    private final int _maxProducers;
+
+    private final LruMap _queues = new LruMap();
+    private final LruMap _topics = new LruMap();
+
+    // The destination prefix the cache was populated with - the cache is keyed on the Mats endpoint/stage id.
+    private String _destinationPrefix;
+    private int _numberOfProducers;
+
+    /**
+     * @param maxProducers
+     *            the max number of bound MessageProducers to keep for this Session, <code>0</code> disabling producer
+     *            caching, so that the default no-destination producer is always used.
+     */
+    JmsMatsDestinationCache(Session jmsSession, MessageProducer defaultNoDestinationMessageProducer,
+            int maxProducers) {
+        _jmsSession = jmsSession;
+        _defaultNoDestinationMessageProducer = defaultNoDestinationMessageProducer;
+        _maxProducers = maxProducers;
+    }
+
+    /**
+     * @return the cached Destination for the specified Mats endpoint/stage id, creating it if not present.
+     */
+    CachedDestination getDestination(MessagingModel messagingModel, String destinationPrefix, String id)
+            throws JMSException {
+        // ?: Has the destination prefix changed? (Compare by identity first, since it is normally the same instance.)
+        if ((destinationPrefix != _destinationPrefix) && (!destinationPrefix.equals(_destinationPrefix))) {
+            // -> Yes, so all cached Destinations are wrong - clear out.
+            clear();
+            _destinationPrefix = destinationPrefix;
+        }
+        boolean queue = messagingModel == MessagingModel.QUEUE;
+        LruMap destinations = queue ? _queues : _topics;
+        CachedDestination cachedDestination = destinations.get(id);
+        // ?: Did we have it?
+        if (cachedDestination == null) {
+            // -> No, so create the JMS Queue or Topic, and cache it.
+            Destination destination = queue
+                    ? _jmsSession.createQueue(destinationPrefix + id)
+                    : _jmsSession.createTopic(destinationPrefix + id);
+            cachedDestination = new CachedDestination(destination);
+            destinations.put(id, cachedDestination);
+        }
+        return cachedDestination;
+    }
+
+    /**
+     * Sends the message to the Destination, using its bound producer if it has one, or if it now became "hot" and
+     * producer caching is enabled - otherwise using the default no-destination producer.
+     */
+    void send(CachedDestination cachedDestination, Message message, int deliveryMode, int priority,
+            long timeToLive) throws JMSException {
+        // ?: Does it have a bound producer?
+        if (cachedDestination._messageProducer != null) {
+            // -> Yes, so send using that.
+            cachedDestination._messageProducer.send(message, deliveryMode, priority, timeToLive);
+            return;
+        }
+        // ?: Is producer caching enabled, and did the Destination now become hot?
+        if ((_maxProducers > 0) && (++cachedDestination._sends >= HOT_DESTINATION_SENDS)) {
+            // -> Yes, so bind a producer to it, and send using that.
+            bindProducer(cachedDestination);
+            cachedDestination._messageProducer.send(message, deliveryMode, priority, timeToLive);
+            return;
+        }
+        // E-> Use the default no-destination producer.
+        _defaultNoDestinationMessageProducer.send(cachedDestination._destination, message, deliveryMode, priority,
+                timeToLive);
+    }
+
+    /**
+     * @return the number of bound MessageProducers currently cached.
+     */
+    int getNumberOfProducers() {
+        return _numberOfProducers;
+    }
+
+    private void bindProducer(CachedDestination cachedDestination) throws JMSException {
+        // ?: Are we at the max number of producers?
+        if (_numberOfProducers >= _maxProducers) {
+            // -> Yes, so evict the producer of the least recently used Destination which has one.
+            // (Only done when a Destination becomes hot, which is rare compared to the sends.)
+            evictLeastRecentlyUsedProducer();
+        }
+        cachedDestination._messageProducer = _jmsSession.createProducer(cachedDestination._destination);
+        _numberOfProducers++;
+        if (log.isDebugEnabled()) log.debug(LOG_PREFIX + "Bound a MessageProducer to hot Destination ["
+                + cachedDestination._destination + "], now [" + _numberOfProducers + "] bound producers.");
+    }
+
+    private void evictLeastRecentlyUsedProducer() {
+        // The two maps are access-ordered, so the first with a producer is the LRU within each map.
+        CachedDestination lruQueue = firstWithProducer(_queues);
+        CachedDestination lruTopic = firstWithProducer(_topics);
+        CachedDestination lru;
+        if (lruQueue == null) {
+            lru = lruTopic;
+        }
+        else if (lruTopic == null) {
+            lru = lruQueue;
+        }
+        else {
+            lru = lruQueue._lastUsedNanos <= lruTopic._lastUsedNanos ? lruQueue : lruTopic;
+        }
+        if (lru != null) {
+            closeProducer(lru);
+        }
+    }
+
+    private static CachedDestination firstWithProducer(LruMap destinations) {
+        for (CachedDestination cachedDestination : destinations.values()) {
+            if (cachedDestination._messageProducer != null) {
+                return cachedDestination;
+            }
+        }
+        return null;
+    }
+
+    private void closeProducer(CachedDestination cachedDestination) {
+        MessageProducer messageProducer = cachedDestination._messageProducer;
+        cachedDestination._messageProducer = null;
+        // Must start over counting towards hot.
+        cachedDestination._sends = 0;
+        _numberOfProducers--;
+        try {
+            messageProducer.close();
+        }
+        catch (JMSException e) {
+            log.warn(LOG_PREFIX + "Got [" + e.getClass().getSimpleName() + "] when closing evicted MessageProducer"
+                    + " for Destination [" + cachedDestination._destination + "]. Ignoring.", e);
+        }
+    }
+
+    private void clear() {
+        for (LruMap destinations : new LruMap[] { _queues, _topics }) {
+            Iterator<CachedDestination> it = destinations.values().iterator();
+            while (it.hasNext()) {
+                CachedDestination cachedDestination = it.next();
+                if (cachedDestination._messageProducer != null) {
+                    closeProducer(cachedDestination);
+                }
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * A cached JMS Destination, along with its "hotness" and any bound producer.
+     */
+    static class CachedDestination {
+        private final Destination _destination;
+        private int _sends;
+        private long _lastUsedNanos;
+        private MessageProducer _messageProducer;
+
+        private CachedDestination(Destination destination) {
+            _destination = destination;
+        }
+
+        Destination getDestination() {
+            return _destination;
+        }
+    }
+
+    /**
+     * Access-ordered LinkedHashMap which evicts the least recently used entry when above
+     * {@link #MAX_CACHED_DESTINATIONS}, closing its producer if it has one.
+     */
+    private class LruMap extends LinkedHashMap<String, CachedDestination> {
+        private LruMap() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        public CachedDestination get(Object key) {
+            CachedDestination cachedDestination = super.get(key);
+            if (cachedDestination != null) {
+                cachedDestination._lastUsedNanos = System.nanoTime();
+            }
+            return cachedDestination;
+        }
+
+        @Override
+        public CachedDestination put(String key, CachedDestination value) {
+            value._lastUsedNanos = System.nanoTime();
+            return super.put(key, value);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Entry<String, CachedDestination> eldest) {
+            // ?: Are we above the max?
+            if (size() > MAX_CACHED_DESTINATIONS) {
+                // -> Yes, so evict the eldest, closing its producer if it has one.
+                if (eldest.getValue()._messageProducer != null) {
+                    closeProducer(eldest.getValue());
+                }
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.stolsvik.mats.impl.jms;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import com.stolsvik.mats.MatsEndpoint.EndpointConfig;
+
+/**
+ * Per-{@link JmsMatsStage} bounded, time-windowed memory of the <code>MatsMessageId</code>s of the messages whose
+ * processing was committed, employed by the {@link JmsMatsStageProcessor}s to drop redeliveries of already processed
+ * messages before deserializing them - read more at {@link EndpointConfig#setDuplicateSuppression(int, long)}.
+ * <p/>
+ * The ids are kept in commit order, so that both eviction due to size and due to age is done from the head - a lowered
+ * max number of ids thus takes effect at the next commit.
+ * <p/>
+ * The ids of the messages currently being processed are also tracked ("in flight"), so that two copies of a message
+ * received by two StageProcessors at the same time do not both pass the check before either has committed: The second
+ * is a duplicate of the first. Should the first roll back, its copy is redelivered by the broker, so dropping the
+ * second loses nothing. The id is released from in flight when committed, or when the processing did not complete.
+ * <p/>
+ * The committed ids and the in flight set are guarded together by the instance's monitor, so that the check and the
+ * marking is atomic. An id is in flight from when {@link #isDuplicateElseMarkInFlight(String, long)} returns
+ * <code>false</code> for it until either {@link #recordCommitted(String, int, long)} or
+ * {@link #releaseInFlight(String)} is invoked - and is never in flight for more than one StageProcessor.
+ */
+class JmsMatsDuplicateSuppression {
+    // Insertion-ordered, i.e. commit-ordered: MatsMessageId -> System.nanoTime() when committed.
+    private final LinkedHashMap<String, Long> _committed = new LinkedHashMap<>();
+    // The MatsMessageIds of the messages currently being processed by the StageProcessors of the stage.
+    private final Set<String> _inFlight = new HashSet<>();
+
+    /**
+     * Checks whether the processing of a message with the specified <code>MatsMessageId</code> was committed within
+     * the window, or is currently in flight - and if neither, marks it as in flight.
+     *
+     * @return <code>true</code> if the message is a duplicate, <code>false</code> if it is now marked as in flight,
+     *         in which case either {@link #recordCommitted(String, int, long)} or {@link #releaseInFlight(String)}
+     *         must be invoked.
+     */
+    synchronized boolean isDuplicateElseMarkInFlight(String matsMessageId, long windowMillis) {
+        Long committedNanos = _committed.get(matsMessageId);
+        if ((committedNanos != null) && ((System.nanoTime() - committedNanos) <= windowMillis * 1_000_000L)) {
+            return true;
+        }
+        // Set.add(..) returns false if it was already there, i.e. another StageProcessor is processing it.
+        return !_inFlight.add(matsMessageId);
+    }
+
+    /**
+     * Releases the in flight mark of the specified <code>MatsMessageId</code>, as its processing did not complete.
+     */
+    synchronized void releaseInFlight(String matsMessageId) {
+        _inFlight.remove(matsMessageId);
+    }
+
+    /**
+     * Records that the processing of a message with the specified <code>MatsMessageId</code> was committed - releasing
+     * its in flight mark - evicting the oldest ids if above the max number of ids, and any ids that are older than the
+     * window.
+     */
+    synchronized void recordCommitted(String matsMessageId, int maxMessageIds, long windowMillis) {
+        long nowNanos = System.nanoTime();
+        _inFlight.remove(matsMessageId);
+        _committed.put(matsMessageId, nowNanos);
+        long windowNanos = windowMillis * 1_000_000L;
+        Iterator<Entry<String, Long>> it = _committed.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry<String, Long> eldest = it.next();
+            // ?: Are we above the max, or is the eldest outside the window?
+            if ((_committed.size() > maxMessageIds) || ((nowNanos - eldest.getValue()) > windowNanos)) {
+                // -> Yes, so evict it, and check the next.
+                it.remove();
+                continue;
+            }
+            // E-> The eldest is within both bounds, so then the rest are too.
+            break;
+        }
+    }
+
+    /**
+     * @return the number of <code>MatsMessageId</code>s currently remembered.
+     */
+    synchronized int size() {
+        return _committed.size();
+    }
+}
@@ -4,12 +4,15 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.stolsvik.mats.MatsConfig;
+import com.stolsvik.mats.MatsConfig.LifecycleLogging;
 import com.stolsvik.mats.MatsEndpoint;
+import com.stolsvik.mats.MatsEndpoint.ScatterGatherStore;
 import com.stolsvik.mats.MatsFactory;
 import com.stolsvik.mats.MatsStage;
 import com.stolsvik.mats.MatsStage.StageConfig;
@@ -84,7 +87,7 @@ public class JmsMatsEndpoint<R, S, Z> implements MatsEndpoint<R, S>, JmsMatsStat
                 incomingClass, _stateClass, processor);
         // :: Set this next stage's Id on the previous stage, unless we're first, in which case there is no previous.
         if (_stages.size() > 0) {
-            _stages.get(_stages.size() - 1).setNextStageId(stageId);
+            _stages.get(_stages.size() - 1).setNextStage(stage);
         }
         _stages.add(stage);
         stageConfigLambda.accept(stage.getStageConfig());
@@ -175,6 +178,17 @@ public class JmsMatsEndpoint<R, S, Z> implements MatsEndpoint<R, S>, JmsMatsStat
 
     private class JmsEndpointConfig implements EndpointConfig<R, S> {
         private int _concurrency;
+        // null means "use the factory's"; volatile, as it may be changed while running.
+        private volatile LifecycleLogging _lifecycleLogging;
+        private volatile boolean _localDelivery;
+        private volatile int _stageFusion;
+        private volatile int _duplicateSuppressionMaxMessageIds;
+        private volatile long _duplicateSuppressionWindowMillis;
+        private volatile boolean _nonTransactedDupsOk;
+        private volatile int _replyCacheMaxEntries;
+        private volatile long _replyCacheTtlMillis;
+        private volatile Function<Object, String> _replyCacheKeyFunction;
+        private volatile ScatterGatherStore _scatterGatherStore = new JmsMatsScatterGatherStore_InMemory();
 
         @Override
         public MatsConfig setConcurrency(int concurrency) {
@@ -205,6 +219,175 @@ public class JmsMatsEndpoint<R, S, Z> implements MatsEndpoint<R, S>, JmsMatsStat
             return false;
         }
 
+        @Override
+        public EndpointConfig<R, S> setLifecycleLogging(LifecycleLogging lifecycleLogging) {
+            log.info(LOG_PREFIX + "Endpoint [" + _endpointId + "]'s Lifecycle Logging is set to ["
+                    + lifecycleLogging + "] (was: [" + _lifecycleLogging + "]).");
+            _lifecycleLogging = lifecycleLogging;
+            return this;
+        }
+
+        @Override
+        public LifecycleLogging getLifecycleLogging() {
+            LifecycleLogging lifecycleLogging = _lifecycleLogging;
+            return lifecycleLogging != null
+                    ? lifecycleLogging
+                    : _parentFactory.getFactoryConfig().getLifecycleLogging();
+        }
+
+        @Override
+        public EndpointConfig<R, S> setLocalDelivery(boolean localDelivery) {
+            _localDelivery = localDelivery;
+            return this;
+        }
+
+        @Override
+        public boolean isLocalDelivery() {
+            return _localDelivery;
+        }
+
+        @Override
+        public EndpointConfig<R, S> setStageFusion(int maxChainLength) {
+            if (maxChainLength < 0) {
+                throw new IllegalArgumentException("maxChainLength must be >= 0, was [" + maxChainLength + "].");
+            }
+            _stageFusion = maxChainLength;
+            return this;
+        }
+
+        @Override
+        public int getStageFusion() {
+            return _stageFusion;
+        }
+
+        @Override
+        public EndpointConfig<R, S> setDuplicateSuppression(int maxMessageIds, long windowMillis) {
+            if (maxMessageIds < 0) {
+                throw new IllegalArgumentException("maxMessageIds must be >= 0, was [" + maxMessageIds + "].");
+            }
+            if ((maxMessageIds > 0) && (windowMillis <= 0)) {
+                throw new IllegalArgumentException("windowMillis must be > 0, was [" + windowMillis + "].");
+            }
+            log.info(LOG_PREFIX + "Endpoint [" + _endpointId + "]'s Duplicate Suppression is set to maxMessageIds:["
+                    + maxMessageIds + "], windowMillis:[" + windowMillis + "].");
+            _duplicateSuppressionWindowMillis = windowMillis;
+            _duplicateSuppressionMaxMessageIds = maxMessageIds;
+            return this;
+        }
+
+        @Override
+        public int getDuplicateSuppressionMaxMessageIds() {
+            return _duplicateSuppressionMaxMessageIds;
+        }
+
+        @Override
+        public long getDuplicateSuppressionWindowMillis() {
+            return _duplicateSuppressionWindowMillis;
+        }
+
+        @Override
+        public EndpointConfig<R, S> setReplyCache(int maxEntries, long ttlMillis) {
+            setReplyCache(maxEntries, ttlMillis, null);
+            return this;
+        }
+
+        @Override
+        public <I> EndpointConfig<R, S> setReplyCache(int maxEntries, long ttlMillis, Class<I> incomingClass,
+                Function<? super I, String> keyFunction) {
+            if (incomingClass == null) {
+                throw new IllegalArgumentException("incomingClass must not be null.");
+            }
+            if (keyFunction == null) {
+                throw new IllegalArgumentException("keyFunction must not be null.");
+            }
+            // The incoming DTO is deserialized to the stage's incoming class, so the cast only fails upon a mismatch
+            // between that and the given class - which thus fails the message.
+            setReplyCache(maxEntries, ttlMillis, new Function<Object, String>() {
+                @Override
+                public String apply(Object incomingDto) {
+                    return keyFunction.apply(incomingClass.cast(incomingDto));
+                }
+
+                @Override
+                public String toString() {
+                    return keyFunction.toString();
+                }
+            });
+            return this;
+        }
+
+        private void setReplyCache(int maxEntries, long ttlMillis, Function<Object, String> keyFunction) {
+            if (maxEntries < 0) {
+                throw new IllegalArgumentException("maxEntries must be >= 0, was [" + maxEntries + "].");
+            }
+            if ((maxEntries > 0) && (ttlMillis <= 0)) {
+                throw new IllegalArgumentException("ttlMillis must be > 0, was [" + ttlMillis + "].");
+            }
+            log.info(LOG_PREFIX + "Endpoint [" + _endpointId + "]'s Reply Cache is set to maxEntries:[" + maxEntries
+                    + "], ttlMillis:[" + ttlMillis + "], keyFunction:[" + (keyFunction == null
+                            ? "serialized incoming DTO"
+                            : keyFunction) + "].");
+            _replyCacheKeyFunction = keyFunction;
+            _replyCacheTtlMillis = ttlMillis;
+            _replyCacheMaxEntries = maxEntries;
+        }
+
+        @Override
+        public int getReplyCacheMaxEntries() {
+            return _replyCacheMaxEntries;
+        }
+
+        @Override
+        public long getReplyCacheTtlMillis() {
+            return _replyCacheTtlMillis;
+        }
+
+        @Override
+        public Function<Object, String> getReplyCacheKeyFunction() {
+            return _replyCacheKeyFunction;
+        }
+
+        @Override
+        public EndpointConfig<R, S> setScatterGatherStore(ScatterGatherStore scatterGatherStore) {
+            if (scatterGatherStore == null) {
+                throw new IllegalArgumentException("scatterGatherStore must not be null.");
+            }
+            // ?: Are we running? (Gathers in progress would be lost)
+            if (isRunning()) {
+                // -> Yes, so cannot change the store now.
+                throw new IllegalStateException("Endpoint [" + _endpointId + "] is running, cannot change the"
+                        + " ScatterGatherStore.");
+            }
+            log.info(LOG_PREFIX + "Endpoint [" + _endpointId + "]'s ScatterGatherStore is set to ["
+                    + scatterGatherStore + "].");
+            _scatterGatherStore = scatterGatherStore;
+            return this;
+        }
+
+        @Override
+        public ScatterGatherStore getScatterGatherStore() {
+            return _scatterGatherStore;
+        }
+
+        @Override
+        public EndpointConfig<R, S> setNonTransactedDupsOk(boolean nonTransactedDupsOk) {
+            // ?: Are we running? (The StageProcessors get their JMS Sessions when started)
+            if (isRunning()) {
+                // -> Yes, so cannot change the transaction mode now.
+                throw new IllegalStateException("Endpoint [" + _endpointId + "] is running, cannot change whether"
+                        + " it is non-transacted DUPS_OK.");
+            }
+            log.info(LOG_PREFIX + "Endpoint [" + _endpointId + "]'s Non-Transacted DUPS_OK mode is set to ["
+                    + nonTransactedDupsOk + "].");
+            _nonTransactedDupsOk = nonTransactedDupsOk;
+            return this;
+        }
+
+        @Override
+        public boolean isNonTransactedDupsOk() {
+            return _nonTransactedDupsOk;
+        }
+
         @Override
         public Class<?> getIncomingClass() {
             return _stages.get(0).getStageConfig().getIncomingMessageClass();
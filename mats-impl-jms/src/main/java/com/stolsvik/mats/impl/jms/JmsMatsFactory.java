@@ -5,9 +5,19 @@ import java.lang.reflect.Field;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.function.Supplier;
 
 import javax.sql.DataSource;
@@ -15,6 +25,7 @@ import javax.sql.DataSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.stolsvik.mats.MatsConfig.LifecycleLogging;
 import com.stolsvik.mats.MatsEndpoint;
 import com.stolsvik.mats.MatsEndpoint.EndpointConfig;
 import com.stolsvik.mats.MatsEndpoint.ProcessSingleLambda;
@@ -23,9 +34,13 @@ import com.stolsvik.mats.MatsFactory;
 import com.stolsvik.mats.MatsInitiator;
 import com.stolsvik.mats.MatsInitiator.MatsInitiate;
 import com.stolsvik.mats.MatsStage.StageConfig;
+import com.stolsvik.mats.MatsStatistics;
 import com.stolsvik.mats.impl.jms.JmsMatsInitiator.MatsInitiator_TxRequired;
 import com.stolsvik.mats.impl.jms.JmsMatsInitiator.MatsInitiator_TxRequiresNew;
 import com.stolsvik.mats.serial.MatsSerializer;
+import com.stolsvik.mats.serial.MatsTrace;
+import com.stolsvik.mats.serial.MatsTrace.Call.Channel;
+import com.stolsvik.mats.serial.MatsTrace.Call.MessagingModel;
 
 public class JmsMatsFactory<Z> implements MatsFactory, JmsMatsStatics, JmsMatsStartStoppable {
 
@@ -314,6 +329,74 @@ public class JmsMatsFactory<Z> implements MatsFactory, JmsMatsStatics, JmsMatsSt
         }
     }
 
+    // Parks delayed messages that arrived before their time, read more at MatsInitiate.delay(..).
+    private final JmsMatsDelayedDelivery _delayedDelivery = new JmsMatsDelayedDelivery(this);
+
+    JmsMatsDelayedDelivery getDelayedDelivery() {
+        return _delayedDelivery;
+    }
+
+    // The running queue-based stages of this factory, keyed by stageId, which may receive local deliveries.
+    private final ConcurrentHashMap<String, JmsMatsStage<?, ?, ?, Z>> _localDeliveryStages =
+            new ConcurrentHashMap<>();
+
+    void registerLocalDeliveryStage(JmsMatsStage<?, ?, ?, Z> stage) {
+        _localDeliveryStages.put(stage.getStageId(), stage);
+    }
+
+    void deregisterLocalDeliveryStage(JmsMatsStage<?, ?, ?, Z> stage) {
+        _localDeliveryStages.remove(stage.getStageId(), stage);
+    }
+
+    /**
+     * Decides whether the outgoing message shall be delivered in-JVM to a stage of this factory, and if so, reserves a
+     * slot for it - read more at {@link FactoryConfig#setLocalDelivery(boolean)}. Invoked from within the sender's
+     * transaction.
+     *
+     * @return the {@link JmsMatsLocalDelivery} of the receiving stage, in which a slot is reserved, or
+     *         <code>null</code> if the message shall be sent via the broker.
+     */
+    JmsMatsLocalDelivery reserveLocalDelivery(MatsTrace<Z> outgoingMatsTrace) {
+        // ?: Is there any stages to deliver to?
+        if (_localDeliveryStages.isEmpty()) {
+            // -> No, so go via broker.
+            return null;
+        }
+        Channel to = outgoingMatsTrace.getCurrentCall().getTo();
+        // ?: Is this to a queue? (Topics shall be delivered to all nodes.)
+        if (to.getMessagingModel() != MessagingModel.QUEUE) {
+            // -> No, so go via broker.
+            return null;
+        }
+        // ?: Is the flow partitioned? (The broker pins the key to a consumer, which local delivery would bypass.)
+        if (outgoingMatsTrace.getPartitionKey() != null) {
+            // -> Yes, so go via broker.
+            return null;
+        }
+        JmsMatsStage<?, ?, ?, Z> stage = _localDeliveryStages.get(to.getId());
+        // ?: Is the stage hosted by this factory?
+        if (stage == null) {
+            // -> No, so go via broker.
+            return null;
+        }
+        // ?: Is the stage rate limited? (The excess messages shall stay on the broker, not be handed off in-JVM.)
+        if (stage.isRateLimited()) {
+            // -> Yes, so go via broker.
+            return null;
+        }
+        // ?: Is this message eligible for local delivery? (Endpoint opted in to all messages, including persistent
+        // ones - or factory-enabled and non-persistent. A persistent interactive message is NOT eligible by default.)
+        if (!(stage.getParentEndpoint().getEndpointConfig().isLocalDelivery()
+                || (_factoryConfig.isLocalDelivery() && outgoingMatsTrace.isNonPersistent()))) {
+            // -> No, so go via broker.
+            return null;
+        }
+        // E-> Eligible, so try to reserve a slot - if saturated, go via broker.
+        return stage.tryReserveLocalDelivery()
+                ? stage.getLocalDelivery()
+                : null;
+    }
+
     void assertOkToInstantiateClass(Class<?> clazz, String what, String whatInstance) {
         // ?: Void is allowed to "instantiate" - as all places where this is attempted, 'null' will be used instead.
         if (clazz == Void.TYPE) {
@@ -357,19 +440,188 @@ public class JmsMatsFactory<Z> implements MatsFactory, JmsMatsStatics, JmsMatsSt
         }
     }
 
+    @Override
+    public Map<String, MatsStatistics> getInitiatorStatistics() {
+        synchronized (_createdInitiators) {
+            Map<String, MatsStatistics> statistics = new LinkedHashMap<>();
+            for (JmsMatsInitiator<Z> initiator : _createdInitiators) {
+                statistics.put(initiator.getName(), initiator.getStatistics());
+            }
+            return statistics;
+        }
+    }
+
     private void addCreatedInitiator(JmsMatsInitiator<Z> initiator) {
         synchronized (_createdInitiators) {
             _createdInitiators.add(initiator);
         }
     }
 
+    /**
+     * Default for {@link #setStopParallelism(int)}.
+     */
+    public static final int DEFAULT_STOP_PARALLELISM = 8;
+
+    private volatile int _stopParallelism = DEFAULT_STOP_PARALLELISM;
+
+    private volatile Map<String, Long> _lastStartStopPhaseMillis = Collections.emptyMap();
+
+    /**
+     * Sets the max number of threads used by {@link #stop(int)} to take the stages through the phases of the graceful
+     * shutdown in parallel. With many endpoints, waiting for each stage in turn - and for those not exiting nicely,
+     * the extra grace after the interrupt - makes draining take a long time, e.g. during a rolling deploy. The threads
+     * only live for the duration of the stop. Setting <code>1</code> does it sequentially on the invoking thread.
+     * Default is {@link #DEFAULT_STOP_PARALLELISM}. ({@link #start()} is always sequential, as starting an endpoint
+     * only starts the threads of its StageProcessors, not waiting for them.)
+     *
+     * @param parallelism
+     *            the max number of threads used to stop the stages in parallel, <code>1</code> meaning sequentially on
+     *            the invoking thread.
+     * @return <code>this</code>, for chaining.
+     */
+    public JmsMatsFactory<Z> setStopParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be >= 1, was [" + parallelism + "].");
+        }
+        _stopParallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * @return the max number of threads used to stop the stages in parallel - read more at
+     *         {@link #setStopParallelism(int)}.
+     */
+    public int getStopParallelism() {
+        return _stopParallelism;
+    }
+
+    /**
+     * @return how long each phase of the last {@link #start()} or {@link #stop(int)} took, in milliseconds, keyed by
+     *         the phase name, in the order the phases were run - empty if neither has been invoked. The same numbers
+     *         are logged on INFO when the start or stop is finished.
+     */
+    public Map<String, Long> getLastStartStopPhaseMillis() {
+        return _lastStartStopPhaseMillis;
+    }
+
+    private final JmsMatsInitiatorBackpressure _initiatorBackpressure = new JmsMatsInitiatorBackpressure();
+
+    private volatile long _initiatorBackpressureMaxQueueDepth;
+    private volatile long _initiatorBackpressureMaxWaitMillis;
+
+    /**
+     * Enables queue-depth aware backpressure for initiations: Before the messages of an initiation are sent, the depth
+     * of each target queue is sampled, and if at or above <code>maxQueueDepth</code>, the initiation is throttled by
+     * waiting for the queue to drain, up till <code>maxWaitMillis</code> - after which it is rejected by
+     * {@link MatsInitiator#initiate(MatsInitiator.InitiateLambda) initiate(..)} throwing
+     * {@link MatsInitiator.MatsBackpressureException MatsBackpressureException}, with nothing committed. This is meant
+     * for bulk producers, e.g. batch jobs initiating a message per row, that could otherwise fill the broker faster
+     * than the consumers can drain it. Interactive messages, and messages to topics, are never held back.
+     * <p/>
+     * The target queues are only known when the initiation lambda has run, so a throttled initiation's transaction,
+     * including any database transaction, is rolled back before waiting - thus not holding on to a JMS Session or
+     * database Connection while waiting - and <b>the initiation lambda is then run anew</b> when the queues have
+     * drained. The depth is queried from the broker's Statistics Plugin on ActiveMQ if installed, otherwise counted
+     * using a QueueBrowser capped at <code>maxQueueDepth</code>. Each sample is reused for about a second across
+     * initiations.
+     * <p/>
+     * Default is disabled, i.e. <code>maxQueueDepth = 0</code>.
+     *
+     * @param maxQueueDepth
+     *            the queue depth at which initiations are throttled or rejected, <code>0</code> disables.
+     * @param maxWaitMillis
+     *            how long to throttle before rejecting, <code>0</code> rejecting right away.
+     * @return <code>this</code>, for chaining.
+     */
+    public JmsMatsFactory<Z> setInitiatorBackpressure(long maxQueueDepth, long maxWaitMillis) {
+        if (maxQueueDepth < 0) {
+            throw new IllegalArgumentException("maxQueueDepth must be >= 0, was [" + maxQueueDepth + "].");
+        }
+        if (maxWaitMillis < 0) {
+            throw new IllegalArgumentException("maxWaitMillis must be >= 0, was [" + maxWaitMillis + "].");
+        }
+        _initiatorBackpressureMaxQueueDepth = maxQueueDepth;
+        _initiatorBackpressureMaxWaitMillis = maxWaitMillis;
+        return this;
+    }
+
+    /**
+     * @return the queue depth at which initiations are throttled or rejected, <code>0</code> meaning disabled - read
+     *         more at {@link #setInitiatorBackpressure(long, long)}.
+     */
+    public long getInitiatorBackpressureMaxQueueDepth() {
+        return _initiatorBackpressureMaxQueueDepth;
+    }
+
+    /**
+     * @return how long initiations are throttled before being rejected - read more at
+     *         {@link #setInitiatorBackpressure(long, long)}.
+     */
+    public long getInitiatorBackpressureMaxWaitMillis() {
+        return _initiatorBackpressureMaxWaitMillis;
+    }
+
+    /**
+     * @return the number of initiations that have been held back due to backpressure, whether they eventually got
+     *         through or were rejected.
+     */
+    public long getInitiatorBackpressureThrottledCount() {
+        return _initiatorBackpressure.getThrottledCount();
+    }
+
+    /**
+     * @return the number of initiations that have been rejected due to backpressure.
+     */
+    public long getInitiatorBackpressureRejectedCount() {
+        return _initiatorBackpressure.getRejectedCount();
+    }
+
+    JmsMatsInitiatorBackpressure getInitiatorBackpressure() {
+        return _initiatorBackpressure;
+    }
+
+    private volatile boolean _bytesMessageWireFormat;
+
+    /**
+     * Makes the messages sent by this MatsFactory's initiators and stages be JMS BytesMessages holding one small
+     * length-prefixed frame with the MatsTrace, its meta and the sideloads (read more at
+     * {@link JmsMatsBytesMessageFrame}), instead of JMS MapMessages with these as entries. A MapMessage is marshalled
+     * into a map both by the JMS client and by the broker, which costs measurably more than an opaque BytesMessage.
+     * <p/>
+     * The receiving StageProcessors detect the format of each incoming message, and handle both - so that the
+     * MatsFactories of a system can be switched over one by one: <b>All receiving services must however run a version
+     * that understands the format before any sender is switched over</b>, as an older receiver refuses the message.
+     * Note that tooling reading the messages directly off the broker, e.g. a broker plugin logging the Mats messages,
+     * must also understand the format. Default is <code>false</code>, i.e. MapMessage.
+     *
+     * @param bytesMessageWireFormat
+     *            whether to send messages in the BytesMessage wire format.
+     * @return <code>this</code>, for chaining.
+     */
+    public JmsMatsFactory<Z> setBytesMessageWireFormat(boolean bytesMessageWireFormat) {
+        log.info(LOG_PREFIX + "BytesMessage wire format of [" + idThis() + "] is set to [" + bytesMessageWireFormat
+                + "].");
+        _bytesMessageWireFormat = bytesMessageWireFormat;
+        return this;
+    }
+
+    /**
+     * @return whether messages are sent in the BytesMessage wire format - read more at
+     *         {@link #setBytesMessageWireFormat(boolean)}.
+     */
+    public boolean isBytesMessageWireFormat() {
+        return _bytesMessageWireFormat;
+    }
+
     @Override
     public void start() {
         log.info(LOG_PREFIX + "Starting [" + idThis() + "], thus starting all created endpoints.");
         // First setting the "hold" to false, so if any subsequent endpoints are added, they will auto-start.
         _holdEndpointsUntilFactoryIsStarted = false;
-        // :: Now start all the already configured endpoints
-        for (MatsEndpoint<?, ?> endpoint : getEndpoints()) {
+        // :: Now start all the already configured endpoints.
+        List<MatsEndpoint<?, ?>> endpoints = getEndpoints();
+        PhaseTimer phaseTimer = new PhaseTimer();
+        for (MatsEndpoint<?, ?> endpoint : endpoints) {
             try {
                 endpoint.start();
             }
@@ -377,6 +629,10 @@ public class JmsMatsFactory<Z> implements MatsFactory, JmsMatsStatics, JmsMatsSt
                 log.warn("Got some throwable when starting endpoint [" + endpoint + "].", t);
             }
         }
+        phaseTimer.phaseDone("startEndpoints");
+        _lastStartStopPhaseMillis = phaseTimer.getPhaseMillis();
+        log.info(LOG_PREFIX + "Started [" + endpoints.size() + "] endpoints of [" + idThis() + "] - phase timings:"
+                + _lastStartStopPhaseMillis + " ms.");
     }
 
     @Override
@@ -415,7 +671,39 @@ public class JmsMatsFactory<Z> implements MatsFactory, JmsMatsStatics, JmsMatsSt
     public boolean stop(int gracefulShutdownMillis) {
         log.info(LOG_PREFIX + "Stopping [" + idThis()
                 + "], thus stopping/closing all created endpoints and initiators.");
-        boolean stopped = JmsMatsStartStoppable.super.stop(gracefulShutdownMillis);
+        // :: Take all the stages of all the endpoints through the phases of graceful shutdown, in parallel.
+        List<JmsMatsStartStoppable> stages = new ArrayList<>();
+        for (JmsMatsStartStoppable endpoint : getChildrenStartStoppable()) {
+            stages.addAll(endpoint.getChildrenStartStoppable());
+        }
+        PhaseTimer phaseTimer = new PhaseTimer();
+        boolean stopped;
+        ExecutorService executor = createStopExecutor(stages.size());
+        try {
+            inParallel(executor, stages, stage -> {
+                stage.stopPhase0SetRunFlagFalseAndCloseSessionIfInReceive();
+                return true;
+            });
+            phaseTimer.phaseDone("stopPhase0SetRunFlagFalse");
+            // All stages wait towards the same deadline, as they are waited for in parallel.
+            long gracefulDeadlineMillis = System.currentTimeMillis() + gracefulShutdownMillis;
+            inParallel(executor, stages, stage -> {
+                long millisLeft = gracefulDeadlineMillis - System.currentTimeMillis();
+                stage.stopPhase1GracefulWait((int) Math.max(millisLeft, EXTRA_GRACE_MILLIS));
+                return true;
+            });
+            phaseTimer.phaseDone("stopPhase1GracefulWait");
+            inParallel(executor, stages, stage -> {
+                stage.stopPhase2InterruptIfStillAlive();
+                return true;
+            });
+            phaseTimer.phaseDone("stopPhase2Interrupt");
+            stopped = inParallel(executor, stages, JmsMatsStartStoppable::stopPhase3GracefulAfterInterrupt);
+            phaseTimer.phaseDone("stopPhase3GracefulAfterInterrupt");
+        }
+        finally {
+            shutdownStopExecutor(executor);
+        }
 
         if (stopped) {
             log.info(LOG_PREFIX + "Everything of [" + idThis() + "} stopped nicely. Now cleaning JMS Session pool.");
@@ -425,15 +713,103 @@ public class JmsMatsFactory<Z> implements MatsFactory, JmsMatsStatics, JmsMatsSt
                     + gracefulShutdownMillis + "] millis, giving up. Now cleaning JMS Session pool.");
         }
 
+        // :: Stop the delayed delivery poller. (After the stages, as they may park messages - and before the
+        // initiators, as it uses the default initiator's Sessions.)
+        _delayedDelivery.stop();
         for (MatsInitiator initiator : getInitiators()) {
             initiator.close();
         }
+        phaseTimer.phaseDone("closeInitiators");
 
         // :: "Closing the JMS pool"; closing all available SessionHolder, which should lead to the Connections closing.
         _jmsMatsJmsSessionHandler.closeAllAvailableSessions();
+        phaseTimer.phaseDone("closeSessionPool");
+        _lastStartStopPhaseMillis = phaseTimer.getPhaseMillis();
+        log.info(LOG_PREFIX + "Stopped [" + stages.size() + "] stages of [" + idThis() + "] - phase timings:"
+                + _lastStartStopPhaseMillis + " ms.");
         return stopped;
     }
 
+    private ExecutorService createStopExecutor(int numberOfItems) {
+        int threads = Math.min(_stopParallelism, numberOfItems);
+        // ?: Would we only use one thread?
+        if (threads <= 1) {
+            // -> Yes, so do it on the invoking thread instead.
+            return null;
+        }
+        AtomicInteger threadNumber = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, THREAD_PREFIX + "Stop#" + threadNumber.getAndIncrement()
+                    + " {" + idThis() + "}");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private void shutdownStopExecutor(ExecutorService executor) {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Runs the action for all the items, in parallel on the executor if it is not <code>null</code>, and waits for
+     * all to finish.
+     *
+     * @return <code>true</code> if the action returned <code>true</code> for all items.
+     */
+    private <T> boolean inParallel(ExecutorService executor, List<T> items, Predicate<T> action) {
+        // ?: Do we have an executor?
+        if (executor == null) {
+            // -> No, so run sequentially on the invoking thread.
+            boolean all = true;
+            for (T item : items) {
+                all &= action.test(item);
+            }
+            return all;
+        }
+        List<Future<Boolean>> futures = new ArrayList<>(items.size());
+        for (T item : items) {
+            futures.add(executor.submit(() -> action.test(item)));
+        }
+        boolean all = true;
+        for (Future<Boolean> future : futures) {
+            try {
+                all &= future.get();
+            }
+            catch (InterruptedException e) {
+                log.warn(LOG_PREFIX + "Got interrupted while waiting for parallel stop to finish - not waiting"
+                        + " for the rest.", e);
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            catch (ExecutionException e) {
+                log.warn(LOG_PREFIX + "Got [" + e.getCause().getClass().getSimpleName() + "] when running parallel"
+                        + " stop.", e.getCause());
+                all = false;
+            }
+        }
+        return all;
+    }
+
+    /**
+     * Records the time taken for each phase of a start or stop.
+     */
+    private static class PhaseTimer {
+        private final Map<String, Long> _phaseMillis = new LinkedHashMap<>();
+        private long _nanosPhaseStart = System.nanoTime();
+
+        void phaseDone(String phase) {
+            long now = System.nanoTime();
+            _phaseMillis.put(phase, (now - _nanosPhaseStart) / 1_000_000);
+            _nanosPhaseStart = now;
+        }
+
+        Map<String, Long> getPhaseMillis() {
+            return Collections.unmodifiableMap(_phaseMillis);
+        }
+    }
+
     @Override
     public String idThis() {
         String name = _factoryConfig.getName();
@@ -459,6 +835,12 @@ public class JmsMatsFactory<Z> implements MatsFactory, JmsMatsStatics, JmsMatsSt
         // Set to default.
         private String _matsTraceKey = "mats:trace";
 
+        // Set to default. Volatile, as it may be changed while running.
+        private volatile LifecycleLogging _lifecycleLogging = LifecycleLogging.full();
+
+        // Set to default. Volatile, as it may be changed while running.
+        private volatile boolean _localDelivery = false;
+
         @Override
         public void setName(String name) {
             if (name == null) {
@@ -505,6 +887,35 @@ public class JmsMatsFactory<Z> implements MatsFactory, JmsMatsStatics, JmsMatsSt
             return _matsTraceKey;
         }
 
+        @Override
+        public FactoryConfig setLifecycleLogging(LifecycleLogging lifecycleLogging) {
+            if (lifecycleLogging == null) {
+                throw new NullPointerException("lifecycleLogging");
+            }
+            log.info("MatsFactory's Lifecycle Logging is set to [" + lifecycleLogging + "] (was: ["
+                    + _lifecycleLogging + "]).");
+            _lifecycleLogging = lifecycleLogging;
+            return this;
+        }
+
+        @Override
+        public LifecycleLogging getLifecycleLogging() {
+            return _lifecycleLogging;
+        }
+
+        @Override
+        public FactoryConfig setLocalDelivery(boolean localDelivery) {
+            log.info("MatsFactory's Local Delivery is set to [" + localDelivery + "] (was: [" + _localDelivery
+                    + "]).");
+            _localDelivery = localDelivery;
+            return this;
+        }
+
+        @Override
+        public boolean isLocalDelivery() {
+            return _localDelivery;
+        }
+
         @Override
         public FactoryConfig setConcurrency(int concurrency) {
             log.info("MatsFactory's Concurrency is set to [" + concurrency + "] (was: [" + _concurrency + "]).");
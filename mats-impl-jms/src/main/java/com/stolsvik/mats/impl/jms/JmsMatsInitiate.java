@@ -20,6 +20,7 @@ import com.stolsvik.mats.MatsInitiator.MatsInitiate;
 import com.stolsvik.mats.MatsInitiator.MessageReference;
 import com.stolsvik.mats.impl.jms.JmsMatsInitiator.MessageReferenceImpl;
 import com.stolsvik.mats.impl.jms.JmsMatsProcessContext.DoAfterCommitRunnableHolder;
+import com.stolsvik.mats.impl.jms.JmsMatsProcessContext.IncomingSideloads;
 import com.stolsvik.mats.serial.MatsSerializer;
 import com.stolsvik.mats.serial.MatsSerializer.DeserializedMatsTrace;
 import com.stolsvik.mats.serial.MatsTrace;
@@ -76,6 +77,9 @@ class JmsMatsInitiate<Z> implements MatsInitiate, JmsMatsStatics {
     private boolean _interactive;
     private long _timeToLive;
     private boolean _noAudit;
+    private long _deadline;
+    private long _deliverAtMillis;
+    private String _partitionKey;
     private String _from;
     private String _to;
     private String _replyTo;
@@ -98,12 +102,18 @@ class JmsMatsInitiate<Z> implements MatsInitiate, JmsMatsStatics {
             // (This is a reset() function, thus we must clear the map in case this is message #x, x>1).
             _props.clear();
             _props.putAll(_tracePropertiesSetSoFarInStage);
+            // The new flow serves the same purpose as the current, so it inherits the deadline.
+            _deadline = _existingMatsTrace.getDeadline();
+            // .. and concerns the same entity, so it inherits the partition key.
+            _partitionKey = _existingMatsTrace.getPartitionKey();
         }
         else {
             // -> No, this is an initiation from MatsInitiator, i.e. "from the outside".
             _traceId = null;
             _from = null;
             _props.clear();
+            _deadline = 0;
+            _partitionKey = null;
         }
 
         // :: Set defaults
@@ -112,6 +122,7 @@ class JmsMatsInitiate<Z> implements MatsInitiate, JmsMatsStatics {
         _nonPersistent = false;
         _interactive = false;
         _timeToLive = 0;
+        _deliverAtMillis = 0;
         // _from is set above
         _to = null;
         _replyTo = null;
@@ -188,6 +199,42 @@ class JmsMatsInitiate<Z> implements MatsInitiate, JmsMatsStatics {
         return this;
     }
 
+    @Override
+    public MatsInitiate delay(long delayMillis) {
+        if (delayMillis < 0) {
+            throw new IllegalArgumentException("delay must be >= 0");
+        }
+        _deliverAtMillis = delayMillis > 0 ? System.currentTimeMillis() + delayMillis : 0;
+        return this;
+    }
+
+    @Override
+    public MatsInitiate deliverAt(long deliverAtMillis) {
+        if (deliverAtMillis < 0) {
+            throw new IllegalArgumentException("deliverAt must be >= 0");
+        }
+        _deliverAtMillis = deliverAtMillis;
+        return this;
+    }
+
+    @Override
+    public MatsInitiate deadline(long deadlineMillis) {
+        if (deadlineMillis < 0) {
+            throw new IllegalArgumentException("deadline must be >= 0");
+        }
+        _deadline = deadlineMillis;
+        return this;
+    }
+
+    @Override
+    public MatsInitiate partitionKey(String partitionKey) {
+        if ((partitionKey != null) && partitionKey.isEmpty()) {
+            throw new IllegalArgumentException("partitionKey must be null or non-empty");
+        }
+        _partitionKey = partitionKey;
+        return this;
+    }
+
     @Override
     public MatsInitiate from(String initiatorId) {
         _from = initiatorId;
@@ -260,9 +307,10 @@ class JmsMatsInitiate<Z> implements MatsInitiate, JmsMatsStatics {
         copyOverAnyExistingTraceProperties(matsTrace);
 
         // Produce the new REQUEST JmsMatsMessage to send
-        JmsMatsMessage<Z> request = produceJmsMatsMessage(log, nanosStart, _parentFactory.getMatsSerializer(),
-                matsTrace, _props, _binaries, _strings, "new REQUEST",
-                _parentFactory.getFactoryConfig().getName());
+        JmsMatsMessage<Z> request = produceJmsMatsMessage(log, _jmsMatsMessageContext.isLifecycleLogging(),
+                nanosStart, _parentFactory.getMatsSerializer(), matsTrace,
+                _props, _binaries, _strings, "new REQUEST", _parentFactory.getFactoryConfig().getName());
+        request.setDeliverAtMillis(_deliverAtMillis);
         _messagesToSend.add(request);
 
         // Reset, in preparation for more messages
@@ -282,7 +330,9 @@ class JmsMatsInitiate<Z> implements MatsInitiate, JmsMatsStatics {
                 // origin of the flow even though it is in KeepTrace.MINIMAL mode.
                 .withDebugInfo(_parentFactory.getFactoryConfig().getAppName(),
                         _parentFactory.getFactoryConfig().getAppVersion(),
-                        _parentFactory.getFactoryConfig().getNodename(), _from, now, debugInfo);
+                        _parentFactory.getFactoryConfig().getNodename(), _from, now, debugInfo)
+                .withDeadline(_deadline)
+                .withPartitionKey(_partitionKey);
     }
 
     private void addDebugInfoToCurrentCall(long now, MatsTrace<Z> matsTrace) {
@@ -314,9 +364,10 @@ class JmsMatsInitiate<Z> implements MatsInitiate, JmsMatsStatics {
         copyOverAnyExistingTraceProperties(matsTrace);
 
         // Produce the new SEND JmsMatsMessage to send
-        JmsMatsMessage<Z> send = produceJmsMatsMessage(log, nanosStart, _parentFactory.getMatsSerializer(),
-                matsTrace, _props, _binaries, _strings, "new SEND",
-                _parentFactory.getFactoryConfig().getName());
+        JmsMatsMessage<Z> send = produceJmsMatsMessage(log, _jmsMatsMessageContext.isLifecycleLogging(),
+                nanosStart, _parentFactory.getMatsSerializer(), matsTrace,
+                _props, _binaries, _strings, "new SEND", _parentFactory.getFactoryConfig().getName());
+        send.setDeliverAtMillis(_deliverAtMillis);
         _messagesToSend.add(send);
 
         // Reset, in preparation for more messages
@@ -344,9 +395,10 @@ class JmsMatsInitiate<Z> implements MatsInitiate, JmsMatsStatics {
         copyOverAnyExistingTraceProperties(matsTrace);
 
         // Produce the new PUBLISH JmsMatsMessage to send
-        JmsMatsMessage<Z> publish = produceJmsMatsMessage(log, nanosStart, _parentFactory.getMatsSerializer(),
-                matsTrace, _props, _binaries, _strings, "new PUBLISH",
-                _parentFactory.getFactoryConfig().getName());
+        JmsMatsMessage<Z> publish = produceJmsMatsMessage(log, _jmsMatsMessageContext.isLifecycleLogging(),
+                nanosStart, _parentFactory.getMatsSerializer(), matsTrace,
+                _props, _binaries, _strings, "new PUBLISH", _parentFactory.getFactoryConfig().getName());
+        publish.setDeliverAtMillis(_deliverAtMillis);
         _messagesToSend.add(publish);
 
         // Reset, in preparation for more messages
@@ -459,7 +511,7 @@ class JmsMatsInitiate<Z> implements MatsInitiate, JmsMatsStatics {
                     stash, zstartMatsTrace + 1, stash.length - zstartMatsTrace - 1,
                     matsTraceMeta, matsTrace,
                     currentSto, initiateSupplier,
-                    new LinkedHashMap<>(), new LinkedHashMap<>(),
+                    IncomingSideloads.NONE,
                     _messagesToSend, _jmsMatsMessageContext,
                     outgoingProps,
                     _doAfterCommitRunnableHolder);
@@ -6,6 +6,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
@@ -13,8 +14,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
 
+import com.stolsvik.mats.MatsConfig.LifecycleLogging;
+import com.stolsvik.mats.MatsConfig.LifecycleLogging.Mode;
 import com.stolsvik.mats.MatsFactory;
 import com.stolsvik.mats.MatsInitiator;
+import com.stolsvik.mats.MatsStatistics.Phase;
+import com.stolsvik.mats.impl.jms.JmsMatsInitiatorBackpressure.JmsMatsBackpressureException;
 import com.stolsvik.mats.impl.jms.JmsMatsJmsSessionHandler.JmsSessionHolder;
 import com.stolsvik.mats.impl.jms.JmsMatsProcessContext.DoAfterCommitRunnableHolder;
 import com.stolsvik.mats.impl.jms.JmsMatsTransactionManager.JmsMatsTxContextKey;
@@ -33,6 +38,9 @@ class JmsMatsInitiator<Z> implements MatsInitiator, JmsMatsTxContextKey, JmsMats
     private final JmsMatsFactory<Z> _parentFactory;
     private final JmsMatsJmsSessionHandler _jmsMatsJmsSessionHandler;
     private final TransactionContext _transactionContext;
+    private final JmsMatsStatistics _statistics = new JmsMatsStatistics();
+    // Number of initiations, for the SAMPLED lifecycle logging.
+    private final AtomicLong _lifecycleSampleCounter = new AtomicLong();
 
     public JmsMatsInitiator(String name, JmsMatsFactory<Z> parentFactory,
             JmsMatsJmsSessionHandler jmsMatsJmsSessionHandler,
@@ -58,8 +66,52 @@ class JmsMatsInitiator<Z> implements MatsInitiator, JmsMatsTxContextKey, JmsMats
         return _parentFactory;
     }
 
+    /**
+     * @return the {@link JmsMatsStatistics} for this initiator - exposed via
+     *         {@link JmsMatsFactory#getInitiatorStatistics()}.
+     */
+    JmsMatsStatistics getStatistics() {
+        return _statistics;
+    }
+
     @Override
     public void initiate(InitiateLambda lambda) throws MatsBackendException, MatsMessageSendException {
+        // The deadline for waiting for backpressure, set when a target queue is first found too deep.
+        long nanosBackpressureDeadline = 0;
+        while (true) {
+            try {
+                initiateInTransaction(lambda);
+                return;
+            }
+            catch (JmsMatsBackpressureException e) {
+                // -> Target queues were too deep, and the transaction is rolled back, so that we now can wait for
+                // capacity without holding a JMS Session or any database transaction - then run the initiation anew.
+                boolean firstWait = nanosBackpressureDeadline == 0;
+                if (firstWait) {
+                    nanosBackpressureDeadline = System.nanoTime()
+                            + _parentFactory.getInitiatorBackpressureMaxWaitMillis() * 1_000_000L;
+                }
+                try {
+                    _parentFactory.getInitiatorBackpressure().awaitCapacity(_jmsMatsJmsSessionHandler, this,
+                            e.getFullQueueNames(), _parentFactory.getInitiatorBackpressureMaxQueueDepth(),
+                            nanosBackpressureDeadline, firstWait);
+                }
+                catch (JmsMatsJmsException jmsE) {
+                    throw new MatsBackendException("Evidently have problems talking with our backend, which is a JMS"
+                            + " Broker, when sampling queue depths for backpressure.", jmsE);
+                }
+            }
+        }
+    }
+
+    /**
+     * One attempt at the initiation, inside a transaction.
+     *
+     * @throws JmsMatsBackpressureException
+     *             if a target queue was too deep, the transaction having been rolled back.
+     */
+    private void initiateInTransaction(InitiateLambda lambda) throws MatsBackendException,
+            MatsMessageSendException {
         // NOTICE! Due to multi-threading, whereby one Initiator might be used "globally" for e.g. a Servlet Container
         // having 200 threads, we cannot fetch a sole Session for the Initiator to be used for all initiations (as
         // it might be used concurrently by all the 200 Servlet Container threads). Thus, each initiation needs to
@@ -87,9 +139,15 @@ class JmsMatsInitiator<Z> implements MatsInitiator, JmsMatsTxContextKey, JmsMats
                 // JmsMatsJmsSessionHandler.getSessionHolder()
                 throw new MatsBackendException("Could not get hold of JMS Connection.", e);
             }
+            JmsMatsMessageContext jmsMatsMessageContext = new JmsMatsMessageContext(jmsSessionHolder, null);
             try {
                 DoAfterCommitRunnableHolder doAfterCommitRunnableHolder = new DoAfterCommitRunnableHolder();
-                JmsMatsMessageContext jmsMatsMessageContext = new JmsMatsMessageContext(jmsSessionHolder, null);
+                // Decide whether the lifecycle of this initiation shall be logged (The MDC is set regardless).
+                LifecycleLogging lifecycleLogging = _parentFactory.getFactoryConfig().getLifecycleLogging();
+                boolean logLifecycle = isLoggingLifecycle(lifecycleLogging);
+                jmsMatsMessageContext.setLifecycleLogging(logLifecycle);
+                // For the COMMIT timing: Set when the messages have been sent, inside the transactional demarcation.
+                long[] nanosAtSent = new long[1];
                 // ===== Going into Transactional Demarcation
                 _transactionContext.doTransaction(jmsMatsMessageContext, () -> {
                     List<JmsMatsMessage<Z>> messagesToSend = new ArrayList<>();
@@ -101,7 +159,10 @@ class JmsMatsInitiator<Z> implements MatsInitiator, JmsMatsTxContextKey, JmsMats
 
                     InitiateLambda lambdaToInvoke = lambda;
 
+                    long nanosStartLambda = System.nanoTime();
                     lambdaToInvoke.initiate(init);
+                    long nanosStartSend = System.nanoTime();
+                    _statistics.recordTiming(Phase.USER_LAMBDA, nanosStartSend - nanosStartLambda);
 
                     // Trick to get the commit of transaction to contain TraceIds of all outgoing messages
                     // - which should handle if we get any Exceptions when committing.
@@ -111,8 +172,22 @@ class JmsMatsInitiator<Z> implements MatsInitiator, JmsMatsTxContextKey, JmsMats
                             .collect(Collectors.joining(";"));
                     MDC.put(MDC_TRACE_ID, traceId);
 
-                    sendMatsMessages(log, nanosStart, jmsSessionHolder, _parentFactory, messagesToSend);
+                    // ?: Is initiator backpressure enabled?
+                    long maxQueueDepth = _parentFactory.getInitiatorBackpressureMaxQueueDepth();
+                    if (maxQueueDepth > 0) {
+                        // -> Yes, so check the capacity of the target queues - throws, rolling back, if too deep.
+                        _parentFactory.getInitiatorBackpressure().checkCapacity(jmsSessionHolder.getSession(),
+                                _parentFactory.getFactoryConfig().getMatsDestinationPrefix(), messagesToSend,
+                                maxQueueDepth);
+                    }
+
+                    sendMatsMessages(log, nanosStart, jmsMatsMessageContext, _parentFactory, messagesToSend);
+                    nanosAtSent[0] = System.nanoTime();
+                    _statistics.recordOutgoing(messagesToSend, nanosAtSent[0] - nanosStartSend);
                 });
+                _statistics.recordTiming(Phase.COMMIT, System.nanoTime() - nanosAtSent[0]);
+                // Committed, so hand off any messages for local delivery.
+                jmsMatsMessageContext.handoffLocalDeliveries();
                 // :: Handle the context.doAfterCommit(Runnable) lambda.
                 try {
                     doAfterCommitRunnableHolder.runDoAfterCommitIfAny();
@@ -121,6 +196,16 @@ class JmsMatsInitiator<Z> implements MatsInitiator, JmsMatsTxContextKey, JmsMats
                     log.error(LOG_PREFIX + "Got RuntimeException when running the doAfterCommit Runnable."
                             + " Ignoring.", re);
                 }
+                long nanosTotal = System.nanoTime() - nanosStart;
+                _statistics.recordTiming(Phase.TOTAL, nanosTotal);
+                // ?: Are we in SLOW mode, and was this initiation slower than the threshold?
+                if ((lifecycleLogging.getMode() == Mode.SLOW)
+                        && ((nanosTotal / 1_000_000d) > lifecycleLogging.getSlowThresholdMillis())
+                        && log.isInfoEnabled()) {
+                    // -> Yes, so log one summary line instead of the full lifecycle.
+                    log.info(LOG_PREFIX + "SLOW INITIATION: Total time of initiation:[" + ms3(nanosTotal / 1_000_000d)
+                            + " ms], exceeding threshold:[" + lifecycleLogging.getSlowThresholdMillis() + " ms].");
+                }
             }
             catch (JmsMatsMessageSendException e) {
                 // JmsMatsMessageSendException is a JmsMatsJmsException, and that indicates that there was a problem
@@ -143,6 +228,8 @@ class JmsMatsInitiator<Z> implements MatsInitiator, JmsMatsTxContextKey, JmsMats
                         + " Broker.", e);
             }
             finally {
+                // If not committed, release the slots reserved for any messages for local delivery.
+                jmsMatsMessageContext.releaseLocalDeliveries();
                 jmsSessionHolder.release();
                 JmsMatsContextLocalCallback.unbindResource(MatsInitiate.class);
                 _parentFactory.clearCurrentThreadLocalMatsDemarcation();
@@ -161,6 +248,22 @@ class JmsMatsInitiator<Z> implements MatsInitiator, JmsMatsTxContextKey, JmsMats
         }
     }
 
+    /**
+     * Decides whether the lifecycle of an initiation shall be logged, according to the MatsFactory's
+     * {@link LifecycleLogging} policy.
+     */
+    private boolean isLoggingLifecycle(LifecycleLogging lifecycleLogging) {
+        switch (lifecycleLogging.getMode()) {
+            case FULL:
+                return true;
+            case SAMPLED:
+                return (_lifecycleSampleCounter.getAndIncrement() % lifecycleLogging.getSampleEvery()) == 0;
+            default:
+                // SLOW is logged by a summary line after the initiation, if slow. ERRORS_ONLY is not logged at all.
+                return false;
+        }
+    }
+
     @Override
     public void initiateUnchecked(InitiateLambda lambda) throws MatsBackendRuntimeException,
             MatsMessageSendRuntimeException {
@@ -171,6 +274,10 @@ class JmsMatsInitiator<Z> implements MatsInitiator, JmsMatsTxContextKey, JmsMats
             throw new MatsMessageSendRuntimeException("Wrapping the MatsMessageSendException in a unchecked variant",
                     e);
         }
+        catch (MatsBackpressureException e) {
+            throw new MatsBackpressureRuntimeException("Wrapping the MatsBackpressureException in a unchecked"
+                    + " variant", e);
+        }
         catch (MatsBackendException e) {
             throw new MatsBackendRuntimeException("Wrapping the MatsBackendException in a unchecked variant", e);
         }
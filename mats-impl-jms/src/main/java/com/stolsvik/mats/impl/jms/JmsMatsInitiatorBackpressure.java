@@ -0,0 +1,224 @@
+package com.stolsvik.mats.impl.jms;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jms.Session;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.stolsvik.mats.MatsInitiator.MatsBackpressureException;
+import com.stolsvik.mats.impl.jms.JmsMatsJmsSessionHandler.JmsSessionHolder;
+import com.stolsvik.mats.serial.MatsTrace;
+import com.stolsvik.mats.serial.MatsTrace.Call.Channel;
+import com.stolsvik.mats.serial.MatsTrace.Call.MessagingModel;
+
+/**
+ * Queue-depth aware backpressure for non-interactive initiations, owned by the {@link JmsMatsFactory} and employed by
+ * the {@link JmsMatsInitiator} - read more at {@link JmsMatsFactory#setInitiatorBackpressure(long, long)}: Right
+ * before the outgoing messages are sent, the depths of their target queues are {@link #checkCapacity checked}, without
+ * waiting. If a queue is too deep, the initiation's transaction is rolled back, and the initiator
+ * {@link #awaitCapacity waits} for the queue to drain outside of any transaction, before running the initiation anew.
+ * <p/>
+ * The depths are sampled using {@link JmsMatsMessageBrokerSpecifics#getQueueDepth(Session, String, long)}, and each
+ * sample is reused for {@link #SAMPLE_INTERVAL_MILLIS} by all initiations targeting the same queue, so that a burst of
+ * bulk initiations does not hammer the broker with depth queries.
+ * <p/>
+ * Thread safe: Shared between all the initiators of the factory.
+ */
+class JmsMatsInitiatorBackpressure implements JmsMatsStatics {
+    private static final Logger log = LoggerFactory.getLogger(JmsMatsInitiatorBackpressure.class);
+
+    /**
+     * How long a sampled queue depth is reused before the queue is sampled anew.
+     */
+    static final long SAMPLE_INTERVAL_MILLIS = 1000;
+
+    /**
+     * How long to sleep between samplings while throttling (capped by the remaining wait).
+     */
+    static final long THROTTLE_SLEEP_MILLIS = 100;
+
+    // Full queue name -> last sample.
+    private final ConcurrentHashMap<String, Sample> _samples = new ConcurrentHashMap<>();
+
+    private final AtomicLong _throttledCount = new AtomicLong();
+    private final AtomicLong _rejectedCount = new AtomicLong();
+
+    private static class Sample {
+        private final long _depth;
+        private final long _nanosAtSample;
+
+        private Sample(long depth, long nanosAtSample) {
+            _depth = depth;
+            _nanosAtSample = nanosAtSample;
+        }
+    }
+
+    /**
+     * Thrown from {@link #checkCapacity(Session, String, List, long)} when target queues are at or above the max depth,
+     * rolling back the initiation's transaction. Caught by the {@link JmsMatsInitiator}, which then waits for capacity
+     * on these queues using {@link #awaitCapacity awaitCapacity(..)}.
+     */
+    static class JmsMatsBackpressureException extends RuntimeException {
+        private final Set<String> _fullQueueNames;
+
+        JmsMatsBackpressureException(Set<String> fullQueueNames) {
+            super("The target queues " + fullQueueNames + " are at or above the max depth.");
+            _fullQueueNames = fullQueueNames;
+        }
+
+        Set<String> getFullQueueNames() {
+            return _fullQueueNames;
+        }
+    }
+
+    /**
+     * Checks, without waiting, that all QUEUE destinations of the non-interactive messages are below the max depth.
+     *
+     * @throws JmsMatsBackpressureException
+     *             if any of the queues are at or above the max depth.
+     * @throws JmsMatsJmsException
+     *             if the sampling raised.
+     */
+    <Z> void checkCapacity(Session jmsSession, String destinationPrefix, List<JmsMatsMessage<Z>> messagesToSend,
+            long maxQueueDepth) throws JmsMatsJmsException {
+        Set<String> fullQueueNames = null;
+        for (JmsMatsMessage<Z> message : messagesToSend) {
+            MatsTrace<Z> matsTrace = message.getMatsTrace();
+            Channel to = matsTrace.getCurrentCall().getTo();
+            // ?: Is this an interactive message, or to a topic?
+            if (matsTrace.isInteractive() || (to.getMessagingModel() != MessagingModel.QUEUE)) {
+                // -> Yes, so it shall not be held back.
+                continue;
+            }
+            String queueName = destinationPrefix + to.getId();
+            // ?: Is the queue at or above the max depth?
+            if (sampleDepth(jmsSession, queueName, maxQueueDepth) >= maxQueueDepth) {
+                // -> Yes, so this initiation must wait for it.
+                if (fullQueueNames == null) {
+                    fullQueueNames = new LinkedHashSet<>();
+                }
+                fullQueueNames.add(queueName);
+            }
+        }
+        // ?: Were any of the queues full?
+        if (fullQueueNames != null) {
+            // -> Yes, so roll back the initiation, so that it can wait outside the transaction.
+            throw new JmsMatsBackpressureException(fullQueueNames);
+        }
+    }
+
+    /**
+     * Returns when all the queues are below the max depth - waiting, by sampling anew, up till the deadline if not.
+     * Invoked outside of any transaction, borrowing a JMS Session from the initiator only while sampling.
+     *
+     * @param firstWait
+     *            whether this is the first wait of the initiation, so that it is only counted as throttled once.
+     * @throws MatsBackpressureException
+     *             if a queue is still at or above the max depth when the deadline has passed, or if interrupted while
+     *             waiting.
+     * @throws JmsMatsJmsException
+     *             if the sampling raised.
+     */
+    void awaitCapacity(JmsMatsJmsSessionHandler sessionHandler, JmsMatsInitiator<?> initiator,
+            Set<String> queueNames, long maxQueueDepth, long nanosDeadline, boolean firstWait)
+            throws MatsBackpressureException, JmsMatsJmsException {
+        boolean throttled = !firstWait;
+        for (String queueName : queueNames) {
+            while (true) {
+                long depth = sampleDepth(sessionHandler, initiator, queueName, maxQueueDepth);
+                // ?: Is the queue below the max depth?
+                if (depth < maxQueueDepth) {
+                    // -> Yes, so check next queue.
+                    break;
+                }
+                long millisLeft = (nanosDeadline - System.nanoTime()) / 1_000_000L;
+                // ?: Have we waited long enough?
+                if (millisLeft <= 0) {
+                    // -> Yes, so reject the initiation.
+                    _rejectedCount.incrementAndGet();
+                    String msg = "Initiation rejected due to backpressure: Queue [" + queueName + "] has depth ["
+                            + depth + "], which is at or above max depth [" + maxQueueDepth + "].";
+                    log.warn(LOG_PREFIX + msg);
+                    throw new MatsBackpressureException(msg);
+                }
+                // E-> Not waited long enough, so throttle.
+                if (!throttled) {
+                    throttled = true;
+                    _throttledCount.incrementAndGet();
+                    if (log.isInfoEnabled()) log.info(LOG_PREFIX + "Throttling initiation due to backpressure: Queue ["
+                            + queueName + "] has depth [" + depth + "], which is at or above max depth ["
+                            + maxQueueDepth + "], waiting max [" + millisLeft + " ms].");
+                }
+                try {
+                    Thread.sleep(Math.min(THROTTLE_SLEEP_MILLIS, millisLeft));
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    _rejectedCount.incrementAndGet();
+                    throw new MatsBackpressureException("Interrupted while throttling initiation due to"
+                            + " backpressure on queue [" + queueName + "].");
+                }
+            }
+        }
+    }
+
+    private long sampleDepth(JmsMatsJmsSessionHandler sessionHandler, JmsMatsInitiator<?> initiator,
+            String queueName, long maxQueueDepth) throws JmsMatsJmsException {
+        Sample sample = _samples.get(queueName);
+        // ?: Do we have a fresh enough sample?
+        if ((sample != null) && ((System.nanoTime() - sample._nanosAtSample) < SAMPLE_INTERVAL_MILLIS * 1_000_000L)) {
+            // -> Yes, so use that, not needing a JMS Session.
+            return sample._depth;
+        }
+        // E-> No, so borrow a JMS Session to sample anew.
+        JmsSessionHolder jmsSessionHolder = sessionHandler.getSessionHolder(initiator);
+        long depth;
+        try {
+            depth = sampleDepth(jmsSessionHolder.getSession(), queueName, maxQueueDepth);
+        }
+        catch (JmsMatsJmsException e) {
+            // The JMS Connection is probably broken, so crash the JmsSessionHolder.
+            jmsSessionHolder.crashed(e);
+            throw e;
+        }
+        jmsSessionHolder.release();
+        return depth;
+    }
+
+    private long sampleDepth(Session jmsSession, String queueName, long maxQueueDepth) throws JmsMatsJmsException {
+        Sample sample = _samples.get(queueName);
+        long nanosNow = System.nanoTime();
+        // ?: Do we have a fresh enough sample?
+        if ((sample != null) && ((nanosNow - sample._nanosAtSample) < SAMPLE_INTERVAL_MILLIS * 1_000_000L)) {
+            // -> Yes, so use that.
+            return sample._depth;
+        }
+        // E-> No, so sample anew. (Concurrent initiations might both sample, which is fine.)
+        long depth = JmsMatsMessageBrokerSpecifics.getQueueDepth(jmsSession, queueName, maxQueueDepth);
+        _samples.put(queueName, new Sample(depth, System.nanoTime()));
+        if (log.isDebugEnabled()) log.debug(LOG_PREFIX + "Sampled depth of queue [" + queueName + "]: [" + depth
+                + "].");
+        return depth;
+    }
+
+    /**
+     * @return the number of initiations that were held back waiting for capacity (whether they eventually got it or
+     *         were rejected).
+     */
+    long getThrottledCount() {
+        return _throttledCount.get();
+    }
+
+    /**
+     * @return the number of initiations that were rejected.
+     */
+    long getRejectedCount() {
+        return _rejectedCount.get();
+    }
+}
@@ -93,12 +93,26 @@ public interface JmsMatsJmsSessionHandler {
          */
         Session getSession();
 
+        /**
+         * @return whether {@link #getSession() the JMS Session} is transacted - which it is unless the holder was
+         *         fetched for a StageProcessor whose Endpoint is
+         *         {@link JmsMatsTxContextKey#isNonTransactedDupsOk() non-transacted DUPS_OK}, in which case it is a
+         *         non-transacted Session with <code>DUPS_OK_ACKNOWLEDGE</code>, and shall not be committed.
+         */
+        boolean isTransacted();
+
         /**
          * @return the default non-specific {@link MessageProducer} that goes along with {@link #getSession() the JMS
          *         Session}.
          */
         MessageProducer getDefaultNoDestinationMessageProducer();
 
+        /**
+         * @return the {@link JmsMatsDestinationCache} that goes along with {@link #getSession() the JMS Session}, used
+         *         when sending, so that Destinations (and possibly bound producers) are not created for every message.
+         */
+        JmsMatsDestinationCache getDestinationCache();
+
         /**
          * Employed by StageProcessors: This physically closes the JMS Session, and removes it from the pool-Connection,
          * and when all Sessions for a given pool-Connection is closed, the pool-Connection is closed.
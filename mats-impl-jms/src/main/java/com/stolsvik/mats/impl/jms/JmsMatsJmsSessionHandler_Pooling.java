@@ -5,8 +5,10 @@ import java.util.ArrayList;
 import java.util.Deque;
 import java.util.HashSet;
 import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -146,6 +148,218 @@ public class JmsMatsJmsSessionHandler_Pooling implements JmsMatsJmsSessionHandle
         _poolingKeyStageProcessor = poolingKeyStageProcessor;
     }
 
+    protected volatile int _maxCachedProducersPerSession;
+
+    /**
+     * Enables caching of {@link MessageProducer}s bound to "hot" Destinations, i.e. Destinations that a JMS Session
+     * sends to often, instead of always sending through the default no-destination producer - which the JMS client has
+     * to resolve the Destination for on every send. This reduces client CPU and allocations for stages that send to a
+     * few targets at high rates. The producers are LRU-evicted when above the specified max. Default is <code>0</code>,
+     * i.e. disabled. (The JMS Destination objects themselves are always cached per Session.) Takes effect for Sessions
+     * that start sending after this is set.
+     *
+     * @param maxCachedProducersPerSession
+     *            the max number of bound MessageProducers per JMS Session, <code>0</code> to disable.
+     * @return <code>this</code>, for chaining.
+     */
+    public JmsMatsJmsSessionHandler_Pooling setMaxCachedProducersPerSession(int maxCachedProducersPerSession) {
+        if (maxCachedProducersPerSession < 0) {
+            throw new IllegalArgumentException("maxCachedProducersPerSession must be >= 0, was ["
+                    + maxCachedProducersPerSession + "].");
+        }
+        _maxCachedProducersPerSession = maxCachedProducersPerSession;
+        return this;
+    }
+
+    public int getMaxCachedProducersPerSession() {
+        return _maxCachedProducersPerSession;
+    }
+
+    /**
+     * Default for the initial backoff of {@link #setReconnectBackoff(long, long)}.
+     */
+    public static final long DEFAULT_RECONNECT_INITIAL_BACKOFF_MILLIS = 500;
+
+    /**
+     * Default for the max backoff of {@link #setReconnectBackoff(long, long)}.
+     */
+    public static final long DEFAULT_RECONNECT_MAX_BACKOFF_MILLIS = 30_000;
+
+    protected volatile long _reconnectInitialBackoffMillis = DEFAULT_RECONNECT_INITIAL_BACKOFF_MILLIS;
+    protected volatile long _reconnectMaxBackoffMillis = DEFAULT_RECONNECT_MAX_BACKOFF_MILLIS;
+
+    /**
+     * Sets the backoff between attempts to create a new JMS Connection after the previous attempt for the same pooling
+     * key failed, e.g. when the broker is down or failing over. Only one attempt is made at a time per pooling key: The
+     * thread that gets to make the attempt first waits out the backoff, while the other StageProcessors sharing the
+     * Connection wait for the outcome of that attempt - thus avoiding a reconnect stampede from hundreds of
+     * StageProcessors. The backoff doubles for each consecutive failed attempt, from the initial up to the max, and
+     * is randomized between half and the full value so that several nodes do not retry in lockstep. Initiators do
+     * not wait out the backoff, but fail fast. Defaults are {@link #DEFAULT_RECONNECT_INITIAL_BACKOFF_MILLIS} and
+     * {@link #DEFAULT_RECONNECT_MAX_BACKOFF_MILLIS}.
+     *
+     * @param initialBackoffMillis
+     *            the backoff after the first failed attempt.
+     * @param maxBackoffMillis
+     *            the max backoff, must be >= initialBackoffMillis.
+     * @return <code>this</code>, for chaining.
+     */
+    public JmsMatsJmsSessionHandler_Pooling setReconnectBackoff(long initialBackoffMillis, long maxBackoffMillis) {
+        if (initialBackoffMillis < 1) {
+            throw new IllegalArgumentException("initialBackoffMillis must be >= 1, was [" + initialBackoffMillis
+                    + "].");
+        }
+        if (maxBackoffMillis < initialBackoffMillis) {
+            throw new IllegalArgumentException("maxBackoffMillis must be >= initialBackoffMillis ["
+                    + initialBackoffMillis + "], was [" + maxBackoffMillis + "].");
+        }
+        _reconnectInitialBackoffMillis = initialBackoffMillis;
+        _reconnectMaxBackoffMillis = maxBackoffMillis;
+        return this;
+    }
+
+    public long getReconnectInitialBackoffMillis() {
+        return _reconnectInitialBackoffMillis;
+    }
+
+    public long getReconnectMaxBackoffMillis() {
+        return _reconnectMaxBackoffMillis;
+    }
+
+    // Synchronized by /this/ (i.e. the JmsMatsJmsSessionHandler_Pooling instance)
+    protected IdentityHashMap<Object, ReconnectState> _reconnectStates = new IdentityHashMap<>();
+
+    // :: Time-to-recover metrics. Synchronized by /this/ (i.e. the JmsMatsJmsSessionHandler_Pooling instance)
+    protected long _recoveries;
+    protected long _failedReconnectAttempts;
+    protected long _lastTimeToRecoverMillis;
+    protected long _maxTimeToRecoverMillis;
+    protected long _totalTimeToRecoverMillis;
+
+    /**
+     * @return the number of times a JMS Connection has been re-established after its pooling key's previous
+     *         Connection crashed, or after failed attempts to create it.
+     */
+    public synchronized long getRecoveries() {
+        return _recoveries;
+    }
+
+    // :: Crash containment metrics. Synchronized by /this/ (i.e. the JmsMatsJmsSessionHandler_Pooling instance)
+    protected long _sessionLevelCrashes;
+    protected long _connectionLevelCrashes;
+
+    /**
+     * @return the number of crashes where the JMS Connection was verified live, so that only the crashing JMS Session
+     *         was discarded.
+     */
+    public synchronized long getSessionLevelCrashes() {
+        return _sessionLevelCrashes;
+    }
+
+    /**
+     * @return the number of crashes where the JMS Connection was found dead, so that the JMS Connection, and thus all
+     *         its JMS Sessions, was discarded.
+     */
+    public synchronized long getConnectionLevelCrashes() {
+        return _connectionLevelCrashes;
+    }
+
+    /**
+     * @return the number of attempts to create a JMS Connection that failed.
+     */
+    public synchronized long getFailedReconnectAttempts() {
+        return _failedReconnectAttempts;
+    }
+
+    /**
+     * @return the time from a pooling key's Connection crashed (or the first attempt to create it failed) until a new
+     *         Connection was established, for the last recovery - <code>0</code> if no recoveries yet.
+     */
+    public synchronized long getLastTimeToRecoverMillis() {
+        return _lastTimeToRecoverMillis;
+    }
+
+    /**
+     * @return the longest time-to-recover - read more at {@link #getLastTimeToRecoverMillis()}.
+     */
+    public synchronized long getMaxTimeToRecoverMillis() {
+        return _maxTimeToRecoverMillis;
+    }
+
+    /**
+     * @return the sum of all time-to-recover, which divided by {@link #getRecoveries()} gives the mean.
+     */
+    public synchronized long getTotalTimeToRecoverMillis() {
+        return _totalTimeToRecoverMillis;
+    }
+
+    /**
+     * The state of an outage for a pooling key, from its Connection crashed or an attempt to create it failed, until
+     * a new Connection is established.
+     */
+    protected static class ReconnectState {
+        protected final long _nanosOutageStart = System.nanoTime();
+        protected int _consecutiveFailedAttempts;
+        protected long _nanosNextAttemptAllowed = _nanosOutageStart;
+    }
+
+    /**
+     * Records that the Connection for the pooling key crashed, starting the time-to-recover clock if not already
+     * started.
+     */
+    protected synchronized void reconnectOutageStarted(Object poolingKey) {
+        _reconnectStates.computeIfAbsent(poolingKey, k -> new ReconnectState());
+    }
+
+    /**
+     * Records that an attempt to create the Connection for the pooling key failed, and sets when the next may be made.
+     */
+    protected synchronized void reconnectAttemptFailed(Object poolingKey) {
+        ReconnectState state = _reconnectStates.computeIfAbsent(poolingKey, k -> new ReconnectState());
+        _failedReconnectAttempts++;
+        state._consecutiveFailedAttempts++;
+        // Exponential: initial * 2^(failures-1), capped - with the shift capped to avoid overflow.
+        long backoff = Math.min(_reconnectMaxBackoffMillis,
+                _reconnectInitialBackoffMillis << Math.min(30, state._consecutiveFailedAttempts - 1));
+        // Jitter: Somewhere between half and the full backoff.
+        long jitteredBackoff = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+        state._nanosNextAttemptAllowed = System.nanoTime() + jitteredBackoff * 1_000_000L;
+        log.warn(LOG_PREFIX + "Attempt #" + state._consecutiveFailedAttempts + " to create JMS Connection for pooling"
+                + " key [" + poolingKey + "] failed - next attempt in [" + jitteredBackoff + " ms].");
+    }
+
+    /**
+     * Records that the Connection for the pooling key was established, recording time-to-recover if in an outage.
+     */
+    protected synchronized void reconnectSucceeded(Object poolingKey) {
+        ReconnectState state = _reconnectStates.remove(poolingKey);
+        // ?: Was there an outage?
+        if (state == null) {
+            // -> No, so nothing to record.
+            return;
+        }
+        long timeToRecoverMillis = (System.nanoTime() - state._nanosOutageStart) / 1_000_000L;
+        _recoveries++;
+        _lastTimeToRecoverMillis = timeToRecoverMillis;
+        _maxTimeToRecoverMillis = Math.max(_maxTimeToRecoverMillis, timeToRecoverMillis);
+        _totalTimeToRecoverMillis += timeToRecoverMillis;
+        log.info(LOG_PREFIX + "RECOVERED: Created JMS Connection for pooling key [" + poolingKey + "] after ["
+                + state._consecutiveFailedAttempts + "] failed attempts, time to recover: [" + timeToRecoverMillis
+                + " ms].");
+    }
+
+    /**
+     * @return how long to wait before the next attempt to create the Connection for the pooling key, <code>0</code>
+     *         if it may be made right away.
+     */
+    protected synchronized long reconnectBackoffRemainingMillis(Object poolingKey) {
+        ReconnectState state = _reconnectStates.get(poolingKey);
+        if (state == null) {
+            return 0;
+        }
+        return Math.max(0, (state._nanosNextAttemptAllowed - System.nanoTime()) / 1_000_000L);
+    }
+
     @Override
     public JmsSessionHolder getSessionHolder(JmsMatsInitiator<?> initiator) throws JmsMatsJmsException {
         return getSessionHolder_internal(initiator);
@@ -222,6 +436,8 @@ public class JmsMatsJmsSessionHandler_Pooling implements JmsMatsJmsSessionHandle
         // ?: Was *this thread* the creator of this ConnectionWithSessionPool?
         if (weCreatedConnectionWithSessionPool) {
             // -> Yes, so we must create the JMS Connection (Notice: Outside the synchronization)
+            // Any others wanting a Session from this pool waits for the outcome, also while we wait out any backoff.
+            connectionWithSessionPool.awaitReconnectBackoff(txContextKey);
             connectionWithSessionPool.initializePoolByCreatingJmsConnection(txContextKey);
         }
 
@@ -258,12 +474,63 @@ public class JmsMatsJmsSessionHandler_Pooling implements JmsMatsJmsSessionHandle
         Connection _jmsConnection;
         Throwable _exceptionWhenCreatingConnection;
 
+        // Whether liveness is tracked by the JMS Connection's ExceptionListener - if not, it is probed.
+        volatile boolean _exceptionListenerRegistered;
+        // Set by the JMS Connection's ExceptionListener - from then on, liveness is probed.
+        volatile Throwable _connectionReportedException;
+
+        /**
+         * If an attempt to create the Connection for this pool's pooling key recently failed, waits out the backoff
+         * before the next attempt - or if this is an initiation, fails fast, as we should not hold up the user's
+         * thread.
+         */
+        void awaitReconnectBackoff(JmsMatsTxContextKey txContextKey) throws JmsMatsJmsException {
+            long backoffMillis = reconnectBackoffRemainingMillis(_poolingKey);
+            // ?: Shall we wait before attempting?
+            if (backoffMillis == 0) {
+                // -> No, so go ahead.
+                return;
+            }
+            JmsMatsJmsException e = null;
+            // ?: Is this an initiation?
+            if (txContextKey instanceof JmsMatsInitiator) {
+                // -> Yes, so fail fast.
+                e = new JmsMatsJmsException("The previous attempt to create a JMS Connection for [" + _poolingKey
+                        + "] failed, and the next attempt will not be made for [" + backoffMillis + " ms].");
+            }
+            else {
+                // -> No, it is a StageProcessor, so wait out the backoff.
+                log.info(LOG_PREFIX + "Waiting [" + backoffMillis + " ms] before attempting to create JMS Connection"
+                        + " for pooling key [" + _poolingKey + "].");
+                try {
+                    Thread.sleep(backoffMillis);
+                }
+                catch (InterruptedException ie) {
+                    e = new JmsMatsJmsException("Got interrupted while waiting before attempting to create JMS"
+                            + " Connection for [" + _poolingKey + "].", ie);
+                }
+            }
+            // ?: Shall we give up?
+            if (e != null) {
+                // -> Yes, so release any waiters, and remove the pool - the next guy coming in should start anew.
+                setConnectionOrException_ReleaseWaiters(null, e);
+                synchronized (JmsMatsJmsSessionHandler_Pooling.this) {
+                    _liveConnectionWithSessionPools.remove(_poolingKey, this);
+                }
+                throw e;
+            }
+        }
+
         void initializePoolByCreatingJmsConnection(JmsMatsTxContextKey txContextKey) throws JmsMatsJmsException {
             try {
                 Connection jmsConnection = _jmsConnectionFactory.createConnection();
+                // Track liveness by events, so that isConnectionLive() does not need to probe on every message.
+                _exceptionListenerRegistered = JmsMatsMessageBrokerSpecifics.registerConnectionExceptionListener(
+                        jmsConnection, jmsException -> _connectionReportedException = jmsException);
                 // Starting it right away, as that could conceivably also give "connection establishment" JMSExceptions
                 jmsConnection.start();
                 setConnectionOrException_ReleaseWaiters(jmsConnection, null);
+                reconnectSucceeded(_poolingKey);
             }
             catch (Throwable t) {
                 // Got problems - set the Exception, so that any others that got waiting on connection can throw out.
@@ -271,8 +538,9 @@ public class JmsMatsJmsSessionHandler_Pooling implements JmsMatsJmsSessionHandle
                 // the next guy coming in should start anew.
                 setConnectionOrException_ReleaseWaiters(null, t);
                 synchronized (JmsMatsJmsSessionHandler_Pooling.this) {
-                    _liveConnectionWithSessionPools.remove(_poolingKey);
+                    _liveConnectionWithSessionPools.remove(_poolingKey, this);
                 }
+                reconnectAttemptFailed(_poolingKey);
                 throw new JmsMatsJmsException("Got problems when trying to create & start a new JMS Connection.", t);
             }
         }
@@ -283,9 +551,15 @@ public class JmsMatsJmsSessionHandler_Pooling implements JmsMatsJmsSessionHandle
             _creatingConnectionCountDownLatch.countDown();
         }
 
+        protected int getMaxCachedProducersPerSession() {
+            return _maxCachedProducersPerSession;
+        }
+
         protected Connection getOrWaitForPoolJmsConnection() throws JmsMatsJmsException {
             try {
-                boolean ok = _creatingConnectionCountDownLatch.await(30, TimeUnit.SECONDS);
+                // Waiting for the creator, which might first wait out a reconnect backoff.
+                boolean ok = _creatingConnectionCountDownLatch.await(30_000 + _reconnectMaxBackoffMillis,
+                        TimeUnit.MILLISECONDS);
                 if (!ok) {
                     throw new JmsMatsJmsException("Waited too long for a Connection to appear in the"
                             + " ConnectionWithSessionPool instance.");
@@ -306,12 +580,18 @@ public class JmsMatsJmsSessionHandler_Pooling implements JmsMatsJmsSessionHandle
 
         JmsSessionHolderImpl getOrCreateAndEmploySessionHolder(JmsMatsTxContextKey txContextKey)
                 throws JmsMatsJmsException {
+            boolean transacted = !txContextKey.isNonTransactedDupsOk();
             synchronized (this) {
-                JmsSessionHolderImpl availableSessionHolder = _availableSessionHolders.pollFirst();
-                if (availableSessionHolder != null) {
-                    availableSessionHolder.setCurrentContext("employed:" + txContextKey);
-                    _employedSessionHolders.add(availableSessionHolder);
-                    return availableSessionHolder;
+                // Find an available SessionHolder of the same transactedness (Only Initiators return their Sessions
+                // to the pool, and they are always transacted - but be safe).
+                for (Iterator<JmsSessionHolderImpl> it = _availableSessionHolders.iterator(); it.hasNext();) {
+                    JmsSessionHolderImpl availableSessionHolder = it.next();
+                    if (availableSessionHolder.isTransacted() == transacted) {
+                        it.remove();
+                        availableSessionHolder.setCurrentContext("employed:" + txContextKey);
+                        _employedSessionHolders.add(availableSessionHolder);
+                        return availableSessionHolder;
+                    }
                 }
             }
             // ----- No, there was no SessionHolder available, so we must make a new session
@@ -325,12 +605,15 @@ public class JmsMatsJmsSessionHandler_Pooling implements JmsMatsJmsSessionHandle
             // :: Create a new JMS Session and stick it into a SessionHolder, and employ it.
             try {
                 // Create JMS Session from JMS Connection
-                Session jmsSession = jmsConnection.createSession(true, Session.SESSION_TRANSACTED);
+                // NOTE: A non-transacted DUPS_OK StageProcessor gets lazily, batch-acknowledged receives.
+                Session jmsSession = transacted
+                        ? jmsConnection.createSession(true, Session.SESSION_TRANSACTED)
+                        : jmsConnection.createSession(false, Session.DUPS_OK_ACKNOWLEDGE);
                 // Create the default MessageProducer
                 MessageProducer messageProducer = jmsSession.createProducer(null);
                 // Stick them into a SessionHolder
                 JmsSessionHolderImpl jmsSessionHolder = new JmsSessionHolderImpl(txContextKey, this, jmsSession,
-                        messageProducer);
+                        messageProducer, transacted);
                 // Set context
                 jmsSessionHolder.setCurrentContext("employed:" + txContextKey);
                 // Employ it.
@@ -432,6 +715,29 @@ public class JmsMatsJmsSessionHandler_Pooling implements JmsMatsJmsSessionHandle
                 return;
             }
 
+            // :: Contain the crash to the JMS Session, unless the JMS Connection is verifiably dead - a session-level
+            // problem should not make every Session sharing the Connection reconnect at once.
+            // (Notice: Outside of synchronization, as verifying might talk to the broker.)
+            JmsMatsJmsException connectionDeadReason = verifyConnectionDead();
+            // ?: Is the JMS Connection live?
+            if (connectionDeadReason == null) {
+                // -> Yes, so only discard the crashed JMS Session.
+                synchronized (JmsMatsJmsSessionHandler_Pooling.this) {
+                    _sessionLevelCrashes++;
+                }
+                if (log.isWarnEnabled()) log.warn(LOG_PREFIX + "crashed() invoked from [" + jmsSessionHolder
+                        + "] on [" + this + "], but the JMS Connection was verified live -> only discarding the"
+                        + " crashed JMS Session. Underlying JMS Connection is [" + id(_jmsConnection) + ":"
+                        + _jmsConnection + "]", reasonException);
+                discardSessionHolder(jmsSessionHolder);
+                return;
+            }
+            // E-> The JMS Connection is dead.
+            reasonException.addSuppressed(connectionDeadReason);
+            synchronized (JmsMatsJmsSessionHandler_Pooling.this) {
+                _connectionLevelCrashes++;
+            }
+
             // E-> Not already crashed, must crash now
             if (log.isWarnEnabled()) log.warn(LOG_PREFIX + "crashed() invoked from [" + jmsSessionHolder + "] on ["
                     + this + "] -> crashing: Marking pool as crashed, clearing available SessionHolders. If pool"
@@ -448,6 +754,8 @@ public class JmsMatsJmsSessionHandler_Pooling implements JmsMatsJmsSessionHandle
                 synchronized (this) {
                     // Crash this pool
                     _poolIsCrashed_StackTrace = new Exception("This [" + this + "] was crashed.", reasonException);
+                    // Start the time-to-recover clock
+                    reconnectOutageStarted(_poolingKey);
                     // Clear *available* SessionHolders. (Employed list will empty out eventually)
                     // NOITE: Closing JMS Connection unconditionally, and thus Sessions, outside of synch..
                     _availableSessionHolders.clear();
@@ -458,7 +766,7 @@ public class JmsMatsJmsSessionHandler_Pooling implements JmsMatsJmsSessionHandle
                     if (!closeJmsConnection) {
                         // -> No, it was not the last session, so move us to the crashed-set
                         // Remove us from the live connections set.
-                        _liveConnectionWithSessionPools.remove(_poolingKey);
+                        _liveConnectionWithSessionPools.remove(_poolingKey, this);
                         // Add us to the crashed set
                         _crashedConnectionWithSessionPools.put(_poolingKey, this);
                     }
@@ -475,6 +783,63 @@ public class JmsMatsJmsSessionHandler_Pooling implements JmsMatsJmsSessionHandle
             closeJmsConnection();
         }
 
+        /**
+         * Verifies whether the JMS Connection is dead: Checks what its ExceptionListener has reported (probing if
+         * ActiveMQ), and then whether it can create a JMS Session - as a session-level problem does not prevent that.
+         *
+         * @return the reason if the JMS Connection is dead, <code>null</code> if it is live.
+         */
+        protected JmsMatsJmsException verifyConnectionDead() {
+            // ?: Did we ever get the Connection?
+            if (_jmsConnection == null) {
+                // -> No, so it is not usable.
+                return new JmsMatsJmsException("The JMS Connection was never created for [" + this + "].");
+            }
+            try {
+                Throwable connectionReportedException = _connectionReportedException;
+                if (connectionReportedException != null) {
+                    JmsMatsMessageBrokerSpecifics.isConnectionLiveAfterException(_jmsConnection,
+                            connectionReportedException);
+                }
+                JmsMatsMessageBrokerSpecifics.isConnectionLive(_jmsConnection);
+                Session probeSession = _jmsConnection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+                probeSession.close();
+                return null;
+            }
+            catch (JmsMatsJmsException e) {
+                return e;
+            }
+            catch (Throwable t) {
+                return new JmsMatsJmsException("Could not create and close a JMS Session on JMS Connection ["
+                        + id(_jmsConnection) + ":" + _jmsConnection + "] when verifying whether it is dead.", t);
+            }
+        }
+
+        /**
+         * Removes the SessionHolder from the pool and physically closes its JMS Session, ignoring any problems - used
+         * when a SessionHolder crashed while the JMS Connection is live.
+         */
+        protected void discardSessionHolder(JmsSessionHolderImpl jmsSessionHolder) {
+            boolean closeJmsConnection = removeSessionHolderFromPool_And_EvaluateIfEmpty(jmsSessionHolder);
+            // ?: Was this the last SessionHolder in use?
+            if (closeJmsConnection) {
+                // -> Yes, so close the JMS Connection, as the pool is removed (closing the JMS Session too).
+                closeJmsConnection();
+                return;
+            }
+            // ?: Is there a JMS Session? (Not if it was creating the JMS Session that crashed)
+            if (jmsSessionHolder._jmsSession != null) {
+                // -> Yes, so close it.
+                try {
+                    jmsSessionHolder._jmsSession.close();
+                }
+                catch (Throwable t) {
+                    log.info(LOG_PREFIX + "Got a [" + t.getClass().getSimpleName() + "] when closing the JMS Session"
+                            + " of crashed [" + jmsSessionHolder + "]. Ignoring, as the JMS Session is discarded.", t);
+                }
+            }
+        }
+
         protected void assertBigToSmallLockOrder() {
             // If we at this point only have 'this' locked, and not "mother", then we're screwed.
             // Both none locked, and both locked, is OK.
@@ -533,9 +898,9 @@ public class JmsMatsJmsSessionHandler_Pooling implements JmsMatsJmsSessionHandle
                     if (_employedSessionHolders.isEmpty() && _availableSessionHolders.isEmpty()) {
                         // -> Yes, none in either employed nor available set.
                         // Remove us from live map, if this is where this ConnectionWithSessionPool resides
-                        _liveConnectionWithSessionPools.remove(_poolingKey);
+                        _liveConnectionWithSessionPools.remove(_poolingKey, this);
                         // Remove us fom dead map, if this is where this ConnectionWithSessionPool resides
-                        _crashedConnectionWithSessionPools.remove(_poolingKey);
+                        _crashedConnectionWithSessionPools.remove(_poolingKey, this);
                         // We removed the ConnectionWithSessionPool - so close the actual JMS Connection.
                         return true;
                     }
@@ -557,7 +922,8 @@ public class JmsMatsJmsSessionHandler_Pooling implements JmsMatsJmsSessionHandle
         }
 
         /**
-         * Will be invoked by all SessionHolders at various times in {@link JmsMatsStageProcessor}.
+         * Will be invoked by all SessionHolders at various times in {@link JmsMatsStageProcessor}, i.e. for every
+         * message - so this only checks flags, unless the JMS Connection's ExceptionListener could not be registered.
          */
         void isConnectionLive(JmsSessionHolder jmsSessionHolder) throws JmsMatsJmsException {
             if (_poolIsCrashed_StackTrace != null) {
@@ -566,7 +932,20 @@ public class JmsMatsJmsSessionHandler_Pooling implements JmsMatsJmsSessionHandle
                         + _poolIsCrashed_StackTrace.getCause().getClass().getSimpleName() + "]. JMS Connection: ["
                         + id(_jmsConnection) + ":" + _jmsConnection + "].");
             }
-            JmsMatsMessageBrokerSpecifics.isConnectionLive(_jmsConnection);
+            // ?: Is liveness tracked by the ExceptionListener?
+            if (!_exceptionListenerRegistered) {
+                // -> No, so we must probe.
+                JmsMatsMessageBrokerSpecifics.isConnectionLive(_jmsConnection);
+                return;
+            }
+            Throwable connectionReportedException = _connectionReportedException;
+            // ?: Has the ExceptionListener been invoked?
+            if (connectionReportedException != null) {
+                // -> Yes, so check whether that means that the Connection is dead.
+                JmsMatsMessageBrokerSpecifics.isConnectionLiveAfterException(_jmsConnection,
+                        connectionReportedException);
+            }
+            // E-> Nothing reported, so the Connection is live.
         }
 
         @Override
@@ -585,15 +964,25 @@ public class JmsMatsJmsSessionHandler_Pooling implements JmsMatsJmsSessionHandle
         protected final ConnectionWithSessionPool _connectionWithSessionPool;
         protected final Session _jmsSession;
         protected final MessageProducer _messageProducer;
+        protected final boolean _transacted;
 
         public JmsSessionHolderImpl(JmsMatsTxContextKey txContextKey,
                 ConnectionWithSessionPool connectionWithSessionPool,
                 Session jmsSession,
                 MessageProducer messageProducer) {
+            this(txContextKey, connectionWithSessionPool, jmsSession, messageProducer, true);
+        }
+
+        public JmsSessionHolderImpl(JmsMatsTxContextKey txContextKey,
+                ConnectionWithSessionPool connectionWithSessionPool,
+                Session jmsSession,
+                MessageProducer messageProducer,
+                boolean transacted) {
             _currentContext = txContextKey;
             _connectionWithSessionPool = connectionWithSessionPool;
             _jmsSession = jmsSession;
             _messageProducer = messageProducer;
+            _transacted = transacted;
         }
 
         protected Object _currentContext;
@@ -612,11 +1001,28 @@ public class JmsMatsJmsSessionHandler_Pooling implements JmsMatsJmsSessionHandle
             return _jmsSession;
         }
 
+        @Override
+        public boolean isTransacted() {
+            return _transacted;
+        }
+
         @Override
         public MessageProducer getDefaultNoDestinationMessageProducer() {
             return _messageProducer;
         }
 
+        // Lazily created, and lives as long as the JMS Session, thus across employments from the pool.
+        protected JmsMatsDestinationCache _destinationCache;
+
+        @Override
+        public JmsMatsDestinationCache getDestinationCache() {
+            if (_destinationCache == null) {
+                _destinationCache = new JmsMatsDestinationCache(_jmsSession, _messageProducer,
+                        _connectionWithSessionPool.getMaxCachedProducersPerSession());
+            }
+            return _destinationCache;
+        }
+
         protected AtomicBoolean _closedOrCrashed = new AtomicBoolean();
 
         @Override
@@ -91,8 +91,11 @@ public class JmsMatsJmsSessionHandler_Simple implements JmsMatsJmsSessionHandler
 
         // :: Create JMS Session and stick it in a Simple-holder
         Session jmsSession;
+        boolean transacted = !txContextKey.isNonTransactedDupsOk();
         try {
-            jmsSession = jmsConnection.createSession(true, Session.SESSION_TRANSACTED);
+            jmsSession = transacted
+                    ? jmsConnection.createSession(true, Session.SESSION_TRANSACTED)
+                    : jmsConnection.createSession(false, Session.DUPS_OK_ACKNOWLEDGE);
         }
         catch (Throwable t) {
             try {
@@ -111,7 +114,7 @@ public class JmsMatsJmsSessionHandler_Simple implements JmsMatsJmsSessionHandler
         // :: Create The default MessageProducer, and then stick the Session and MessageProducer in a SessionHolder.
         try {
             MessageProducer messageProducer = jmsSession.createProducer(null);
-            return new JmsSessionHolder_Simple(jmsConnection, jmsSession, messageProducer);
+            return new JmsSessionHolder_Simple(jmsConnection, jmsSession, messageProducer, transacted);
         }
         catch (Throwable t) {
             try {
@@ -135,11 +138,18 @@ public class JmsMatsJmsSessionHandler_Simple implements JmsMatsJmsSessionHandler
         protected final Connection _jmsConnection;
         protected final Session _jmsSession;
         protected final MessageProducer _messageProducer;
+        protected final boolean _transacted;
 
         public JmsSessionHolder_Simple(Connection jmsConnection, Session jmsSession, MessageProducer messageProducer) {
+            this(jmsConnection, jmsSession, messageProducer, true);
+        }
+
+        public JmsSessionHolder_Simple(Connection jmsConnection, Session jmsSession, MessageProducer messageProducer,
+                boolean transacted) {
             _jmsConnection = jmsConnection;
             _jmsSession = jmsSession;
             _messageProducer = messageProducer;
+            _transacted = transacted;
         }
 
         @Override
@@ -157,11 +167,28 @@ public class JmsMatsJmsSessionHandler_Simple implements JmsMatsJmsSessionHandler
             return _jmsSession;
         }
 
+        @Override
+        public boolean isTransacted() {
+            return _transacted;
+        }
+
         @Override
         public MessageProducer getDefaultNoDestinationMessageProducer() {
             return _messageProducer;
         }
 
+        // Lazily created. Since each Session has its own Connection here, which is not a performance oriented setup,
+        // no bound producers are cached - only the Destinations.
+        protected JmsMatsDestinationCache _destinationCache;
+
+        @Override
+        public JmsMatsDestinationCache getDestinationCache() {
+            if (_destinationCache == null) {
+                _destinationCache = new JmsMatsDestinationCache(_jmsSession, _messageProducer, 0);
+            }
+            return _destinationCache;
+        }
+
         protected AtomicBoolean _closedOrReleasedOrCrashed = new AtomicBoolean();
 
         @Override
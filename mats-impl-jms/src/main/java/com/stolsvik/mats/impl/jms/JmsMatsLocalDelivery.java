@@ -0,0 +1,167 @@
+package com.stolsvik.mats.impl.jms;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.Destination;
+import javax.jms.Message;
+
+import com.stolsvik.mats.MatsFactory.FactoryConfig;
+
+/**
+ * The in-JVM handoff for a {@link JmsMatsStage}, used for "local delivery" of messages from the same
+ * {@link JmsMatsFactory}, bypassing the broker - read more at {@link FactoryConfig#setLocalDelivery(boolean)}.
+ * <p/>
+ * The sender first {@link #tryReserve() reserves} a slot while still inside its transaction - if this fails, the stage
+ * is saturated (or not running), and the message is sent via the broker as usual. After the sender's transaction has
+ * committed, the message is {@link #handoff(LocalMessage) handed off} into the reserved slot, while if it rolls back,
+ * the slot is {@link #release() released}. The slot is freed when a local StageProcessor {@link #poll(long) picks} the
+ * message. The capacity is thus the number of messages that can be waiting for, or on their way to, the stage's local
+ * StageProcessors.
+ */
+class JmsMatsLocalDelivery {
+    private final BlockingQueue<LocalMessage> _queue = new LinkedBlockingQueue<>();
+    private final Semaphore _slots = new Semaphore(0);
+
+    private volatile boolean _open;
+
+    /**
+     * Opens for local delivery, with the specified capacity. Invoked when the stage starts.
+     */
+    synchronized void open(int capacity) {
+        // Reset the capacity to the specified, taking into account any slots still reserved or queued.
+        _slots.drainPermits();
+        _slots.release(Math.max(0, capacity - _queue.size()));
+        _open = true;
+    }
+
+    /**
+     * Closes for local delivery, so that new reservations fail. Invoked when the stage stops.
+     */
+    void close() {
+        _open = false;
+    }
+
+    boolean isOpen() {
+        return _open;
+    }
+
+    /**
+     * @return whether there are messages waiting to be picked by the local StageProcessors.
+     */
+    boolean hasWaiting() {
+        return !_queue.isEmpty();
+    }
+
+    /**
+     * @return <code>true</code> if a slot was reserved, <code>false</code> if closed or saturated.
+     */
+    boolean tryReserve() {
+        return _open && _slots.tryAcquire();
+    }
+
+    /**
+     * Releases a reserved slot, when the sending transaction was rolled back.
+     */
+    void release() {
+        _slots.release();
+    }
+
+    /**
+     * Hands the message off to the local StageProcessors, into a previously reserved slot.
+     */
+    void handoff(LocalMessage localMessage) {
+        _queue.add(localMessage);
+    }
+
+    /**
+     * @return the next message, or <code>null</code> if none arrived within the timeout.
+     */
+    LocalMessage poll(long timeoutMillis) throws InterruptedException {
+        LocalMessage localMessage = _queue.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        if (localMessage != null) {
+            _slots.release();
+        }
+        return localMessage;
+    }
+
+    /**
+     * @return the next message if one is waiting, otherwise <code>null</code> - used when draining on exit.
+     */
+    LocalMessage pollNow() {
+        LocalMessage localMessage = _queue.poll();
+        if (localMessage != null) {
+            _slots.release();
+        }
+        return localMessage;
+    }
+
+    /**
+     * A message for local delivery: The JMS Message (MapMessage, or BytesMessage if the
+     * {@link JmsMatsFactory#setBytesMessageWireFormat(boolean) BytesMessage wire format} is used) exactly as it would
+     * have been sent to the broker, along with the Destination and send parameters, so that it can be forwarded to the
+     * broker if its local processing does not complete.
+     */
+    static class LocalMessage {
+        private final String _localMessageId;
+        private final Message _message;
+        private final Destination _destination;
+        private final int _deliveryMode;
+        private final int _priority;
+        private final long _timeToLive;
+        private final long _expiresAtMillis;
+
+        LocalMessage(String localMessageId, Message message, Destination destination, int deliveryMode,
+                int priority, long timeToLive) {
+            _localMessageId = localMessageId;
+            _message = message;
+            _destination = destination;
+            _deliveryMode = deliveryMode;
+            _priority = priority;
+            _timeToLive = timeToLive;
+            // Same semantics as JMS: 0 means "never expire".
+            _expiresAtMillis = timeToLive > 0 ? System.currentTimeMillis() + timeToLive : 0;
+        }
+
+        /**
+         * @return the id used in place of the JMSMessageID, which only is assigned by the broker when sending.
+         */
+        String getLocalMessageId() {
+            return _localMessageId;
+        }
+
+        Message getMessage() {
+            return _message;
+        }
+
+        Destination getDestination() {
+            return _destination;
+        }
+
+        int getDeliveryMode() {
+            return _deliveryMode;
+        }
+
+        int getPriority() {
+            return _priority;
+        }
+
+        /**
+         * @return the time-to-live remaining, for forwarding to the broker: 0 if the original was 0 ("forever"), and
+         *         otherwise at least 1 - check {@link #isExpired()} first.
+         */
+        long getRemainingTimeToLive() {
+            return _timeToLive > 0 ? Math.max(1, _expiresAtMillis - System.currentTimeMillis()) : 0;
+        }
+
+        /**
+         * @return whether the time-to-live has expired, in which case the message shall be dropped - as the broker
+         *         would.
+         */
+        boolean isExpired() {
+            return (_expiresAtMillis != 0) && (System.currentTimeMillis() >= _expiresAtMillis);
+        }
+    }
+}
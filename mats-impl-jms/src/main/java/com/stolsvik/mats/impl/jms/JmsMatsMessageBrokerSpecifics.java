@@ -1,10 +1,24 @@
 package com.stolsvik.mats.impl.jms;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.Enumeration;
+import java.util.function.Consumer;
 
 import javax.jms.Connection;
+import javax.jms.ExceptionListener;
+import javax.jms.JMSException;
+import javax.jms.MapMessage;
+import javax.jms.Message;
 import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Queue;
+import javax.jms.QueueBrowser;
+import javax.jms.Session;
+import javax.jms.TemporaryQueue;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -16,10 +30,22 @@ import com.stolsvik.mats.MatsEndpoint.MatsRefuseMessageException;
  * <p />
  * <h2>ActiveMQ</h2>
  * <ul>
- * <li>Check for Connection liveliness: {@code ActiveMQConnection.is[Closed|Closing|TransportFailed]}.</li>
+ * <li>Check for Connection liveliness: {@code ActiveMQConnection.is[Closed|Closing|TransportFailed]}, invoked using
+ * MethodHandles - only after an exception has been delivered to the Connection's {@link ExceptionListener}, as ActiveMQ
+ * also delivers non-fatal asynchronous exceptions there.</li>
  * <li>Honor the {@link MatsRefuseMessageException} (i.e. insta-DLQing), by setting redelivery attempts to 0 on the
  * MessageConsumer when rolling back Session: {@code ActiveMQSession.setRedeliveryPolicy(zeroAttemptsPolicy)}.</li>
+ * <li>Apply a stage's redelivery policy to its consumers: {@code ActiveMQMessageConsumer.setRedeliveryPolicy(..)} with
+ * a copy of the consumer's policy, adjusted - invoked using MethodHandles.</li>
+ * <li>Set the prefetch of a stage's consumers: {@code consumer.prefetchSize} Destination Option on the name of the
+ * Destination that the MessageConsumer is created on.</li>
+ * <li>Sample the depth of a queue, for initiator backpressure: Ask the broker's "Statistics Plugin" if it is installed,
+ * using a separate non-transacted Session on {@code ActiveMQSession.getConnection()}.</li>
+ * <li>Delay the delivery of a message: The {@code AMQ_SCHEDULED_DELAY} message property, effectuated by the broker's
+ * scheduler if enabled ({@code schedulerSupport="true"}).</li>
  * </ul>
+ * For other brokers, the queue depth is sampled by counting using a JMS {@link QueueBrowser}, and delayed messages are
+ * parked on a broker queue by the receiver until their time, read more at {@link JmsMatsDelayedDelivery}.
  */
 public class JmsMatsMessageBrokerSpecifics {
 
@@ -29,11 +55,11 @@ public class JmsMatsMessageBrokerSpecifics {
         /* utility class */
     }
 
-    // :: For ActiveMQ's impl of isConnectionLive
+    // :: For ActiveMQ's impl of isConnectionLive - MethodHandles of type (Connection)boolean
     private static final Class<?> _activeMqConnection_class;
-    private static final Method _activeMqConnection_isClosing;
-    private static final Method _activeMqConnection_isClosed;
-    private static final Method _activeMqConnection_isTransportFailed;
+    private static final MethodHandle _activeMqConnection_isClosing;
+    private static final MethodHandle _activeMqConnection_isClosed;
+    private static final MethodHandle _activeMqConnection_isTransportFailed;
 
     // :: For ActiveMQ's impl of instaDlqWithRollbackLambda
     private static final Object _activeMqRedeliveryPolicy_zeroRedeliveries;
@@ -41,18 +67,46 @@ public class JmsMatsMessageBrokerSpecifics {
     private static final Method _activeMqMessageConsumer_getRedeliveryPolicy;
     private static final Method _activeMqMessageConsumer_setRedeliveryPolicy;
 
+    // :: For ActiveMQ's impl of applyRedeliveryPolicy - MethodHandles with the ActiveMQ types erased to Object (and
+    // MessageConsumer), all null if not all are available.
+    private static final MethodHandle _activeMqMessageConsumer_getRedeliveryPolicyHandle;
+    private static final MethodHandle _activeMqMessageConsumer_setRedeliveryPolicyHandle;
+    private static final MethodHandle _activeMqRedeliveryPolicy_copy;
+    private static final MethodHandle _activeMqRedeliveryPolicy_setMaximumRedeliveries;
+    private static final MethodHandle _activeMqRedeliveryPolicy_setInitialRedeliveryDelay;
+    private static final MethodHandle _activeMqRedeliveryPolicy_setRedeliveryDelay;
+    private static final MethodHandle _activeMqRedeliveryPolicy_setMaximumRedeliveryDelay;
+    private static final MethodHandle _activeMqRedeliveryPolicy_setUseExponentialBackOff;
+    private static final MethodHandle _activeMqRedeliveryPolicy_setBackOffMultiplier;
+
+    private static volatile boolean _redeliveryPolicyUnsupportedLogged;
+
+    // :: For ActiveMQ's impl of getQueueDepth
+    private static final Class<?> _activeMqSession_class;
+    private static final Method _activeMqSession_getConnection;
+    // null: not yet probed, TRUE/FALSE: whether the broker answers on the Statistics Plugin destinations.
+    private static volatile Boolean _activeMqStatisticsPluginAvailable;
+
+    private static volatile boolean _prefetchUnsupportedLogged;
+
+    static final String ACTIVEMQ_STATISTICS_BROKER_DESTINATION = "ActiveMQ.Statistics.Broker";
+    static final String ACTIVEMQ_STATISTICS_DESTINATION_PREFIX = "ActiveMQ.Statistics.Destination.";
+    static final long ACTIVEMQ_STATISTICS_REPLY_TIMEOUT_MILLIS = 500;
+
+    static final String ACTIVEMQ_SCHEDULED_DELAY_PROPERTY = "AMQ_SCHEDULED_DELAY";
+
     static {
         // :: Check if we have ActiveMQConnection, and if so get the "liveliness methods".
 
         Class<?> amqConnClass = null;
-        Method isClosing = null;
-        Method isClosed = null;
-        Method isTransportFailed = null;
+        MethodHandle isClosing = null;
+        MethodHandle isClosed = null;
+        MethodHandle isTransportFailed = null;
         try {
             Class<?> l_amqConnCllass = Class.forName("org.apache.activemq.ActiveMQConnection");
-            Method l_isClosing = l_amqConnCllass.getMethod("isClosing");
-            Method l_isClosed = l_amqConnCllass.getMethod("isClosed");
-            Method l_isTransportFailed = l_amqConnCllass.getMethod("isTransportFailed");
+            MethodHandle l_isClosing = connectionBooleanMethodHandle(l_amqConnCllass, "isClosing");
+            MethodHandle l_isClosed = connectionBooleanMethodHandle(l_amqConnCllass, "isClosed");
+            MethodHandle l_isTransportFailed = connectionBooleanMethodHandle(l_amqConnCllass, "isTransportFailed");
             // ----- We've got all these methods, now set them on the class.
             amqConnClass = l_amqConnCllass;
             isClosing = l_isClosing;
@@ -63,7 +117,7 @@ public class JmsMatsMessageBrokerSpecifics {
             log.info("Couldn't get hold of 'org.apache.activemq.ActiveMQConnection' class,"
                     + " so ActiveMQ probably not on classpath.");
         }
-        catch (NoSuchMethodException e) {
+        catch (NoSuchMethodException | IllegalAccessException e) {
             log.warn("ActiveMQConnection was on classpath, but couldn't get hold of"
                     + " 'org.apache.activemq.ActiveMQConnection.is[Closing|Closed|TransportFailed]"
                     + " methods. This is not expected, report a bug! Mats will still work, though.", e);
@@ -143,6 +197,115 @@ public class JmsMatsMessageBrokerSpecifics {
         _activeMqMessageConsumer_getRedeliveryPolicy = getRedeliveryPolicy;
         _activeMqMessageConsumer_setRedeliveryPolicy = setRedeliveryPolicy;
         _activeMqRedeliveryPolicy_zeroRedeliveries = zeroRedeliveries;
+
+        // :: Check if we have the RedeliveryPolicy methods needed to apply a stage's redelivery policy.
+
+        MethodHandle consumerGetRedeliveryPolicy = null;
+        MethodHandle consumerSetRedeliveryPolicy = null;
+        MethodHandle copy = null;
+        MethodHandle setMaximumRedeliveries = null;
+        MethodHandle setInitialRedeliveryDelay = null;
+        MethodHandle setRedeliveryDelay = null;
+        MethodHandle setMaximumRedeliveryDelay = null;
+        MethodHandle setUseExponentialBackOff = null;
+        MethodHandle setBackOffMultiplier = null;
+        // ?: Did we get hold of the consumer's [get|set]RedeliveryPolicy methods?
+        if (amqMsgConsClass != null) {
+            // -> Yes, so get the MethodHandles of those, and of the RedeliveryPolicy's methods.
+            try {
+                Class<?> l_redeliveryPolicyClass = redeliveryPolicyClass;
+                MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+                MethodHandle l_consumerGetRedeliveryPolicy = lookup.unreflect(getRedeliveryPolicy)
+                        .asType(MethodType.methodType(Object.class, MessageConsumer.class));
+                MethodHandle l_consumerSetRedeliveryPolicy = lookup.unreflect(setRedeliveryPolicy)
+                        .asType(MethodType.methodType(void.class, MessageConsumer.class, Object.class));
+                MethodHandle l_copy = lookup.findVirtual(l_redeliveryPolicyClass, "copy",
+                        MethodType.methodType(l_redeliveryPolicyClass))
+                        .asType(MethodType.methodType(Object.class, Object.class));
+                MethodHandle l_setMaximumRedeliveries = redeliveryPolicySetter(l_redeliveryPolicyClass,
+                        "setMaximumRedeliveries", int.class);
+                MethodHandle l_setInitialRedeliveryDelay = redeliveryPolicySetter(l_redeliveryPolicyClass,
+                        "setInitialRedeliveryDelay", long.class);
+                MethodHandle l_setRedeliveryDelay = redeliveryPolicySetter(l_redeliveryPolicyClass,
+                        "setRedeliveryDelay", long.class);
+                MethodHandle l_setMaximumRedeliveryDelay = redeliveryPolicySetter(l_redeliveryPolicyClass,
+                        "setMaximumRedeliveryDelay", long.class);
+                MethodHandle l_setUseExponentialBackOff = redeliveryPolicySetter(l_redeliveryPolicyClass,
+                        "setUseExponentialBackOff", boolean.class);
+                MethodHandle l_setBackOffMultiplier = redeliveryPolicySetter(l_redeliveryPolicyClass,
+                        "setBackOffMultiplier", double.class);
+                // ----- We've got all these methods, now set them on the class.
+                consumerGetRedeliveryPolicy = l_consumerGetRedeliveryPolicy;
+                consumerSetRedeliveryPolicy = l_consumerSetRedeliveryPolicy;
+                copy = l_copy;
+                setMaximumRedeliveries = l_setMaximumRedeliveries;
+                setInitialRedeliveryDelay = l_setInitialRedeliveryDelay;
+                setRedeliveryDelay = l_setRedeliveryDelay;
+                setMaximumRedeliveryDelay = l_setMaximumRedeliveryDelay;
+                setUseExponentialBackOff = l_setUseExponentialBackOff;
+                setBackOffMultiplier = l_setBackOffMultiplier;
+            }
+            catch (NoSuchMethodException | IllegalAccessException e) {
+                log.warn("'org.apache.activemq.RedeliveryPolicy' was on classpath, but couldn't get hold of the"
+                        + " methods needed to apply per-stage redelivery policies. This is not expected, report a"
+                        + " bug! Mats will still work, though.", e);
+            }
+        }
+        _activeMqMessageConsumer_getRedeliveryPolicyHandle = consumerGetRedeliveryPolicy;
+        _activeMqMessageConsumer_setRedeliveryPolicyHandle = consumerSetRedeliveryPolicy;
+        _activeMqRedeliveryPolicy_copy = copy;
+        _activeMqRedeliveryPolicy_setMaximumRedeliveries = setMaximumRedeliveries;
+        _activeMqRedeliveryPolicy_setInitialRedeliveryDelay = setInitialRedeliveryDelay;
+        _activeMqRedeliveryPolicy_setRedeliveryDelay = setRedeliveryDelay;
+        _activeMqRedeliveryPolicy_setMaximumRedeliveryDelay = setMaximumRedeliveryDelay;
+        _activeMqRedeliveryPolicy_setUseExponentialBackOff = setUseExponentialBackOff;
+        _activeMqRedeliveryPolicy_setBackOffMultiplier = setBackOffMultiplier;
+
+        // :: Check if we have ActiveMQSession, and if so get the getConnection() method.
+
+        Class<?> amqSessionClass = null;
+        Method getConnection = null;
+        try {
+            Class<?> l_amqSessionClass = Class.forName("org.apache.activemq.ActiveMQSession");
+            Method l_getConnection = l_amqSessionClass.getMethod("getConnection");
+            // ----- We've got the class and needed method, now set them on the class.
+            amqSessionClass = l_amqSessionClass;
+            getConnection = l_getConnection;
+        }
+        catch (ClassNotFoundException e) {
+            log.info("Couldn't get hold of 'org.apache.activemq.ActiveMQSession' class,"
+                    + " so ActiveMQ probably not on classpath.");
+        }
+        catch (NoSuchMethodException e) {
+            log.warn("'org.apache.activemq.ActiveMQSession' was on classpath, but couldn't get hold of"
+                    + " ActiveMQSession.getConnection() method. This is not expected, report a bug! Mats will still"
+                    + " work, though.", e);
+        }
+        _activeMqSession_class = amqSessionClass;
+        _activeMqSession_getConnection = getConnection;
+    }
+
+    /**
+     * @return a MethodHandle of type <code>(Connection)boolean</code> for the specified public no-args method, so that
+     *         it can be invoked using {@link MethodHandle#invokeExact(Object...) invokeExact(..)}.
+     */
+    private static MethodHandle connectionBooleanMethodHandle(Class<?> connectionClass, String methodName)
+            throws NoSuchMethodException, IllegalAccessException {
+        return MethodHandles.publicLookup()
+                .findVirtual(connectionClass, methodName, MethodType.methodType(boolean.class))
+                .asType(MethodType.methodType(boolean.class, Connection.class));
+    }
+
+    /**
+     * @return a MethodHandle of type <code>(Object, parameterType)void</code> for the specified public setter on the
+     *         RedeliveryPolicy, so that it can be invoked using {@link MethodHandle#invokeExact(Object...)
+     *         invokeExact(..)}.
+     */
+    private static MethodHandle redeliveryPolicySetter(Class<?> redeliveryPolicyClass, String methodName,
+            Class<?> parameterType) throws NoSuchMethodException, IllegalAccessException {
+        return MethodHandles.publicLookup()
+                .findVirtual(redeliveryPolicyClass, methodName, MethodType.methodType(void.class, parameterType))
+                .asType(MethodType.methodType(void.class, Object.class, parameterType));
     }
 
     public static void init() {
@@ -166,26 +329,98 @@ public class JmsMatsMessageBrokerSpecifics {
      */
     public static void isConnectionLive(Connection jmsConnection) throws JmsMatsJmsException {
         if ((_activeMqConnection_class != null) && _activeMqConnection_class.isInstance(jmsConnection)) {
+            boolean closing, closed, transportFailed;
             try {
-                if ((Boolean) _activeMqConnection_isClosing.invoke(jmsConnection)) {
-                    throw new JmsMatsJmsException("JMS Connection [" + jmsConnection + "].isClosing() == true.");
-                }
-                if ((Boolean) _activeMqConnection_isClosed.invoke(jmsConnection)) {
-                    throw new JmsMatsJmsException("JMS Connection [" + jmsConnection + "].isClosed() == true.");
-                }
-                if ((Boolean) _activeMqConnection_isTransportFailed.invoke(jmsConnection)) {
-                    throw new JmsMatsJmsException("JMS Connection [" + jmsConnection
-                            + "].isTransportFailed() == true.");
-                }
+                closing = (boolean) _activeMqConnection_isClosing.invokeExact(jmsConnection);
+                closed = (boolean) _activeMqConnection_isClosed.invokeExact(jmsConnection);
+                transportFailed = (boolean) _activeMqConnection_isTransportFailed.invokeExact(jmsConnection);
             }
-            catch (IllegalAccessException | InvocationTargetException e) {
+            catch (Throwable t) {
                 log.warn("Invoking ActiveMqConnection.is[Closing|Closed|TransportFailed]() raised exception, which"
-                        + "is not expected: Report a bug on Mats!", e);
+                        + "is not expected: Report a bug on Mats!", t);
+                return;
+            }
+            if (closing) {
+                throw new JmsMatsJmsException("JMS Connection [" + jmsConnection + "].isClosing() == true.");
+            }
+            if (closed) {
+                throw new JmsMatsJmsException("JMS Connection [" + jmsConnection + "].isClosed() == true.");
+            }
+            if (transportFailed) {
+                throw new JmsMatsJmsException("JMS Connection [" + jmsConnection
+                        + "].isTransportFailed() == true.");
             }
         }
         // ----- No problems found, return w/o throwing.
     }
 
+    /**
+     * Registers an {@link ExceptionListener} on the JMS Connection which invokes the provided callback, so that the
+     * liveness of the Connection can be tracked by events instead of being probed on every message: When nothing has
+     * been reported, the Connection is taken as live - when something has, use
+     * {@link #isConnectionLiveAfterException(Connection, Throwable)}. Any ExceptionListener already set on the
+     * Connection (e.g. by the ConnectionFactory) is still invoked.
+     * <p/>
+     * This should be invoked before the Connection is started.
+     *
+     * @param jmsConnection
+     *            the JMS Connection to track.
+     * @param exceptionCallback
+     *            invoked with the exception each time one is delivered to the Connection's ExceptionListener.
+     * @return whether the ExceptionListener could be registered - if not (e.g. in a Java EE container where
+     *         {@link Connection#setExceptionListener(ExceptionListener)} is forbidden), the liveness must instead be
+     *         probed using {@link #isConnectionLive(Connection)}.
+     */
+    public static boolean registerConnectionExceptionListener(Connection jmsConnection,
+            Consumer<JMSException> exceptionCallback) {
+        try {
+            ExceptionListener existingListener = jmsConnection.getExceptionListener();
+            jmsConnection.setExceptionListener(jmsException -> {
+                try {
+                    exceptionCallback.accept(jmsException);
+                }
+                finally {
+                    if (existingListener != null) {
+                        existingListener.onException(jmsException);
+                    }
+                }
+            });
+            return true;
+        }
+        catch (JMSException | RuntimeException e) {
+            log.info("Couldn't register ExceptionListener on the JMS Connection [" + jmsConnection + "], so liveness"
+                    + " will be probed instead.", e);
+            return false;
+        }
+    }
+
+    /**
+     * Checks the liveness of a JMS Connection whose {@link ExceptionListener} has been invoked. For ActiveMQ, which
+     * also delivers non-fatal asynchronous exceptions to the ExceptionListener - and which delivers the exception for a
+     * failed transport before marking the Connection as failed - the Connection is probed using
+     * {@link #isConnectionLive(Connection)}. For other brokers, any exception is taken as the Connection being dead,
+     * per the JMS specification.
+     *
+     * @param jmsConnection
+     *            the JMS Connection to check.
+     * @param reportedException
+     *            the exception delivered to the Connection's ExceptionListener.
+     * @throws JmsMatsJmsException
+     *             if it seems like this Connection is dead.
+     */
+    public static void isConnectionLiveAfterException(Connection jmsConnection, Throwable reportedException)
+            throws JmsMatsJmsException {
+        // ?: Is this ActiveMQ?
+        if ((_activeMqConnection_class != null) && _activeMqConnection_class.isInstance(jmsConnection)) {
+            // -> Yes, so probe.
+            isConnectionLive(jmsConnection);
+            return;
+        }
+        // E-> Not ActiveMQ, so the Connection is dead.
+        throw new JmsMatsJmsException("JMS Connection [" + jmsConnection + "] has reported an exception to its"
+                + " ExceptionListener.", reportedException);
+    }
+
     /**
      * If the MessageConsumer is an ActiveMQMessageConsumer, then it should set it into "0 redeliveries" mode, and then
      * run the provided lambda to rollback the current message, and then re-set the deliveries. If not an
@@ -231,6 +466,260 @@ public class JmsMatsMessageBrokerSpecifics {
         }
     }
 
+    /**
+     * Applies a stage's redelivery policy to one of its MessageConsumers. For an ActiveMQMessageConsumer, the
+     * consumer's RedeliveryPolicy (gotten from the ConnectionFactory) is copied, adjusted with the specified values,
+     * and set on the consumer - where the backoff grows exponentially, doubling, if the maximum is larger than the
+     * initial. For other brokers, nothing is done (logging once that the policy cannot be applied). If all values are
+     * <code>-1</code>, nothing is done.
+     *
+     * @param jmsMessageConsumer
+     *            the consumer to apply the redelivery policy to.
+     * @param maxRedeliveries
+     *            the number of redeliveries before DLQ, or <code>-1</code> to leave as is.
+     * @param initialBackoffMillis
+     *            the backoff before the first redelivery, or <code>-1</code> to leave as is.
+     * @param maximumBackoffMillis
+     *            the cap for the exponentially growing backoff, or <code>-1</code> to leave as is - if set, the
+     *            initial backoff must also be set.
+     */
+    public static void applyRedeliveryPolicy(MessageConsumer jmsMessageConsumer, int maxRedeliveries,
+            long initialBackoffMillis, long maximumBackoffMillis) {
+        // ?: Is anything to be applied?
+        if ((maxRedeliveries == -1) && (initialBackoffMillis == -1) && (maximumBackoffMillis == -1)) {
+            // -> No, so the ConnectionFactory's policy stands.
+            return;
+        }
+        // ?: Is this ActiveMQ, and did we get hold of all the needed methods?
+        if ((_activeMqRedeliveryPolicy_copy == null)
+                || (!_activeMqMessageConsumer_class.isInstance(jmsMessageConsumer))) {
+            // -> No, so we do not know how to apply it.
+            if (!_redeliveryPolicyUnsupportedLogged) {
+                _redeliveryPolicyUnsupportedLogged = true;
+                log.info("Cannot set per-stage redelivery policy on consumer [" + jmsMessageConsumer.getClass()
+                        .getName() + "], as it is not ActiveMQ - configure redelivery on the broker or JMS"
+                        + " ConnectionFactory instead.");
+            }
+            return;
+        }
+        try {
+            Object existingRedeliveryPolicy = (Object) _activeMqMessageConsumer_getRedeliveryPolicyHandle
+                    .invokeExact(jmsMessageConsumer);
+            Object redeliveryPolicy = (Object) _activeMqRedeliveryPolicy_copy.invokeExact(existingRedeliveryPolicy);
+            if (maxRedeliveries != -1) {
+                _activeMqRedeliveryPolicy_setMaximumRedeliveries.invokeExact(redeliveryPolicy, maxRedeliveries);
+            }
+            if (initialBackoffMillis != -1) {
+                _activeMqRedeliveryPolicy_setInitialRedeliveryDelay.invokeExact(redeliveryPolicy, initialBackoffMillis);
+                _activeMqRedeliveryPolicy_setRedeliveryDelay.invokeExact(redeliveryPolicy, initialBackoffMillis);
+            }
+            if (maximumBackoffMillis != -1) {
+                _activeMqRedeliveryPolicy_setMaximumRedeliveryDelay.invokeExact(redeliveryPolicy, maximumBackoffMillis);
+                boolean exponential = maximumBackoffMillis > initialBackoffMillis;
+                _activeMqRedeliveryPolicy_setUseExponentialBackOff.invokeExact(redeliveryPolicy, exponential);
+                if (exponential) {
+                    _activeMqRedeliveryPolicy_setBackOffMultiplier.invokeExact(redeliveryPolicy, 2d);
+                }
+            }
+            _activeMqMessageConsumer_setRedeliveryPolicyHandle.invokeExact(jmsMessageConsumer, redeliveryPolicy);
+        }
+        catch (Throwable t) {
+            log.warn("Applying the stage's redelivery policy to the ActiveMqMessageConsumer raised exception, which"
+                    + " is not expected: Report a bug on Mats! The ConnectionFactory's policy is used.", t);
+        }
+    }
+
+    /**
+     * Returns the name to create the Destination that a stage's MessageConsumer receives from with, so that the
+     * consumer gets the specified prefetch. For ActiveMQ, this is done by appending the {@code consumer.prefetchSize}
+     * Destination Option to the name. For other brokers, the name is returned as is (logging once that the prefetch
+     * cannot be applied), and the prefetch must instead be configured on the JMS ConnectionFactory.
+     *
+     * @param jmsSession
+     *            the Session that the MessageConsumer will be created on.
+     * @param destinationName
+     *            the full name of the queue or topic, i.e. including the Mats destination prefix.
+     * @param prefetch
+     *            the prefetch for the consumer, <code>-1</code> meaning that the ConnectionFactory's shall be used.
+     * @return the name to create the Destination with.
+     */
+    public static String consumerDestinationName(Session jmsSession, String destinationName, int prefetch) {
+        // ?: Shall we use the ConnectionFactory's prefetch?
+        if (prefetch == -1) {
+            // -> Yes, so the name as is.
+            return destinationName;
+        }
+        // ?: Is this ActiveMQ?
+        if ((_activeMqSession_class != null) && _activeMqSession_class.isInstance(jmsSession)) {
+            // -> Yes, so employ the Destination Option.
+            return destinationName + "?consumer.prefetchSize=" + prefetch;
+        }
+        // E-> Not ActiveMQ, so we do not know how to set it.
+        if (!_prefetchUnsupportedLogged) {
+            _prefetchUnsupportedLogged = true;
+            log.info("Cannot set per-stage prefetch on a consumer from Session [" + jmsSession.getClass().getName()
+                    + "], as it is not ActiveMQ - configure prefetch on the JMS ConnectionFactory instead.");
+        }
+        return destinationName;
+    }
+
+    /**
+     * Asks the broker to delay the delivery of the message. For ActiveMQ, the {@code AMQ_SCHEDULED_DELAY} property is
+     * set, which the broker's scheduler effectuates if it is enabled - if not, the property is ignored and the message
+     * is delivered right away. For other brokers, nothing is done. In either case, the receiver parks a message that
+     * arrives before its time on a broker queue, so the delay is honored also without a scheduler - read more at
+     * {@link JmsMatsDelayedDelivery}.
+     *
+     * @param jmsSession
+     *            the Session that the message will be sent on.
+     * @param message
+     *            the message to delay.
+     * @param delayMillis
+     *            the delay - nothing is done if not positive.
+     * @throws JMSException
+     *             if setting the property raised.
+     */
+    public static void setScheduledDelivery(Session jmsSession, Message message, long delayMillis)
+            throws JMSException {
+        // ?: Is there a delay, and is this ActiveMQ?
+        if ((delayMillis > 0) && (_activeMqSession_class != null) && _activeMqSession_class.isInstance(jmsSession)) {
+            // -> Yes, so employ the broker's scheduler.
+            message.setLongProperty(ACTIVEMQ_SCHEDULED_DELAY_PROPERTY, delayMillis);
+        }
+    }
+
+    /**
+     * Samples the number of messages on the specified queue, used for initiator backpressure. For ActiveMQ, the
+     * broker's "Statistics Plugin" is asked, if it is installed on the broker (probed once). Otherwise, the messages
+     * are counted using a {@link QueueBrowser} on the provided Session, up to the provided cap - so that a deep queue
+     * does not make the sampling itself expensive.
+     *
+     * @param jmsSession
+     *            the Session to browse the queue with (may be transacted), or get the Connection from.
+     * @param queueName
+     *            the full name of the queue, i.e. including the Mats destination prefix.
+     * @param cap
+     *            the max number of messages to count when browsing - the returned depth is at most this if browsing.
+     * @return the number of messages on the queue, <code>0</code> if the queue does not exist.
+     * @throws JmsMatsJmsException
+     *             if the JMS operations raised.
+     */
+    public static long getQueueDepth(Session jmsSession, String queueName, long cap) throws JmsMatsJmsException {
+        // ?: Is this ActiveMQ, and is the Statistics Plugin not known to be unavailable?
+        if ((_activeMqSession_class != null) && _activeMqSession_class.isInstance(jmsSession)
+                && (!Boolean.FALSE.equals(_activeMqStatisticsPluginAvailable))) {
+            // -> Yes, so try to ask the Statistics Plugin.
+            Long depth = activeMqStatisticsQueueDepth(jmsSession, queueName);
+            // ?: Did we get the depth?
+            if (depth != null) {
+                // -> Yes, so return that.
+                return depth;
+            }
+            // E-> The plugin is not available, so fall back to browsing.
+        }
+        return browseQueueDepth(jmsSession, queueName, cap);
+    }
+
+    /**
+     * @return the depth of the queue from the ActiveMQ Statistics Plugin, <code>null</code> if the plugin is not
+     *         installed on the broker.
+     */
+    private static Long activeMqStatisticsQueueDepth(Session jmsSession, String queueName)
+            throws JmsMatsJmsException {
+        Connection jmsConnection;
+        try {
+            jmsConnection = (Connection) _activeMqSession_getConnection.invoke(jmsSession);
+        }
+        catch (IllegalAccessException | InvocationTargetException e) {
+            log.warn("Invoking ActiveMQSession.getConnection() raised exception, which is not expected: Report a bug"
+                    + " on Mats! Falling back to browsing for queue depth.", e);
+            _activeMqStatisticsPluginAvailable = Boolean.FALSE;
+            return null;
+        }
+        // Non-transacted, as the request must be sent right away - and not interfere with the Mats transaction.
+        Session statisticsSession = null;
+        try {
+            statisticsSession = jmsConnection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            // ?: Have we probed whether the plugin is installed?
+            if (_activeMqStatisticsPluginAvailable == null) {
+                // -> No, so probe using the broker statistics, which always answers if the plugin is installed.
+                boolean available = activeMqStatisticsRequest(statisticsSession,
+                        ACTIVEMQ_STATISTICS_BROKER_DESTINATION) != null;
+                log.info("Probed ActiveMQ for the Statistics Plugin, for sampling queue depths: "
+                        + (available ? "Available." : "NOT available, falling back to browsing queues."));
+                _activeMqStatisticsPluginAvailable = available;
+                if (!available) {
+                    return null;
+                }
+            }
+            MapMessage reply = activeMqStatisticsRequest(statisticsSession,
+                    ACTIVEMQ_STATISTICS_DESTINATION_PREFIX + queueName);
+            // No reply from an installed plugin means that the queue does not exist.
+            return reply == null ? 0L : reply.getLong("size");
+        }
+        catch (JMSException e) {
+            throw new JmsMatsJmsException("Got JMSException when asking the ActiveMQ Statistics Plugin for the depth"
+                    + " of queue [" + queueName + "].", e);
+        }
+        finally {
+            closeSession(statisticsSession);
+        }
+    }
+
+    private static MapMessage activeMqStatisticsRequest(Session statisticsSession, String statisticsDestination)
+            throws JMSException {
+        TemporaryQueue replyQueue = statisticsSession.createTemporaryQueue();
+        MessageConsumer replyConsumer = statisticsSession.createConsumer(replyQueue);
+        try {
+            MessageProducer producer = statisticsSession.createProducer(statisticsSession.createQueue(
+                    statisticsDestination));
+            Message request = statisticsSession.createMessage();
+            request.setJMSReplyTo(replyQueue);
+            producer.send(request);
+            producer.close();
+            Message reply = replyConsumer.receive(ACTIVEMQ_STATISTICS_REPLY_TIMEOUT_MILLIS);
+            return reply instanceof MapMessage ? (MapMessage) reply : null;
+        }
+        finally {
+            replyConsumer.close();
+            replyQueue.delete();
+        }
+    }
+
+    private static long browseQueueDepth(Session jmsSession, String queueName, long cap) throws JmsMatsJmsException {
+        try {
+            Queue queue = jmsSession.createQueue(queueName);
+            QueueBrowser browser = jmsSession.createBrowser(queue);
+            try {
+                Enumeration<?> messages = browser.getEnumeration();
+                long depth = 0;
+                while ((depth < cap) && messages.hasMoreElements()) {
+                    messages.nextElement();
+                    depth++;
+                }
+                return depth;
+            }
+            finally {
+                browser.close();
+            }
+        }
+        catch (JMSException e) {
+            throw new JmsMatsJmsException("Got JMSException when browsing queue [" + queueName + "] for its depth.",
+                    e);
+        }
+    }
+
+    private static void closeSession(Session session) {
+        if (session != null) {
+            try {
+                session.close();
+            }
+            catch (JMSException e) {
+                log.warn("Got JMSException when closing the Session used for queue depth sampling. Ignoring.", e);
+            }
+        }
+    }
+
     @FunctionalInterface
     interface JmsMatsJmsExceptionThrowingRunnable {
         void run() throws JmsMatsJmsException;
@@ -1,12 +1,16 @@
 package com.stolsvik.mats.impl.jms;
 
 import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 import java.util.function.Supplier;
 
 import javax.jms.MessageConsumer;
 
+import com.stolsvik.mats.MatsConfig.LifecycleLogging;
 import com.stolsvik.mats.impl.jms.JmsMatsJmsSessionHandler.JmsSessionHolder;
+import com.stolsvik.mats.impl.jms.JmsMatsLocalDelivery.LocalMessage;
 
 /**
  * This is an internal context object, for the processing in JMS-MATS. This is used to communicate back and forth
@@ -36,6 +40,103 @@ public class JmsMatsMessageContext {
         return Optional.ofNullable(_messageConsumer);
     }
 
+    private boolean _lifecycleLogging = true;
+
+    /**
+     * Set by the {@link JmsMatsStageProcessor} or {@link JmsMatsInitiator} when starting on a message or initiation,
+     * according to the {@link LifecycleLogging} policy in effect: Whether the per-message lifecycle log lines
+     * (RECEIVED, PRODUCED, SENT, PROCESSED) shall be output for this message.
+     */
+    void setLifecycleLogging(boolean lifecycleLogging) {
+        _lifecycleLogging = lifecycleLogging;
+    }
+
+    /**
+     * @return whether the per-message lifecycle log lines shall be output for this message.
+     */
+    boolean isLifecycleLogging() {
+        return _lifecycleLogging;
+    }
+
+    // Lazily created, as most messages are not locally delivered.
+    private List<JmsMatsLocalDelivery> _localDeliveries;
+    private List<LocalMessage> _localMessages;
+
+    /**
+     * Registers a message for local delivery, for which a slot is already reserved in the {@link JmsMatsLocalDelivery}
+     * - it will be handed off by {@link #handoffLocalDeliveries()} when the transaction has committed.
+     */
+    void addLocalDelivery(JmsMatsLocalDelivery localDelivery, LocalMessage localMessage) {
+        if (_localDeliveries == null) {
+            _localDeliveries = new ArrayList<>();
+            _localMessages = new ArrayList<>();
+        }
+        _localDeliveries.add(localDelivery);
+        _localMessages.add(localMessage);
+    }
+
+    /**
+     * Invoked when the transaction has committed: Hands off the messages for local delivery.
+     */
+    void handoffLocalDeliveries() {
+        if (_localDeliveries == null) {
+            return;
+        }
+        for (int i = 0; i < _localDeliveries.size(); i++) {
+            _localDeliveries.get(i).handoff(_localMessages.get(i));
+        }
+        _localDeliveries = null;
+        _localMessages = null;
+    }
+
+    /**
+     * Invoked when the transaction did not commit, and in a finally-block after {@link #handoffLocalDeliveries()}:
+     * Releases the slots reserved for any messages that were not handed off, i.e. they are never delivered - just as
+     * messages sent to the broker within a rolled back transaction.
+     */
+    void releaseLocalDeliveries() {
+        if (_localDeliveries == null) {
+            return;
+        }
+        for (int i = 0; i < _localDeliveries.size(); i++) {
+            _localDeliveries.get(i).release();
+        }
+        _localDeliveries = null;
+        _localMessages = null;
+    }
+
+    private DuplicateSuppressionStore _duplicateSuppressionStore;
+
+    /**
+     * Set by a {@link JmsMatsTransactionManager} which can record the processed <code>MatsMessageId</code>s within
+     * its transaction, for stages with duplicate suppression enabled.
+     */
+    public void setDuplicateSuppressionStore(DuplicateSuppressionStore duplicateSuppressionStore) {
+        _duplicateSuppressionStore = duplicateSuppressionStore;
+    }
+
+    Optional<DuplicateSuppressionStore> getDuplicateSuppressionStore() {
+        return Optional.ofNullable(_duplicateSuppressionStore);
+    }
+
+    /**
+     * A transactional store of processed <code>MatsMessageId</code>s, which the {@link JmsMatsStageProcessor} consults
+     * (after its in-memory cache) for stages with duplicate suppression enabled. Both methods are invoked within the
+     * transaction, so that the id is recorded atomically with the processing.
+     */
+    public interface DuplicateSuppressionStore {
+        /**
+         * @return whether the message with the specified <code>MatsMessageId</code> has already been processed by the
+         *         specified stage.
+         */
+        boolean isProcessed(String stageId, String matsMessageId);
+
+        /**
+         * Records that the message with the specified <code>MatsMessageId</code> is processed by the specified stage.
+         */
+        void markProcessed(String stageId, String matsMessageId);
+    }
+
     private Supplier<Connection> _sqlConnectionSupplier;
 
     /**
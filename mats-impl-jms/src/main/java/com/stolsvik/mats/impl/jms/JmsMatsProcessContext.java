@@ -2,17 +2,25 @@ package com.stolsvik.mats.impl.jms;
 
 import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.function.Supplier;
 
+import javax.jms.JMSException;
+import javax.jms.MapMessage;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
 
+import com.stolsvik.mats.MatsEndpoint.EndpointConfig;
 import com.stolsvik.mats.MatsEndpoint.ProcessContext;
 import com.stolsvik.mats.MatsInitiator.InitiateLambda;
+import com.stolsvik.mats.MatsInitiator.MatsBackendRuntimeException;
 import com.stolsvik.mats.MatsInitiator.MatsInitiate;
 import com.stolsvik.mats.MatsInitiator.MessageReference;
 import com.stolsvik.mats.MatsStage;
@@ -46,8 +54,7 @@ public class JmsMatsProcessContext<R, S, Z> implements ProcessContext<R>, JmsMat
     private final int _mtSerLength; // The reason for having this separate, is when unstashing: Length != entire thing.
     private final String _incomingSerializedMatsTraceMeta;
     private final MatsTrace<Z> _incomingMatsTrace;
-    private final LinkedHashMap<String, byte[]> _incomingBinaries;
-    private final LinkedHashMap<String, String> _incomingStrings;
+    private final IncomingSideloads _incomingSideloads;
     private final S _incomingAndOutgoingState;
     private final Supplier<MatsInitiate> _initiateSupplier;
     private final List<JmsMatsMessage<Z>> _messagesToSend;
@@ -62,6 +69,23 @@ public class JmsMatsProcessContext<R, S, Z> implements ProcessContext<R>, JmsMat
     private final LinkedHashMap<String, Object> _outgoingProps;
     private final LinkedHashMap<String, byte[]> _outgoingBinaries = new LinkedHashMap<>();
     private final LinkedHashMap<String, String> _outgoingStrings = new LinkedHashMap<>();
+    // The partition key of the outgoing messages: The incoming, unless changed by the stage.
+    private String _outgoingPartitionKey;
+    // The serialized reply DTO, if replied - for the reply cache.
+    private Z _serializedReply;
+
+    // Incoming, if this is the gather stage of a scatter: The serialized replies by index, their count, and whether
+    // the gather timed out.
+    private Map<Integer, Object> _gatheredReplies;
+    private int _gatheredCount;
+    private boolean _gatherTimedOut;
+
+    // Incoming, if this is a chunk of a streamed reply: Its sequence number (-1 if not a chunk), and whether last.
+    private final int _incomingChunkSequence;
+    private final boolean _incomingLastChunk;
+    // Outgoing, if replying in chunks: The sequence number of the next chunk, and whether the last has been sent.
+    private int _outgoingChunkSequence;
+    private boolean _outgoingLastChunkSent;
 
     JmsMatsProcessContext(JmsMatsFactory<Z> parentFactory,
             String endpointId,
@@ -72,7 +96,7 @@ public class JmsMatsProcessContext<R, S, Z> implements ProcessContext<R>, JmsMat
             String incomingSerializedMatsTraceMeta,
             MatsTrace<Z> incomingMatsTrace, S incomingAndOutgoingState,
             Supplier<MatsInitiate> initiateSupplier,
-            LinkedHashMap<String, byte[]> incomingBinaries, LinkedHashMap<String, String> incomingStrings,
+            IncomingSideloads incomingSideloads,
             List<JmsMatsMessage<Z>> out_messagesToSend,
             JmsMatsMessageContext jmsMatsMessageContext,
             LinkedHashMap<String, Object> outgoingProps,
@@ -89,14 +113,33 @@ public class JmsMatsProcessContext<R, S, Z> implements ProcessContext<R>, JmsMat
         _mtSerLength = mtSerLength;
         _incomingSerializedMatsTraceMeta = incomingSerializedMatsTraceMeta;
         _incomingMatsTrace = incomingMatsTrace;
-        _incomingBinaries = incomingBinaries;
-        _incomingStrings = incomingStrings;
+        _incomingSideloads = incomingSideloads;
         _incomingAndOutgoingState = incomingAndOutgoingState;
         _initiateSupplier = initiateSupplier;
         _messagesToSend = out_messagesToSend;
         _jmsMatsMessageContext = jmsMatsMessageContext;
         _outgoingProps = outgoingProps;
         _doAfterCommitRunnableHolder = doAfterCommitRunnableHolder;
+        _outgoingPartitionKey = incomingMatsTrace.getPartitionKey();
+
+        // :: Pick out any reply chunk trace property
+        MatsSerializer<Z> matsSerializer = parentFactory.getMatsSerializer();
+        Z serializedChunkProperty = incomingMatsTrace.getTraceProperty(TRACE_PROP_CHUNK);
+        String chunkProperty = serializedChunkProperty != null
+                ? matsSerializer.deserializeObject(serializedChunkProperty, String.class)
+                : null;
+        // ?: Is the incoming message a reply chunk?
+        if (chunkProperty != null) {
+            // -> Yes, so parse it, and clear it for the rest of the flow, as it only pertains to this reply.
+            int colon = chunkProperty.indexOf(':');
+            _incomingChunkSequence = Integer.parseInt(chunkProperty.substring(0, colon));
+            _incomingLastChunk = Boolean.parseBoolean(chunkProperty.substring(colon + 1));
+            incomingMatsTrace.setTraceProperty(TRACE_PROP_CHUNK, matsSerializer.serializeObject(null));
+        }
+        else {
+            _incomingChunkSequence = -1;
+            _incomingLastChunk = false;
+        }
     }
 
     /**
@@ -109,6 +152,25 @@ public class JmsMatsProcessContext<R, S, Z> implements ProcessContext<R>, JmsMat
             _doAfterCommit = runnable;
         }
 
+        /**
+         * Appends any Runnable of the other holder, to be run after this holder's - used for fused stages.
+         */
+        void chain(DoAfterCommitRunnableHolder other) {
+            Runnable first = _doAfterCommit;
+            Runnable second = other._doAfterCommit;
+            // ?: Does the other have a Runnable?
+            if (second == null) {
+                // -> No, so nothing to chain.
+                return;
+            }
+            _doAfterCommit = first == null
+                    ? second
+                    : () -> {
+                        first.run();
+                        second.run();
+                    };
+        }
+
         public void runDoAfterCommitIfAny() {
             if (_doAfterCommit != null) {
                 _doAfterCommit.run();
@@ -116,6 +178,75 @@ public class JmsMatsProcessContext<R, S, Z> implements ProcessContext<R>, JmsMat
         }
     }
 
+    /**
+     * The incoming "sideloads" - the byte arrays and Strings {@link ProcessContext#addBytes(String, byte[]) added} to
+     * the incoming message. When received via JMS, they are read from the MapMessage only when accessed, so that large
+     * sideloads which the stage does not look at are never copied.
+     */
+    static class IncomingSideloads {
+        static final IncomingSideloads NONE = new IncomingSideloads(null, null, null,
+                Collections.emptyMap(), Collections.emptyMap());
+
+        private final MapMessage _mapMessage;
+        private final String _matsTraceKey;
+        private final String _matsTraceMetaKey;
+        private final Map<String, byte[]> _bytes;
+        private final Map<String, String> _strings;
+
+        private IncomingSideloads(MapMessage mapMessage, String matsTraceKey, String matsTraceMetaKey,
+                Map<String, byte[]> bytes, Map<String, String> strings) {
+            _mapMessage = mapMessage;
+            _matsTraceKey = matsTraceKey;
+            _matsTraceMetaKey = matsTraceMetaKey;
+            _bytes = bytes;
+            _strings = strings;
+        }
+
+        /**
+         * Sideloads read lazily from the JMS MapMessage, where the MatsTrace and its meta are not sideloads.
+         */
+        static IncomingSideloads fromMapMessage(MapMessage mapMessage, String matsTraceKey, String matsTraceMetaKey) {
+            return new IncomingSideloads(mapMessage, matsTraceKey, matsTraceMetaKey, null, null);
+        }
+
+        /**
+         * Sideloads already in Maps, e.g. from an outgoing message processed inline.
+         */
+        static IncomingSideloads fromMaps(Map<String, byte[]> bytes, Map<String, String> strings) {
+            return new IncomingSideloads(null, null, null, bytes, strings);
+        }
+
+        byte[] getBytes(String key) {
+            Object value = get(key);
+            return value instanceof byte[] ? (byte[]) value : null;
+        }
+
+        String getString(String key) {
+            Object value = get(key);
+            return value instanceof String ? (String) value : null;
+        }
+
+        private Object get(String key) {
+            // ?: Are the sideloads in Maps?
+            if (_mapMessage == null) {
+                // -> Yes, so get from them.
+                byte[] bytes = _bytes.get(key);
+                return bytes != null ? bytes : _strings.get(key);
+            }
+            // E-> Read from the MapMessage, but the MatsTrace and its meta are not sideloads.
+            if (key.equals(_matsTraceKey) || key.equals(_matsTraceMetaKey)) {
+                return null;
+            }
+            try {
+                return _mapMessage.getObject(key);
+            }
+            catch (JMSException e) {
+                throw new MatsBackendRuntimeException("Got JMSException when getting sideload [" + key
+                        + "] from the MapMessage by using mapMessage.getObject(..).", e);
+            }
+        }
+    }
+
     @Override
     public String getStageId() {
         return _stageId;
@@ -151,6 +282,40 @@ public class JmsMatsProcessContext<R, S, Z> implements ProcessContext<R>, JmsMat
         return _incomingMatsTrace.isNoAudit();
     }
 
+    @Override
+    public long getDeadline() {
+        return _incomingMatsTrace.getDeadline();
+    }
+
+    @Override
+    public long getRemainingMillisToDeadline() {
+        long deadline = _incomingMatsTrace.getDeadline();
+        return deadline != 0 ? deadline - System.currentTimeMillis() : Long.MAX_VALUE;
+    }
+
+    @Override
+    public String getPartitionKey() {
+        return _incomingMatsTrace.getPartitionKey();
+    }
+
+    @Override
+    public void setPartitionKey(String partitionKey) {
+        if ((partitionKey != null) && partitionKey.isEmpty()) {
+            throw new IllegalArgumentException("partitionKey must be null or non-empty");
+        }
+        _outgoingPartitionKey = partitionKey;
+    }
+
+    @Override
+    public int getChunkSequence() {
+        return _incomingChunkSequence;
+    }
+
+    @Override
+    public boolean isLastChunk() {
+        return _incomingLastChunk;
+    }
+
     @Override
     public String toString() {
         return _incomingMatsTrace.toString();
@@ -168,12 +333,12 @@ public class JmsMatsProcessContext<R, S, Z> implements ProcessContext<R>, JmsMat
 
     @Override
     public byte[] getBytes(String key) {
-        return _incomingBinaries.get(key);
+        return _incomingSideloads.getBytes(key);
     }
 
     @Override
     public String getString(String key) {
-        return _incomingStrings.get(key);
+        return _incomingSideloads.getString(key);
     }
 
     @Override
@@ -319,13 +484,15 @@ public class JmsMatsProcessContext<R, S, Z> implements ProcessContext<R>, JmsMat
                 endpointId, MessagingModel.QUEUE,
                 _nextStageId, MessagingModel.QUEUE,
                 matsSerializer.serializeObject(requestDto),
-                matsSerializer.serializeObject(_incomingAndOutgoingState), null);
+                matsSerializer.serializeObject(_incomingAndOutgoingState), null)
+                .withPartitionKey(_outgoingPartitionKey);
 
         String matsMessageId = addDebugInfoToCurrentCall(requestMatsTrace);
 
         // Produce the REQUEST JmsMatsMessage to send
-        JmsMatsMessage<Z> request = produceJmsMatsMessage(log, nanosStart, _parentFactory.getMatsSerializer(),
-                requestMatsTrace, _outgoingProps, _outgoingBinaries, _outgoingStrings, "REQUEST",
+        JmsMatsMessage<Z> request = produceJmsMatsMessage(log, _jmsMatsMessageContext.isLifecycleLogging(),
+                nanosStart, _parentFactory.getMatsSerializer(), requestMatsTrace,
+                _outgoingProps, _outgoingBinaries, _outgoingStrings, "REQUEST",
                 _parentFactory.getFactoryConfig().getName());
         _messagesToSend.add(request);
 
@@ -348,10 +515,157 @@ public class JmsMatsProcessContext<R, S, Z> implements ProcessContext<R>, JmsMat
         return matsMessageId;
     }
 
+    @Override
+    public List<MessageReference> scatter(String endpointId, List<?> requestDtos, long timeoutMillis) {
+        if (requestDtos.isEmpty()) {
+            throw new IllegalArgumentException("requestDtos must not be empty.");
+        }
+        if (timeoutMillis < 1) {
+            throw new IllegalArgumentException("timeoutMillis must be >= 1, was [" + timeoutMillis + "].");
+        }
+        // :: Assert that we have a next-stage
+        if (_nextStageId == null) {
+            throw new IllegalStateException("Stage [" + _stageId
+                    + "] invoked context.scatter(..), but there is no next stage to gather the replies.");
+        }
+        String gatherId = "g_" + randomString(20);
+        int count = requestDtos.size();
+        _parentFactory.getEndpoint(_endpointId).get().getEndpointConfig().getScatterGatherStore()
+                .begin(gatherId, count, timeoutMillis);
+
+        // :: Send the requests, each with the correlating trace property. (The props apply to the next message only.)
+        String propertyName = TRACE_PROP_SCATTER_GATHER_PREFIX + _nextStageId;
+        List<MessageReference> messageReferences = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            _outgoingProps.put(propertyName, gatherId + ':' + i + ':' + count);
+            messageReferences.add(request(endpointId, requestDtos.get(i)));
+        }
+        // :: Send the timeout, as a delayed next to the gather stage.
+        _outgoingProps.put(propertyName, gatherId + ":-1:" + count);
+        nextDelayed(null, timeoutMillis);
+
+        log.info(LOG_PREFIX + "Stage [" + _stageId + "] scattered [" + count + "] requests to [" + endpointId
+                + "], gathered by [" + _nextStageId + "] as gatherId [" + gatherId + "], timeout in ["
+                + timeoutMillis + " ms].");
+        return messageReferences;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> List<T> getGatheredReplies(Class<T> replyClass) throws IllegalStateException {
+        // ?: Is this the gather stage of a scatter?
+        if (_gatheredReplies == null) {
+            // -> No, so there is nothing to get.
+            throw new IllegalStateException("Stage [" + _stageId + "] is not invoked as the gather stage of a"
+                    + " scatter, so there are no gathered replies.");
+        }
+        MatsSerializer<Z> matsSerializer = _parentFactory.getMatsSerializer();
+        List<T> replies = new ArrayList<>(_gatheredCount);
+        for (int i = 0; i < _gatheredCount; i++) {
+            Z serializedReply = (Z) _gatheredReplies.get(i);
+            replies.add(serializedReply == null
+                    ? null
+                    : matsSerializer.deserializeObject(serializedReply, replyClass));
+        }
+        return replies;
+    }
+
+    @Override
+    public boolean isGatherTimedOut() {
+        return _gatherTimedOut;
+    }
+
+    /**
+     * Invoked by the StageProcessor when this is the gather stage of a scatter, and the gather is complete or timed
+     * out - read more at {@link ProcessContext#scatter(String, List, long)}.
+     */
+    void setGathered(String propertyName, Map<Integer, Object> serializedReplies, int count, boolean timedOut) {
+        _gatheredReplies = serializedReplies;
+        _gatheredCount = count;
+        _gatherTimedOut = timedOut;
+        // Clear the correlating trace property for the rest of the flow, as this gather is done.
+        _incomingMatsTrace.setTraceProperty(propertyName, _parentFactory.getMatsSerializer().serializeObject(null));
+    }
+
     @Override
     public MessageReference reply(Object replyDto) {
         long nanosStart = System.nanoTime();
+        // ?: Has the stage already replied in chunks?
+        if (_outgoingChunkSequence > 0) {
+            // -> Yes, and mixing is not legal, as the requester would then get an ordinary reply amid the chunks.
+            throw new IllegalStateException("Stage [" + _stageId + "] invoked context.reply(..), but has already"
+                    + " invoked context.replyChunk(..).");
+        }
+        // ?: Is there anyone to reply to?
+        if (isReplyToVoid()) {
+            // -> No, so no-op.
+            return new MessageReferenceImpl(REPLY_TO_VOID);
+        }
+        // Hold on to the serialized reply, for any reply cache.
+        _serializedReply = _parentFactory.getMatsSerializer().serializeObject(replyDto);
+        return produceReply(nanosStart, _serializedReply);
+    }
 
+    @Override
+    public MessageReference replyChunk(Object chunkDto, boolean last) {
+        long nanosStart = System.nanoTime();
+        // ?: Has the last chunk already been sent?
+        if (_outgoingLastChunkSent) {
+            // -> Yes, so there shall be no more chunks.
+            throw new IllegalStateException("Stage [" + _stageId + "] invoked context.replyChunk(..), but the last"
+                    + " chunk has already been sent.");
+        }
+        // ?: Has the stage already replied ordinarily?
+        if (_replySent != null) {
+            // -> Yes, and mixing is not legal, as the requester has then already gotten its reply.
+            throw new IllegalStateException("Stage [" + _stageId + "] invoked context.replyChunk(..), but has"
+                    + " already invoked context.reply(..).");
+        }
+        int sequence = _outgoingChunkSequence++;
+        // ?: Is this the last chunk?
+        if (last) {
+            // -> Yes, so the reply is now complete - which context.reply(..) will complain about, as for a reply.
+            _outgoingLastChunkSent = true;
+            _replySent = new RuntimeException("PREVIOUS REPLY STACKTRACE");
+        }
+        // :: Short-circuit the chunk (to no-op) if there is nothing on the stack to reply to, as for context.reply(..)
+        if (_incomingMatsTrace.getCurrentCall().getStack().isEmpty()) {
+            // ?: Is this the first chunk?
+            if (sequence == 0) {
+                // -> Yes, so log it, once.
+                log.info(LOG_PREFIX + "Stage [" + _stageId + "] invoked context.replyChunk(..), but there are no"
+                        + " elements on the stack, hence no one to reply to, ignoring.");
+            }
+            return new MessageReferenceImpl(REPLY_TO_VOID);
+        }
+        // The trace property applies to this reply only, and is cleared by the receiving stage.
+        _outgoingProps.put(TRACE_PROP_CHUNK, sequence + ":" + last);
+        return produceReply(nanosStart, _parentFactory.getMatsSerializer().serializeObject(chunkDto));
+    }
+
+    /**
+     * Replies with an already serialized reply DTO, i.e. from the endpoint's reply cache - read more at
+     * {@link EndpointConfig#setReplyCache(int, long)}.
+     */
+    MessageReference replySerialized(Z serializedReplyDto) {
+        long nanosStart = System.nanoTime();
+        // ?: Is there anyone to reply to?
+        if (isReplyToVoid()) {
+            // -> No, so no-op.
+            return new MessageReferenceImpl(REPLY_TO_VOID);
+        }
+        return produceReply(nanosStart, serializedReplyDto);
+    }
+
+    /**
+     * @return the serialized reply DTO if {@link #reply(Object)} was invoked (with someone to reply to), otherwise
+     *         <code>null</code>.
+     */
+    Z getSerializedReply() {
+        return _serializedReply;
+    }
+
+    private boolean isReplyToVoid() {
         /*
          * Sending reply more than once is NOT LEGAL, but has never been enforced. Therefore, for now currently just log
          * hard, and then at a later time throw IllegalStateException or some such. -2020-01-09.
@@ -374,19 +688,22 @@ public class JmsMatsProcessContext<R, S, Z> implements ProcessContext<R>, JmsMat
             // is legal.
             log.info(LOG_PREFIX + "Stage [" + _stageId + "] invoked context.reply(..), but there are no elements"
                     + " on the stack, hence no one to reply to, ignoring.");
-            return new MessageReferenceImpl(REPLY_TO_VOID);
+            return true;
         }
+        return false;
+    }
 
+    private MessageReference produceReply(long nanosStart, Z serializedReplyDto) {
         // :: Create next MatsTrace
-        MatsSerializer<Z> matsSerializer = _parentFactory.getMatsSerializer();
-        MatsTrace<Z> replyMatsTrace = _incomingMatsTrace.addReplyCall(_stageId,
-                matsSerializer.serializeObject(replyDto));
+        MatsTrace<Z> replyMatsTrace = _incomingMatsTrace.addReplyCall(_stageId, serializedReplyDto)
+                .withPartitionKey(_outgoingPartitionKey);
 
         String matsMessageId = addDebugInfoToCurrentCall(replyMatsTrace);
 
         // Produce the REPLY JmsMatsMessage to send
-        JmsMatsMessage<Z> reply = produceJmsMatsMessage(log, nanosStart, _parentFactory.getMatsSerializer(),
-                replyMatsTrace, _outgoingProps, _outgoingBinaries, _outgoingStrings, "REPLY",
+        JmsMatsMessage<Z> reply = produceJmsMatsMessage(log, _jmsMatsMessageContext.isLifecycleLogging(),
+                nanosStart, _parentFactory.getMatsSerializer(), replyMatsTrace,
+                _outgoingProps, _outgoingBinaries, _outgoingStrings, "REPLY",
                 _parentFactory.getFactoryConfig().getName());
         _messagesToSend.add(reply);
 
@@ -395,6 +712,14 @@ public class JmsMatsProcessContext<R, S, Z> implements ProcessContext<R>, JmsMat
 
     @Override
     public MessageReference next(Object incomingDto) {
+        return nextDelayed(incomingDto, 0);
+    }
+
+    @Override
+    public MessageReference nextDelayed(Object incomingDto, long delayMillis) {
+        if (delayMillis < 0) {
+            throw new IllegalArgumentException("delayMillis must be >= 0");
+        }
         long nanosStart = System.nanoTime();
         // :: Assert that we have a next-stage
         if (_nextStageId == null) {
@@ -405,14 +730,19 @@ public class JmsMatsProcessContext<R, S, Z> implements ProcessContext<R>, JmsMat
         // :: Create next (heh!) MatsTrace
         MatsSerializer<Z> matsSerializer = _parentFactory.getMatsSerializer();
         MatsTrace<Z> nextMatsTrace = _incomingMatsTrace.addNextCall(_stageId, _nextStageId,
-                matsSerializer.serializeObject(incomingDto), matsSerializer.serializeObject(_incomingAndOutgoingState));
+                matsSerializer.serializeObject(incomingDto), matsSerializer.serializeObject(_incomingAndOutgoingState))
+                .withPartitionKey(_outgoingPartitionKey);
 
         String matsMessageId = addDebugInfoToCurrentCall(nextMatsTrace);
 
         // Produce the NEXT JmsMatsMessage to send
-        JmsMatsMessage<Z> next = produceJmsMatsMessage(log, nanosStart, _parentFactory.getMatsSerializer(),
-                nextMatsTrace, _outgoingProps, _outgoingBinaries, _outgoingStrings, "NEXT",
+        JmsMatsMessage<Z> next = produceJmsMatsMessage(log, _jmsMatsMessageContext.isLifecycleLogging(),
+                nanosStart, _parentFactory.getMatsSerializer(), nextMatsTrace,
+                _outgoingProps, _outgoingBinaries, _outgoingStrings, "NEXT",
                 _parentFactory.getFactoryConfig().getName());
+        if (delayMillis > 0) {
+            next.setDeliverAtMillis(System.currentTimeMillis() + delayMillis);
+        }
         _messagesToSend.add(next);
 
         return new MessageReferenceImpl(matsMessageId);
@@ -0,0 +1,70 @@
+package com.stolsvik.mats.impl.jms;
+
+import com.stolsvik.mats.MatsStage.StageConfig;
+
+/**
+ * Per-{@link JmsMatsStage} token bucket, employed by the {@link JmsMatsStageProcessor}s to wait before receiving a
+ * message when the stage's rate limit is exceeded - read more at {@link StageConfig#setRateLimit(double, int)}.
+ * <p/>
+ * The bucket is refilled continuously at the node's rate, and holds a single token, so that the processings are paced
+ * evenly - as strict external rate limits typically do not tolerate bursts. A taken token is <i>reserved</i> by the
+ * StageProcessor while it is in the receive: It is either {@link #consumed() consumed} when a message is received, or
+ * {@link #release() released} if the receive times out or the StageProcessor is stopped. Only one token may be
+ * reserved at a time, so that StageProcessors idling in the receive do not each hold a token, which would let a burst
+ * through when traffic resumes.
+ */
+class JmsMatsRateLimiter {
+    private double _tokens = 1;
+    private long _lastRefillNanos = System.nanoTime();
+    private boolean _reserved;
+
+    /**
+     * Tries to take, i.e. reserve, the token, allowing the StageProcessor to receive a message.
+     *
+     * @param messagesPerSecond
+     *            this node's rate, i.e. the configured rate divided by the number of nodes.
+     * @return <code>0</code> if the token was taken, otherwise the nanos until it presumably is available - the
+     *         StageProcessor should wait, and then ask again.
+     */
+    synchronized long tryAcquire(double messagesPerSecond) {
+        refill(messagesPerSecond);
+        // ?: Is the token reserved by another StageProcessor?
+        if (_reserved) {
+            // -> Yes, so ask again in a while - it is either consumed or released when that receive returns.
+            return Math.max(1L, (long) (1_000_000_000d / messagesPerSecond));
+        }
+        // ?: Is there a token?
+        if (_tokens >= 1d) {
+            // -> Yes, so reserve it.
+            _tokens -= 1d;
+            _reserved = true;
+            return 0;
+        }
+        // E-> No, so return how long until there is. (At least 1, as 0 means acquired.)
+        return Math.max(1L, (long) (((1d - _tokens) / messagesPerSecond) * 1_000_000_000d));
+    }
+
+    /**
+     * A message was received on the reserved token: The next token is available one interval from now, so that the
+     * processings are paced from when the messages are received, not from when the token was reserved.
+     */
+    synchronized void consumed() {
+        _reserved = false;
+        _tokens = 0;
+        _lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * The receive timed out, or the StageProcessor was stopped, so the reserved token is given back.
+     */
+    synchronized void release() {
+        _reserved = false;
+        _tokens = 1d;
+    }
+
+    private void refill(double messagesPerSecond) {
+        long now = System.nanoTime();
+        _tokens = Math.min(1d, _tokens + ((now - _lastRefillNanos) / 1_000_000_000d) * messagesPerSecond);
+        _lastRefillNanos = now;
+    }
+}
@@ -0,0 +1,80 @@
+package com.stolsvik.mats.impl.jms;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+
+import com.stolsvik.mats.MatsEndpoint.EndpointConfig;
+
+/**
+ * Per-{@link JmsMatsStage} bounded, TTL-based cache of serialized replies, employed by the
+ * {@link JmsMatsStageProcessor}s of a single-stage service to reply directly, without invoking the user lambda, when
+ * an identical request was recently processed - read more at {@link EndpointConfig#setReplyCache(int, long)}.
+ * <p/>
+ * The entries are kept in access order, so that eviction due to size is done from the least recently used. An entry
+ * is valid for the TTL from when it was put, and an expired entry is evicted when it is encountered.
+ * <p/>
+ * All methods are synchronized - also {@link #get(Object, long) get(..)}, as it reorders the access-ordered map. A
+ * reply is only put after the processing that produced it has committed, so a hit never returns a rolled back reply.
+ */
+class JmsMatsReplyCache<Z> {
+    private final JmsMatsStatistics _statistics;
+
+    // Access-ordered: Cache key -> cached reply.
+    private final LinkedHashMap<Object, CachedReply<Z>> _replies = new LinkedHashMap<>(16, 0.75f, true);
+
+    JmsMatsReplyCache(JmsMatsStatistics statistics) {
+        _statistics = statistics;
+    }
+
+    /**
+     * @return the serialized reply for the specified key if put within the TTL, otherwise <code>null</code>.
+     */
+    synchronized Z get(Object key, long ttlMillis) {
+        CachedReply<Z> cachedReply = _replies.get(key);
+        // ?: Did we have it?
+        if (cachedReply == null) {
+            // -> No, so miss.
+            return null;
+        }
+        // ?: Has it expired?
+        if ((System.nanoTime() - cachedReply._putNanos) > ttlMillis * 1_000_000L) {
+            // -> Yes, so evict it, and miss.
+            _replies.remove(key);
+            _statistics.recordReplyCacheEviction();
+            return null;
+        }
+        return cachedReply._serializedReply;
+    }
+
+    /**
+     * Puts the serialized reply for the specified key, evicting the least recently used entries if above the max
+     * number of entries. Invoked when the processing that produced the reply has committed.
+     */
+    synchronized void put(Object key, Z serializedReply, int maxEntries) {
+        _replies.put(key, new CachedReply<>(serializedReply, System.nanoTime()));
+        Iterator<Entry<Object, CachedReply<Z>>> it = _replies.entrySet().iterator();
+        while ((_replies.size() > maxEntries) && it.hasNext()) {
+            it.next();
+            it.remove();
+            _statistics.recordReplyCacheEviction();
+        }
+    }
+
+    /**
+     * @return the number of replies currently cached.
+     */
+    synchronized int size() {
+        return _replies.size();
+    }
+
+    private static final class CachedReply<Z> {
+        private final Z _serializedReply;
+        private final long _putNanos;
+
+        private CachedReply(Z serializedReply, long putNanos) {
+            _serializedReply = serializedReply;
+            _putNanos = putNanos;
+        }
+    }
+}
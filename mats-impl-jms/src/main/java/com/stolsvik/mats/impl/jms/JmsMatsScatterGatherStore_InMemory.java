@@ -0,0 +1,121 @@
+package com.stolsvik.mats.impl.jms;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.stolsvik.mats.MatsEndpoint.EndpointConfig;
+import com.stolsvik.mats.MatsEndpoint.ScatterGatherStore;
+
+/**
+ * The default {@link ScatterGatherStore}, holding the partial results of an endpoint's scatter-gathers in memory -
+ * which only works if the endpoint runs on a single node: Read more at
+ * {@link EndpointConfig#setScatterGatherStore(ScatterGatherStore)}.
+ * <p/>
+ * A gather is kept when it is removed, i.e. done, so that the late replies and the timeout are known to be for a done
+ * gather - and not for an unknown gather, which the StageProcessor refuses. It is forgotten when it is well past its
+ * timeout, as is a gather that is never removed - e.g. because the scattering stage's processing was rolled back after
+ * having begun it, or the timeout message was lost.
+ * <p/>
+ * The gathers are guarded by the instance's monitor, so that a gather either completes or times out, never both: Once
+ * timed out, replies are not added - and once complete, the timeout is moot. A gather's state only moves forward,
+ * from collecting, to complete or timed out, to done, to forgotten.
+ */
+class JmsMatsScatterGatherStore_InMemory implements ScatterGatherStore {
+    /**
+     * How long past its timeout a gather that is not removed is kept, before being forgotten.
+     */
+    static final long FORGET_AFTER_TIMEOUT_MILLIS = 5 * 60_000;
+
+    // How often the gathers are scanned for forgotten ones.
+    private static final long FORGET_SCAN_INTERVAL_MILLIS = 1_000;
+
+    private final Map<String, Gather> _gathers = new HashMap<>();
+
+    private long _lastForgetScanMillis = System.currentTimeMillis();
+
+    @Override
+    public synchronized void begin(String gatherId, int count, long timeoutMillis) {
+        long now = System.currentTimeMillis();
+        // ?: Is it time to scan for forgotten gathers?
+        if ((now - _lastForgetScanMillis) > FORGET_SCAN_INTERVAL_MILLIS) {
+            // -> Yes, so forget those well past their timeout.
+            _lastForgetScanMillis = now;
+            Iterator<Gather> it = _gathers.values().iterator();
+            while (it.hasNext()) {
+                if (it.next()._forgetAtMillis < now) {
+                    it.remove();
+                }
+            }
+        }
+        _gathers.put(gatherId, new Gather(count, now + timeoutMillis + FORGET_AFTER_TIMEOUT_MILLIS));
+    }
+
+    @Override
+    public synchronized Map<Integer, Object> addReply(String gatherId, int index, Object serializedReply) {
+        Gather gather = _gathers.get(gatherId);
+        // ?: Is the gather unknown, timed out, or done?
+        if ((gather == null) || gather._timedOut || gather._done) {
+            // -> Yes, so the reply is not wanted.
+            return null;
+        }
+        // Idempotent wrt. redelivery: A redelivered reply just overwrites itself.
+        gather._replies.put(index, serializedReply);
+        return gather.isComplete()
+                ? new TreeMap<>(gather._replies)
+                : null;
+    }
+
+    @Override
+    public synchronized Map<Integer, Object> timeout(String gatherId) {
+        Gather gather = _gathers.get(gatherId);
+        // ?: Is the gather unknown, complete, or done?
+        if ((gather == null) || gather.isComplete() || gather._done) {
+            // -> Yes, so the timeout is moot.
+            return null;
+        }
+        // Idempotent wrt. redelivery: Timing out again gives the same replies, as no more are added.
+        gather._timedOut = true;
+        return new TreeMap<>(gather._replies);
+    }
+
+    @Override
+    public synchronized void remove(String gatherId) {
+        Gather gather = _gathers.get(gatherId);
+        // ?: Is the gather known?
+        if (gather != null) {
+            // -> Yes, so mark it as done - it is forgotten when well past its timeout.
+            gather._done = true;
+        }
+    }
+
+    @Override
+    public synchronized boolean isKnown(String gatherId) {
+        return _gathers.containsKey(gatherId);
+    }
+
+    /**
+     * @return the number of gathers currently held, including the done ones not yet forgotten.
+     */
+    synchronized int size() {
+        return _gathers.size();
+    }
+
+    private static final class Gather {
+        private final int _count;
+        private final long _forgetAtMillis;
+        private final Map<Integer, Object> _replies = new HashMap<>();
+        private boolean _timedOut;
+        private boolean _done;
+
+        private Gather(int count, long forgetAtMillis) {
+            _count = count;
+            _forgetAtMillis = forgetAtMillis;
+        }
+
+        private boolean isComplete() {
+            return _replies.size() == _count;
+        }
+    }
+}
@@ -32,6 +32,24 @@ public class JmsMatsStage<R, S, I, Z> implements MatsStage<R, S, I>, JmsMatsStat
 
     private final JmsStageConfig _stageConfig = new JmsStageConfig();
 
+    private final JmsMatsStatistics _statistics = new JmsMatsStatistics();
+
+    private final JmsMatsLocalDelivery _localDelivery = new JmsMatsLocalDelivery();
+
+    private final JmsMatsDuplicateSuppression _duplicateSuppression = new JmsMatsDuplicateSuppression();
+
+    private final JmsMatsReplyCache<Z> _replyCache = new JmsMatsReplyCache<>(_statistics);
+
+    private final JmsMatsCircuitBreaker _circuitBreaker;
+
+    private final JmsMatsRateLimiter _rateLimiter = new JmsMatsRateLimiter();
+
+    /**
+     * The number of prefetched messages per queue-based stage that the default {@link StageConfig#getPrefetch()
+     * prefetch} is derived from: It is divided among the StageProcessors, but is at least 1 per consumer.
+     */
+    static final int DEFAULT_PREFETCH_PER_STAGE = 40;
+
     public JmsMatsStage(JmsMatsEndpoint<R, S, Z> parentEndpoint, String stageId, boolean queue,
             Class<I> incomingMessageClass, Class<S> stateClass, ProcessLambda<R, S, I> processLambda) {
         _parentEndpoint = parentEndpoint;
@@ -43,6 +61,8 @@ public class JmsMatsStage<R, S, I, Z> implements MatsStage<R, S, I>, JmsMatsStat
 
         _parentFactory = _parentEndpoint.getParentFactory();
 
+        _circuitBreaker = new JmsMatsCircuitBreaker(stageId);
+
         log.info(LOG_PREFIX + "Created Stage [" + id(_stageId, this) + "].");
     }
 
@@ -56,6 +76,11 @@ public class JmsMatsStage<R, S, I, Z> implements MatsStage<R, S, I>, JmsMatsStat
         return _parentEndpoint;
     }
 
+    @Override
+    public JmsMatsStatistics getStatistics() {
+        return _statistics;
+    }
+
     boolean isQueue() {
         return _queue;
     }
@@ -80,14 +105,21 @@ public class JmsMatsStage<R, S, I, Z> implements MatsStage<R, S, I>, JmsMatsStat
         return _anyProcessorMadeConsumerLatch;
     }
 
-    private String _nextStageId;
+    private JmsMatsStage<R, S, ?, Z> _nextStage;
+
+    void setNextStage(JmsMatsStage<R, S, ?, Z> nextStage) {
+        _nextStage = nextStage;
+    }
 
-    void setNextStageId(String nextStageId) {
-        _nextStageId = nextStageId;
+    /**
+     * @return the next stage of the endpoint, or <code>null</code> if this is the last stage.
+     */
+    JmsMatsStage<R, S, ?, Z> getNextStage() {
+        return _nextStage;
     }
 
     String getNextStageId() {
-        return _nextStageId;
+        return _nextStage == null ? null : _nextStage.getStageId();
     }
 
     String getStageId() {
@@ -96,11 +128,77 @@ public class JmsMatsStage<R, S, I, Z> implements MatsStage<R, S, I>, JmsMatsStat
 
     private final CopyOnWriteArrayList<JmsMatsStageProcessor<R, S, I, Z>> _stageProcessors = new CopyOnWriteArrayList<>();
 
+    // The StageProcessors picking locally delivered messages, lazily started upon the first local delivery.
+    private final CopyOnWriteArrayList<JmsMatsStageProcessor<R, S, I, Z>> _localStageProcessors =
+            new CopyOnWriteArrayList<>();
+
     /**
      * Called by the {@link JmsMatsStageProcessor} when its thread exists.
      */
     void removeStageProcessorFromList(JmsMatsStageProcessor<R, S, I, Z> stageProcessor) {
         _stageProcessors.remove(stageProcessor);
+        _localStageProcessors.remove(stageProcessor);
+    }
+
+    JmsMatsLocalDelivery getLocalDelivery() {
+        return _localDelivery;
+    }
+
+    JmsMatsDuplicateSuppression getDuplicateSuppression() {
+        return _duplicateSuppression;
+    }
+
+    JmsMatsCircuitBreaker getCircuitBreaker() {
+        return _circuitBreaker;
+    }
+
+    JmsMatsReplyCache<Z> getReplyCache() {
+        return _replyCache;
+    }
+
+    JmsMatsRateLimiter getRateLimiter() {
+        return _rateLimiter;
+    }
+
+    /**
+     * @return whether this node's StageProcessors for the stage are rate limited - read more at
+     *         {@link StageConfig#setRateLimit(double, int)}.
+     */
+    boolean isRateLimited() {
+        return _stageConfig.getRateLimitMessagesPerSecond() != 0;
+    }
+
+    /**
+     * Invoked by {@link JmsMatsFactory#reserveLocalDelivery(com.stolsvik.mats.serial.MatsTrace)} from within the
+     * sender's transaction: Tries to reserve a slot for a local delivery, starting the local StageProcessors if this is
+     * the first.
+     *
+     * @return <code>true</code> if a slot was reserved, <code>false</code> if the stage is saturated or not running.
+     */
+    boolean tryReserveLocalDelivery() {
+        if (!_localDelivery.tryReserve()) {
+            return false;
+        }
+        // ?: Have the local StageProcessors been started?
+        if (_localStageProcessors.isEmpty()) {
+            // -> No, so start them.
+            startLocalStageProcessors();
+        }
+        return true;
+    }
+
+    private synchronized void startLocalStageProcessors() {
+        // ?: Check again, inside sync: Are we still open, and not already started?
+        if (!_localDelivery.isOpen() || !_localStageProcessors.isEmpty()) {
+            // -> No, closed or already started.
+            return;
+        }
+        int numberOfProcessors = getStageConfig().getConcurrency();
+        log.info(LOG_PREFIX + "Starting [" + numberOfProcessors + "] local delivery StageProcessors for Stage ["
+                + id(_stageId, this) + "].");
+        for (int i = 0; i < numberOfProcessors; i++) {
+            _localStageProcessors.add(new JmsMatsStageProcessor<>(this, i, true));
+        }
     }
 
     private CountDownLatch _anyProcessorMadeConsumerLatch = new CountDownLatch(1);
@@ -131,7 +229,21 @@ public class JmsMatsStage<R, S, I, Z> implements MatsStage<R, S, I>, JmsMatsStat
         }
 
         for (int i = 0; i < numberOfProcessors; i++) {
-            _stageProcessors.add(new JmsMatsStageProcessor<>(this, i));
+            _stageProcessors.add(new JmsMatsStageProcessor<>(this, i, false));
+        }
+
+        // ?: Is this a queue? (Local delivery only makes sense for queues, as topics should hit all nodes.)
+        if (_queue) {
+            // -> Yes, so open up for local delivery from the same MatsFactory.
+            _localDelivery.open(numberOfProcessors);
+            _parentFactory.registerLocalDeliveryStage(this);
+            // .. and ensure that the delayed delivery poller runs, as this stage may park early messages.
+            _parentFactory.getDelayedDelivery().start();
+            // ?: Are there any locally delivered messages which were handed off after a previous stop?
+            if (_localDelivery.hasWaiting()) {
+                // -> Yes, so start the local StageProcessors right away, to process them.
+                startLocalStageProcessors();
+            }
         }
     }
 
@@ -145,6 +257,14 @@ public class JmsMatsStage<R, S, I, Z> implements MatsStage<R, S, I>, JmsMatsStat
         }
     }
 
+    @Override
+    public void stopPhase0SetRunFlagFalseAndCloseSessionIfInReceive() {
+        // First close for local delivery, so that no new messages are handed off to the local StageProcessors.
+        _localDelivery.close();
+        _parentFactory.deregisterLocalDeliveryStage(this);
+        JmsMatsStartStoppable.super.stopPhase0SetRunFlagFalseAndCloseSessionIfInReceive();
+    }
+
     @Override
     public boolean stop(int gracefulShutdownMillis) {
         log.info(LOG_PREFIX + "Stopping [" + _stageId + "]: Stopping all StageProcessors.");
@@ -163,11 +283,29 @@ public class JmsMatsStage<R, S, I, Z> implements MatsStage<R, S, I>, JmsMatsStat
 
     @Override
     public List<JmsMatsStartStoppable> getChildrenStartStoppable() {
-        return new ArrayList<>(_stageProcessors);
+        List<JmsMatsStartStoppable> children = new ArrayList<>(_stageProcessors);
+        children.addAll(_localStageProcessors);
+        return children;
     }
 
     private class JmsStageConfig implements StageConfig<R, S, I> {
         private int _concurrency;
+        // -1 means "use the endpoint's"; volatile, as it may be changed while running.
+        private volatile int _stageFusion = -1;
+        // -1 means "use the default".
+        private volatile int _prefetch = -1;
+        // -1 means "use the ConnectionFactory's".
+        private volatile int _redeliveryMaxRedeliveries = -1;
+        private volatile long _redeliveryInitialBackoffMillis = -1;
+        private volatile long _redeliveryMaximumBackoffMillis = -1;
+        // 0 means disabled.
+        private volatile int _circuitBreakerFailureRatePercent;
+        private volatile int _circuitBreakerMinimumProcessings = 10;
+        private volatile long _circuitBreakerWindowMillis = 10_000;
+        private volatile long _circuitBreakerProbeIntervalMillis = 5_000;
+        // 0 means disabled.
+        private volatile double _rateLimitMessagesPerSecond;
+        private volatile int _rateLimitNodes = 1;
 
         @Override
         public MatsConfig setConcurrency(int concurrency) {
@@ -207,6 +345,191 @@ public class JmsMatsStage<R, S, I, Z> implements MatsStage<R, S, I>, JmsMatsStat
         public Class<I> getIncomingMessageClass() {
             return _incomingMessageClass;
         }
+
+        @Override
+        public StageConfig<R, S, I> setStageFusion(int maxChainLength) {
+            if (maxChainLength < -1) {
+                throw new IllegalArgumentException("maxChainLength must be >= -1, was [" + maxChainLength + "].");
+            }
+            _stageFusion = maxChainLength;
+            return this;
+        }
+
+        @Override
+        public int getStageFusion() {
+            int stageFusion = _stageFusion;
+            return stageFusion != -1
+                    ? stageFusion
+                    : _parentEndpoint.getEndpointConfig().getStageFusion();
+        }
+
+        @Override
+        public StageConfig<R, S, I> setPrefetch(int prefetch) {
+            if (prefetch < -1) {
+                throw new IllegalArgumentException("prefetch must be >= -1, was [" + prefetch + "].");
+            }
+            _prefetch = prefetch;
+            return this;
+        }
+
+        @Override
+        public int getPrefetch() {
+            int prefetch = _prefetch;
+            // ?: Explicitly set?
+            if (prefetch != -1) {
+                // -> Yes, so use that.
+                return prefetch;
+            }
+            // ?: Is this a subscription stage?
+            if (!_queue) {
+                // -> Yes, so use the ConnectionFactory's prefetch.
+                return -1;
+            }
+            // ?: Is the stage rate limited?
+            if (_rateLimitMessagesPerSecond != 0) {
+                // -> Yes, so no prefetch, so that the messages waiting for the rate stay on the broker: The consumer
+                // pulls a message when the StageProcessor, holding the rate limit token, receives.
+                return 0;
+            }
+            // E-> Queue-based stage, so spread the per-stage prefetch over the StageProcessors.
+            return Math.max(1, DEFAULT_PREFETCH_PER_STAGE / Math.max(1, getConcurrency()));
+        }
+
+        @Override
+        public StageConfig<R, S, I> setRedeliveryPolicy(int maxRedeliveries, long initialBackoffMillis,
+                long maximumBackoffMillis) {
+            if (maxRedeliveries < -1) {
+                throw new IllegalArgumentException("maxRedeliveries must be >= -1, was [" + maxRedeliveries + "].");
+            }
+            if (initialBackoffMillis < -1) {
+                throw new IllegalArgumentException("initialBackoffMillis must be >= -1, was [" + initialBackoffMillis
+                        + "].");
+            }
+            if (maximumBackoffMillis < -1) {
+                throw new IllegalArgumentException("maximumBackoffMillis must be >= -1, was [" + maximumBackoffMillis
+                        + "].");
+            }
+            if ((maximumBackoffMillis != -1) && ((initialBackoffMillis == -1)
+                    || (maximumBackoffMillis < initialBackoffMillis))) {
+                throw new IllegalArgumentException("When maximumBackoffMillis is set, initialBackoffMillis must also be"
+                        + " set, and not be larger: initial was [" + initialBackoffMillis + "], maximum was ["
+                        + maximumBackoffMillis + "].");
+            }
+            _redeliveryMaxRedeliveries = maxRedeliveries;
+            _redeliveryInitialBackoffMillis = initialBackoffMillis;
+            _redeliveryMaximumBackoffMillis = maximumBackoffMillis;
+            return this;
+        }
+
+        @Override
+        public int getRedeliveryMaxRedeliveries() {
+            return _redeliveryMaxRedeliveries;
+        }
+
+        @Override
+        public long getRedeliveryInitialBackoffMillis() {
+            return _redeliveryInitialBackoffMillis;
+        }
+
+        @Override
+        public long getRedeliveryMaximumBackoffMillis() {
+            return _redeliveryMaximumBackoffMillis;
+        }
+
+        @Override
+        public StageConfig<R, S, I> setCircuitBreaker(int failureRatePercent, int minimumProcessings,
+                long windowMillis, long probeIntervalMillis) {
+            if ((failureRatePercent < 0) || (failureRatePercent > 100)) {
+                throw new IllegalArgumentException("failureRatePercent must be 0-100, was [" + failureRatePercent
+                        + "].");
+            }
+            if (minimumProcessings < 1) {
+                throw new IllegalArgumentException("minimumProcessings must be >= 1, was [" + minimumProcessings
+                        + "].");
+            }
+            if (windowMillis < 1) {
+                throw new IllegalArgumentException("windowMillis must be >= 1, was [" + windowMillis + "].");
+            }
+            if (probeIntervalMillis < 1) {
+                throw new IllegalArgumentException("probeIntervalMillis must be >= 1, was [" + probeIntervalMillis
+                        + "].");
+            }
+            _circuitBreakerMinimumProcessings = minimumProcessings;
+            _circuitBreakerWindowMillis = windowMillis;
+            _circuitBreakerProbeIntervalMillis = probeIntervalMillis;
+            // Set last, as this is what enables it.
+            _circuitBreakerFailureRatePercent = failureRatePercent;
+            log.info(LOG_PREFIX + "Stage [" + _stageId + "]: Circuit breaker " + (failureRatePercent == 0
+                    ? "disabled."
+                    : "set to open at [" + failureRatePercent + "%] failures of at least [" + minimumProcessings
+                            + "] processings within [" + windowMillis + " ms], probing every ["
+                            + probeIntervalMillis + " ms]."));
+            return this;
+        }
+
+        @Override
+        public int getCircuitBreakerFailureRatePercent() {
+            return _circuitBreakerFailureRatePercent;
+        }
+
+        @Override
+        public int getCircuitBreakerMinimumProcessings() {
+            return _circuitBreakerMinimumProcessings;
+        }
+
+        @Override
+        public long getCircuitBreakerWindowMillis() {
+            return _circuitBreakerWindowMillis;
+        }
+
+        @Override
+        public long getCircuitBreakerProbeIntervalMillis() {
+            return _circuitBreakerProbeIntervalMillis;
+        }
+
+        @Override
+        public CircuitBreakerState getCircuitBreakerState() {
+            // ?: Disabled?
+            if (_circuitBreakerFailureRatePercent == 0) {
+                // -> Yes, so that is the state.
+                return CircuitBreakerState.DISABLED;
+            }
+            return _circuitBreaker.getState();
+        }
+
+        @Override
+        public StageConfig<R, S, I> setRateLimit(double messagesPerSecond) {
+            return setRateLimit(messagesPerSecond, 1);
+        }
+
+        @Override
+        public StageConfig<R, S, I> setRateLimit(double messagesPerSecond, int nodes) {
+            if (!(messagesPerSecond >= 0) || Double.isInfinite(messagesPerSecond)) {
+                throw new IllegalArgumentException("messagesPerSecond must be >= 0, was [" + messagesPerSecond
+                        + "].");
+            }
+            if (nodes < 1) {
+                throw new IllegalArgumentException("nodes must be >= 1, was [" + nodes + "].");
+            }
+            _rateLimitNodes = nodes;
+            // Set last, as this is what enables it.
+            _rateLimitMessagesPerSecond = messagesPerSecond;
+            log.info(LOG_PREFIX + "Stage [" + _stageId + "]: Rate limit " + (messagesPerSecond == 0
+                    ? "disabled."
+                    : "set to [" + messagesPerSecond + "] msgs/sec divided among [" + nodes + "] nodes, i.e. ["
+                            + (messagesPerSecond / nodes) + "] msgs/sec for this node."));
+            return this;
+        }
+
+        @Override
+        public double getRateLimitMessagesPerSecond() {
+            return _rateLimitMessagesPerSecond;
+        }
+
+        @Override
+        public int getRateLimitNodes() {
+            return _rateLimitNodes;
+        }
     }
 
 }
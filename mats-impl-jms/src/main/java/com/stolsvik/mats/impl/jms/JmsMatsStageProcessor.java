@@ -1,13 +1,17 @@
 package com.stolsvik.mats.impl.jms;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Enumeration;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
+import javax.jms.BytesMessage;
+import javax.jms.DeliveryMode;
 import javax.jms.Destination;
 import javax.jms.JMSException;
 import javax.jms.MapMessage;
@@ -19,19 +23,28 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
 
+import com.stolsvik.mats.MatsConfig.LifecycleLogging;
+import com.stolsvik.mats.MatsConfig.LifecycleLogging.Mode;
+import com.stolsvik.mats.MatsEndpoint.EndpointConfig;
 import com.stolsvik.mats.MatsEndpoint.MatsRefuseMessageException;
 import com.stolsvik.mats.MatsEndpoint.ProcessContext;
+import com.stolsvik.mats.MatsEndpoint.ScatterGatherStore;
 import com.stolsvik.mats.MatsFactory.FactoryConfig;
 import com.stolsvik.mats.MatsInitiator.MatsInitiate;
 import com.stolsvik.mats.MatsStage.StageConfig;
+import com.stolsvik.mats.MatsStatistics.Phase;
 import com.stolsvik.mats.impl.jms.JmsMatsJmsSessionHandler.JmsSessionHolder;
+import com.stolsvik.mats.impl.jms.JmsMatsLocalDelivery.LocalMessage;
 import com.stolsvik.mats.impl.jms.JmsMatsProcessContext.DoAfterCommitRunnableHolder;
+import com.stolsvik.mats.impl.jms.JmsMatsProcessContext.IncomingSideloads;
 import com.stolsvik.mats.impl.jms.JmsMatsTransactionManager.JmsMatsTxContextKey;
 import com.stolsvik.mats.impl.jms.JmsMatsTransactionManager.TransactionContext;
 import com.stolsvik.mats.serial.MatsSerializer;
 import com.stolsvik.mats.serial.MatsSerializer.DeserializedMatsTrace;
+import com.stolsvik.mats.serial.MatsSerializer.SerializedMatsTrace;
 import com.stolsvik.mats.serial.MatsTrace;
 import com.stolsvik.mats.serial.MatsTrace.Call;
+import com.stolsvik.mats.serial.MatsTrace.Call.CallType;
 
 /**
  * MessageConsumer-class for the {@link JmsMatsStage} which is instantiated {@link StageConfig#getConcurrency()} number
@@ -49,11 +62,23 @@ class JmsMatsStageProcessor<R, S, I, Z> implements JmsMatsStatics, JmsMatsTxCont
     private final int _processorNumber;
     private final Thread _processorThread;
     private final TransactionContext _transactionContext;
+    private final String _processorIdMdcValue;
+    private final boolean _localDeliveryProcessor;
 
-    JmsMatsStageProcessor(JmsMatsStage<R, S, I, Z> jmsMatsStage, int processorNumber) {
+    /**
+     * @param localDeliveryProcessor
+     *            if <code>true</code>, this processor does not consume from the broker, but picks messages from the
+     *            stage's {@link JmsMatsLocalDelivery}, i.e. messages delivered in-JVM from the same factory.
+     */
+    JmsMatsStageProcessor(JmsMatsStage<R, S, I, Z> jmsMatsStage, int processorNumber,
+            boolean localDeliveryProcessor) {
         _randomInstanceId = randomString(5) + "@" + jmsMatsStage.getParentFactory();
         _jmsMatsStage = jmsMatsStage;
         _processorNumber = processorNumber;
+        _localDeliveryProcessor = localDeliveryProcessor;
+        // Notice that this is the qualifier of processor id, needs to take the stageId as prefix.
+        // .. but to save some space, we don't repeat that.
+        _processorIdMdcValue = "#" + processorQualifier() + " {" + _randomInstanceId + '}';
         _processorThread = new Thread(this::runner, THREAD_PREFIX + ident());
         _processorThread.start();
         _transactionContext = jmsMatsStage.getParentFactory()
@@ -64,8 +89,91 @@ class JmsMatsStageProcessor<R, S, I, Z> implements JmsMatsStatics, JmsMatsTxCont
 
     private volatile JmsSessionHolder _jmsSessionHolder;
 
+    // Only touched by the processor thread: Set when outgoing messages are sent, for the COMMIT timing. Zero if the
+    // processing did not get that far, e.g. a dropped message.
+    private long _nanosAtSent;
+    // Only touched by the processor thread: Phase timings of the current message, for the SLOW lifecycle log line.
+    private long _nanosDeserialize;
+    private long _nanosUserLambda;
+    private long _nanosSend;
+    // Only touched by the processor thread: Number of messages received, for the SAMPLED lifecycle logging.
+    private long _lifecycleSampleCounter;
+    // Only touched by the processor thread: Set as the last thing inside the transactional demarcation, since a refused
+    // message is rolled back without doTransaction(..) throwing.
+    private boolean _processingCompleted;
+    // Only touched by the processor thread: Set when the stage lambda has run without throwing - only then does a
+    // commit count as a success for the circuit breaker (not for dropped messages, reply cache hits etc.).
+    private boolean _stageLambdaInvoked;
+    // Only touched by the processor thread: The locally delivered message being processed, which shall be forwarded to
+    // the broker if the processing does not complete. Nulled when it has completed.
+    private LocalMessage _localMessageInProcess;
+    // Only touched by the processor thread: The MatsMessageId of the message being processed, if the stage has
+    // duplicate suppression enabled - recorded as committed when the processing completes.
+    private String _duplicateSuppressionMatsMessageId;
+    // Only touched by the processor thread: Set if the message was dropped as a duplicate, or as expired - or parked
+    // for delayed delivery.
+    private boolean _messageDropped;
+    // Only touched by the processor thread: The reply cache key of the message being processed if the reply cache is
+    // in effect, and the serialized reply produced by the lambda - put into the reply cache when committed.
+    private Object _replyCacheKey;
+    private Z _replyCacheReply;
+    // Only touched by the processor thread: The gatherId of the scatter gathered by the processing, if any - removed
+    // from the ScatterGatherStore when committed.
+    private String _gatherIdToRemove;
+    // Only touched by the processor thread: Set when having warned about a persistent message arriving on a
+    // non-transacted DUPS_OK StageProcessor, so that this is only warned about once.
+    private boolean _persistentOnNonTransactedWarned;
+
+    private static final long LOCAL_DELIVERY_POLL_MILLIS = 100;
+
+    // How long a StageProcessor parks at a time while the stage's circuit breaker is open, before checking the
+    // run-flag and asking again.
+    private static final long CIRCUIT_BREAKER_PARK_MILLIS = 100;
+
+    // The max a StageProcessor waits at a time for the stage's rate limit, before checking the run-flag and asking
+    // again - also the receive timeout when holding the rate limit token, after which the token is given back.
+    private static final long RATE_LIMIT_MAX_WAIT_MILLIS = 100;
+
+    /**
+     * Decides whether the lifecycle of the message about to be processed shall be logged, according to the
+     * {@link LifecycleLogging} policy in effect for the endpoint.
+     */
+    private boolean isLoggingLifecycle(LifecycleLogging lifecycleLogging) {
+        switch (lifecycleLogging.getMode()) {
+            case FULL:
+                return true;
+            case SAMPLED:
+                return (_lifecycleSampleCounter++ % lifecycleLogging.getSampleEvery()) == 0;
+            default:
+                // SLOW is logged by a summary line after processing, if slow. ERRORS_ONLY by a summary line if the
+                // processing fails, see logFailedProcessingSummary(..).
+                return false;
+        }
+    }
+
+    /**
+     * For {@link Mode#ERRORS_ONLY}, where the lifecycle of the message was not logged: Logs a single summary line with
+     * the timings of the processing that threw or was rolled back, so that the failure is not without context.
+     */
+    private void logFailedProcessingSummary(LifecycleLogging lifecycleLogging, String outcome, long nanosStart) {
+        // ?: Is this the ERRORS_ONLY policy?
+        if (lifecycleLogging.getMode() != Mode.ERRORS_ONLY) {
+            // -> No, so either the lifecycle is logged, or failures are not summarized.
+            return;
+        }
+        double millisTotal = (System.nanoTime() - nanosStart) / 1_000_000d;
+        log.warn(LOG_PREFIX + "FAILED PROCESSING: " + outcome + " - total time from received till rollback: ["
+                + ms3(millisTotal) + " ms] - deserialize:[" + ms3(_nanosDeserialize / 1_000_000d)
+                + " ms], user lambda:[" + ms3(_nanosUserLambda / 1_000_000d) + " ms], send:["
+                + ms3(_nanosSend / 1_000_000d) + " ms].");
+    }
+
     private String ident() {
-        return _jmsMatsStage.getStageId() + '#' + _processorNumber + " {" + _randomInstanceId + '}';
+        return _jmsMatsStage.getStageId() + '#' + processorQualifier() + " {" + _randomInstanceId + '}';
+    }
+
+    private String processorQualifier() {
+        return _localDeliveryProcessor ? "local" + _processorNumber : Integer.toString(_processorNumber);
     }
 
     @Override
@@ -94,6 +202,12 @@ class JmsMatsStageProcessor<R, S, I, Z> implements JmsMatsStatics, JmsMatsTxCont
     public void stopPhase0SetRunFlagFalseAndCloseSessionIfInReceive() {
         // Start by setting the run-flag to false..
         _runFlag = false;
+        // ?: Is this a local delivery processor?
+        if (_localDeliveryProcessor) {
+            // -> Yes, and it polls with a short timeout, thus sees the run-flag. It must also keep its JMS Session, to
+            // forward any remaining locally delivered messages to the broker before exiting.
+            return;
+        }
         /*
          * Trying to make very graceful: If we're in consumer.receive(), then close the Session, which makes the
          * receive()-call return null, causing the thread to loop and check run-flag. If not, then assume that the
@@ -250,12 +364,26 @@ class JmsMatsStageProcessor<R, S, I, Z> implements JmsMatsStatics, JmsMatsTxCont
             try {
                 Session jmsSession = _jmsSessionHolder.getSession();
                 Destination destination = createJmsDestination(jmsSession, getFactory().getFactoryConfig());
-                MessageConsumer jmsConsumer = jmsSession.createConsumer(destination);
+                // The local delivery processors do not consume from the broker.
+                MessageConsumer jmsConsumer = _localDeliveryProcessor
+                        ? null
+                        : jmsSession.createConsumer(destination);
+                // ?: Do we have a consumer?
+                if (jmsConsumer != null) {
+                    // -> Yes, so apply any redelivery policy of the stage.
+                    StageConfig<R, S, I> stageConfig = _jmsMatsStage.getStageConfig();
+                    JmsMatsMessageBrokerSpecifics.applyRedeliveryPolicy(jmsConsumer,
+                            stageConfig.getRedeliveryMaxRedeliveries(),
+                            stageConfig.getRedeliveryInitialBackoffMillis(),
+                            stageConfig.getRedeliveryMaximumBackoffMillis());
+                }
 
                 // We've established the consumer, and hence will start to receive messages and process them.
                 // (Important for topics, where if we haven't established consumer, we won't get messages).
                 // TODO: Handle ability to stop with subsequent re-start of endpoint.
-                _jmsMatsStage.getAnyProcessorMadeConsumerLatch().countDown();
+                if (!_localDeliveryProcessor) {
+                    _jmsMatsStage.getAnyProcessorMadeConsumerLatch().countDown();
+                }
 
                 // :: INNER RECEIVE-LOOP, where we'll use the JMS Session and MessageConsumer.receive().
                 while (_runFlag) {
@@ -263,68 +391,217 @@ class JmsMatsStageProcessor<R, S, I, Z> implements JmsMatsStatics, JmsMatsTxCont
                     clearAndSetStaticMdcValues();
                     // Check whether Session/Connection is ok (per contract with JmsSessionHolder)
                     _jmsSessionHolder.isSessionOk();
+                    // ?: Is there a locally delivered message whose processing did not complete?
+                    if (_localMessageInProcess != null) {
+                        // ?: Is this a non-transacted DUPS_OK StageProcessor?
+                        if (!_jmsSessionHolder.isTransacted()) {
+                            // -> Yes, so drop it, as a failed message from the broker is dropped.
+                            log.info(LOG_PREFIX + "Dropping locally delivered message ["
+                                    + _localMessageInProcess.getLocalMessageId() + "] not processed to completion,"
+                                    + " as the Endpoint is non-transacted DUPS_OK.");
+                            _localMessageInProcess = null;
+                        }
+                        else {
+                            // -> No, so forward it to the broker, so that ordinary redelivery and DLQ logic apply.
+                            forwardLocalMessageToBroker();
+                        }
+                    }
+                    // ?: Is the stage's circuit breaker denying us to receive?
+                    StageConfig<R, S, I> stageConfig = _jmsMatsStage.getStageConfig();
+                    if (!_jmsMatsStage.getCircuitBreaker().tryAcquirePermission(this,
+                            stageConfig.getCircuitBreakerFailureRatePercent())) {
+                        // -> Yes, so park for a while, and then loop, thus checking the run-flag and asking again.
+                        try {
+                            _jmsMatsStage.getCircuitBreaker().park(CIRCUIT_BREAKER_PARK_MILLIS);
+                        }
+                        catch (InterruptedException e) {
+                            if (log.isDebugEnabled()) log.debug(LOG_PREFIX + "Interrupted while parked by the circuit"
+                                    + " breaker, looping to check run-flag.");
+                        }
+                        continue;
+                    }
                     // :: GET NEW MESSAGE!! THIS IS THE MESSAGE PUMP!
                     Message message;
-                    try {
-                        _processorInReceive = true;
-                        if (log.isDebugEnabled()) log.debug(LOG_PREFIX
-                                + "Going into JMS consumer.receive() for [" + destination + "].");
-                        message = jmsConsumer.receive();
-                    }
-                    finally {
-                        _processorInReceive = false;
+                    long nanosBeforeReceive = System.nanoTime();
+                    // ?: Is this a local delivery processor?
+                    if (_localDeliveryProcessor) {
+                        // -> Yes, so pick from the in-JVM handoff instead of the broker.
+                        _localMessageInProcess = _jmsMatsStage.getLocalDelivery().poll(LOCAL_DELIVERY_POLL_MILLIS);
+                        // ?: Did we get a message?
+                        if (_localMessageInProcess == null) {
+                            // -> No, so loop, thus checking the run-flag.
+                            continue;
+                        }
+                        // ?: Has it expired? (The broker honors time-to-live, so we do too.)
+                        if (_localMessageInProcess.isExpired()) {
+                            // -> Yes, so drop it.
+                            log.info(LOG_PREFIX + "Dropping locally delivered message ["
+                                    + _localMessageInProcess.getLocalMessageId() + "], as its time-to-live expired.");
+                            _localMessageInProcess = null;
+                            continue;
+                        }
+                        message = _localMessageInProcess.getMessage();
                     }
-                    // Need to check whether the JMS Message gotten is null, as that signals that the
-                    // Consumer, Session or Connection was closed from another thread.
-                    if (message == null) {
-                        // ?: Are we shut down?
-                        if (!_runFlag) {
-                            // -> Yes, down
-                            log.info(LOG_PREFIX + "Got null from JMS consumer.receive(), and run-flag is false."
-                                    + " Breaking out of run-loop to exit.");
-                            break OUTER;
+                    else {
+                        // ?: Is the stage rate limited? (May be changed while running.)
+                        boolean rateLimited = stageConfig.getRateLimitMessagesPerSecond() != 0;
+                        if (rateLimited) {
+                            // -> Yes, so take the token before receiving, so that the excess messages stay on the
+                            // broker. If stopped, or the rate limit was removed while waiting, loop to check again.
+                            if (!acquireRateLimitToken(stageConfig)) {
+                                continue;
+                            }
                         }
-                        else {
-                            // -> No, not down: Something strange has happened.
-                            log.warn(LOG_PREFIX + "!! Got null from JMS consumer.receive(), but run-flag is still"
-                                    + " true. Closing current JmsSessionHolder to clean up. Looping to get new.");
-                            closeCurrentSessionHolder();
-                            continue OUTER;
+                        try {
+                            _processorInReceive = true;
+                            if (log.isDebugEnabled()) log.debug(LOG_PREFIX
+                                    + "Going into JMS consumer.receive() for [" + destination + "].");
+                            // When holding the rate limit token, the receive times out, so that it can be given back.
+                            message = rateLimited
+                                    ? jmsConsumer.receive(RATE_LIMIT_MAX_WAIT_MILLIS)
+                                    : jmsConsumer.receive();
+                        }
+                        finally {
+                            _processorInReceive = false;
+                        }
+                        // ?: Did we hold the rate limit token?
+                        if (rateLimited) {
+                            // -> Yes, so it is either consumed by the message, or given back.
+                            // ?: Did we get a message?
+                            if (message != null) {
+                                // -> Yes, so the token is consumed.
+                                _jmsMatsStage.getRateLimiter().consumed();
+                            }
+                            else {
+                                // -> No, timed out or stopped, so give the token back.
+                                _jmsMatsStage.getRateLimiter().release();
+                                // ?: Are we still running?
+                                if (_runFlag) {
+                                    // -> Yes, so the receive timed out: Loop to take the token anew.
+                                    continue;
+                                }
+                            }
+                        }
+                        // Need to check whether the JMS Message gotten is null, as that signals that the
+                        // Consumer, Session or Connection was closed from another thread.
+                        if (message == null) {
+                            // ?: Are we shut down?
+                            if (!_runFlag) {
+                                // -> Yes, down
+                                log.info(LOG_PREFIX + "Got null from JMS consumer.receive(), and run-flag is false."
+                                        + " Breaking out of run-loop to exit.");
+                                break OUTER;
+                            }
+                            else {
+                                // -> No, not down: Something strange has happened.
+                                log.warn(LOG_PREFIX + "!! Got null from JMS consumer.receive(), but run-flag is still"
+                                        + " true. Closing current JmsSessionHolder to clean up. Looping to get new.");
+                                closeCurrentSessionHolder();
+                                continue OUTER;
+                            }
                         }
                     }
 
                     // :: Perform the work inside the TransactionContext
                     DoAfterCommitRunnableHolder doAfterCommitRunnableHolder = new DoAfterCommitRunnableHolder();
                     long nanosStart = System.nanoTime();
+                    JmsMatsStatistics statistics = _jmsMatsStage.getStatistics();
+                    statistics.recordTiming(Phase.RECEIVE_WAIT, nanosStart - nanosBeforeReceive);
+                    // :: Decide whether the lifecycle of this message shall be logged (The MDC is set regardless).
+                    LifecycleLogging lifecycleLogging = _jmsMatsStage.getParentEndpoint().getEndpointConfig()
+                            .getLifecycleLogging();
+                    boolean logLifecycle = isLoggingLifecycle(lifecycleLogging);
+                    long nanosCommit;
+                    JmsMatsMessageContext jmsMatsMessageContext = new JmsMatsMessageContext(_jmsSessionHolder,
+                            jmsConsumer);
+                    jmsMatsMessageContext.setLifecycleLogging(logLifecycle);
+                    _nanosDeserialize = 0;
+                    _nanosUserLambda = 0;
+                    _nanosSend = 0;
+                    _nanosAtSent = 0;
+                    _processingCompleted = false;
+                    _stageLambdaInvoked = false;
+                    _duplicateSuppressionMatsMessageId = null;
+                    _messageDropped = false;
+                    _replyCacheKey = null;
+                    _replyCacheReply = null;
+                    _gatherIdToRemove = null;
                     try { // :: Going into Mats Transaction
 
-                        JmsMatsMessageContext jmsMatsMessageContext = new JmsMatsMessageContext(_jmsSessionHolder,
-                                jmsConsumer);
-
                         _transactionContext.doTransaction(jmsMatsMessageContext, () -> {
-                            // Assert that this is indeed a JMS MapMessage.
-                            if (!(message instanceof MapMessage)) {
-                                String msg = "Got some JMS Message that is not instanceof JMS MapMessage"
-                                        + " - cannot be a MATS message! Refusing this message!";
+                            // Assert that this is indeed a JMS MapMessage, or a JMS BytesMessage (the opt-in wire
+                            // format, read more at JmsMatsFactory.setBytesMessageWireFormat(..)).
+                            if (!((message instanceof MapMessage) || (message instanceof BytesMessage))) {
+                                String msg = "Got some JMS Message that is not instanceof JMS MapMessage or JMS"
+                                        + " BytesMessage - cannot be a MATS message! Refusing this message!";
                                 log.error(LOG_PREFIX + msg + "\n" + message);
                                 throw new MatsRefuseMessageException(msg);
                             }
 
-                            // ----- This is a MapMessage
-                            MapMessage mapMessage = (MapMessage) message;
+                            // ?: Has the deadline of the flow passed?
+                            if (isPastDeadline(message, logLifecycle)) {
+                                // -> Yes, so drop it: Return nicely, thus committing the receive.
+                                statistics.recordExpiredDropped();
+                                _messageDropped = true;
+                                _processingCompleted = true;
+                                return;
+                            }
+
+                            // ?: Has the message arrived before its time, i.e. the broker did not effectuate the delay?
+                            if (parkIfBeforeDeliverAt(message, logLifecycle)) {
+                                // -> Yes, so it is parked: Return nicely, thus committing the receive along with the
+                                // parking.
+                                _messageDropped = true;
+                                _processingCompleted = true;
+                                return;
+                            }
+
+                            // ?: Is this a duplicate of an already processed message?
+                            if (isDuplicate(message, jmsMatsMessageContext)) {
+                                // -> Yes, so drop it: Return nicely, thus committing the receive.
+                                statistics.recordDuplicateDropped();
+                                _messageDropped = true;
+                                _processingCompleted = true;
+                                return;
+                            }
 
                             // :: Fetch Mats-specific message data from the JMS Message.
 
+                            String matsTraceKey = getFactory().getFactoryConfig().getMatsTraceKey();
+                            String matsTraceMetaKey = matsTraceKey + MatsSerializer.META_KEY_POSTFIX;
                             byte[] matsTraceBytes;
                             String matsTraceMeta;
                             String jmsMessageId;
+                            // Only set if the message is in the BytesMessage wire format.
+                            JmsMatsBytesMessageFrame frame = null;
                             try {
-                                String matsTraceKey = getFactory().getFactoryConfig().getMatsTraceKey();
-                                matsTraceBytes = mapMessage.getBytes(matsTraceKey);
-                                matsTraceMeta = mapMessage.getString(matsTraceKey
-                                        + MatsSerializer.META_KEY_POSTFIX);
-                                jmsMessageId = mapMessage.getJMSMessageID();
+                                // A locally delivered message has not been via the broker, thus has no JMSMessageID.
+                                jmsMessageId = _localMessageInProcess != null
+                                        ? _localMessageInProcess.getLocalMessageId()
+                                        : message.getJMSMessageID();
                                 MDC.put(MDC_JMS_MESSAGE_ID_IN, jmsMessageId);
+                                warnIfPersistentOnNonTransacted(message);
+                                // ?: Is this the BytesMessage wire format?
+                                if (message instanceof BytesMessage) {
+                                    // -> Yes, so read the frame.
+                                    frame = JmsMatsBytesMessageFrame.read((BytesMessage) message);
+                                    // ?: Was it a frame we understand?
+                                    if (frame == null) {
+                                        // -> No, so refuse it.
+                                        String msg = "Got some JMS BytesMessage whose body is not a Mats frame of a"
+                                                + " known version - cannot be a MATS message! Refusing this message!";
+                                        log.error(LOG_PREFIX + msg + "\n" + message);
+                                        throw new MatsRefuseMessageException(msg);
+                                    }
+                                    matsTraceBytes = frame.getMatsTraceBytes();
+                                    matsTraceMeta = frame.getMatsTraceMeta();
+                                }
+                                else {
+                                    // -> No, so this is a MapMessage.
+                                    MapMessage mapMessage = (MapMessage) message;
+                                    matsTraceBytes = mapMessage.getBytes(matsTraceKey);
+                                    matsTraceMeta = mapMessage.getString(matsTraceMetaKey);
+                                }
 
                                 // :: Assert that we got some values
                                 if (matsTraceBytes == null) {
@@ -345,8 +622,8 @@ class JmsMatsStageProcessor<R, S, I, Z> implements JmsMatsStatics, JmsMatsTxCont
                             }
                             catch (JMSException e) {
                                 throw new JmsMatsJmsException("Got JMSException when getting the MatsTrace"
-                                        + " from the MapMessage by using mapMessage.get[Bytes|String](..)."
-                                        + " Pretty crazy.", e);
+                                        + " from the MapMessage by using mapMessage.get[Bytes|String](..), or from"
+                                        + " the BytesMessage frame. Pretty crazy.", e);
                             }
 
                             // :: Deserialize the MatsTrace from the message data.
@@ -367,7 +644,7 @@ class JmsMatsStageProcessor<R, S, I, Z> implements JmsMatsStatics, JmsMatsTxCont
                                 String msg = "The incoming MATS message is not to this Stage! this:["
                                         + _jmsMatsStage.getStageId() + "]," + " msg:[" + currentCall.getTo()
                                         + "]. Refusing this message!";
-                                log.error(LOG_PREFIX + msg + "\n" + mapMessage);
+                                log.error(LOG_PREFIX + msg + "\n" + message);
                                 throw new MatsRefuseMessageException(msg);
                             }
 
@@ -379,9 +656,17 @@ class JmsMatsStageProcessor<R, S, I, Z> implements JmsMatsStatics, JmsMatsTxCont
                             I incomingDto = handleIncomingMessageMatsObject(matsSerializer,
                                     _jmsMatsStage.getIncomingMessageClass(), currentCall.getData());
 
-                            double millisTaken = (System.nanoTime() - nanosStart) / 1_000_000d;
+                            _nanosDeserialize = System.nanoTime() - nanosStart;
+                            statistics.recordTiming(Phase.DESERIALIZE, _nanosDeserialize);
+                            statistics.recordBytesIn(matsTraceBytes.length);
+                            // ?: Is the flow partitioned?
+                            if (matsTrace.getPartitionKey() != null) {
+                                // -> Yes, so record which key this StageProcessor got.
+                                statistics.recordPartitioned(processorQualifier(), matsTrace.getPartitionKey());
+                            }
 
-                            log.info(LOG_PREFIX + "RECEIVED message from [" + currentCall.getFrom()
+                            if (logLifecycle && log.isInfoEnabled()) log.info(LOG_PREFIX + "RECEIVED message from ["
+                                    + currentCall.getFrom()
                                     + "@" + currentCall.getCallingAppName()
                                     + "{" + currentCall.getCallingAppVersion()
                                     + "}@" + currentCall.getCallingHost()
@@ -390,36 +675,15 @@ class JmsMatsStageProcessor<R, S, I, Z> implements JmsMatsStatics, JmsMatsTxCont
                                     + " " + ms3(matsTraceDeserialized.getMillisDecompression())
                                     + " ms]->deserialize:[" + matsTraceDeserialized.getSizeDecompressed()
                                     + " B, " + ms3(matsTraceDeserialized.getMillisDeserialization())
-                                    + " ms]->MT - tot w/DTO&STO:[" + ms3(millisTaken) + " ms].");
+                                    + " ms]->MT - tot w/DTO&STO:[" + ms3(_nanosDeserialize / 1_000_000d) + " ms].");
 
-                            // :: Getting the 'sideloads'; Byte-arrays and Strings from the MapMessage.
-                            LinkedHashMap<String, byte[]> incomingBinaries = new LinkedHashMap<>();
-                            LinkedHashMap<String, String> incomingStrings = new LinkedHashMap<>();
-                            try {
-                                @SuppressWarnings("unchecked")
-                                Enumeration<String> mapNames = (Enumeration<String>) mapMessage.getMapNames();
-                                while (mapNames.hasMoreElements()) {
-                                    String name = mapNames.nextElement();
-                                    Object object = mapMessage.getObject(name);
-                                    if (object instanceof byte[]) {
-                                        incomingBinaries.put(name, (byte[]) object);
-                                    }
-                                    else if (object instanceof String) {
-                                        incomingStrings.put(name, (String) object);
-                                    }
-                                    else {
-                                        log.warn("Got some object in the MapMessage to ["
-                                                + _jmsMatsStage.getStageId()
-                                                + "] which is neither byte[] nor String - which should not"
-                                                + " happen - Ignoring.");
-                                    }
-                                }
-                            }
-                            catch (JMSException e) {
-                                throw new JmsMatsJmsException("Got JMSException when getting 'sideloads'"
-                                        + " from the MapMessage by using mapMessage.get[Bytes|String](..)."
-                                        + " Pretty crazy.", e);
-                            }
+                            // :: The 'sideloads'; Byte-arrays and Strings on the MapMessage, are read lazily, only
+                            // if the stage accesses them - so that large sideloads just passing by cost nothing. (With
+                            // the BytesMessage wire format, they were read along with the frame.)
+                            IncomingSideloads incomingSideloads = frame != null
+                                    ? IncomingSideloads.fromMaps(frame.getBytes(), frame.getStrings())
+                                    : IncomingSideloads.fromMapMessage((MapMessage) message, matsTraceKey,
+                                            matsTraceMetaKey);
 
                             List<JmsMatsMessage<Z>> messagesToSend = new ArrayList<>();
                             LinkedHashMap<String, Object> outgoingProps = new LinkedHashMap<>();
@@ -442,7 +706,7 @@ class JmsMatsStageProcessor<R, S, I, Z> implements JmsMatsStatics, JmsMatsTxCont
                                     matsTrace,
                                     currentSto,
                                     initiateSupplier,
-                                    incomingBinaries, incomingStrings,
+                                    incomingSideloads,
                                     messagesToSend, jmsMatsMessageContext,
                                     outgoingProps,
                                     doAfterCommitRunnableHolder);
@@ -450,24 +714,78 @@ class JmsMatsStageProcessor<R, S, I, Z> implements JmsMatsStatics, JmsMatsTxCont
                             // .. stick the ProcessContext into the ThreadLocal scope
                             JmsMatsContextLocalCallback.bindResource(ProcessContext.class, processContext);
 
-                            // .. actually process the user code
-                            _jmsMatsStage.getProcessLambda().process(processContext, currentSto, incomingDto);
+                            // Is this a reply to, or the timeout of, a scatter gathered by this stage - not yet done?
+                            boolean gatherPending = !gather(matsSerializer, matsTrace, currentCall, processContext,
+                                    logLifecycle);
+                            // ?: Is the reply cache in effect for this message, and does it have the reply?
+                            _replyCacheKey = gatherPending ? null : getReplyCacheKey(currentCall, incomingDto);
+                            Z cachedReply = _replyCacheKey != null
+                                    ? _jmsMatsStage.getReplyCache().get(_replyCacheKey,
+                                            _jmsMatsStage.getParentEndpoint().getEndpointConfig()
+                                                    .getReplyCacheTtlMillis())
+                                    : null;
+                            if (gatherPending) {
+                                // -> The gather is pending, so the stage lambda shall not be invoked for this message.
+                                _nanosUserLambda = 0;
+                            }
+                            else if (cachedReply != null) {
+                                // -> Yes, so reply directly, without invoking the user lambda.
+                                statistics.recordReplyCacheHit();
+                                _replyCacheKey = null;
+                                _nanosUserLambda = 0;
+                                if (logLifecycle && log.isInfoEnabled()) log.info(LOG_PREFIX + "REPLY CACHE HIT:"
+                                        + " Replying from the endpoint's reply cache, not invoking the stage lambda.");
+                                processContext.replySerialized(cachedReply);
+                            }
+                            else {
+                                // -> No, so actually process the user code
+                                if (_replyCacheKey != null) {
+                                    statistics.recordReplyCacheMiss();
+                                }
+                                long nanosStartLambda = System.nanoTime();
+                                try {
+                                    _jmsMatsStage.getProcessLambda().process(processContext, currentSto,
+                                            incomingDto);
+                                }
+                                finally {
+                                    // Also if it throws, for the summary line of a failed processing.
+                                    _nanosUserLambda = System.nanoTime() - nanosStartLambda;
+                                }
+                                _stageLambdaInvoked = true;
+                                statistics.recordTiming(Phase.USER_LAMBDA, _nanosUserLambda);
+                                // Hold on to any reply, to be cached when committed.
+                                _replyCacheReply = processContext.getSerializedReply();
+                            }
+
+                            // :: Stage fusion: While the sole outgoing message is a next() to a stage which shall be
+                            // processed inline, process it right here, inside the same transaction.
+                            List<JmsMatsMessage<Z>> outgoingMessages = messagesToSend;
+                            JmsMatsStage<R, S, ?, Z> fusingStage = _jmsMatsStage;
+                            JmsMatsStage<R, S, ?, Z> fusedStage;
+                            int fusedHops = 0;
+                            while ((fusedStage = getFusedNextStage(fusingStage, outgoingMessages,
+                                    fusedHops)) != null) {
+                                outgoingMessages = processFusedStage(fusedStage, outgoingMessages.get(0),
+                                        jmsMatsMessageContext, doAfterCommitRunnableHolder, logLifecycle);
+                                fusingStage = fusedStage;
+                                fusedHops++;
+                            }
 
                             // :: Trick to get the MDC.traceId on commit of transaction to contain TraceIds of all
                             // outgoing messages
                             // ?: Are there any outgoing messages? (There are none for e.g. Terminator)
-                            if (!messagesToSend.isEmpty()) {
+                            if (!outgoingMessages.isEmpty()) {
                                 // -> Yes, there are outgoing messages.
                                 // Handle standard-case where there is only one outgoing (i.e. a Service which replied)
                                 // ?: Only one message
-                                if (messagesToSend.size() == 1) {
+                                if (outgoingMessages.size() == 1) {
                                     // ?: Is the traceId different from the one we are processing?
                                     // (This can happen if it is a Terminator, but which send a new message)
-                                    if (!messagesToSend.get(0).getMatsTrace().getTraceId().equals(matsTrace
+                                    if (!outgoingMessages.get(0).getMatsTrace().getTraceId().equals(matsTrace
                                             .getTraceId())) {
                                         // -> Yes, different, so create a new MDC traceId value containing both.
                                         String bothTraceIds = matsTrace.getTraceId()
-                                                + ';' + messagesToSend.get(0).getMatsTrace().getTraceId();
+                                                + ';' + outgoingMessages.get(0).getMatsTrace().getTraceId();
                                         MDC.put(MDC_TRACE_ID, bothTraceIds);
                                     }
                                     // E-> They are the same - so do not change it.
@@ -479,7 +797,7 @@ class JmsMatsStageProcessor<R, S, I, Z> implements JmsMatsStatics, JmsMatsTxCont
                                     // Add the TraceId for the message we are processing.
                                     allTraceIds.add(matsTrace.getTraceId());
                                     // :: Add TraceIds for all the outgoing messages
-                                    for (JmsMatsMessage<Z> msg : messagesToSend) {
+                                    for (JmsMatsMessage<Z> msg : outgoingMessages) {
                                         allTraceIds.add(msg.getMatsTrace().getTraceId());
                                     }
                                     // Set new concat'ed traceId (will probably still just be one..!)
@@ -488,23 +806,109 @@ class JmsMatsStageProcessor<R, S, I, Z> implements JmsMatsStatics, JmsMatsTxCont
                             }
 
                             // :: Send any outgoing Mats messages (replies, requests, new messages etc..)
-                            sendMatsMessages(log, nanosStart, _jmsSessionHolder, getFactory(), messagesToSend);
-
+                            long nanosStartSend = System.nanoTime();
+                            sendMatsMessages(log, nanosStart, jmsMatsMessageContext, getFactory(), outgoingMessages);
+                            _nanosAtSent = System.nanoTime();
+                            _nanosSend = _nanosAtSent - nanosStartSend;
+                            statistics.recordOutgoing(outgoingMessages, _nanosSend);
+                            // ?: Shall the MatsMessageId be recorded in the transactional store?
+                            if ((_duplicateSuppressionMatsMessageId != null)
+                                    && jmsMatsMessageContext.getDuplicateSuppressionStore().isPresent()) {
+                                // -> Yes, so record it, atomically with the processing.
+                                jmsMatsMessageContext.getDuplicateSuppressionStore().get().markProcessed(
+                                        _jmsMatsStage.getStageId(), _duplicateSuppressionMatsMessageId);
+                            }
+                            _processingCompleted = true;
                         }); // End: Mats Transaction
+                        // ?: Did the processing get to sending, so that we have a start point for the commit?
+                        if (_nanosAtSent != 0) {
+                            // -> Yes, so record the commit timing.
+                            nanosCommit = System.nanoTime() - _nanosAtSent;
+                            statistics.recordTiming(Phase.COMMIT, nanosCommit);
+                        }
+                        else {
+                            // -> No, e.g. dropped or refused message, so there is no commit timing to record.
+                            nanosCommit = 0;
+                        }
+                        // ?: Did the processing complete, and thus commit? (A refused message is rolled back, but
+                        // doTransaction(..) returns nicely.)
+                        if (_processingCompleted) {
+                            // -> Yes, so hand off any messages for local delivery, and we're done with any locally
+                            // delivered message we processed.
+                            jmsMatsMessageContext.handoffLocalDeliveries();
+                            // ?: Did the stage lambda actually run? (Not for dropped messages, reply cache hits etc.)
+                            if (_stageLambdaInvoked) {
+                                // -> Yes, so this was a successful processing as far as the circuit breaker goes.
+                                _jmsMatsStage.getCircuitBreaker().recordSuccess(this,
+                                        stageConfig.getCircuitBreakerWindowMillis());
+                            }
+                            _localMessageInProcess = null;
+                            // ?: Shall the reply be cached?
+                            if ((_replyCacheKey != null) && (_replyCacheReply != null)) {
+                                // -> Yes, so put it, now that the processing has committed.
+                                _jmsMatsStage.getReplyCache().put(_replyCacheKey, _replyCacheReply,
+                                        _jmsMatsStage.getParentEndpoint().getEndpointConfig()
+                                                .getReplyCacheMaxEntries());
+                            }
+                            // ?: Did this processing gather a scatter?
+                            if (_gatherIdToRemove != null) {
+                                // -> Yes, so remove the gather from the store, now that the processing has committed.
+                                _jmsMatsStage.getParentEndpoint().getEndpointConfig().getScatterGatherStore()
+                                        .remove(_gatherIdToRemove);
+                            }
+                            // ?: Shall the MatsMessageId be remembered for duplicate suppression?
+                            if (_duplicateSuppressionMatsMessageId != null) {
+                                // -> Yes, so record it as committed.
+                                EndpointConfig<R, S> endpointConfig = _jmsMatsStage.getParentEndpoint()
+                                        .getEndpointConfig();
+                                _jmsMatsStage.getDuplicateSuppression().recordCommitted(
+                                        _duplicateSuppressionMatsMessageId,
+                                        endpointConfig.getDuplicateSuppressionMaxMessageIds(),
+                                        endpointConfig.getDuplicateSuppressionWindowMillis());
+                                _duplicateSuppressionMatsMessageId = null;
+                            }
+                        }
                     }
                     catch (RuntimeException e) {
                         log.info(LOG_PREFIX + "Got [" + e.getClass().getName()
                                 + "] inside transactional message processing, which shall have been handled by"
                                 + " the MATS TransactionManager (rollback). Looping to fetch next message.");
+                        logFailedProcessingSummary(lifecycleLogging, "threw [" + e.getClass().getSimpleName()
+                                + "], rolled back", nanosStart);
+                        _jmsMatsStage.getCircuitBreaker().recordFailure(this,
+                                stageConfig.getCircuitBreakerFailureRatePercent(),
+                                stageConfig.getCircuitBreakerMinimumProcessings(),
+                                stageConfig.getCircuitBreakerWindowMillis(),
+                                stageConfig.getCircuitBreakerProbeIntervalMillis());
                         // No more to do, so loop. (Remember that this code is not involved in initiations..)
                         continue;
                     }
                     finally {
+                        // ?: Is the MatsMessageId still in flight, i.e. the processing did not commit?
+                        if (_duplicateSuppressionMatsMessageId != null) {
+                            // -> Yes, so release it, so that the redelivery is not taken as a duplicate.
+                            _jmsMatsStage.getDuplicateSuppression().releaseInFlight(_duplicateSuppressionMatsMessageId);
+                            _duplicateSuppressionMatsMessageId = null;
+                        }
+                        // If not committed, release the slots reserved for any messages for local delivery.
+                        jmsMatsMessageContext.releaseLocalDeliveries();
                         _jmsMatsStage.getParentFactory().clearCurrentThreadLocalMatsDemarcation();
 
                         JmsMatsContextLocalCallback.unbindResource(ProcessContext.class);
                     }
 
+                    // ?: Was the message refused, and thus rolled back? (doTransaction(..) returns nicely then.)
+                    if (!_processingCompleted) {
+                        // -> Yes, so summarize it if the lifecycle was not logged.
+                        logFailedProcessingSummary(lifecycleLogging, "refused, rolled back", nanosStart);
+                    }
+
+                    // ?: Was the message dropped as a duplicate, or as expired?
+                    if (_messageDropped) {
+                        // -> Yes, so there is nothing more to do: Loop to fetch next message.
+                        continue;
+                    }
+
                     // :: Handle the DoAfterCommit lambda.
                     try {
                         doAfterCommitRunnableHolder.runDoAfterCommitIfAny();
@@ -517,12 +921,36 @@ class JmsMatsStageProcessor<R, S, I, Z> implements JmsMatsStatics, JmsMatsTxCont
                     }
 
                     // :: Log final stats
-                    double millisTotal = (System.nanoTime() - nanosStart) / 1_000_000d;
+                    long nanosTotal = System.nanoTime() - nanosStart;
+                    statistics.recordTiming(Phase.TOTAL, nanosTotal);
+                    double millisTotal = nanosTotal / 1_000_000d;
                     MDC.put(MDC_MATS_TOTAL_PROCESS_TIME, Double.toString(ms3(millisTotal)));
-                    log.info(LOG_PREFIX + "PROCESSED: Total time from received till finished processing: ["
-                            + ms3(millisTotal) + " ms].");
+                    // ?: Are we logging the lifecycle of this message?
+                    if (logLifecycle) {
+                        // -> Yes, so log the final line.
+                        if (log.isInfoEnabled()) log.info(LOG_PREFIX + "PROCESSED: Total time from received till"
+                                + " finished processing: [" + ms3(millisTotal) + " ms].");
+                    }
+                    // ?: Are we in SLOW mode, and was this message slower than the threshold?
+                    else if ((lifecycleLogging.getMode() == Mode.SLOW)
+                            && (millisTotal > lifecycleLogging.getSlowThresholdMillis())) {
+                        // -> Yes, so log one summary line instead of the full lifecycle.
+                        if (log.isInfoEnabled()) log.info(LOG_PREFIX + "SLOW PROCESSED: Total time from received till"
+                                + " finished processing: [" + ms3(millisTotal) + " ms], exceeding threshold:["
+                                + lifecycleLogging.getSlowThresholdMillis() + " ms] - deserialize:["
+                                + ms3(_nanosDeserialize / 1_000_000d) + " ms], user lambda:["
+                                + ms3(_nanosUserLambda / 1_000_000d) + " ms], send:["
+                                + ms3(_nanosSend / 1_000_000d) + " ms], commit:["
+                                + ms3(nanosCommit / 1_000_000d) + " ms].");
+                    }
                     // MDC is cleared afterwards, at top of loop.
                 } // End: INNER RECEIVE-LOOP
+
+                // ?: Is this a local delivery processor?
+                if (_localDeliveryProcessor) {
+                    // -> Yes, so before exiting, forward any locally delivered messages not processed to the broker.
+                    forwardRemainingLocalMessagesToBroker();
+                }
             }
 
             catch (Throwable t) { // .. amongst which is JmsMatsJmsException & JMSException (and AssertionError..)
@@ -581,9 +1009,429 @@ class JmsMatsStageProcessor<R, S, I, Z> implements JmsMatsStatics, JmsMatsTxCont
         // log "exit line".
         log.info(LOG_PREFIX + ident() + " asked to exit, and that we do! Closing current JmsSessionHolder.");
         closeCurrentSessionHolder();
+        // If we were letting the circuit breaker's probe message through, hand the probe over to another processor.
+        _jmsMatsStage.getCircuitBreaker().releaseProbe(this);
         _jmsMatsStage.removeStageProcessorFromList(this);
     }
 
+    /**
+     * If the stage has duplicate suppression enabled, checks the incoming message's <code>MatsMessageId</code> - read
+     * from the JMS property, thus without deserializing the MatsTrace - against the stage's memory of committed and in
+     * flight ids, and then against any transactional store. If it is not a duplicate, the id is marked as in flight,
+     * and kept for recording when the processing completes - or releasing if it does not. Read more at
+     * {@link EndpointConfig#setDuplicateSuppression(int, long)}.
+     *
+     * @return <code>true</code> if the message is a duplicate of an already processed message, and shall be dropped.
+     */
+    private boolean isDuplicate(Message message, JmsMatsMessageContext jmsMatsMessageContext)
+            throws JmsMatsJmsException {
+        EndpointConfig<R, S> endpointConfig = _jmsMatsStage.getParentEndpoint().getEndpointConfig();
+        // ?: Is duplicate suppression enabled?
+        if (endpointConfig.getDuplicateSuppressionMaxMessageIds() == 0) {
+            // -> No, so not a duplicate.
+            return false;
+        }
+        String matsMessageId;
+        try {
+            matsMessageId = message.getStringProperty(JMS_MSG_PROP_MATS_MSG_ID);
+        }
+        catch (JMSException e) {
+            throw new JmsMatsJmsException("Got JMSException when getting the MatsMessageId from the JMS Message"
+                    + " by using message.getStringProperty(..).", e);
+        }
+        // ?: Did the message have a MatsMessageId? (Not if from an old sender - then it will fail later anyway)
+        if (matsMessageId == null) {
+            // -> No, so we cannot know.
+            return false;
+        }
+        boolean duplicate = _jmsMatsStage.getDuplicateSuppression().isDuplicateElseMarkInFlight(matsMessageId,
+                endpointConfig.getDuplicateSuppressionWindowMillis());
+        // ?: Not in memory, but do we have a transactional store?
+        if ((!duplicate) && jmsMatsMessageContext.getDuplicateSuppressionStore().isPresent()) {
+            // -> Yes, so ask it - keeping the in flight id first, so that it is released should the store throw.
+            _duplicateSuppressionMatsMessageId = matsMessageId;
+            duplicate = jmsMatsMessageContext.getDuplicateSuppressionStore().get()
+                    .isProcessed(_jmsMatsStage.getStageId(), matsMessageId);
+            // ?: Did the store know it?
+            if (duplicate) {
+                // -> Yes, so it is not in flight after all.
+                _jmsMatsStage.getDuplicateSuppression().releaseInFlight(matsMessageId);
+                _duplicateSuppressionMatsMessageId = null;
+            }
+        }
+        // ?: Is it a duplicate?
+        if (duplicate) {
+            // -> Yes, so it shall be dropped. Log loudly, as double deliveries are something that should be known.
+            MDC.put(MDC_MATS_MESSAGE_ID_IN, matsMessageId);
+            log.warn(LOG_PREFIX + "DUPLICATE DROPPED: The incoming message with MatsMessageId [" + matsMessageId
+                    + "] has already been processed, or is being processed, by stage [" + _jmsMatsStage.getStageId()
+                    + "].");
+            return true;
+        }
+        // E-> Not a duplicate, so keep the id for recording when the processing completes.
+        _duplicateSuppressionMatsMessageId = matsMessageId;
+        return false;
+    }
+
+    /**
+     * Checks the deadline of the incoming message's flow - read from the JMS property, thus without deserializing the
+     * MatsTrace - against the current time. Read more at {@link MatsInitiate#deadline(long)}. The drop is logged if
+     * the lifecycle of the message is logged, and is counted in the stage's statistics regardless.
+     *
+     * @return <code>true</code> if the deadline has passed, and the message shall be dropped.
+     */
+    private boolean isPastDeadline(Message message, boolean logLifecycle) throws JmsMatsJmsException {
+        long millisPast;
+        try {
+            // ?: Does the message have a deadline?
+            if (!message.propertyExists(JMS_MSG_PROP_DEADLINE)) {
+                // -> No, so it cannot have passed.
+                return false;
+            }
+            millisPast = System.currentTimeMillis() - message.getLongProperty(JMS_MSG_PROP_DEADLINE);
+            // ?: Has the deadline passed?
+            if (millisPast <= 0) {
+                // -> No, so process it.
+                return false;
+            }
+            MDC.put(MDC_TRACE_ID, message.getStringProperty(JMS_MSG_PROP_TRACE_ID));
+            MDC.put(MDC_MATS_MESSAGE_ID_IN, message.getStringProperty(JMS_MSG_PROP_MATS_MSG_ID));
+        }
+        catch (JMSException e) {
+            throw new JmsMatsJmsException("Got JMSException when getting the deadline from the JMS Message"
+                    + " by using message.get[Long|String]Property(..).", e);
+        }
+        // E-> The deadline has passed, so it shall be dropped.
+        if (logLifecycle && log.isInfoEnabled()) log.info(LOG_PREFIX + "EXPIRED DROPPED: The deadline of the"
+                + " incoming message's flow passed [" + millisPast + " ms] ago, so the remaining work is worthless -"
+                + " not processing it in stage [" + _jmsMatsStage.getStageId() + "].");
+        return true;
+    }
+
+    /**
+     * Handles the gather if this stage is the gather stage of a scatter - read more at
+     * {@link ProcessContext#scatter(String, List, long)}: A reply is added to the gather, while the timeout times it
+     * out - and if this completed, or timed out, the gather, the replies are provided to the ProcessContext. A reply or
+     * timeout for a gather unknown to the store is refused, so that it ends up on the DLQ instead of being lost - this
+     * happens if the endpoint runs on several nodes with a store that is not shared, e.g. the in-memory default.
+     *
+     * @return whether the stage lambda shall be invoked, i.e. <code>false</code> if this was a reply to a gather that
+     *         is not yet complete, or a reply or timeout to a gather that is done.
+     */
+    private boolean gather(MatsSerializer<Z> matsSerializer, MatsTrace<Z> matsTrace, Call<Z> currentCall,
+            JmsMatsProcessContext<R, S, Z> processContext, boolean logLifecycle) throws MatsRefuseMessageException {
+        String propertyName = TRACE_PROP_SCATTER_GATHER_PREFIX + _jmsMatsStage.getStageId();
+        Z serializedProperty = matsTrace.getTraceProperty(propertyName);
+        String property = serializedProperty != null
+                ? matsSerializer.deserializeObject(serializedProperty, String.class)
+                : null;
+        // ?: Is this message part of a scatter gathered by this stage?
+        if (property == null) {
+            // -> No, so ordinary processing.
+            return true;
+        }
+        // Property: "{gatherId}:{index}:{count}", where index -1 denotes the timeout.
+        String[] parts = property.split(":");
+        String gatherId = parts[0];
+        int index = Integer.parseInt(parts[1]);
+        int count = Integer.parseInt(parts[2]);
+        boolean timeout = index < 0;
+        // ?: Is this actually the reply, or the timeout? (Not e.g. a reply to a subsequent request of the flow.)
+        if (currentCall.getCallType() != (timeout ? CallType.NEXT : CallType.REPLY)) {
+            // -> No, so ordinary processing.
+            return true;
+        }
+        ScatterGatherStore store = _jmsMatsStage.getParentEndpoint().getEndpointConfig().getScatterGatherStore();
+        // ?: Does the store know the gather?
+        if (!store.isKnown(gatherId)) {
+            // -> No, so refuse the message, as it otherwise would be silently lost.
+            String msg = "Scatter-gather [" + gatherId + "]: " + (timeout ? "Timeout" : "Reply [" + index + "] of ["
+                    + count + "]") + " is for a gather unknown to the ScatterGatherStore of stage ["
+                    + _jmsMatsStage.getStageId() + "] - is the endpoint running on several nodes without a shared"
+                    + " store? Refusing this message!";
+            log.warn(LOG_PREFIX + msg);
+            throw new MatsRefuseMessageException(msg);
+        }
+        Map<Integer, Object> replies = timeout
+                ? store.timeout(gatherId)
+                : store.addReply(gatherId, index, currentCall.getData());
+        // ?: Is the gather done, i.e. both complete or timed out?
+        if (replies == null) {
+            // -> No, so either not yet complete, or this was a late reply or timeout for a gather that is done.
+            if (logLifecycle && log.isInfoEnabled()) log.info(LOG_PREFIX + "Scatter-gather [" + gatherId + "]: "
+                    + (timeout ? "Timeout" : "Reply [" + index + "] of [" + count + "]") + " is added to the gather,"
+                    + " or the gather is done - not invoking the stage lambda.");
+            return false;
+        }
+        // E-> The gather is done, so provide the replies to the stage lambda.
+        if (logLifecycle && log.isInfoEnabled()) log.info(LOG_PREFIX + "Scatter-gather [" + gatherId + "]: "
+                + (timeout ? "TIMED OUT with [" + replies.size() + "] of [" + count + "] replies"
+                        : "All [" + count + "] replies gathered") + " - invoking the stage lambda.");
+        _gatherIdToRemove = gatherId;
+        processContext.setGathered(propertyName, replies, count, timeout);
+        return true;
+    }
+
+    /**
+     * Decides whether the endpoint's reply cache is in effect for the incoming message - read more at
+     * {@link EndpointConfig#setReplyCache(int, long)} - and if so, gets the key: The result of the key function if
+     * set, otherwise the serialized incoming DTO.
+     *
+     * @return the key to look up and put the reply with, <code>null</code> if the reply cache is not in effect.
+     */
+    private Object getReplyCacheKey(Call<Z> currentCall, Object incomingDto) {
+        JmsMatsEndpoint<R, S, Z> endpoint = _jmsMatsStage.getParentEndpoint();
+        EndpointConfig<R, S> endpointConfig = endpoint.getEndpointConfig();
+        // ?: Is the reply cache enabled, and is this the sole stage of a queue-based endpoint with a reply?
+        if ((endpointConfig.getReplyCacheMaxEntries() == 0)
+                || (!_jmsMatsStage.isQueue())
+                || (endpoint.getStages().size() != 1)
+                || (endpointConfig.getReplyClass() == Void.class)
+                || (endpointConfig.getReplyClass() == void.class)) {
+            // -> No, so not in effect.
+            return null;
+        }
+        Function<Object, String> keyFunction = endpointConfig.getReplyCacheKeyFunction();
+        // ?: Is there a key function?
+        if (keyFunction != null) {
+            // -> Yes, so use its key (null if this request shall not be cached).
+            return keyFunction.apply(incomingDto);
+        }
+        // E-> No key function, so use the serialized DTO - wrapping a byte array, so that it is compared by contents.
+        Z data = currentCall.getData();
+        return data instanceof byte[] ? ByteBuffer.wrap((byte[]) data) : data;
+    }
+
+    /**
+     * Checks whether the incoming message has arrived before its time - read from the JMS property, thus without
+     * deserializing the MatsTrace. This happens when the broker does not effectuate the delay (no scheduler), in which
+     * case the message is parked by the {@link JmsMatsDelayedDelivery}, within this transaction. Only for queue
+     * stages: On a topic, the message is processed as is, as a parked message would be delivered to the topic's queue
+     * counterpart. Read more at {@link MatsInitiate#delay(long)}. The parking is logged if the lifecycle of the message
+     * is logged.
+     *
+     * @return whether the message arrived before its time, and was parked.
+     */
+    private boolean parkIfBeforeDeliverAt(Message message, boolean logLifecycle) throws JmsMatsJmsException {
+        // ?: Is this a topic stage, or a locally delivered message (which never is delayed)?
+        if ((!_jmsMatsStage.isQueue()) || (_localMessageInProcess != null)) {
+            // -> Yes, so process it.
+            return false;
+        }
+        long millisEarly;
+        try {
+            // ?: Is the message delayed?
+            if (!message.propertyExists(JMS_MSG_PROP_DELIVER_AT)) {
+                // -> No, so process it.
+                return false;
+            }
+            long deliverAtMillis = message.getLongProperty(JMS_MSG_PROP_DELIVER_AT);
+            millisEarly = deliverAtMillis - System.currentTimeMillis();
+            // ?: Has its time come?
+            if (millisEarly <= 0) {
+                // -> Yes, so process it.
+                return false;
+            }
+            MDC.put(MDC_TRACE_ID, message.getStringProperty(JMS_MSG_PROP_TRACE_ID));
+            MDC.put(MDC_MATS_MESSAGE_ID_IN, message.getStringProperty(JMS_MSG_PROP_MATS_MSG_ID));
+            getFactory().getDelayedDelivery().park(_jmsSessionHolder, message, deliverAtMillis);
+        }
+        catch (JMSException e) {
+            throw new JmsMatsJmsException("Got JMSException when getting the delivery time from the JMS Message"
+                    + " by using message.get[Long|String]Property(..), or when parking it for delayed delivery.", e);
+        }
+        if (logLifecycle && log.isInfoEnabled()) log.info(LOG_PREFIX + "DELAYED PARKED: The incoming message arrived ["
+                + millisEarly + " ms] before its time, so parking it for delayed delivery to stage ["
+                + _jmsMatsStage.getStageId() + "].");
+        return true;
+    }
+
+    /**
+     * @return the next stage to process inline if stage fusion applies to the outgoing messages of the specified stage,
+     *         otherwise <code>null</code> - read more at {@link EndpointConfig#setStageFusion(int)}. The max chain
+     *         length is that of this StageProcessor's stage, i.e. where the chain started.
+     */
+    private JmsMatsStage<R, S, ?, Z> getFusedNextStage(JmsMatsStage<R, S, ?, Z> stage,
+            List<JmsMatsMessage<Z>> outgoingMessages, int fusedHops) {
+        // ?: Is there exactly one outgoing message, and have we not yet reached the max chain length?
+        if ((outgoingMessages.size() != 1) || (fusedHops >= _jmsMatsStage.getStageConfig().getStageFusion())) {
+            // -> No, so no fusion.
+            return null;
+        }
+        // ?: Is the message delayed, or partitioned?
+        if ((outgoingMessages.get(0).getDeliverAtMillis() != 0)
+                || (outgoingMessages.get(0).getMatsTrace().getPartitionKey() != null)) {
+            // -> Yes, so it must go via the broker (or the delayed delivery): Not be processed right away, nor bypass
+            // the broker's pinning of the partition key to a consumer.
+            return null;
+        }
+        JmsMatsStage<R, S, ?, Z> nextStage = stage.getNextStage();
+        Call<Z> call = outgoingMessages.get(0).getMatsTrace().getCurrentCall();
+        // ?: Is the message a next() to the next stage, and is that stage running?
+        if ((nextStage == null)
+                || (call.getCallType() != CallType.NEXT)
+                || (!nextStage.getStageId().equals(call.getTo().getId()))
+                || (!nextStage.getStageConfig().isRunning())) {
+            // -> No, so no fusion.
+            return null;
+        }
+        // ?: Is the next stage rate limited?
+        if (nextStage.isRateLimited()) {
+            // -> Yes, so it must go via the broker, as fusion would bypass the rate limit.
+            return null;
+        }
+        // ?: Does the next stage have a circuit breaker, or its endpoint duplicate suppression?
+        if ((nextStage.getStageConfig().getCircuitBreakerFailureRatePercent() != 0)
+                || (nextStage.getParentEndpoint().getEndpointConfig().getDuplicateSuppressionMaxMessageIds() != 0)) {
+            // -> Yes, so it must go via the broker, as these act upon the reception of the message, which fusion
+            // would bypass. (The reply cache only applies to single-stage endpoints, which never fuse.)
+            return null;
+        }
+        // ?: Has the deadline of the flow passed?
+        long deadline = outgoingMessages.get(0).getMatsTrace().getDeadline();
+        if ((deadline != 0) && (System.currentTimeMillis() > deadline)) {
+            // -> Yes, so it must go via the broker, where the next stage drops it as expired.
+            return null;
+        }
+        return nextStage;
+    }
+
+    /**
+     * Processes the next stage inline ("stage fusion"), inside the current transaction: The outgoing NEXT message is
+     * deserialized from its serialized form, exactly as if it had been received via the broker, and the stage's
+     * process lambda is invoked with a fresh ProcessContext.
+     *
+     * @return the outgoing messages from the fused stage.
+     */
+    private <J> List<JmsMatsMessage<Z>> processFusedStage(JmsMatsStage<R, S, J, Z> fusedStage,
+            JmsMatsMessage<Z> nextMessage, JmsMatsMessageContext jmsMatsMessageContext,
+            DoAfterCommitRunnableHolder doAfterCommitRunnableHolder, boolean logLifecycle)
+            throws MatsRefuseMessageException {
+        long nanosStart = System.nanoTime();
+        JmsMatsStatistics statistics = fusedStage.getStatistics();
+
+        // :: Deserialize the MatsTrace from the outgoing message's serialized form.
+        SerializedMatsTrace serializedMatsTrace = nextMessage.getSerializedOutgoingMatsTrace();
+        byte[] matsTraceBytes = serializedMatsTrace.getMatsTraceBytes();
+        String matsTraceMeta = serializedMatsTrace.getMeta();
+        MatsSerializer<Z> matsSerializer = getFactory().getMatsSerializer();
+        MatsTrace<Z> matsTrace = matsSerializer.deserializeMatsTrace(matsTraceBytes, matsTraceMeta).getMatsTrace();
+        Call<Z> currentCall = matsTrace.getCurrentCall();
+        // A fused message has not been via the broker, thus has no JMSMessageID.
+        String systemMessageId = "fused:" + currentCall.getMatsMessageId();
+
+        // :: Setting MDC values for the fused stage
+        MDC.put(MDC_MATS_STAGE_ID, fusedStage.getStageId());
+        MDC.put(MDC_JMS_MESSAGE_ID_IN, systemMessageId);
+        MDC.put(MDC_MATS_RECEIVED_FROM, currentCall.getFrom());
+        MDC.put(MDC_MATS_MESSAGE_ID_IN, currentCall.getMatsMessageId());
+
+        S currentSto = handleIncomingState(matsSerializer, fusedStage.getStateClass(), matsTrace.getCurrentState());
+        J incomingDto = handleIncomingMessageMatsObject(matsSerializer, fusedStage.getIncomingMessageClass(),
+                currentCall.getData());
+
+        statistics.recordTiming(Phase.DESERIALIZE, System.nanoTime() - nanosStart);
+        statistics.recordBytesIn(matsTraceBytes.length);
+
+        if (logLifecycle && log.isInfoEnabled()) log.info(LOG_PREFIX + "FUSED: processing message from ["
+                + currentCall.getFrom() + "] inline, in the same transaction, instead of via the broker.");
+
+        List<JmsMatsMessage<Z>> messagesToSend = new ArrayList<>();
+        LinkedHashMap<String, Object> outgoingProps = new LinkedHashMap<>();
+        // The fused stage gets its own holder, so that it does not overwrite any doAfterCommit of the previous stage.
+        DoAfterCommitRunnableHolder fusedDoAfterCommitRunnableHolder = new DoAfterCommitRunnableHolder();
+        Supplier<MatsInitiate> initiateSupplier = () -> new JmsMatsInitiate<>(getFactory(),
+                messagesToSend, jmsMatsMessageContext, fusedDoAfterCommitRunnableHolder,
+                matsTrace, outgoingProps);
+
+        getFactory().setCurrentThreadLocalMatsDemarcation(initiateSupplier);
+
+        // .. create the ProcessContext - the sideloads are those of the outgoing message.
+        JmsMatsProcessContext<R, S, Z> processContext = new JmsMatsProcessContext<>(
+                getFactory(),
+                fusedStage.getParentEndpoint().getEndpointId(),
+                fusedStage.getStageId(),
+                systemMessageId,
+                fusedStage.getNextStageId(),
+                matsTraceBytes, 0, matsTraceBytes.length, matsTraceMeta,
+                matsTrace,
+                currentSto,
+                initiateSupplier,
+                IncomingSideloads.fromMaps(nextMessage.getBytes(), nextMessage.getStrings()),
+                messagesToSend, jmsMatsMessageContext,
+                outgoingProps,
+                fusedDoAfterCommitRunnableHolder);
+
+        // .. stick the ProcessContext into the ThreadLocal scope, replacing the previous stage's.
+        JmsMatsContextLocalCallback.bindResource(ProcessContext.class, processContext);
+
+        // .. actually process the user code
+        long nanosStartLambda = System.nanoTime();
+        fusedStage.getProcessLambda().process(processContext, currentSto, incomingDto);
+        statistics.recordTiming(Phase.USER_LAMBDA, System.nanoTime() - nanosStartLambda);
+
+        doAfterCommitRunnableHolder.chain(fusedDoAfterCommitRunnableHolder);
+        return messagesToSend;
+    }
+
+    /**
+     * Forwards the {@link #_localMessageInProcess locally delivered message} whose processing did not complete to the
+     * broker, in a separate transaction, so that the ordinary redelivery and DLQ logic apply.
+     */
+    private void forwardLocalMessageToBroker() throws JMSException {
+        LocalMessage localMessage = _localMessageInProcess;
+        // ?: Has the message expired?
+        if (localMessage.isExpired()) {
+            // -> Yes, so drop it instead, as the broker would.
+            log.info(LOG_PREFIX + "Dropping locally delivered message [" + localMessage.getLocalMessageId()
+                    + "] not processed to completion by [" + ident() + "], as its time-to-live expired.");
+            _localMessageInProcess = null;
+            return;
+        }
+        log.info(LOG_PREFIX + "Forwarding locally delivered message [" + localMessage.getLocalMessageId()
+                + "] to the broker, as it was not processed to completion by [" + ident() + "].");
+        _jmsSessionHolder.getDefaultNoDestinationMessageProducer().send(localMessage.getDestination(),
+                localMessage.getMessage(), localMessage.getDeliveryMode(), localMessage.getPriority(),
+                localMessage.getRemainingTimeToLive());
+        // ?: Is the JMS Session transacted? (Not if non-transacted DUPS_OK, where the send is immediate)
+        if (_jmsSessionHolder.isTransacted()) {
+            // -> Yes, so commit the send.
+            _jmsSessionHolder.getSession().commit();
+        }
+        _localMessageInProcess = null;
+    }
+
+    /**
+     * Warns, once per StageProcessor, if a persistent message arrives on a non-transacted DUPS_OK StageProcessor, as
+     * the sender presumably did not expect that it might be lost.
+     */
+    private void warnIfPersistentOnNonTransacted(Message message) throws JMSException {
+        // ?: Are we transacted, or have we already warned?
+        if (_jmsSessionHolder.isTransacted() || _persistentOnNonTransactedWarned) {
+            // -> Yes, so nothing to do.
+            return;
+        }
+        int deliveryMode = _localMessageInProcess != null
+                ? _localMessageInProcess.getDeliveryMode()
+                : message.getJMSDeliveryMode();
+        if (deliveryMode == DeliveryMode.PERSISTENT) {
+            _persistentOnNonTransactedWarned = true;
+            log.warn(LOG_PREFIX + "Got a persistent message on [" + ident() + "], whose Endpoint is non-transacted"
+                    + " DUPS_OK: Such an Endpoint should only receive nonPersistent messages, as a message is dropped"
+                    + " if the stage lambda throws. (This is only warned about once per StageProcessor)");
+        }
+    }
+
+    private void forwardRemainingLocalMessagesToBroker() throws JMSException {
+        if (_localMessageInProcess == null) {
+            _localMessageInProcess = _jmsMatsStage.getLocalDelivery().pollNow();
+        }
+        while (_localMessageInProcess != null) {
+            forwardLocalMessageToBroker();
+            _localMessageInProcess = _jmsMatsStage.getLocalDelivery().pollNow();
+        }
+    }
+
     private void clearAndSetStaticMdcValues() {
         // NOTE: The StageProcessor /owns/ this thread, so we do not need to bother about cleanliness of MDC handling.
         // Just clear the MDC.
@@ -591,9 +1439,7 @@ class JmsMatsStageProcessor<R, S, I, Z> implements JmsMatsStatics, JmsMatsTxCont
 
         // Set the "static" values again
         MDC.put(MDC_MATS_STAGE_ID, _jmsMatsStage.getStageId());
-        // Notice that this is the qualifier of processor id, needs to take the stageId as prefix.
-        // .. but to save some space, we don't repeat that.
-        MDC.put(MDC_MATS_PROCESSOR_ID, '#' + _processorNumber + " {" + _randomInstanceId + '}');
+        MDC.put(MDC_MATS_PROCESSOR_ID, _processorIdMdcValue);
         MDC.put(MDC_MATS_INCOMING, "true");
     }
 
@@ -611,17 +1457,59 @@ class JmsMatsStageProcessor<R, S, I, Z> implements JmsMatsStatics, JmsMatsTxCont
         chillWait(4500 + Math.round(Math.random() * 1000));
     }
 
+    /**
+     * Waits until the stage's rate limit lets this StageProcessor take the token, which it holds while receiving - read
+     * more at {@link StageConfig#setRateLimit(double, int)}.
+     *
+     * @return <code>true</code> if the token was taken, <code>false</code> if the StageProcessor was stopped, or the
+     *         rate limit was removed, while waiting.
+     */
+    private boolean acquireRateLimitToken(StageConfig<R, S, I> stageConfig) {
+        while (_runFlag) {
+            double rateLimit = stageConfig.getRateLimitMessagesPerSecond();
+            // ?: Is the stage still rate limited? (May be changed while running.)
+            if (rateLimit == 0) {
+                // -> No, so no token to take.
+                return false;
+            }
+            long nanosToWait = _jmsMatsStage.getRateLimiter().tryAcquire(rateLimit / stageConfig.getRateLimitNodes());
+            // ?: Did we get the token?
+            if (nanosToWait == 0) {
+                // -> Yes, so receive.
+                return true;
+            }
+            // E-> No, so wait, and then loop, thus checking the run-flag and asking again.
+            try {
+                long millisToWait = Math.min(RATE_LIMIT_MAX_WAIT_MILLIS, nanosToWait / 1_000_000L);
+                Thread.sleep(millisToWait, millisToWait == RATE_LIMIT_MAX_WAIT_MILLIS
+                        ? 0
+                        : (int) (nanosToWait % 1_000_000L));
+            }
+            catch (InterruptedException e) {
+                if (log.isDebugEnabled()) log.debug(LOG_PREFIX + "Interrupted while waiting for the rate limit,"
+                        + " looping to check run-flag.");
+            }
+        }
+        return false;
+    }
+
     private Destination createJmsDestination(Session jmsSession, FactoryConfig factoryConfig) throws JMSException {
         Destination destination;
         String destinationName = factoryConfig.getMatsDestinationPrefix() + _jmsMatsStage.getStageId();
+        // The prefetch is applied by the Destination, as JMS has no standard way to set it on the MessageConsumer.
+        int prefetch = _jmsMatsStage.getStageConfig().getPrefetch();
+        String consumerDestinationName = JmsMatsMessageBrokerSpecifics.consumerDestinationName(jmsSession,
+                destinationName, prefetch);
         if (_jmsMatsStage.isQueue()) {
-            destination = jmsSession.createQueue(destinationName);
+            destination = jmsSession.createQueue(consumerDestinationName);
         }
         else {
-            destination = jmsSession.createTopic(destinationName);
+            destination = jmsSession.createTopic(consumerDestinationName);
         }
         log.info(LOG_PREFIX + "Created JMS " + (_jmsMatsStage.isQueue() ? "Queue" : "Topic") + ""
-                + " to receive from: [" + destination + "].");
+                + " to receive from: [" + destination + "], prefetch:[" + (prefetch == -1
+                        ? "ConnectionFactory's"
+                        : prefetch) + "].");
         return destination;
     }
 
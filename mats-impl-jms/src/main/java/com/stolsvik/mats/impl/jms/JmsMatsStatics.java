@@ -1,5 +1,6 @@
 package com.stolsvik.mats.impl.jms;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -7,26 +8,29 @@ import java.util.Map.Entry;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.function.Supplier;
 
+import javax.jms.BytesMessage;
 import javax.jms.DeliveryMode;
 import javax.jms.Destination;
 import javax.jms.JMSException;
 import javax.jms.MapMessage;
-import javax.jms.MessageProducer;
+import javax.jms.Message;
 import javax.jms.Session;
 
 import org.slf4j.Logger;
 import org.slf4j.MDC;
 
+import com.stolsvik.mats.MatsConfig.LifecycleLogging;
 import com.stolsvik.mats.MatsEndpoint.MatsObject;
 import com.stolsvik.mats.MatsFactory.FactoryConfig;
 import com.stolsvik.mats.MatsInitiator.MatsInitiate;
+import com.stolsvik.mats.impl.jms.JmsMatsDestinationCache.CachedDestination;
 import com.stolsvik.mats.impl.jms.JmsMatsJmsSessionHandler.JmsSessionHolder;
+import com.stolsvik.mats.impl.jms.JmsMatsLocalDelivery.LocalMessage;
 import com.stolsvik.mats.impl.jms.JmsMatsTransactionManager.JmsMatsTxContextKey;
 import com.stolsvik.mats.serial.MatsSerializer;
 import com.stolsvik.mats.serial.MatsSerializer.SerializedMatsTrace;
 import com.stolsvik.mats.serial.MatsTrace;
 import com.stolsvik.mats.serial.MatsTrace.Call.Channel;
-import com.stolsvik.mats.serial.MatsTrace.Call.MessagingModel;
 
 public interface JmsMatsStatics {
 
@@ -65,6 +69,17 @@ public interface JmsMatsStatics {
     String JMS_MSG_PROP_NO_AUDIT = "mats.NoAudit"; // Boolean: true/not set.
     String JMS_MSG_PROP_MATS_MSG_ID = "mats.MatsMsgId"; // String
     String JMS_MSG_PROP_TRACE_ID = "mats.TraceId"; // String
+    String JMS_MSG_PROP_DEADLINE = "mats.Deadline"; // Long: Java epoch millis/not set.
+    String JMS_MSG_PROP_DELIVER_AT = "mats.DeliverAt"; // Long: Java epoch millis/not set.
+    String JMS_MSG_PROP_GROUP_ID = "JMSXGroupID"; // String: The partition key/not set. (JMS defined)
+
+    // MatsTrace property correlating the replies of a scatter-gather, suffixed by the gather stage's StageId, so that
+    // nested scatter-gathers do not clash. Value: "{gatherId}:{index}:{count}", where index -1 denotes the timeout.
+    String TRACE_PROP_SCATTER_GATHER_PREFIX = "mats.ScatterGather:";
+
+    // MatsTrace property on each reply chunk of a streamed reply, cleared by the receiving stage so that it does not
+    // propagate further down the flow. Value: "{sequence}:{last}", where last is "true" or "false".
+    String TRACE_PROP_CHUNK = "mats.Chunk";
 
     /**
      * Number of milliseconds to "extra wait" after timeoutMillis or gracefulShutdownMillis is gone.
@@ -86,6 +101,9 @@ public interface JmsMatsStatics {
 
         private final double _totalProductionTimeMillis;
 
+        // Java epoch millis, 0 meaning right away. Not final, as it is set after production, by the sender.
+        private long _deliverAtMillis;
+
         public JmsMatsMessage(String what, MatsTrace<Z> matsTrace, Map<String, byte[]> bytes,
                 Map<String, String> strings,
                 SerializedMatsTrace serializedOutgoingMatsTrace, double totalProductionTimeMillis) {
@@ -120,14 +138,31 @@ public interface JmsMatsStatics {
         public double getTotalProductionTimeMillis() {
             return _totalProductionTimeMillis;
         }
+
+        /**
+         * Delays the delivery of this message, read more at {@link MatsInitiate#delay(long)}.
+         */
+        void setDeliverAtMillis(long deliverAtMillis) {
+            _deliverAtMillis = deliverAtMillis;
+        }
+
+        /**
+         * @return when this message shall be delivered as Java epoch millis, <code>0</code> meaning right away.
+         */
+        public long getDeliverAtMillis() {
+            return _deliverAtMillis;
+        }
     }
 
     /**
      * Common message production method - handles commonalities.
      *
      * <b>Notice that the props-, bytes- and Strings-Maps come back cleared.</b>
+     * <p/>
+     * The "PRODUCED" lifecycle log line is only output if <code>logLifecycle</code> is <code>true</code>, as decided by
+     * the {@link LifecycleLogging} policy in effect for the message (the MDC is set regardless).
      */
-    default <Z> JmsMatsMessage<Z> produceJmsMatsMessage(Logger log, long nanosStart,
+    default <Z> JmsMatsMessage<Z> produceJmsMatsMessage(Logger log, boolean logLifecycle, long nanosStart,
             MatsSerializer<Z> serializer,
             MatsTrace<Z> outgoingMatsTrace,
             HashMap<String, Object> props,
@@ -140,7 +175,7 @@ public interface JmsMatsStatics {
             MDC.put(MDC_MATS_MESSAGE_ID_OUT, outgoingMatsTrace.getCurrentCall().getMatsMessageId());
             MDC.put(MDC_MATS_MESSAGE_SEND_FROM, outgoingMatsTrace.getCurrentCall().getFrom());
             MDC.put(MDC_MATS_MESSAGE_SEND_TO, outgoingMatsTrace.getCurrentCall().getTo().getId());
-            MDC.put(MDC_MATS_MESSAGE_SEND_AUDIT, "" + (!outgoingMatsTrace.isNoAudit()));
+            MDC.put(MDC_MATS_MESSAGE_SEND_AUDIT, Boolean.toString(!outgoingMatsTrace.isNoAudit()));
             // :: Add the MatsTrace properties
             for (Entry<String, Object> entry : props.entrySet()) {
                 outgoingMatsTrace.setTraceProperty(entry.getKey(), serializer.serializeObject(entry.getValue()));
@@ -152,12 +187,21 @@ public interface JmsMatsStatics {
             SerializedMatsTrace serializedOutgoingMatsTrace = serializer.serializeMatsTrace(outgoingMatsTrace);
 
             // :: Clone the bytes and strings Maps, and then clear the local Maps for any next message.
-            @SuppressWarnings("unchecked")
-            HashMap<String, byte[]> bytesCopied = (HashMap<String, byte[]>) bytes.clone();
-            bytes.clear();
-            @SuppressWarnings("unchecked")
-            HashMap<String, String> stringsCopied = (HashMap<String, String>) strings.clone();
-            strings.clear();
+            // (Most messages do not have sideloads, so avoid the clone if empty)
+            Map<String, byte[]> bytesCopied = Collections.emptyMap();
+            if (!bytes.isEmpty()) {
+                @SuppressWarnings("unchecked")
+                HashMap<String, byte[]> bytesCloned = (HashMap<String, byte[]>) bytes.clone();
+                bytesCopied = bytesCloned;
+                bytes.clear();
+            }
+            Map<String, String> stringsCopied = Collections.emptyMap();
+            if (!strings.isEmpty()) {
+                @SuppressWarnings("unchecked")
+                HashMap<String, String> stringsCloned = (HashMap<String, String>) strings.clone();
+                stringsCopied = stringsCloned;
+                strings.clear();
+            }
 
             double totalProductionTimeMillis = (System.nanoTime() - nanosStart) / 1_000_000d;
 
@@ -166,8 +210,8 @@ public interface JmsMatsStatics {
                     serializedOutgoingMatsTrace, totalProductionTimeMillis);
 
             // Log
-            log.info(LOG_PREFIX + "PRODUCED [" + what + "] message to [" + matsFactoryName + "|"
-                    + outgoingMatsTrace.getCurrentCall().getTo()
+            if (logLifecycle && log.isInfoEnabled()) log.info(LOG_PREFIX + "PRODUCED [" + what + "] message to ["
+                    + matsFactoryName + "|" + outgoingMatsTrace.getCurrentCall().getTo()
                     + "], MT->serialize:[" + serializedOutgoingMatsTrace.getSizeUncompressed()
                     + " B, " + ms3(serializedOutgoingMatsTrace.getMillisSerialization())
                     + " ms]->comp:[" + serializedOutgoingMatsTrace.getMeta()
@@ -197,10 +241,16 @@ public interface JmsMatsStatics {
     }
 
     /**
-     * Send a bunch of {@link JmsMatsMessage}s.
+     * Send a bunch of {@link JmsMatsMessage}s. The "SENT" lifecycle log lines are only output if the
+     * {@link JmsMatsMessageContext#isLifecycleLogging()}.
+     * <p/>
+     * Messages eligible for local delivery (read more at {@link FactoryConfig#setLocalDelivery(boolean)}) are not sent,
+     * but registered on the {@link JmsMatsMessageContext}, which hands them off after the transaction has committed.
      */
-    default <Z> void sendMatsMessages(Logger log, long nanosStart, JmsSessionHolder jmsSessionHolder,
+    default <Z> void sendMatsMessages(Logger log, long nanosStart, JmsMatsMessageContext jmsMatsMessageContext,
             JmsMatsFactory<Z> jmsMatsFactory, List<JmsMatsMessage<Z>> messagesToSend) throws JmsMatsJmsException {
+        boolean logLifecycle = jmsMatsMessageContext.isLifecycleLogging();
+        JmsSessionHolder jmsSessionHolder = jmsMatsMessageContext.getJmsSessionHolder();
         try { // :: try-finally: Remove MDC_MATS_OUTGOING
             MDC.put(MDC_MATS_OUTGOING, "true");
             if (messagesToSend.isEmpty()) {
@@ -210,7 +260,7 @@ public interface JmsMatsStatics {
             Session jmsSession = jmsSessionHolder.getSession();
             if (log.isDebugEnabled()) log.debug(LOG_PREFIX + "Sending [" + messagesToSend.size() + "] messages.");
 
-            MessageProducer messageProducer = jmsSessionHolder.getDefaultNoDestinationMessageProducer();
+            JmsMatsDestinationCache destinationCache = jmsSessionHolder.getDestinationCache();
 
             long nanosStartSendingMessages = System.nanoTime();
             for (JmsMatsMessage<Z> jmsMatsMessage : messagesToSend) {
@@ -225,25 +275,38 @@ public interface JmsMatsStatics {
                     MDC.put(MDC_MATS_MESSAGE_ID_OUT, outgoingMatsTrace.getCurrentCall().getMatsMessageId());
                     MDC.put(MDC_MATS_MESSAGE_SEND_FROM, outgoingMatsTrace.getCurrentCall().getFrom());
                     MDC.put(MDC_MATS_MESSAGE_SEND_TO, toChannel.getId());
-                    MDC.put(MDC_MATS_MESSAGE_SEND_AUDIT, "" + (!outgoingMatsTrace.isNoAudit()));
+                    MDC.put(MDC_MATS_MESSAGE_SEND_AUDIT, Boolean.toString(!outgoingMatsTrace.isNoAudit()));
                     byte[] matsTraceBytes = jmsMatsMessage.getSerializedOutgoingMatsTrace().getMatsTraceBytes();
 
                     // Get FactoryConfig
                     FactoryConfig factoryConfig = jmsMatsFactory.getFactoryConfig();
 
-                    // Create the JMS MapMessage that will be sent.
-                    MapMessage mm = jmsSession.createMapMessage();
-                    // Set the MatsTrace.
-                    mm.setBytes(factoryConfig.getMatsTraceKey(), matsTraceBytes);
-                    mm.setString(factoryConfig.getMatsTraceKey() + MatsSerializer.META_KEY_POSTFIX,
-                            jmsMatsMessage.getSerializedOutgoingMatsTrace().getMeta());
-
-                    // :: Add the Mats properties to the MapMessage
-                    for (Entry<String, byte[]> entry : jmsMatsMessage.getBytes().entrySet()) {
-                        mm.setBytes(entry.getKey(), entry.getValue());
+                    Message mm;
+                    // ?: Shall we use the BytesMessage wire format?
+                    if (jmsMatsFactory.isBytesMessageWireFormat()) {
+                        // -> Yes, so create a JMS BytesMessage, with the MatsTrace and properties in one frame.
+                        BytesMessage bm = jmsSession.createBytesMessage();
+                        JmsMatsBytesMessageFrame.write(bm, matsTraceBytes,
+                                jmsMatsMessage.getSerializedOutgoingMatsTrace().getMeta(),
+                                jmsMatsMessage.getBytes(), jmsMatsMessage.getStrings());
+                        mm = bm;
                     }
-                    for (Entry<String, String> entry : jmsMatsMessage.getStrings().entrySet()) {
-                        mm.setString(entry.getKey(), entry.getValue());
+                    else {
+                        // -> No, so create the JMS MapMessage that will be sent.
+                        MapMessage mapMessage = jmsSession.createMapMessage();
+                        // Set the MatsTrace.
+                        mapMessage.setBytes(factoryConfig.getMatsTraceKey(), matsTraceBytes);
+                        mapMessage.setString(factoryConfig.getMatsTraceKey() + MatsSerializer.META_KEY_POSTFIX,
+                                jmsMatsMessage.getSerializedOutgoingMatsTrace().getMeta());
+
+                        // :: Add the Mats properties to the MapMessage
+                        for (Entry<String, byte[]> entry : jmsMatsMessage.getBytes().entrySet()) {
+                            mapMessage.setBytes(entry.getKey(), entry.getValue());
+                        }
+                        for (Entry<String, String> entry : jmsMatsMessage.getStrings().entrySet()) {
+                            mapMessage.setString(entry.getKey(), entry.getValue());
+                        }
+                        mm = mapMessage;
                     }
 
                     // :: Add some JMS Properties to simplify logging on MQ
@@ -255,6 +318,16 @@ public interface JmsMatsStatics {
                     if (outgoingMatsTrace.isNoAudit()) {
                         mm.setBooleanProperty(JMS_MSG_PROP_NO_AUDIT, true);
                     }
+                    // Also for the receiver, so that it can drop expired work without deserializing the MatsTrace.
+                    if (outgoingMatsTrace.getDeadline() != 0) {
+                        mm.setLongProperty(JMS_MSG_PROP_DEADLINE, outgoingMatsTrace.getDeadline());
+                    }
+                    // ?: Is the flow partitioned?
+                    if (outgoingMatsTrace.getPartitionKey() != null) {
+                        // -> Yes, so let the broker pin the key to one consumer, read more at
+                        // MatsInitiate.partitionKey(..).
+                        mm.setStringProperty(JMS_MSG_PROP_GROUP_ID, outgoingMatsTrace.getPartitionKey());
+                    }
 
                     // Setting DeliveryMode: NonPersistent or Persistent
                     int deliveryMode = outgoingMatsTrace.isNonPersistent()
@@ -267,22 +340,46 @@ public interface JmsMatsStatics {
                     // Get Time-To-Live
                     long timeToLive = outgoingMatsTrace.getTimeToLive();
 
-                    // :: Create the JMS Queue or Topic.
-                    // TODO: OPTIMIZE: Cache these?!
-                    Destination destination = toChannel.getMessagingModel() == MessagingModel.QUEUE
-                            ? jmsSession.createQueue(factoryConfig.getMatsDestinationPrefix() + toChannel.getId())
-                            : jmsSession.createTopic(factoryConfig.getMatsDestinationPrefix() + toChannel.getId());
+                    // ?: Shall the delivery of this message be delayed?
+                    long deliverAtMillis = jmsMatsMessage.getDeliverAtMillis();
+                    if (deliverAtMillis != 0) {
+                        // -> Yes, so set when, so that the receiver can hold it if it arrives before its time
+                        mm.setLongProperty(JMS_MSG_PROP_DELIVER_AT, deliverAtMillis);
+                        // .. and employ the broker's scheduler, if we know how.
+                        JmsMatsMessageBrokerSpecifics.setScheduledDelivery(jmsSession, mm,
+                                deliverAtMillis - System.currentTimeMillis());
+                    }
 
-                    // :: Send the message (but since transactional, won't be committed until TransactionContext does).
-                    messageProducer.send(destination, mm, deliveryMode, priority, timeToLive);
+                    // :: Get the JMS Queue or Topic, cached per JMS Session.
+                    CachedDestination cachedDestination = destinationCache.getDestination(
+                            toChannel.getMessagingModel(), factoryConfig.getMatsDestinationPrefix(), toChannel.getId());
+                    Destination destination = cachedDestination.getDestination();
+
+                    // ?: Shall this message be delivered locally, in-JVM? (Not if delayed)
+                    JmsMatsLocalDelivery localDelivery = deliverAtMillis == 0
+                            ? jmsMatsFactory.reserveLocalDelivery(outgoingMatsTrace)
+                            : null;
+                    if (localDelivery != null) {
+                        // -> Yes, so register it for handoff after commit, instead of sending it to the broker.
+                        String localMessageId = "local:" + outgoingMatsTrace.getCurrentCall().getMatsMessageId();
+                        jmsMatsMessageContext.addLocalDelivery(localDelivery, new LocalMessage(localMessageId, mm,
+                                destination, deliveryMode, priority, timeToLive));
+                        MDC.put(MDC_JMS_MESSAGE_ID_OUT, localMessageId);
+                    }
+                    else {
+                        // -> No, so send the message (but since transactional, won't be committed until
+                        // TransactionContext does).
+                        destinationCache.send(cachedDestination, mm, deliveryMode, priority, timeToLive);
 
-                    // We now have a JMSMessageID, so set it on MDC for outgoing.
-                    MDC.put(MDC_JMS_MESSAGE_ID_OUT, mm.getJMSMessageID());
+                        // We now have a JMSMessageID, so set it on MDC for outgoing.
+                        MDC.put(MDC_JMS_MESSAGE_ID_OUT, mm.getJMSMessageID());
+                    }
 
                     // Log it.
                     long nanosAtSent = System.nanoTime();
                     double millisSend = (nanosAtSent - nanosStartSend) / 1_000_000d;
-                    log.info(LOG_PREFIX + "SENT [" + jmsMatsMessage.getWhat() + "] message to ["
+                    if (logLifecycle && log.isInfoEnabled()) log.info(LOG_PREFIX + "SENT [" + jmsMatsMessage.getWhat()
+                            + "] message " + (localDelivery != null ? "LOCALLY " : "") + "to ["
                             + jmsMatsFactory.getFactoryConfig().getName() + "|" + destination
                             + "], msg creation + send took:[" + ms3(millisSend) + " ms] (production was:["
                             + ms3(jmsMatsMessage.getTotalProductionTimeMillis()) + " ms])"
@@ -314,7 +411,7 @@ public interface JmsMatsStatics {
                 }
             }
             // Only log tally-line if we sent more than one message
-            if (messagesToSend.size() > 1) {
+            if ((messagesToSend.size() > 1) && logLifecycle && log.isInfoEnabled()) {
                 long nanosFinal = System.nanoTime();
                 double millisSendingMessags = (nanosFinal - nanosStartSendingMessages) / 1_000_000d;
                 double millisTotal = (nanosFinal - nanosStart) / 1_000_000d;
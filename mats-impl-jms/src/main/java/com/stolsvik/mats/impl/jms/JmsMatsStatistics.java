@@ -0,0 +1,335 @@
+package com.stolsvik.mats.impl.jms;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.stolsvik.mats.MatsStatistics;
+import com.stolsvik.mats.impl.jms.JmsMatsStatics.JmsMatsMessage;
+
+/**
+ * The JMS Mats implementation of {@link MatsStatistics}, one instance per {@link JmsMatsStage} and per
+ * {@link JmsMatsInitiator}. Recording is lock-free and allocation-free, so that it can be done for every message on the
+ * hot path: Each histogram is an {@link AtomicLongArray} of log-linear buckets (in the style of HdrHistogram), where
+ * values below 32 gets an exact bucket each, while larger values are bucketed by their highest set bit, with each
+ * power-of-two range split into 16 linear sub-buckets - giving a maximum relative error of 1/16 for any percentile.
+ */
+class JmsMatsStatistics implements MatsStatistics {
+
+    private final EnumMap<Phase, LogLinearHistogram> _timings = new EnumMap<>(Phase.class);
+    private final LogLinearHistogram _bytesIn = new LogLinearHistogram();
+    private final LogLinearHistogram _bytesOut = new LogLinearHistogram();
+    private final AtomicLong _duplicatesDropped = new AtomicLong();
+    private final AtomicLong _expiredDropped = new AtomicLong();
+    private final AtomicLong _replyCacheHits = new AtomicLong();
+    private final AtomicLong _replyCacheMisses = new AtomicLong();
+    private final AtomicLong _replyCacheEvictions = new AtomicLong();
+    // Keyed by StageProcessor qualifier - only populated if partitioned messages are received.
+    private final ConcurrentHashMap<String, KeyGroupCounter> _partitionKeyGroups = new ConcurrentHashMap<>();
+
+    JmsMatsStatistics() {
+        for (Phase phase : Phase.values()) {
+            _timings.put(phase, new LogLinearHistogram());
+        }
+    }
+
+    void recordTiming(Phase phase, long nanos) {
+        _timings.get(phase).record(nanos);
+    }
+
+    void recordTimingMillis(Phase phase, double millis) {
+        _timings.get(phase).record((long) (millis * 1_000_000d));
+    }
+
+    /**
+     * Records {@link Phase#PRODUCE} and {@link #getBytesOut() bytes out} for each of the outgoing messages, and the
+     * total {@link Phase#SEND} time for sending them.
+     */
+    void recordOutgoing(List<? extends JmsMatsMessage<?>> messagesSent, long nanosSend) {
+        // Indexed loop, to not allocate an Iterator on the hot path (the List is an ArrayList).
+        for (int i = 0; i < messagesSent.size(); i++) {
+            JmsMatsMessage<?> message = messagesSent.get(i);
+            recordTimingMillis(Phase.PRODUCE, message.getTotalProductionTimeMillis());
+            _bytesOut.record(message.getSerializedOutgoingMatsTrace().getMatsTraceBytes().length);
+        }
+        _timings.get(Phase.SEND).record(nanosSend);
+    }
+
+    void recordBytesIn(long bytes) {
+        _bytesIn.record(bytes);
+    }
+
+    void recordDuplicateDropped() {
+        _duplicatesDropped.incrementAndGet();
+    }
+
+    void recordExpiredDropped() {
+        _expiredDropped.incrementAndGet();
+    }
+
+    void recordReplyCacheHit() {
+        _replyCacheHits.incrementAndGet();
+    }
+
+    void recordReplyCacheMiss() {
+        _replyCacheMisses.incrementAndGet();
+    }
+
+    void recordReplyCacheEviction() {
+        _replyCacheEvictions.incrementAndGet();
+    }
+
+    void recordPartitioned(String processorQualifier, String partitionKey) {
+        _partitionKeyGroups.computeIfAbsent(processorQualifier, qualifier -> new KeyGroupCounter())
+                .record(partitionKey);
+    }
+
+    @Override
+    public Histogram getTiming(Phase phase) {
+        return _timings.get(phase).snapshot();
+    }
+
+    @Override
+    public Histogram getBytesIn() {
+        return _bytesIn.snapshot();
+    }
+
+    @Override
+    public Histogram getBytesOut() {
+        return _bytesOut.snapshot();
+    }
+
+    @Override
+    public long getDuplicatesDropped() {
+        return _duplicatesDropped.get();
+    }
+
+    @Override
+    public long getExpiredDropped() {
+        return _expiredDropped.get();
+    }
+
+    @Override
+    public long getReplyCacheHits() {
+        return _replyCacheHits.get();
+    }
+
+    @Override
+    public long getReplyCacheMisses() {
+        return _replyCacheMisses.get();
+    }
+
+    @Override
+    public long getReplyCacheEvictions() {
+        return _replyCacheEvictions.get();
+    }
+
+    @Override
+    public Map<String, PartitionKeyGroups> getPartitionKeyGroups() {
+        // ?: Any partitioned messages received?
+        if (_partitionKeyGroups.isEmpty()) {
+            // -> No, so empty.
+            return Collections.emptyMap();
+        }
+        // Sorted by qualifier, for readability.
+        TreeMap<String, PartitionKeyGroups> snapshot = new TreeMap<>();
+        _partitionKeyGroups.forEach((qualifier, counter) -> snapshot.put(qualifier, counter.snapshot()));
+        return snapshot;
+    }
+
+    @Override
+    public String toString() {
+        Histogram total = getTiming(Phase.TOTAL);
+        return "JmsMatsStatistics[count:" + total.getCount()
+                + ", total(ns) p50:" + total.get50thPercentile()
+                + ", p99:" + total.get99thPercentile()
+                + ", p999:" + total.get999thPercentile()
+                + ", max:" + total.getMax() + "]";
+    }
+
+    /**
+     * Lock-free log-linear histogram of non-negative long values, capped at 2^47 (for nanos: ~39 hours).
+     */
+    static class LogLinearHistogram {
+        private static final int SUB_BUCKET_BITS = 5;
+        private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS; // 32
+        private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT >> 1; // 16
+        private static final long MAX_TRACKABLE_VALUE = (1L << 47) - 1;
+        private static final int BUCKET_ARRAY_LENGTH = bucketIndex(MAX_TRACKABLE_VALUE) + 1;
+
+        private final AtomicLongArray _buckets = new AtomicLongArray(BUCKET_ARRAY_LENGTH);
+        private final AtomicLong _max = new AtomicLong();
+
+        void record(long value) {
+            // ?: Negative value? (Could happen with weird nanoTime or millis->nanos conversions)
+            if (value < 0) {
+                // -> Yes, so clamp to 0.
+                value = 0;
+            }
+            else if (value > MAX_TRACKABLE_VALUE) {
+                value = MAX_TRACKABLE_VALUE;
+            }
+            _buckets.incrementAndGet(bucketIndex(value));
+            // :: Update max, lock-free
+            long currentMax;
+            while (value > (currentMax = _max.get())) {
+                if (_max.compareAndSet(currentMax, value)) {
+                    break;
+                }
+            }
+        }
+
+        HistogramSnapshot snapshot() {
+            long[] counts = new long[BUCKET_ARRAY_LENGTH];
+            long total = 0;
+            for (int i = 0; i < BUCKET_ARRAY_LENGTH; i++) {
+                counts[i] = _buckets.get(i);
+                total += counts[i];
+            }
+            return new HistogramSnapshot(counts, total, _max.get());
+        }
+
+        static int bucketIndex(long value) {
+            // ?: Is the value within the exact range?
+            if (value < SUB_BUCKET_COUNT) {
+                // -> Yes, so it gets its own bucket.
+                return (int) value;
+            }
+            // E-> Log-linear: Shift so that the top SUB_BUCKET_BITS bits remain, giving [HALF, COUNT).
+            int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+            return (shift * SUB_BUCKET_HALF) + (int) (value >>> shift);
+        }
+
+        /**
+         * @return the highest value which ends up in the specified bucket.
+         */
+        static long highestValueInBucket(int index) {
+            if (index < SUB_BUCKET_COUNT) {
+                return index;
+            }
+            int shift = (index / SUB_BUCKET_HALF) - 1;
+            long subBucket = (index % SUB_BUCKET_HALF) + SUB_BUCKET_HALF;
+            return ((subBucket + 1) << shift) - 1;
+        }
+    }
+
+    /**
+     * Lock-free counter of the partitioned messages received by one StageProcessor, estimating the number of distinct
+     * keys by "linear counting": Each key's hash sets one bit in a fixed bitmap, and the number of distinct keys is
+     * estimated from the fraction of bits still unset. This is bounded in memory regardless of the number of keys,
+     * saturating when all bits are set.
+     */
+    static class KeyGroupCounter {
+        private static final int BITMAP_BITS = 4096;
+
+        private final AtomicLong _messages = new AtomicLong();
+        private final AtomicLongArray _bitmap = new AtomicLongArray(BITMAP_BITS / 64);
+
+        void record(String partitionKey) {
+            _messages.incrementAndGet();
+            // Spread the hash (the finalizer of MurmurHash3), as String.hashCode() is poor in the low bits.
+            int hash = partitionKey.hashCode();
+            hash ^= hash >>> 16;
+            hash *= 0x85ebca6b;
+            hash ^= hash >>> 13;
+            hash *= 0xc2b2ae35;
+            hash ^= hash >>> 16;
+            int bit = hash & (BITMAP_BITS - 1);
+            int index = bit >>> 6;
+            long mask = 1L << (bit & 63);
+            // ?: Is the bit already set? (Check first, as this is the common case for a recurring key.)
+            if ((_bitmap.get(index) & mask) == 0) {
+                // -> No, so set it, lock-free.
+                long current;
+                while (((current = _bitmap.get(index)) & mask) == 0) {
+                    if (_bitmap.compareAndSet(index, current, current | mask)) {
+                        break;
+                    }
+                }
+            }
+        }
+
+        PartitionKeyGroups snapshot() {
+            long messages = _messages.get();
+            int setBits = 0;
+            for (int i = 0; i < _bitmap.length(); i++) {
+                setBits += Long.bitCount(_bitmap.get(i));
+            }
+            int unsetBits = BITMAP_BITS - setBits;
+            // Linear counting: n = -m * ln(unset / m) - if all bits are set, we are saturated, so use 1 unset bit.
+            long estimate = Math.round(BITMAP_BITS * Math.log((double) BITMAP_BITS / Math.max(1, unsetBits)));
+            // Can never be more groups than messages.
+            long keyGroups = Math.min(estimate, messages);
+            return new PartitionKeyGroups() {
+                @Override
+                public long getMessages() {
+                    return messages;
+                }
+
+                @Override
+                public long getEstimatedKeyGroups() {
+                    return keyGroups;
+                }
+
+                @Override
+                public String toString() {
+                    return "PartitionKeyGroups[messages:" + messages + ", keyGroups(est.):" + keyGroups + "]";
+                }
+            };
+        }
+    }
+
+    /**
+     * Immutable snapshot of a {@link LogLinearHistogram}.
+     */
+    static class HistogramSnapshot implements Histogram {
+        private final long[] _counts;
+        private final long _count;
+        private final long _max;
+
+        HistogramSnapshot(long[] counts, long count, long max) {
+            _counts = counts;
+            _count = count;
+            _max = max;
+        }
+
+        @Override
+        public long getCount() {
+            return _count;
+        }
+
+        @Override
+        public long getMax() {
+            return _max;
+        }
+
+        @Override
+        public long getValueAtPercentile(double percentile) {
+            if (_count == 0) {
+                return 0;
+            }
+            // Which "rank" (1-based) we're looking for - at least the first.
+            long rank = Math.max(1, (long) Math.ceil((Math.min(percentile, 100d) / 100d) * _count));
+            long seen = 0;
+            for (int i = 0; i < _counts.length; i++) {
+                seen += _counts[i];
+                if (seen >= rank) {
+                    return Math.min(LogLinearHistogram.highestValueInBucket(i), _max);
+                }
+            }
+            // Can happen if the buckets was updated after the count was read - which means that we have reached max.
+            return _max;
+        }
+
+        @Override
+        public String toString() {
+            return "Histogram[count:" + _count + ", p50:" + get50thPercentile() + ", p99:" + get99thPercentile()
+                    + ", p999:" + get999thPercentile() + ", max:" + _max + "]";
+        }
+    }
+}
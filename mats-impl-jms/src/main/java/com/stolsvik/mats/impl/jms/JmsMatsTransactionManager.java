@@ -36,6 +36,17 @@ public interface JmsMatsTransactionManager {
          * @return the {@link JmsMatsFactory} of the StageProcessor or Initiator (never <code>null</code>).
          */
         JmsMatsFactory<?> getFactory();
+
+        /**
+         * @return whether this is a StageProcessor whose Endpoint is set to consume non-transacted, with DUPS_OK
+         *         acknowledge - read more at
+         *         {@link com.stolsvik.mats.MatsEndpoint.EndpointConfig#setNonTransactedDupsOk(boolean)
+         *         EndpointConfig.setNonTransactedDupsOk(..)}. Initiators are always transacted.
+         */
+        default boolean isNonTransactedDupsOk() {
+            JmsMatsStage<?, ?, ?, ?> stage = getStage();
+            return (stage != null) && stage.getParentEndpoint().getEndpointConfig().isNonTransactedDupsOk();
+        }
     }
 
     /**
@@ -10,6 +10,7 @@ import org.slf4j.LoggerFactory;
 
 import com.stolsvik.mats.MatsEndpoint.MatsRefuseMessageException;
 import com.stolsvik.mats.MatsInitiator;
+import com.stolsvik.mats.impl.jms.JmsMatsInitiatorBackpressure.JmsMatsBackpressureException;
 import com.stolsvik.mats.impl.jms.JmsMatsJmsSessionHandler.JmsSessionHolder;
 
 /**
@@ -60,10 +61,12 @@ public class JmsMatsTransactionManager_Jms implements JmsMatsTransactionManager,
              */
 
             Session jmsSession = jmsSessionMessageContext.getJmsSessionHolder().getSession();
+            // A non-transacted DUPS_OK StageProcessor's Session shall neither be committed nor rolled back.
+            boolean transacted = jmsSessionMessageContext.getJmsSessionHolder().isTransacted();
 
             try {
-                log.debug(LOG_PREFIX + "About to run ProcessingLambda for " + stageOrInit(_txContextKey)
-                        + ", within JMS Transactional demarcation.");
+                if (log.isDebugEnabled()) log.debug(LOG_PREFIX + "About to run ProcessingLambda for "
+                        + stageOrInit(_txContextKey) + ", within JMS Transactional demarcation.");
                 /*
                  * Invoking the provided ProcessingLambda, which typically will be SQL Transaction demarcation - which
                  * then again invokes the user-lambda (but which will be wrapped again by some JmsMatsStage processing).
@@ -83,7 +86,12 @@ public class JmsMatsTransactionManager_Jms implements JmsMatsTransactionManager,
                         " while transacting " + stageOrInit(_txContextKey) + " (most probably from the user code)."
                         + " Rolling back the JMS transaction - trying to ensure that it goes directly to DLQ.", e);
                 Optional<MessageConsumer> messageConsumer = jmsSessionMessageContext.getMessageConsumer();
-                if (!messageConsumer.isPresent()) {
+                // ?: Is this a non-transacted DUPS_OK Session?
+                if (!transacted) {
+                    // -> Yes, so the message is already (lazily) acknowledged: "Rolling back" drops it.
+                    rollback(jmsSession, e);
+                }
+                else if (!messageConsumer.isPresent()) {
                     log.error(e.getClass().getName() + " was raised in a wrong context where no JMS MessageConsumer is"
                             + " present (i.e. initiation). This shall not be possible - 'sneaky throws' in play?.", e);
                     rollback(jmsSession, e);
@@ -110,6 +118,16 @@ public class JmsMatsTransactionManager_Jms implements JmsMatsTransactionManager,
                 // Throwing out, since the JMS Connection most probably is unstable.
                 throw e;
             }
+            catch (JmsMatsBackpressureException e) {
+                /*
+                 * Initiator backpressure: The target queues are too deep, so the initiation is rolled back to wait for
+                 * capacity outside of the transaction - an expected situation, thus not logged as an error.
+                 */
+                if (log.isInfoEnabled()) log.info(LOG_PREFIX + "ROLLBACK JMS: " + e.getMessage() + " Rolling back the"
+                        + " JMS session of " + stageOrInit(_txContextKey) + ", to wait for capacity.");
+                rollback(jmsSession, e);
+                throw e;
+            }
             catch (RuntimeException | Error e) {
                 /*
                  * Should only be user code, as errors from "ourselves" (the JMS MATS impl) should throw
@@ -139,6 +157,14 @@ public class JmsMatsTransactionManager_Jms implements JmsMatsTransactionManager,
 
             // ----- The ProcessingLambda went OK, no Exception was raised.
 
+            // ?: Is this a non-transacted DUPS_OK Session?
+            if (!transacted) {
+                // -> Yes, so there is nothing to commit: The outgoing messages are sent, and the receive is
+                // acknowledged lazily by the JMS Session.
+                log.debug(LOG_PREFIX + "ProcessingLambda finished, JMS Session is non-transacted DUPS_OK, thus not"
+                        + " committing.");
+                return;
+            }
             log.debug(LOG_PREFIX + "COMMIT JMS: ProcessingLambda finished, committing JMS Session.");
             try {
                 jmsSession.commit();
@@ -210,6 +236,13 @@ public class JmsMatsTransactionManager_Jms implements JmsMatsTransactionManager,
 
     static void rollback(Session jmsSession, Throwable t) throws JmsMatsJmsException {
         try {
+            // ?: Is this a non-transacted DUPS_OK Session?
+            if (!jmsSession.getTransacted()) {
+                // -> Yes, so there is nothing to roll back.
+                log.warn(LOG_PREFIX + "JMS Session is non-transacted DUPS_OK, thus nothing to roll back: The incoming"
+                        + " message is dropped, and any outgoing messages already sent stay sent.");
+                return;
+            }
             jmsSession.rollback();
             // -> The JMS Session rolled nicely back.
             log.warn(LOG_PREFIX + "JMS Session rolled back.");
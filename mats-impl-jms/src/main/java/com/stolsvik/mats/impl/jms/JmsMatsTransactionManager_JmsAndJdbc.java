@@ -1,6 +1,8 @@
 package com.stolsvik.mats.impl.jms;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.function.Supplier;
 
@@ -9,8 +11,11 @@ import javax.sql.DataSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.stolsvik.mats.MatsEndpoint.EndpointConfig;
 import com.stolsvik.mats.MatsEndpoint.MatsRefuseMessageException;
 import com.stolsvik.mats.MatsEndpoint.ProcessContext;
+import com.stolsvik.mats.impl.jms.JmsMatsInitiatorBackpressure.JmsMatsBackpressureException;
+import com.stolsvik.mats.impl.jms.JmsMatsMessageContext.DuplicateSuppressionStore;
 
 /**
  * Implementation of {@link JmsMatsTransactionManager} that in addition to the JMS transaction also handles a JDBC SQL
@@ -54,6 +59,11 @@ import com.stolsvik.mats.MatsEndpoint.ProcessContext;
  * This implementation will not perform any Connection reuse (caching/pooling). It is up to the supplier to implement
  * any pooling, or make use of a pooled DataSource, if so desired. (Which definitely should be desired, due to the heavy
  * use of <i>"get new - use - commit/rollback - close"</i>.)
+ * <p>
+ * Optionally, a {@link #setDuplicateSuppressionTable(String) duplicate suppression table} can be configured, in which
+ * the stages with {@link EndpointConfig#setDuplicateSuppression(int, long) duplicate suppression} enabled record the
+ * <code>MatsMessageId</code>s of processed messages within the SQL transaction - thus catching the redelivery that
+ * results if the SQL commit goes through, but the JMS commit does not.
  *
  * @author Endre Stølsvik - 2015-12-06 - http://endre.stolsvik.com
  */
@@ -62,6 +72,8 @@ public class JmsMatsTransactionManager_JmsAndJdbc extends JmsMatsTransactionMana
 
     private final DataSource _dataSource;
 
+    private volatile String _duplicateSuppressionTable;
+
     public static JmsMatsTransactionManager_JmsAndJdbc create(DataSource dataSource) {
         return new JmsMatsTransactionManager_JmsAndJdbc(dataSource);
     }
@@ -71,9 +83,48 @@ public class JmsMatsTransactionManager_JmsAndJdbc extends JmsMatsTransactionMana
         _dataSource = dataSource;
     }
 
+    /**
+     * Sets the name of the SQL table in which the stages with {@link EndpointConfig#setDuplicateSuppression(int, long)
+     * duplicate suppression} enabled record the <code>MatsMessageId</code>s of the messages they have processed,
+     * within the SQL transaction of the processing. This catches duplicates across nodes, and also the redelivery that
+     * results if the SQL commit went through while the JMS commit did not. Default is <code>null</code>, i.e. only the
+     * in-memory duplicate suppression is employed. The table must be created by the user, along the lines of:
+     *
+     * <pre>
+     * CREATE TABLE mats_duplicate_suppression (
+     *     stage_id VARCHAR(255) NOT NULL,
+     *     mats_msg_id VARCHAR(255) NOT NULL,
+     *     processed_ts BIGINT NOT NULL,
+     *     PRIMARY KEY (stage_id, mats_msg_id)
+     * )
+     * </pre>
+     *
+     * The rows are never deleted by Mats: The <code>processed_ts</code> column (millis since epoch) is there so that a
+     * housekeeping job can delete rows older than any conceivable redelivery, e.g. a few days.
+     * <p>
+     * Notice that for stages with duplicate suppression enabled, the SQL Connection is thus employed for every message.
+     *
+     * @param tableName
+     *            the name of the duplicate suppression table, or <code>null</code> to not employ a table.
+     * @return <code>this</code>, for chaining.
+     */
+    public JmsMatsTransactionManager_JmsAndJdbc setDuplicateSuppressionTable(String tableName) {
+        log.info(LOG_PREFIX + "Duplicate Suppression Table set to [" + tableName + "].");
+        _duplicateSuppressionTable = tableName;
+        return this;
+    }
+
+    /**
+     * @return the name of the duplicate suppression table, <code>null</code> if not set - read more at
+     *         {@link #setDuplicateSuppressionTable(String)}.
+     */
+    public String getDuplicateSuppressionTable() {
+        return _duplicateSuppressionTable;
+    }
+
     @Override
     public TransactionContext getTransactionContext(JmsMatsTxContextKey txContextKey) {
-        return new TransactionalContext_JmsAndJdbc(_dataSource, txContextKey);
+        return new TransactionalContext_JmsAndJdbc(_dataSource, txContextKey, this::getDuplicateSuppressionTable);
     }
 
     /**
@@ -81,10 +132,22 @@ public class JmsMatsTransactionManager_JmsAndJdbc extends JmsMatsTransactionMana
      */
     public static class TransactionalContext_JmsAndJdbc extends TransactionalContext_Jms {
         private final DataSource _dataSource;
+        private final Supplier<String> _duplicateSuppressionTable;
 
         public TransactionalContext_JmsAndJdbc(DataSource dataSource, JmsMatsTxContextKey txContextKey) {
+            this(dataSource, txContextKey, () -> null);
+        }
+
+        /**
+         * @param duplicateSuppressionTable
+         *            supplies the name of the duplicate suppression table, or <code>null</code> if not employed - read
+         *            more at {@link JmsMatsTransactionManager_JmsAndJdbc#setDuplicateSuppressionTable(String)}.
+         */
+        public TransactionalContext_JmsAndJdbc(DataSource dataSource, JmsMatsTxContextKey txContextKey,
+                Supplier<String> duplicateSuppressionTable) {
             super(txContextKey);
             _dataSource = dataSource;
+            _duplicateSuppressionTable = duplicateSuppressionTable;
         }
 
         @Override
@@ -95,6 +158,13 @@ public class JmsMatsTransactionManager_JmsAndJdbc extends JmsMatsTransactionMana
             jmsMatsMessageContext.setSqlConnectionSupplier(lazyConSup);
             jmsMatsMessageContext.setSqlConnectionEmployedSupplier(lazyConSup::wasConnectionEmployed);
 
+            // :: If this is a stage, and a duplicate suppression table is configured, make it available.
+            String duplicateSuppressionTable = _duplicateSuppressionTable.get();
+            if ((_txContextKey.getStage() != null) && (duplicateSuppressionTable != null)) {
+                jmsMatsMessageContext.setDuplicateSuppressionStore(new JdbcDuplicateSuppressionStore(
+                        duplicateSuppressionTable, lazyConSup));
+            }
+
             // :: We invoke the "outer" transaction, which is the JMS transaction.
             super.doTransaction(jmsMatsMessageContext, () -> {
                 // ----- We're *within* the JMS Transaction demarcation.
@@ -108,8 +178,8 @@ public class JmsMatsTransactionManager_JmsAndJdbc extends JmsMatsTransactionMana
                  */
 
                 try {
-                    log.debug(LOG_PREFIX + "About to run ProcessingLambda for " + stageOrInit(_txContextKey)
-                            + ", within JDBC SQL Transactional demarcation.");
+                    if (log.isDebugEnabled()) log.debug(LOG_PREFIX + "About to run ProcessingLambda for "
+                            + stageOrInit(_txContextKey) + ", within JDBC SQL Transactional demarcation.");
                     /*
                      * Invoking the provided ProcessingLambda, which typically will be the actual user code (albeit
                      * wrapped with some minor code from the JmsMatsStage to parse the MapMessage, deserialize the
@@ -118,6 +188,14 @@ public class JmsMatsTransactionManager_JmsAndJdbc extends JmsMatsTransactionMana
                      */
                     lambda.performWithinTransaction();
                 }
+                catch (JmsMatsBackpressureException e) {
+                    // ----- Initiator backpressure: The initiation is rolled back to wait for capacity - expected.
+                    if (log.isInfoEnabled()) log.info(LOG_PREFIX + "ROLLBACK SQL: " + e.getMessage() + " Rolling back"
+                            + " the SQL Connection of " + stageOrInit(_txContextKey) + ", to wait for capacity.");
+                    commitOrRollbackThenCloseConnection(lazyConSup, false);
+                    // We will now throw on the Exception, which will rollback the JMS Transaction.
+                    throw e;
+                }
                 // Catch EVERYTHING that "legally" can come out of the try-block:
                 catch (MatsRefuseMessageException | RuntimeException | Error e) {
                     // ----- The user code had some error occur, or want to reject this message.
@@ -206,7 +284,8 @@ public class JmsMatsTransactionManager_JmsAndJdbc extends JmsMatsTransactionMana
             try {
                 if (commit) {
                     _gottenConnection.commit();
-                    log.debug(LOG_PREFIX + "Committed SQL Connection [" + _gottenConnection + "].");
+                    if (log.isDebugEnabled()) log.debug(LOG_PREFIX + "Committed SQL Connection ["
+                            + _gottenConnection + "].");
                 }
                 else {
                     _gottenConnection.rollback();
@@ -230,6 +309,62 @@ public class JmsMatsTransactionManager_JmsAndJdbc extends JmsMatsTransactionMana
             }
         }
 
+        /**
+         * The {@link DuplicateSuppressionStore} employing the duplicate suppression table, using the transactional SQL
+         * Connection - so that the id is recorded atomically with the processing.
+         */
+        private static class JdbcDuplicateSuppressionStore implements DuplicateSuppressionStore {
+            private final String _tableName;
+            private final Supplier<Connection> _connectionSupplier;
+
+            private JdbcDuplicateSuppressionStore(String tableName, Supplier<Connection> connectionSupplier) {
+                _tableName = tableName;
+                _connectionSupplier = connectionSupplier;
+            }
+
+            @Override
+            public boolean isProcessed(String stageId, String matsMessageId) {
+                String sql = "SELECT 1 FROM " + _tableName + " WHERE stage_id = ? AND mats_msg_id = ?";
+                try (PreparedStatement pStmt = _connectionSupplier.get().prepareStatement(sql)) {
+                    pStmt.setString(1, stageId);
+                    pStmt.setString(2, matsMessageId);
+                    try (ResultSet rs = pStmt.executeQuery()) {
+                        return rs.next();
+                    }
+                }
+                catch (SQLException e) {
+                    throw new MatsSqlDuplicateSuppressionException("Could not query duplicate suppression table ["
+                            + _tableName + "] for MatsMessageId [" + matsMessageId + "] - for stage [" + stageId
+                            + "].", e);
+                }
+            }
+
+            @Override
+            public void markProcessed(String stageId, String matsMessageId) {
+                String sql = "INSERT INTO " + _tableName + " (stage_id, mats_msg_id, processed_ts) VALUES (?, ?, ?)";
+                try (PreparedStatement pStmt = _connectionSupplier.get().prepareStatement(sql)) {
+                    pStmt.setString(1, stageId);
+                    pStmt.setString(2, matsMessageId);
+                    pStmt.setLong(3, System.currentTimeMillis());
+                    pStmt.executeUpdate();
+                }
+                catch (SQLException e) {
+                    throw new MatsSqlDuplicateSuppressionException("Could not insert into duplicate suppression table ["
+                            + _tableName + "] for MatsMessageId [" + matsMessageId + "] - for stage [" + stageId
+                            + "].", e);
+                }
+            }
+        }
+
+        /**
+         * Raised if querying or inserting into the duplicate suppression table failed.
+         */
+        public static final class MatsSqlDuplicateSuppressionException extends RuntimeException {
+            public MatsSqlDuplicateSuppressionException(String message, Throwable cause) {
+                super(message, cause);
+            }
+        }
+
         /**
          * Performs Lazy-getting (and setting AutoCommit false) of SQL Connection for the StageProcessor thread, by
          * means of being set on the {@link JmsMatsMessageContext}, which makes it available via
@@ -290,7 +425,8 @@ public class JmsMatsTransactionManager_JmsAndJdbc extends JmsMatsTransactionMana
                 // :: Reset AutoCommit mode
                 try {
                     _gottenConnection.setAutoCommit(_autoCommitModeBeforeFalse);
-                    log.debug(LOG_PREFIX + "Reset AutoCommit mode to [" + _autoCommitModeBeforeFalse + "].");
+                    if (log.isDebugEnabled()) log.debug(LOG_PREFIX + "Reset AutoCommit mode to ["
+                            + _autoCommitModeBeforeFalse + "].");
                 }
                 catch (SQLException e) {
                     log.warn("After performing commit or rollback on SQL Connection ["
@@ -302,7 +438,8 @@ public class JmsMatsTransactionManager_JmsAndJdbc extends JmsMatsTransactionMana
                 // :: Close SQL Connection
                 try {
                     _gottenConnection.close();
-                    log.debug(LOG_PREFIX + "Closed SQL Connection [" + _gottenConnection + "].");
+                    if (log.isDebugEnabled()) log.debug(LOG_PREFIX + "Closed SQL Connection ["
+                            + _gottenConnection + "].");
                 }
                 catch (SQLException e) {
                     log.warn("After performing commit or rollback on SQL Connection ["
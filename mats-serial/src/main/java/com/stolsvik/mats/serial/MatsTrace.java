@@ -33,6 +33,26 @@ public interface MatsTrace<Z> {
     MatsTrace<Z> withDebugInfo(String initializingAppName, String initializingAppVersion, String initializingHost,
             String initiatorId, long initializedTimestamp, String debugInfo);
 
+    /**
+     * Sets the absolute deadline of the flow, refer to <code>MatsInitiate.deadline(long)</code>. Can only be set once,
+     * at initiation: It is kept through all the calls of the flow.
+     *
+     * @param deadlineMillis
+     *            the deadline as Java epoch millis, <code>0</code> meaning no deadline.
+     * @return <code>this</code>, for chaining.
+     */
+    MatsTrace<Z> withDeadline(long deadlineMillis);
+
+    /**
+     * Sets the partition key of the flow, refer to <code>MatsInitiate.partitionKey(String)</code>. It is kept through
+     * all the subsequent calls of the flow, but may be changed by a stage for its outgoing messages.
+     *
+     * @param partitionKey
+     *            the partition key, <code>null</code> meaning not partitioned.
+     * @return <code>this</code>, for chaining.
+     */
+    MatsTrace<Z> withPartitionKey(String partitionKey);
+
     /**
      * @return the TraceId that this {@link MatsTrace} was initiated with - this is set once, at initiation time, and
      *         follows the processing till it terminates. (All log lines will have the traceId set on the MDC.)
@@ -94,6 +114,18 @@ public interface MatsTrace<Z> {
      */
     long getTimeToLive();
 
+    /**
+     * @return the absolute deadline of the flow as Java epoch millis, after which any remaining work of the flow is
+     *         worthless and may be dropped. 0 means no deadline, and is the default.
+     */
+    long getDeadline();
+
+    /**
+     * @return the partition key of the flow, which the messages of the flow are grouped by so that messages with the
+     *         same key are processed in order. <code>null</code> means not partitioned, and is the default.
+     */
+    String getPartitionKey();
+
     /**
      * @return a hint to the underlying implementation, or to any monitoring/auditing tooling on the Message Broker,
      *         that it does not make much value in auditing this message flow, typically because it is just a "getter"
@@ -71,6 +71,8 @@ public final class MatsTraceStringImpl implements MatsTrace<String>, Cloneable {
     private final Boolean ia; // Interactive.
     private final Long tl; // Time-To-Live, null if 0, where 0 means "forever".
     private final Boolean na; // NoAudit.
+    private Long dl; // Deadline (Java epoch), null if none. Not final as it is set with withDeadline(..).
+    private String pk; // Partition key, null if none. Not final as it is set with withPartitionKey(..).
 
     private String sig; // For future Signature support: Signature of central pieces of information in the trace.
     // Note regarding signature: This is meant for the initial elements of the trace, kept in the trace.
@@ -137,6 +139,16 @@ public final class MatsTraceStringImpl implements MatsTrace<String>, Cloneable {
         return this;
     }
 
+    public MatsTraceStringImpl withDeadline(long deadlineMillis) {
+        dl = deadlineMillis > 0 ? deadlineMillis : null;
+        return this;
+    }
+
+    public MatsTraceStringImpl withPartitionKey(String partitionKey) {
+        pk = partitionKey;
+        return this;
+    }
+
     // TODO: POTENTIAL withOpenTracingTraceId() and withOpenTracingSpanId()..
 
     // Jackson JSON-lib needs a no-args constructor, but it can re-set finals.
@@ -230,6 +242,16 @@ public final class MatsTraceStringImpl implements MatsTrace<String>, Cloneable {
         return tl != null ? tl : 0;
     }
 
+    @Override
+    public long getDeadline() {
+        return dl != null ? dl : 0;
+    }
+
+    @Override
+    public String getPartitionKey() {
+        return pk;
+    }
+
     @Override
     public boolean isNoAudit() {
         return na == null ? Boolean.FALSE : na;
@@ -944,6 +966,9 @@ public final class MatsTraceStringImpl implements MatsTrace<String>, Cloneable {
                 .append("      Interactive _____ : ").append(isInteractive()).append('\n')
                 .append("      TimeToLive ______ : ").append(((tl == null) || (tl == 0)) ? "forever" : tl.toString())
                 .append('\n')
+                .append("      Deadline ________ : ").append(dl == null ? "none" : Instant.ofEpochMilli(dl)
+                        .atZone(ZoneId.systemDefault()).toString()).append('\n')
+                .append("      PartitionKey ____ : ").append(pk == null ? "none" : pk).append('\n')
                 .append("      NoAudit _________ : ").append(isNoAudit()).append('\n')
                 .append('\n');
 
@@ -1,5 +1,6 @@
 package com.stolsvik.mats.test;
 
+import javax.jms.BytesMessage;
 import javax.jms.Connection;
 import javax.jms.ConnectionFactory;
 import javax.jms.JMSException;
@@ -14,6 +15,7 @@ import org.slf4j.LoggerFactory;
 
 import com.stolsvik.mats.MatsFactory;
 import com.stolsvik.mats.MatsFactory.MatsFactoryWrapper;
+import com.stolsvik.mats.impl.jms.JmsMatsBytesMessageFrame;
 import com.stolsvik.mats.impl.jms.JmsMatsFactory;
 import com.stolsvik.mats.serial.MatsSerializer;
 import com.stolsvik.mats.serial.MatsTrace;
@@ -142,8 +144,24 @@ public class MatsTestMqInterface {
                             + "] within " + maxWaitMillis + "ms.");
                 }
 
-                MapMessage matsMM = (MapMessage) msg;
-                byte[] matsTraceBytes = matsMM.getBytes(_matsTraceKey);
+                byte[] matsTraceBytes;
+                String matsTraceMeta;
+                // ?: Is this the BytesMessage wire format?
+                if (msg instanceof BytesMessage) {
+                    // -> Yes, so read the frame.
+                    JmsMatsBytesMessageFrame frame = JmsMatsBytesMessageFrame.read((BytesMessage) msg);
+                    if (frame == null) {
+                        throw new AssertionError("The DLQ JMS BytesMessage is not a Mats frame!");
+                    }
+                    matsTraceBytes = frame.getMatsTraceBytes();
+                    matsTraceMeta = frame.getMatsTraceMeta();
+                }
+                else {
+                    // -> No, so it is a MapMessage.
+                    MapMessage matsMM = (MapMessage) msg;
+                    matsTraceBytes = matsMM.getBytes(_matsTraceKey);
+                    matsTraceMeta = matsMM.getString(_matsTraceKey + ":meta");
+                }
                 if (matsTraceBytes == null) {
                     throw new AssertionError("Missing MatsTrace bytes on the DLQ JMS Message!");
                 }
@@ -152,7 +170,7 @@ public class MatsTestMqInterface {
                         + matsTraceBytes.length);
                 jmsSession.commit();
                 jmsConnection.close(); // Closes session and consumer
-                return genericsHack(matsMM, matsTraceBytes);
+                return genericsHack(matsTraceBytes, matsTraceMeta);
             }
             finally {
                 jmsConnection.close();
@@ -217,10 +235,9 @@ public class MatsTestMqInterface {
      * expose it for consumers of the tool.
      */
     @SuppressWarnings("unchecked")
-    private <Z> MatsMessageRepresentation genericsHack(MapMessage matsMM, byte[] matsTraceBytes) throws JMSException {
+    private <Z> MatsMessageRepresentation genericsHack(byte[] matsTraceBytes, String matsTraceMeta) {
         MatsSerializer<Z> matsSerializer = (MatsSerializer<Z>) _matsSerializer;
-        MatsTrace<Z> matsTrace = matsSerializer.deserializeMatsTrace(matsTraceBytes,
-                matsMM.getString(_matsTraceKey + ":meta")).getMatsTrace();
+        MatsTrace<Z> matsTrace = matsSerializer.deserializeMatsTrace(matsTraceBytes, matsTraceMeta).getMatsTrace();
 
         return new MatsMessageRepresentationImpl<Z>(matsSerializer, matsTrace);
     }
@@ -1,10 +1,15 @@
 package com.stolsvik.mats.util;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.PriorityQueue;
+import java.util.TreeMap;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.LinkedTransferQueue;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -333,6 +338,54 @@ public class MatsFuturizer implements AutoCloseable {
         return promise._future;
     }
 
+    /**
+     * Variant of {@link #futurize(String, String, String, int, TimeUnit, Class, Object, InitiateLambda) futurize(..)}
+     * for endpoints that stream their reply in chunks, using
+     * {@link ProcessContext#replyChunk(Object, boolean) ProcessContext.replyChunk(..)} - e.g. bulk exports: Instead of
+     * a future, you get an {@link Iterator} which provides the chunks in sequence order, {@link Iterator#hasNext()
+     * hasNext()} blocking until the next chunk has arrived. An ordinary reply from the endpoint is provided as the one
+     * and only chunk.
+     * <p/>
+     * The timeout applies to the entire reply, i.e. until the last chunk has arrived: If it kicks in, or the
+     * MatsFuturizer is closed, before that, <code>hasNext()</code> throws a {@link MatsFuturizerTimeoutException}, or
+     * a {@link java.util.concurrent.CancellationException CancellationException}, when the chunks received so far
+     * have been iterated over. Note that chunks that arrive faster than you iterate are held in memory until iterated
+     * over, so for the memory to stay bounded, you must keep iterating until the end.
+     * <p/>
+     * <b>Notice that this bounds the memory on the requesting side only:</b> The replying stage sends all the chunks
+     * when its processing commits, holding every one of them in memory until then - read more at
+     * {@link ProcessContext#replyChunk(Object, boolean) ProcessContext.replyChunk(..)}.
+     *
+     * @param traceId
+     *            TraceId of the resulting Mats call flow, see {@link MatsInitiate#traceId(String)}
+     * @param from
+     *            the "from" of the initiation, see {@link MatsInitiate#from(String)}
+     * @param to
+     *            to which Mats endpoint the request should go, see {@link MatsInitiate#to(String)}
+     * @param timeout
+     *            how long before the internal timeout-mechanism of MatsFuturizer kicks in, if the last chunk has not
+     *            arrived by then.
+     * @param unit
+     *            the unit of time of the 'timeout' parameter.
+     * @param replyClass
+     *            which expected reply DTO class that the requested endpoint replies with, i.e. the class of the chunks.
+     * @param request
+     *            the request DTO that should be sent to the endpoint, see {@link MatsInitiate#request(Object)}
+     * @param customInit
+     *            the {@link InitiateLambda} that the MatsFuturizer is employing to initiate the outgoing message.
+     * @param <T>
+     *            the type of the reply DTO, i.e. of the chunks.
+     * @return an {@link Iterator} providing {@link Reply}-instances, one per chunk, in sequence order.
+     */
+    public <T> Iterator<Reply<T>> futurizeChunked(String traceId, String from, String to,
+            int timeout, TimeUnit unit, Class<T> replyClass, Object request, InitiateLambda customInit) {
+        ChunkedPromise<T> promise = _createChunkedPromise(traceId, from, replyClass, timeout, unit);
+        _assertFuturizerRunning();
+        _enqueuePromise(promise);
+        _sendRequestToFulfillPromise(from, to, traceId, request, customInit, promise);
+        return promise;
+    }
+
     /**
      * @deprecated use {@link #futurize(String, String, String, int, TimeUnit, Class, Object, InitiateLambda)} instead.
      */
@@ -392,6 +445,96 @@ public class MatsFuturizer implements AutoCloseable {
         }
     }
 
+    /**
+     * The Promise of a chunked reply, which is also the {@link Iterator} over the chunks: The Promise is kept until all
+     * chunks have arrived, whereupon its future is completed with the last chunk - or it times out or is cancelled as
+     * any other Promise, which the Iterator then throws.
+     */
+    protected static class ChunkedPromise<T> extends Promise<T> implements Iterator<Reply<T>> {
+        // All below synchronized on this.
+        // The received chunks not yet iterated over, by sequence number.
+        protected final TreeMap<Integer, Reply<T>> _chunks = new TreeMap<>();
+        // The sequence numbers of all chunks received, to know when all have arrived.
+        protected final BitSet _receivedSequences = new BitSet();
+        protected int _nextSequence;
+        // -1 until the last chunk has arrived.
+        protected int _lastSequence = -1;
+
+        public ChunkedPromise(String traceId, String correlationId, String from, long initiationTimestamp,
+                long timeoutTimestamp, Class<T> replyClass) {
+            super(traceId, correlationId, from, initiationTimestamp, timeoutTimestamp, replyClass,
+                    new CompletableFuture<>());
+            // Wake any iterating thread when the future completes, i.e. all chunks received, timed out or cancelled.
+            _future.whenComplete((reply, throwable) -> {
+                synchronized (this) {
+                    notifyAll();
+                }
+            });
+        }
+
+        /**
+         * @return whether all chunks have now arrived.
+         */
+        protected synchronized boolean _addChunk(Reply<T> chunk, int sequence, boolean last) {
+            // ?: Have we already gotten this chunk?
+            if (_receivedSequences.get(sequence)) {
+                // -> Yes, so this is a redelivery - ignore it.
+                return false;
+            }
+            _receivedSequences.set(sequence);
+            _chunks.put(sequence, chunk);
+            if (last) {
+                _lastSequence = sequence;
+            }
+            notifyAll();
+            return (_lastSequence >= 0) && (_receivedSequences.cardinality() == _lastSequence + 1);
+        }
+
+        @Override
+        public synchronized boolean hasNext() {
+            while (true) {
+                // ?: Have we gotten the next chunk?
+                if (_chunks.containsKey(_nextSequence)) {
+                    // -> Yes, so there is a next.
+                    return true;
+                }
+                // ?: Have we iterated past the last chunk?
+                if ((_lastSequence >= 0) && (_nextSequence > _lastSequence)) {
+                    // -> Yes, so we are done.
+                    return false;
+                }
+                // ?: Is the future done, without us having all chunks?
+                if (_future.isDone()) {
+                    // -> Yes, so it timed out or was cancelled: Throw that.
+                    try {
+                        _future.join();
+                    }
+                    catch (CompletionException e) {
+                        throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+                    }
+                    // Will not happen, as the future is only completed normally when all chunks have arrived.
+                    return false;
+                }
+                try {
+                    wait();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for the next chunk, traceId:["
+                            + _traceId + "].", e);
+                }
+            }
+        }
+
+        @Override
+        public synchronized Reply<T> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("All chunks have been iterated over, traceId:[" + _traceId + "].");
+            }
+            return _chunks.remove(_nextSequence++);
+        }
+    }
+
     protected final AtomicInteger _threadNumber = new AtomicInteger();
 
     protected ThreadPoolExecutor _newThreadPool(int corePoolSize, int maximumPoolSize) {
@@ -436,6 +579,13 @@ public class MatsFuturizer implements AutoCloseable {
         return new Promise<>(traceId, correlationId, from, timestamp, timestamp + timeoutMillis, replyClass, future);
     }
 
+    protected <T> ChunkedPromise<T> _createChunkedPromise(String traceId, String from, Class<T> replyClass,
+            int timeout, TimeUnit unit) {
+        Promise<T> promise = _createPromise(traceId, from, replyClass, timeout, unit);
+        return new ChunkedPromise<>(promise._traceId, promise._correlationId, promise._from,
+                promise._initiationTimestamp, promise._timeoutTimestamp, replyClass);
+    }
+
     protected <T> void _enqueuePromise(Promise<T> promise) {
         synchronized (_correlationIdToPromiseMap) {
             if (_correlationIdToPromiseMap.size() >= _maxOutstandingPromises) {
@@ -505,10 +655,11 @@ public class MatsFuturizer implements AutoCloseable {
         Promise<?> promise;
         synchronized (_correlationIdToPromiseMap) {
             // Find the Promise from the CorrelationId
-            promise = _correlationIdToPromiseMap.remove(correlationId);
-            // Did we find it?
-            if (promise != null) {
-                // -> Yes, found - remove it from the PriorityQueue too.
+            promise = _correlationIdToPromiseMap.get(correlationId);
+            // ?: Did we find it, and is it an ordinary Promise? (A chunked Promise is kept until all chunks arrived)
+            if ((promise != null) && !(promise instanceof ChunkedPromise)) {
+                // -> Yes, ordinary - remove it from both the map and the PriorityQueue.
+                _correlationIdToPromiseMap.remove(correlationId);
                 _timeoutSortedPromises.remove(promise);
             }
             // NOTE: We don't bother pinging the Timeouter, as he'll find out himself soon enough if this was first.
@@ -524,6 +675,13 @@ public class MatsFuturizer implements AutoCloseable {
             return;
         }
 
+        // ?: Is this a chunked Promise?
+        if (promise instanceof ChunkedPromise) {
+            // -> Yes, so add the chunk to it.
+            _handleChunkForPromise(context, matsObject, (ChunkedPromise<?>) promise);
+            return;
+        }
+
         // ----- We have Promise, and shall now fulfill it. Send off to pool thread.
 
         _futureCompleterThreadPool.execute(() -> {
@@ -560,6 +718,55 @@ public class MatsFuturizer implements AutoCloseable {
         });
     }
 
+    @SuppressWarnings("unchecked")
+    protected <T> void _handleChunkForPromise(ProcessContext<Void> context, MatsObject matsObject,
+            ChunkedPromise<T> promise) {
+        // NOTICE! Done on the reply handler's thread, not the pool, so that the chunks are added in arrival order, and
+        // any iterating thread is woken directly.
+        T chunk;
+        try {
+            chunk = (T) _deserializeReply(matsObject, promise._replyClass);
+        }
+        catch (IllegalArgumentException e) {
+            MDC.put("traceId", promise._traceId);
+            log.error(LOG_PREFIX + "Got problems adding chunk due to failing to deserialize the incoming object to"
+                    + " expected class [" + promise._replyClass.getName() + "], thus doing"
+                    + " future.completeExceptionally(..) with the [" + e.getClass().getSimpleName() + "]."
+                    + " Initiated from [" + promise._from + "], with reply from [" + context.getFromStageId()
+                    + "], traceId [" + context.getTraceId() + "]", e);
+            MDC.remove("traceId");
+            _removePromise(promise);
+            promise._future.completeExceptionally(e);
+            return;
+        }
+        // An ordinary reply is the one and only chunk.
+        boolean chunked = context.getChunkSequence() >= 0;
+        int sequence = chunked ? context.getChunkSequence() : 0;
+        boolean last = !chunked || context.isLastChunk();
+        Reply<T> reply = new Reply<>(context, chunk, promise._initiationTimestamp);
+        boolean complete;
+        // Synchronized on the Promise, so that the iterating thread does not see the last chunk before the Promise is
+        // removed. (Lock order: Promise, then the map - the other way is never done)
+        synchronized (promise) {
+            complete = promise._addChunk(reply, sequence, last);
+            // ?: Have all chunks now arrived?
+            if (complete) {
+                // -> Yes, so the Promise is fulfilled.
+                _removePromise(promise);
+            }
+        }
+        if (complete) {
+            promise._future.complete(reply);
+        }
+    }
+
+    protected void _removePromise(Promise<?> promise) {
+        synchronized (_correlationIdToPromiseMap) {
+            _correlationIdToPromiseMap.remove(promise._correlationId);
+            _timeoutSortedPromises.remove(promise);
+        }
+    }
+
     protected Object _deserializeReply(MatsObject matsObject, Class<?> toClass) {
         return matsObject.toClass(toClass);
     }
@@ -0,0 +1,110 @@
+package com.stolsvik.mats.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import com.stolsvik.mats.MatsEndpoint;
+import com.stolsvik.mats.MatsEndpoint.ProcessContext;
+import com.stolsvik.mats.MatsInitiator.MatsInitiate;
+import com.stolsvik.mats.test.MatsTestHelp;
+import com.stolsvik.mats.test.junit.Rule_Mats;
+import com.stolsvik.mats.util.MatsFuturizer.MatsFuturizerTimeoutException;
+import com.stolsvik.mats.util.MatsFuturizer.Reply;
+
+/**
+ * Tests the chunked variant of the MatsFuturizer, read more at {@link MatsFuturizer#futurizeChunked
+ * futurizeChunked(..)}: The Iterator shall provide the chunks of a streamed reply in sequence order, an ordinary reply
+ * as the one and only chunk, and throw the timeout if the last chunk never arrives.
+ */
+public class Test_MatsFuturizer_ChunkedReplies {
+    @ClassRule
+    public static final Rule_Mats MATS = Rule_Mats.create();
+
+    private static final String SERVICE_CHUNKED = MatsTestHelp.endpointId("ChunkedService");
+    private static final String SERVICE_ORDINARY = MatsTestHelp.endpointId("OrdinaryService");
+
+    @BeforeClass
+    public static void setupServices() {
+        // Replies with 'number' chunks, the last marked as last unless the string is "NoLast".
+        MatsEndpoint<DataTO, StateTO> ep = MATS.getMatsFactory().staged(SERVICE_CHUNKED, DataTO.class,
+                StateTO.class);
+        ep.stage(DataTO.class, (context, sto, dto) -> replyChunks(context, dto));
+        ep.finishSetup();
+
+        MATS.getMatsFactory().single(SERVICE_ORDINARY, DataTO.class, DataTO.class,
+                (context, dto) -> new DataTO(dto.number * 2, dto.string + ":FromOrdinary"));
+    }
+
+    private static void replyChunks(ProcessContext<DataTO> context, DataTO dto) {
+        for (int i = 0; i < dto.number; i++) {
+            boolean last = (i == dto.number - 1) && !"NoLast".equals(dto.string);
+            context.replyChunk(new DataTO(i, "Chunk" + i), last);
+        }
+    }
+
+    @Test
+    public void chunksInSequenceOrder() {
+        MatsFuturizer futurizer = MATS.getMatsFuturizer();
+        Iterator<Reply<DataTO>> chunks = futurizer.futurizeChunked(MatsTestHelp.traceId(),
+                MatsTestHelp.from("chunks"), SERVICE_CHUNKED, 10, TimeUnit.SECONDS, DataTO.class,
+                new DataTO(25, "Export"), MatsInitiate::nonPersistent);
+
+        List<DataTO> received = new ArrayList<>();
+        while (chunks.hasNext()) {
+            Reply<DataTO> chunk = chunks.next();
+            Assert.assertEquals(received.size(), chunk.getContext().getChunkSequence());
+            Assert.assertEquals(received.size() == 24, chunk.getContext().isLastChunk());
+            received.add(chunk.getReply());
+        }
+
+        Assert.assertEquals(25, received.size());
+        for (int i = 0; i < 25; i++) {
+            Assert.assertEquals(new DataTO(i, "Chunk" + i), received.get(i));
+        }
+        // The Promise shall be gone when the last chunk has arrived.
+        Assert.assertEquals(0, futurizer.getOutstandingPromiseCount());
+    }
+
+    @Test
+    public void ordinaryReplyIsTheOnlyChunk() {
+        MatsFuturizer futurizer = MATS.getMatsFuturizer();
+        Iterator<Reply<DataTO>> chunks = futurizer.futurizeChunked(MatsTestHelp.traceId(),
+                MatsTestHelp.from("ordinary"), SERVICE_ORDINARY, 10, TimeUnit.SECONDS, DataTO.class,
+                new DataTO(21, "Single"), MatsInitiate::nonPersistent);
+
+        Assert.assertTrue(chunks.hasNext());
+        Reply<DataTO> reply = chunks.next();
+        Assert.assertEquals(new DataTO(42, "Single:FromOrdinary"), reply.getReply());
+        Assert.assertEquals(-1, reply.getContext().getChunkSequence());
+        Assert.assertFalse(chunks.hasNext());
+    }
+
+    @Test
+    public void timeoutWhenLastChunkNeverArrives() {
+        MatsFuturizer futurizer = MATS.getMatsFuturizer();
+        Iterator<Reply<DataTO>> chunks = futurizer.futurizeChunked(MatsTestHelp.traceId(),
+                MatsTestHelp.from("noLast"), SERVICE_CHUNKED, 500, TimeUnit.MILLISECONDS, DataTO.class,
+                new DataTO(3, "NoLast"), MatsInitiate::nonPersistent);
+
+        // The chunks that did arrive shall be provided, and then the timeout thrown.
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(chunks.hasNext());
+            Assert.assertEquals(new DataTO(i, "Chunk" + i), chunks.next().getReply());
+        }
+        try {
+            chunks.hasNext();
+            Assert.fail("We should have gotten a MatsFuturizerTimeoutException, as the last chunk never arrives.");
+        }
+        catch (MatsFuturizerTimeoutException e) {
+            // Expected.
+            Assert.assertEquals(0, futurizer.getOutstandingPromiseCount());
+        }
+    }
+}
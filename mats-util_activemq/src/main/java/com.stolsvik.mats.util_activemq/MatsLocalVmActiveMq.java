@@ -1,7 +1,9 @@
 package com.stolsvik.mats.util_activemq;
 
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.ThreadLocalRandom;
 
+import javax.jms.BytesMessage;
 import javax.jms.Connection;
 import javax.jms.ConnectionFactory;
 import javax.jms.JMSException;
@@ -147,14 +149,31 @@ public class MatsLocalVmActiveMq {
                             + maxWaitMillis + "ms.");
                 }
 
-                MapMessage matsMM = (MapMessage) msg;
-                byte[] matsTraceBytes = matsMM.getBytes(matsTraceKey);
+                byte[] matsTraceBytes;
+                String matsTraceMeta;
+                // ?: Is this the BytesMessage wire format?
+                if (msg instanceof BytesMessage) {
+                    // -> Yes, so decode the start of the frame: magic, version, MatsTrace and its meta.
+                    BytesMessage matsBM = (BytesMessage) msg;
+                    matsBM.reset();
+                    if ((matsBM.readInt() != FRAME_MAGIC) || (matsBM.readByte() != FRAME_VERSION)) {
+                        throw new AssertionError("The BytesMessage on the queue [" + dlqQueueName
+                                + "] is not a Mats frame.");
+                    }
+                    matsTraceBytes = readLengthPrefixed(matsBM);
+                    matsTraceMeta = new String(readLengthPrefixed(matsBM), StandardCharsets.UTF_8);
+                }
+                else {
+                    // -> No, so it is the MapMessage wire format.
+                    MapMessage matsMM = (MapMessage) msg;
+                    matsTraceBytes = matsMM.getBytes(matsTraceKey);
+                    matsTraceMeta = matsMM.getString(matsTraceKey + ":meta");
+                }
                 log.info("!! Got a DLQ Message! Length of byte serialized&compressed MatsTrace: "
                         + matsTraceBytes.length);
                 jmsSession.commit();
                 jmsConnection.close(); // Closes session and consumer
-                return matsSerializer.deserializeMatsTrace(matsTraceBytes,
-                        matsMM.getString(matsTraceKey + ":meta")).getMatsTrace();
+                return matsSerializer.deserializeMatsTrace(matsTraceBytes, matsTraceMeta).getMatsTrace();
             }
             finally {
                 jmsConnection.close();
@@ -166,6 +185,23 @@ public class MatsLocalVmActiveMq {
         }
     }
 
+    /**
+     * The magic and version of the BytesMessage wire format, as defined by <code>JmsMatsBytesMessageFrame</code> in
+     * 'mats-impl-jms' - decoded here rather than depending on that module, as only the MatsTrace is needed.
+     */
+    private static final int FRAME_MAGIC = 0x4D415453; // "MATS"
+    private static final byte FRAME_VERSION = 1;
+
+    private static byte[] readLengthPrefixed(BytesMessage bytesMessage) throws JMSException {
+        int length = bytesMessage.readInt();
+        byte[] value = new byte[length];
+        // ?: Was the value fully read? (A zero-length value might be read as -1, i.e. "end of body")
+        if ((length > 0) && (bytesMessage.readBytes(value) != length)) {
+            throw new AssertionError("The BytesMessage is a truncated Mats frame.");
+        }
+        return value;
+    }
+
     // --- STATIC METHODS
 
     /**